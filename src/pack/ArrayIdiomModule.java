@@ -0,0 +1,288 @@
+package pack;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrCopyElements;
+import pack.IrModule.IrFillElements;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Replaces loops, which move elements one at a time, by bulk array operations:
+//   while (i < n) { dst[i + a] = src[i + b]; i = i + 1; }   ->  if (i < n) { System.arraycopy(src, i + b, dst, i + a, n - i); i = n; }
+//   while (i > n) { dst[i + a] = src[i + b]; i = i - 1; }   ->  if (i > n) { System.arraycopy(src, n + 1 + b, dst, n + 1 + a, i - n); i = n; }
+//   while (i < n) { dst[i + a] = v; i = i + 1; }            ->  if (i < n) { Arrays.fill(dst, i + a, n + a, v); i = n; }
+// System.arraycopy copies as if through a temporary array. A loop only reads elements it hasn't written yet, if it walks away from the
+// elements it writes, i.e. a forward loop with a <= b or a backward loop with a >= b. Since dst and src may be the same array, other loops stay.
+// Unlike the loop, the bulk operations check the bounds before writing anything, which is only visible in the state of a program that crashes.
+public interface ArrayIdiomModule extends IrModule {
+
+  static public class ArrayIdiomLoop {
+    public IrLocal index;
+    public IrValue bound;
+    public String operator;  // "<" for forward loops, ">" for backward loops.
+    public IrLoadElement load;  // null for fills.
+    public IrStoreElement store;
+    public int loadOffset;
+    public int storeOffset;
+  }
+
+  // returns the number of replaced loops.
+  default int replaceArrayIdioms(IrProgram program) {
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      result += replaceArrayIdioms(function, function.body);
+    }
+    return result;
+  }
+
+  private int replaceArrayIdioms(IrFunction function, IrSequence sequence) {
+    int result = 0;
+
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+
+      if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        result += replaceArrayIdioms(function, _if.thenBody);
+        result += replaceArrayIdioms(function, _if.elseBody);
+
+      } else if (region instanceof IrShortCircuit) {
+        result += replaceArrayIdioms(function, ((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        result += replaceArrayIdioms(function, (IrSequence) region);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        result += replaceArrayIdioms(function, loop.header);
+        result += replaceArrayIdioms(function, loop.body);
+
+        ArrayIdiomLoop idiom = matchArrayIdiomLoop(loop);
+        if (idiom == null) continue;
+
+        List<IrRegion> replacement = getArrayIdiomReplacement(function, idiom).regions;
+        sequence.regions.remove(i);
+        sequence.regions.addAll(i, replacement);
+        i += replacement.size() - 1;
+        result += 1;
+      }
+    }
+
+    return result;
+  }
+
+  private ArrayIdiomLoop matchArrayIdiomLoop(IrLoop loop) {
+    if (loop.header.regions.size() != 1 || !(loop.header.regions.get(0) instanceof IrBlock)) return null;
+    if (loop.body.regions.size() != 1 || !(loop.body.regions.get(0) instanceof IrBlock)) return null;
+
+    List<IrInstruction> header = ((IrBlock) loop.header.regions.get(0)).instructions;
+    List<IrInstruction> body = ((IrBlock) loop.body.regions.get(0)).instructions;
+    if (header.size() != 1 || !(header.get(0) instanceof IrBinary) || body.isEmpty()) return null;
+
+    IrBinary condition = (IrBinary) header.get(0);
+    if (condition.result != loop.condition) return null;
+
+    // the loop ends with "i = i + 1" or "i = i - 1".
+    if (!(body.get(body.size() - 1) instanceof IrAssign)) return null;
+    IrLocal index = ((IrAssign) body.get(body.size() - 1)).local;
+    if (index.type.category != AstTypeCategory.I32 || index.type.arrayDimension != 0) return null;
+
+    ArrayIdiomLoop result = new ArrayIdiomLoop();
+    result.index = index;
+
+    if (condition.lhs == index && isAny(condition.operator, "<", ">")) {
+      result.operator = condition.operator;
+      result.bound = condition.rhs;
+    } else if (condition.rhs == index && isAny(condition.operator, "<", ">")) {
+      result.operator = condition.operator.equals("<") ? ">" : "<";
+      result.bound = condition.lhs;
+    } else {
+      return null;
+    }
+    if (result.bound == index || getIrValueType(result.bound).category != AstTypeCategory.I32) return null;
+
+    Map<IrTemp, Integer> offsets = new HashMap<>();  // temps holding "index + offset".
+    for (int i = 0; i < body.size() - 1; i++) {
+      IrInstruction instruction = body.get(i);
+
+      if (instruction instanceof IrBinary) {
+        Integer offset = getIndexOffset((IrBinary) instruction, index);
+        if (offset == null) return null;
+        offsets.put(((IrBinary) instruction).result, offset);
+
+      } else if (instruction instanceof IrLoadElement && result.load == null && result.store == null) {
+        result.load = (IrLoadElement) instruction;
+
+      } else if (instruction instanceof IrStoreElement && result.store == null) {
+        result.store = (IrStoreElement) instruction;
+
+      } else {
+        return null;
+      }
+    }
+    if (result.store == null) return null;
+
+    IrValue step = ((IrAssign) body.get(body.size() - 1)).value;
+    int expectedStep = result.operator.equals("<") ? 1 : -1;
+    if (!offsets.containsKey(step) || offsets.get(step) != expectedStep) return null;
+
+    Integer storeOffset = getIndexOffset(result.store.index, index, offsets);
+    if (storeOffset == null) return null;
+    result.storeOffset = storeOffset;
+
+    // everything but the element to store has to be the same in each iteration.
+    if (isDefinedInArrayIdiomLoop(result.store.array, index, offsets, result)) return null;
+    if (isDefinedInArrayIdiomLoop(result.bound, index, offsets, result)) return null;
+
+    if (result.load == null) {
+      if (isDefinedInArrayIdiomLoop(result.store.value, index, offsets, result)) return null;
+      return result;
+    }
+
+    if (result.store.value != result.load.result) return null;
+    if (isDefinedInArrayIdiomLoop(result.load.array, index, offsets, result)) return null;
+    if (!areExactSameType(getIrValueType(result.load.array), getIrValueType(result.store.array))) return null;
+
+    Integer loadOffset = getIndexOffset(result.load.index, index, offsets);
+    if (loadOffset == null) return null;
+    result.loadOffset = loadOffset;
+
+    boolean isForward = result.operator.equals("<");
+    if (isForward && result.storeOffset > result.loadOffset) return null;
+    if (!isForward && result.storeOffset < result.loadOffset) return null;
+
+    return result;
+  }
+
+  // "index + c", "c + index" or "index - c".
+  private Integer getIndexOffset(IrBinary binary, IrLocal index) {
+    if (binary.operator.equals("+") && binary.lhs == index) return getIntegerConstant(binary.rhs);
+    if (binary.operator.equals("+") && binary.rhs == index) return getIntegerConstant(binary.lhs);
+
+    if (binary.operator.equals("-") && binary.lhs == index) {
+      Integer constant = getIntegerConstant(binary.rhs);
+      if (constant == null || constant == Integer.MIN_VALUE) return null;
+      return -constant;
+    }
+
+    return null;
+  }
+
+  private Integer getIndexOffset(IrValue value, IrLocal index, Map<IrTemp, Integer> offsets) {
+    if (value == index) return 0;
+    return offsets.get(value);
+  }
+
+  private Integer getIntegerConstant(IrValue value) {
+    if (!(value instanceof IrConstant)) return null;
+
+    IrConstant constant = (IrConstant) value;
+    if (constant.literal.type.category != AstTypeCategory.I32) return null;
+
+    try {
+      return Integer.parseInt(constant.literal.value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private boolean isDefinedInArrayIdiomLoop(IrValue value, IrLocal index, Map<IrTemp, Integer> offsets, ArrayIdiomLoop idiom) {
+    if (value == index || offsets.containsKey(value)) return true;
+    return idiom.load != null && value == idiom.load.result;
+  }
+
+  // the loop condition guards the bulk operation, so a loop, which doesn't run, doesn't touch the arrays.
+  private IrSequence getArrayIdiomReplacement(IrFunction function, ArrayIdiomLoop idiom) {
+    IrLocal index = idiom.index;
+    IrValue bound = idiom.bound;
+    boolean isForward = idiom.operator.equals("<");
+
+    IrSequence result = irSequence();
+
+    IrBlock guard = irBlock(function);
+    IrTemp condition = newIndexBinary(function, guard, index, idiom.operator, bound);
+    result.regions.add(guard);
+
+    IrIf _if = new IrIf();
+    _if.condition = condition;
+    _if.thenBody = irSequence();
+    _if.elseBody = irSequence();
+    result.regions.add(_if);
+
+    IrBlock block = irBlock(function);
+    _if.thenBody.regions.add(block);
+
+    // the lowest index the loop visits is first + firstOffset, the index after the highest one is last + lastOffset.
+    IrValue first = isForward ? index : bound;
+    IrValue last = isForward ? bound : index;
+    int firstOffset = isForward ? 0 : 1;
+    int lastOffset = isForward ? 0 : 1;
+
+    if (idiom.load == null) {
+      IrFillElements fill = new IrFillElements();
+      fill.array = idiom.store.array;
+      fill.fromIndex = addIndexOffset(function, block, first, firstOffset + idiom.storeOffset);
+      fill.toIndex = addIndexOffset(function, block, last, lastOffset + idiom.storeOffset);
+      fill.value = idiom.store.value;
+      block.instructions.add(fill);
+
+    } else {
+      IrCopyElements copy = new IrCopyElements();
+      copy.source = idiom.load.array;
+      copy.sourceIndex = addIndexOffset(function, block, first, firstOffset + idiom.loadOffset);
+      copy.destination = idiom.store.array;
+      copy.destinationIndex = addIndexOffset(function, block, first, firstOffset + idiom.storeOffset);
+      copy.count = isForward ? newIndexBinary(function, block, bound, "-", index) : newIndexBinary(function, block, index, "-", bound);
+      block.instructions.add(copy);
+    }
+
+    block.instructions.add(irAssign(index, bound));
+
+    return result;
+  }
+
+  private IrValue addIndexOffset(IrFunction function, IrBlock block, IrValue value, int offset) {
+    if (offset == 0) return value;
+
+    Integer constant = getIntegerConstant(value);
+    if (constant != null && (long) constant + offset == constant + offset) {
+      return irConstant(astLiteral_integer(astType_primitive(AstTypeCategory.I32, false, 0), constant + offset));
+    }
+
+    String operator = (offset > 0) ? "+" : "-";
+    IrConstant magnitude = irConstant(astLiteral_integer(astType_primitive(AstTypeCategory.I32, false, 0), Math.abs((long) offset)));
+    return newIndexBinary(function, block, value, operator, magnitude);
+  }
+
+  private IrTemp newIndexBinary(IrFunction function, IrBlock block, IrValue lhs, String operator, IrValue rhs) {
+    AstType type = getBinaryResultType(operator, getIrValueType(lhs), getIrValueType(rhs));
+
+    IrBinary binary = new IrBinary();
+    binary.result = newIrTemp(function, type);
+    binary.operator = operator;
+    binary.lhs = lhs;
+    binary.rhs = rhs;
+    block.instructions.add(binary);
+
+    return binary.result;
+  }
+}
@@ -0,0 +1,291 @@
+package pack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import pack.IrModule.IrProgram;
+import pack.ParserModule.AstProgram;
+
+// Compares the generated java programs with and without an optimization.
+// Both programs are loaded into this jvm and their main is run alternately, first to warm up the jit and then to measure.
+// Besides the time, every run measures the bytes the thread allocates, which includes what the jit's escape analysis couldn't remove.
+public interface BenchmarkModule extends TestModule {
+
+  static public class Benchmark {
+    public String filepath;
+    public String optimization;
+    public Consumer<Boolean> enableOptimization;  // sets the compiler setting of the optimization.
+    public boolean isEnabledByDefault;  // the setting is restored to it.
+  }
+
+  static public class BenchmarkRun {
+    public long nanos;
+    public long allocatedBytes;
+  }
+
+  static public class BenchmarkResult {
+    public Benchmark benchmark;
+    public long[] nanosWithout;  // sorted.
+    public long[] nanosWith;  // sorted.
+    public long[] allocatedBytesWithout;  // sorted.
+    public long[] allocatedBytesWith;  // sorted.
+    public BenchmarkRun firstRunWithout;  // before the jit compiled anything.
+    public BenchmarkRun firstRunWith;
+  }
+
+  static public class CodeGenerationBenchmarkResult {
+    public int functionCount;
+    public int threads;
+    public long[] nanosSequential;  // sorted.
+    public long[] nanosParallel;  // sorted.
+  }
+
+  default Benchmark benchmark(String filepath, String optimization, Consumer<Boolean> enableOptimization) {
+    return benchmark(filepath, optimization, enableOptimization, true);
+  }
+
+  default Benchmark benchmark(String filepath, String optimization, Consumer<Boolean> enableOptimization, boolean isEnabledByDefault) {
+    Benchmark result = new Benchmark();
+    result.filepath = filepath;
+    result.optimization = optimization;
+    result.enableOptimization = enableOptimization;
+    result.isEnabledByDefault = isEnabledByDefault;
+    return result;
+  }
+
+  default void runBenchmarks() {
+    Benchmark[] benchmarks = {
+        benchmark("./res/benchmarks/resize.abc", "replaceArrayIdioms", enabled -> CompilerModule.settings.replaceArrayIdioms = enabled),
+        benchmark("./res/benchmarks/array_sum.abc", "emitCountedLoops", enabled -> CompilerModule.settings.emitCountedLoops = enabled),
+        benchmark("./res/benchmarks/vectors.abc", "replaceNonEscapingStructs", enabled -> CompilerModule.settings.replaceNonEscapingStructs = enabled),
+        benchmark("./res/benchmarks/primes.abc", "evaluatePureCalls", enabled -> CompilerModule.settings.evaluatePureCalls = enabled),
+        benchmark("./res/benchmarks/huge_function.abc", "splitHugeMethods", enabled -> CompilerModule.settings.splitHugeMethods = enabled),
+        benchmark("./res/benchmarks/fibonacci.abc", "generateStaticFunctions", enabled -> CompilerModule.settings.generateStaticFunctions = enabled, false),
+        benchmark("./res/benchmarks/graph_search.abc", "generateStaticFunctions", enabled -> CompilerModule.settings.generateStaticFunctions = enabled, false),
+        benchmark("./res/benchmarks/checked_array.abc", "guardEnsureCalls", enabled -> CompilerModule.settings.guardEnsureCalls = enabled),
+        benchmark("./res/benchmarks/print_table.abc", "specializePrintFormats", enabled -> CompilerModule.settings.specializePrintFormats = enabled) };
+
+    CompilerModule.settings.writeOutputToFile = true;
+    CompilerModule.settings.writeCompilerModulesToFile = true;
+    CompilerModule.settings.catchableErrors = true;
+
+    int warmupRuns = 5;
+    int measuredRuns = 10;
+
+    for (Benchmark benchmark : benchmarks) {
+      BenchmarkResult result = runBenchmark(benchmark, warmupRuns, measuredRuns);
+      System.out.printf("%s", getBenchmarkReport(result));
+    }
+
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    CodeGenerationBenchmarkResult codeGeneration = runCodeGenerationBenchmark(20000, threads, warmupRuns, measuredRuns);
+    System.out.printf("%s", getCodeGenerationBenchmarkReport(codeGeneration));
+  }
+
+  // the java conversion of a generated program with many small functions, on a single thread and on a pool, see "codeGenerationThreads".
+  // Only the conversion is measured, the program is parsed, checked and lowered once, and the code is written to a null writer.
+  default CodeGenerationBenchmarkResult runCodeGenerationBenchmark(int functionCount, int threads, int warmupRuns, int measuredRuns) {
+    IrProgram program;
+    try {
+      Path source = Files.createTempFile("abc_benchmark", ".abc");
+      try {
+        Files.writeString(source, getManyFunctionsProgram(functionCount));
+        AstProgram astProgram = parseUnits(source.toString());
+        typeCheck(astProgram);
+        program = lowerToIr(astProgram);
+      } finally {
+        Files.delete(source);
+      }
+    } catch (IOException e) {
+      throw new CompilerException("failed to write the program of %d functions: %s", functionCount, e.getMessage());
+    }
+
+    CodeGenerationBenchmarkResult result = new CodeGenerationBenchmarkResult();
+    result.functionCount = functionCount;
+    result.threads = threads;
+    result.nanosSequential = new long[measuredRuns];
+    result.nanosParallel = new long[measuredRuns];
+
+    for (int i = 0; i < warmupRuns + measuredRuns; i++) {
+      long sequential = measureCodeGeneration(program, 1);
+      long parallel = measureCodeGeneration(program, threads);
+
+      if (i >= warmupRuns) {
+        result.nanosSequential[i - warmupRuns] = sequential;
+        result.nanosParallel[i - warmupRuns] = parallel;
+      }
+    }
+
+    Arrays.sort(result.nanosSequential);
+    Arrays.sort(result.nanosParallel);
+    return result;
+  }
+
+  // every function calls the previous one, so main reaches all of them. The program is never run.
+  private String getManyFunctionsProgram(int functionCount) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("step0 :: (x: i32) -> i32 { return x; }\n");
+    for (int i = 1; i < functionCount; i++) {
+      builder.append(String.format("step%d :: (x: i32) -> i32 {\n", i));
+      builder.append(String.format("  y: i32 = x * 3 + %d;\n", i));
+      builder.append("  if (y > 1000) { y = y - 1000; }\n");
+      builder.append(String.format("  return step%d(y);\n", i - 1));
+      builder.append("}\n");
+    }
+    builder.append(String.format("main :: () { print(\"%%d\\n\", step%d(1)); }\n", functionCount - 1));
+    return builder.toString();
+  }
+
+  private long measureCodeGeneration(IrProgram program, int threads) {
+    int codeGenerationThreads = CompilerModule.settings.codeGenerationThreads;
+    try {
+      CompilerModule.settings.codeGenerationThreads = threads;
+      long start = System.nanoTime();
+      writeJavaCode(program, Writer.nullWriter());
+      return System.nanoTime() - start;
+    } finally {
+      CompilerModule.settings.codeGenerationThreads = codeGenerationThreads;
+    }
+  }
+
+  default String getCodeGenerationBenchmarkReport(CodeGenerationBenchmarkResult result) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("%d functions (codeGenerationThreads, %d cores)\n", result.functionCount, Runtime.getRuntime().availableProcessors()));
+    builder.append(getBenchmarkTimes("1", result.nanosSequential));
+    builder.append(getBenchmarkTimes(String.valueOf(result.threads), result.nanosParallel));
+
+    double speedup = (double) getMedian(result.nanosSequential) / getMedian(result.nanosParallel);
+    builder.append(String.format("  speedup of the median: %.2fx\n", speedup));
+    return builder.toString();
+  }
+
+  default BenchmarkResult runBenchmark(Benchmark benchmark, int warmupRuns, int measuredRuns) {
+    Method mainWithout = compileBenchmark(benchmark, false);
+    Method mainWith = compileBenchmark(benchmark, true);
+
+    BenchmarkResult result = new BenchmarkResult();
+    result.benchmark = benchmark;
+    result.nanosWithout = new long[measuredRuns];
+    result.nanosWith = new long[measuredRuns];
+    result.allocatedBytesWithout = new long[measuredRuns];
+    result.allocatedBytesWith = new long[measuredRuns];
+
+    for (int i = 0; i < warmupRuns; i++) {
+      BenchmarkRun without = measureBenchmarkRun(benchmark, mainWithout);
+      BenchmarkRun with = measureBenchmarkRun(benchmark, mainWith);
+
+      if (i == 0) {
+        result.firstRunWithout = without;
+        result.firstRunWith = with;
+      }
+    }
+
+    for (int i = 0; i < measuredRuns; i++) {
+      BenchmarkRun without = measureBenchmarkRun(benchmark, mainWithout);
+      result.nanosWithout[i] = without.nanos;
+      result.allocatedBytesWithout[i] = without.allocatedBytes;
+
+      BenchmarkRun with = measureBenchmarkRun(benchmark, mainWith);
+      result.nanosWith[i] = with.nanos;
+      result.allocatedBytesWith[i] = with.allocatedBytes;
+    }
+
+    Arrays.sort(result.nanosWithout);
+    Arrays.sort(result.nanosWith);
+    Arrays.sort(result.allocatedBytesWithout);
+    Arrays.sort(result.allocatedBytesWith);
+
+    return result;
+  }
+
+  // every variant gets its own class loader, since both define the same classes. Afterwards the setting has its default value again.
+  private Method compileBenchmark(Benchmark benchmark, boolean isOptimized) {
+    try {
+      benchmark.enableOptimization.accept(isOptimized);
+      compile(benchmark.filepath);
+    } finally {
+      benchmark.enableOptimization.accept(benchmark.isEnabledByDefault);
+    }
+
+    try {
+      Path classes = Files.createTempDirectory("abc_benchmark");
+
+      String errors = compileJavaOutput(benchmark.filepath, classes);
+      if (errors != null) throw new CompilerException("javac failed for \"%s\":\n%s", benchmark.filepath, errors);
+
+      URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, null);
+      return loader.loadClass("output.ABCProgramRunMe").getMethod("main", String[].class);
+
+    } catch (IOException | ReflectiveOperationException e) {
+      throw new CompilerException("failed to load \"%s\": %s", benchmark.filepath, e.getMessage());
+    }
+  }
+
+  // what the program prints isn't part of the measurement. The program runs on this thread, so the allocations of this thread are its allocations.
+  private BenchmarkRun measureBenchmarkRun(Benchmark benchmark, Method main) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    try {
+      BenchmarkRun result = new BenchmarkRun();
+      long startBytes = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      main.invoke(null, (Object) new String[0]);
+      result.nanos = System.nanoTime() - start;
+      result.allocatedBytes = threads.getThreadAllocatedBytes(thread) - startBytes;
+      return result;
+
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new CompilerException("failed to run \"%s\": %s", benchmark.filepath, e.getMessage());
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+  default String getBenchmarkReport(BenchmarkResult result) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("%s (%s)\n", result.benchmark.filepath, result.benchmark.optimization));
+    builder.append(getBenchmarkTimes("without", result.nanosWithout));
+    builder.append(getBenchmarkTimes("with", result.nanosWith));
+
+    builder.append(getBenchmarkAllocations("without", result.allocatedBytesWithout, result.nanosWithout));
+    builder.append(getBenchmarkAllocations("with", result.allocatedBytesWith, result.nanosWith));
+    builder.append(String.format("  first run allocated %.2f MB without and %.2f MB with\n", result.firstRunWithout.allocatedBytes / 1e6, result.firstRunWith.allocatedBytes / 1e6));
+
+    double speedup = (double) getMedian(result.nanosWithout) / getMedian(result.nanosWith);
+    builder.append(String.format("  speedup of the median: %.2fx\n", speedup));
+    return builder.toString();
+  }
+
+  // the allocation rate is computed from the medians.
+  private String getBenchmarkAllocations(String name, long[] sortedBytes, long[] sortedNanos) {
+    double megabytes = getMedian(sortedBytes) / 1e6;
+    double rate = megabytes / (getMedian(sortedNanos) / 1e9);
+    return String.format("  %-8s allocated %8.2f MB per run, %8.2f MB/s\n", name, megabytes, rate);
+  }
+
+  private String getBenchmarkTimes(String name, long[] sortedNanos) {
+    double min = sortedNanos[0] / 1e6;
+    double median = getMedian(sortedNanos) / 1e6;
+    double max = sortedNanos[sortedNanos.length - 1] / 1e6;
+    return String.format("  %-8s min %8.2f ms, median %8.2f ms, max %8.2f ms\n", name, min, median, max);
+  }
+
+  private long getMedian(long[] sortedNanos) {
+    return sortedNanos[sortedNanos.length / 2];
+  }
+}
@@ -0,0 +1,168 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstStructField;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Calls are resolved to the overload picked by the typechecker, so unused overloads of a used name are unreachable as well.
+public interface CallGraphModule extends DataflowModule {
+
+  static public class CallGraph {
+    public IrProgram program;
+    public Map<AstFunction, IrFunction> sourceToFunction;
+    public Map<IrFunction, Set<IrFunction>> callees;  // in call order, functions with java library bindings aren't part of the graph.
+    public Map<IrFunction, Set<IrFunction>> callers;
+  }
+
+  static public class UnreachableCode {
+    public List<IrFunction> functions;
+    public List<AstStruct> structs;
+  }
+
+  default CallGraph buildCallGraph(IrProgram program) {
+    CallGraph result = new CallGraph();
+    result.program = program;
+    result.sourceToFunction = new HashMap<>();
+    result.callees = new HashMap<>();
+    result.callers = new HashMap<>();
+
+    for (IrFunction function : program.functions) {
+      result.sourceToFunction.put(function.source, function);
+      result.callees.put(function, new LinkedHashSet<>());
+      result.callers.put(function, new LinkedHashSet<>());
+    }
+
+    for (IrFunction function : program.functions) {
+      for (IrBlock block : getIrBlocks(function.body)) {
+        for (IrInstruction instruction : block.instructions) {
+          if (!(instruction instanceof IrCall)) continue;
+
+          IrFunction callee = result.sourceToFunction.get(((IrCall) instruction).function);
+          if (callee == null) continue;
+
+          result.callees.get(function).add(callee);
+          result.callers.get(callee).add(function);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  // a program is entered through main, everything else can be used by other programs.
+  default List<IrFunction> getCallGraphRoots(IrProgram program) {
+    List<IrFunction> result = new ArrayList<>();
+
+    boolean hasProgramEntry = program.source.compilationUnits.get(0).hasProgramEntry;
+    for (IrFunction function : program.functions) {
+      boolean isProgramEntry = function.name.equals("main") && function.parameters.isEmpty();
+      if (isProgramEntry || !hasProgramEntry) result.add(function);
+    }
+
+    return result;
+  }
+
+  default Set<IrFunction> getReachableFunctions(CallGraph graph, List<IrFunction> roots) {
+    Set<IrFunction> result = new LinkedHashSet<>(roots);
+
+    Deque<IrFunction> worklist = new ArrayDeque<>(roots);
+    while (!worklist.isEmpty()) {
+      IrFunction function = worklist.poll();
+
+      for (IrFunction callee : graph.callees.get(function)) {
+        if (result.add(callee)) worklist.add(callee);
+      }
+    }
+
+    return result;
+  }
+
+  // functions, which can call themselves directly or through other functions.
+  default boolean isRecursive(CallGraph graph, IrFunction function) {
+    List<IrFunction> roots = new ArrayList<>(graph.callees.get(function));
+    return getReachableFunctions(graph, roots).contains(function);
+  }
+
+  default UnreachableCode removeUnreachableCode(IrProgram program) {
+    CallGraph graph = buildCallGraph(program);
+    Set<IrFunction> reachable = getReachableFunctions(graph, getCallGraphRoots(program));
+
+    UnreachableCode result = new UnreachableCode();
+    result.functions = new ArrayList<>();
+    result.structs = new ArrayList<>();
+
+    for (IrFunction function : program.functions) {
+      if (!reachable.contains(function)) result.functions.add(function);
+    }
+    program.functions.removeAll(result.functions);
+
+    Set<String> usedStructNames = getUsedStructNames(program);
+    for (AstStruct struct : program.structs) {
+      if (!usedStructNames.contains(struct.name)) result.structs.add(struct);
+    }
+    program.structs.removeAll(result.structs);
+
+    return result;
+  }
+
+  // the structs named in the remaining functions and, transitively, in the fields of those structs.
+  private Set<String> getUsedStructNames(IrProgram program) {
+    Set<String> result = new LinkedHashSet<>();
+
+    for (IrFunction function : program.functions) {
+      addStructName(result, function.returnType);
+      for (IrLocal parameter : function.parameters) addStructName(result, parameter.type);
+
+      for (IrBlock block : getIrBlocks(function.body)) {
+        for (IrInstruction instruction : block.instructions) {
+          IrTemp temp = getIrResult(instruction);
+          if (temp != null) addStructName(result, temp.type);
+
+          if (instruction instanceof IrDeclare) addStructName(result, ((IrDeclare) instruction).local.type);
+
+          for (IrValue operand : getIrOperands(instruction)) addStructName(result, getIrValueType(operand));
+        }
+      }
+    }
+
+    Map<String, AstStruct> nameToStruct = new HashMap<>();
+    for (AstStruct struct : program.structs) nameToStruct.put(struct.name, struct);
+
+    Deque<String> worklist = new ArrayDeque<>(result);
+    while (!worklist.isEmpty()) {
+      AstStruct struct = nameToStruct.get(worklist.poll());
+      if (struct == null) continue;  // java library bindings.
+
+      for (AstStructField field : struct.fields) {
+        if (field.type.category != AstTypeCategory.Struct) continue;
+        if (result.add(field.type.structName)) worklist.add(field.type.structName);
+      }
+    }
+
+    return result;
+  }
+
+  private void addStructName(Set<String> names, AstType type) {
+    if (type.category == AstTypeCategory.Struct) names.add(type.structName);
+  }
+}
@@ -0,0 +1,151 @@
+package pack;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import pack.DataflowModule.Cfg;
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrCopyElements;
+import pack.IrModule.IrFillElements;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Reuses the result of a computation, which is repeated later in the same block, e.g. the loads of "graph.nodes.elements[index]" in
+// "graph.nodes.elements[index].x + graph.nodes.elements[index].y". The java code then holds the shared part in a local.
+// A field store only kills loads of the same field of the same struct, and an element store only kills loads of arrays of the same type,
+// since structs don't inherit from each other, except for arrays of any. A call kills the fields, which the callee writes, and all elements.
+public interface CommonSubexpressionModule extends LoopInvariantModule {
+
+  static public class SubexpressionEliminator {
+    public Cfg cfg;  // for the expression keys.
+    public FieldWrites writes;
+    public Map<IrTemp, IrTemp> replacements;  // the removed result to the earlier result.
+    public int eliminatedCount;
+  }
+
+  // returns the number of removed instructions.
+  default int eliminateCommonSubexpressions(IrProgram program) {
+    FieldWrites writes = computeFieldWrites(program);
+
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      SubexpressionEliminator eliminator = new SubexpressionEliminator();
+      eliminator.cfg = buildCfg(function);
+      eliminator.writes = writes;
+      eliminator.replacements = new HashMap<>();
+
+      for (IrBlock block : getIrBlocks(function.body)) {
+        eliminateCommonSubexpressions(eliminator, block);
+      }
+
+      if (!eliminator.replacements.isEmpty()) {
+        mapIrValues(function.body, value -> getSubexpressionReplacement(eliminator, value));
+        removeEmptyIrBlocks(function.body);
+      }
+      result += eliminator.eliminatedCount;
+    }
+    return result;
+  }
+
+  private void eliminateCommonSubexpressions(SubexpressionEliminator eliminator, IrBlock block) {
+    Map<String, IrInstruction> available = new HashMap<>();
+
+    Iterator<IrInstruction> iterator = block.instructions.iterator();
+    while (iterator.hasNext()) {
+      IrInstruction instruction = iterator.next();
+      mapIrOperands(instruction, value -> getSubexpressionReplacement(eliminator, value));
+
+      String key = isReusable(instruction) ? getAvailableExpressionKey(eliminator.cfg, instruction) : null;
+      IrInstruction earlier = (key != null) ? available.get(key) : null;
+      if (earlier != null) {
+        eliminator.replacements.put(getIrResult(instruction), getIrResult(earlier));
+        eliminator.eliminatedCount += 1;
+        iterator.remove();
+        continue;
+      }
+
+      killSubexpressions(eliminator, available, instruction);
+      if (key != null) available.put(key, instruction);
+    }
+  }
+
+  // references may have different identities, e.g. two strings concatenated from the same parts.
+  private boolean isReusable(IrInstruction instruction) {
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      return !isReferenceType(getIrValueType(binary.lhs)) && !isReferenceType(getIrValueType(binary.rhs));
+    }
+
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      return !isReferenceType(cast.result.type) && !isReferenceType(getIrValueType(cast.operand));
+    }
+
+    return instruction instanceof IrUnary || instruction instanceof IrArrayLength || instruction instanceof IrLoadField || instruction instanceof IrLoadElement;
+  }
+
+  private void killSubexpressions(SubexpressionEliminator eliminator, Map<String, IrInstruction> available, IrInstruction instruction) {
+    IrLocal local = getDefinedIrLocal(instruction);
+    if (local != null) {
+      available.values().removeIf(expression -> getIrOperands(expression).contains(local));
+    }
+
+    if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      String field = getSubexpressionFieldKey(store.object, store.field);
+      available.values().removeIf(expression -> expression instanceof IrLoadField && getSubexpressionFieldKey(((IrLoadField) expression).object, ((IrLoadField) expression).field).equals(field));
+    }
+
+    if (instruction instanceof IrStoreElement) killElementLoads(available, getIrValueType(((IrStoreElement) instruction).array));
+    if (instruction instanceof IrCopyElements) killElementLoads(available, getIrValueType(((IrCopyElements) instruction).destination));
+    if (instruction instanceof IrFillElements) killElementLoads(available, getIrValueType(((IrFillElements) instruction).array));
+
+    if (instruction instanceof IrCall) {
+      Set<String> fields = eliminator.writes.functionToWrittenFields.get(((IrCall) instruction).function);
+      available.values().removeIf(expression -> {
+        if (expression instanceof IrLoadElement) return true;
+        if (!(expression instanceof IrLoadField)) return false;
+
+        IrLoadField load = (IrLoadField) expression;
+        return fields != null && fields.contains(getSubexpressionFieldKey(load.object, load.field));
+      });
+    }
+  }
+
+  private void killElementLoads(Map<String, IrInstruction> available, AstType arrayType) {
+    available.values().removeIf(expression -> expression instanceof IrLoadElement && mayAliasArrays(getIrValueType(((IrLoadElement) expression).array), arrayType));
+  }
+
+  // an "[] any" is an Object[] in java, which can hold any array of references.
+  private boolean mayAliasArrays(AstType a, AstType b) {
+    if (a.category == AstTypeCategory.Any || b.category == AstTypeCategory.Any) return true;
+    return a.category == b.category && a.arrayDimension == b.arrayDimension && Objects.equals(a.structName, b.structName);
+  }
+
+  private String getSubexpressionFieldKey(IrValue object, String field) {
+    return String.format("%s.%s", getIrValueType(object).structName, field);
+  }
+
+  private IrValue getSubexpressionReplacement(SubexpressionEliminator eliminator, IrValue value) {
+    IrTemp replacement = eliminator.replacements.get(value);
+    return (replacement != null) ? replacement : value;
+  }
+}
@@ -0,0 +1,823 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.ParserModule.AstArrayLiteral;
+import pack.ParserModule.AstAssignment;
+import pack.ParserModule.AstBinaryOperator;
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstDeclaration;
+import pack.ParserModule.AstDefinition;
+import pack.ParserModule.AstExpression;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstFunctionCall;
+import pack.ParserModule.AstIfStatement;
+import pack.ParserModule.AstLiteral;
+import pack.ParserModule.AstNew;
+import pack.ParserModule.AstParameterDeclaration;
+import pack.ParserModule.AstParenthesis;
+import pack.ParserModule.AstProgram;
+import pack.ParserModule.AstReturn;
+import pack.ParserModule.AstStatement;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstStructField;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCast;
+import pack.ParserModule.AstTypeCategory;
+import pack.ParserModule.AstUnaryOperator;
+import pack.ParserModule.AstVariable;
+import pack.ParserModule.AstWhileLoop;
+import pack.ParserModule.Location;
+
+// Runs after the constant folding. Calls a pure function with constant arguments in an interpreter and replaces the call by the result,
+// e.g. "fibonacci(20)" becomes "6765" and "squares(4)" becomes an array with the elements 0, 1, 4 and 9.
+// A function is pure, if it doesn't call a java library function (which includes print), doesn't write through a parameter and only calls pure functions.
+// The arguments are primitive literals, so every struct and array the evaluation touches is created by it and can't be seen by the rest of the program.
+// The evaluation gives up on anything the java program could do differently, e.g. a division by zero, an index out of bounds or a step or time budget,
+// and leaves the call for runtime.
+public interface CompileTimeEvaluationModule extends ConstantFoldingModule {
+
+  static public class CompileTimeEvaluationSettings {
+    public int maxSteps;  // per evaluated call, in evaluated statements, expressions and allocated elements.
+    public int maxMillis;  // per evaluated call.
+    public int maxCallDepth;
+    public int maxArrayLength;  // of an array result, since every element becomes a store in the output.
+  }
+
+  static public class CompileTimeEvaluationReport {
+    public int callSites;  // of pure functions with constant arguments.
+    public List<String> evaluatedCalls;
+    public Map<String, Integer> skipReasonToCount;
+  }
+
+  static public class CompileTimeEvaluator {
+    public CompileTimeEvaluationSettings settings;
+    public CompileTimeEvaluationReport report;
+    public Set<AstFunction> pureFunctions;
+    public Map<String, AstStruct> structs;
+
+    // the budget of the current evaluation.
+    public int steps;
+    public long deadline;
+    public int callDepth;
+  }
+
+  static public class EvaluationFrame {
+    public Deque<Map<String, EvaluatedLocal>> scopes;
+    public Object returnValue;
+  }
+
+  static public class EvaluatedLocal {
+    public AstType type;
+    public Object value;  // an AstLiteral, EvaluatedArray, EvaluatedStruct or null for nil.
+  }
+
+  static public class EvaluatedArray {
+    public AstType elementType;
+    public Object[] elements;
+  }
+
+  static public class EvaluatedStruct {
+    public AstStruct struct;
+    public Map<String, Object> fields;
+  }
+
+  static public class EvaluationAbort extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public EvaluationAbort(String reason) {
+      super(reason, null, false, false);
+    }
+  }
+
+  default CompileTimeEvaluationReport evaluatePureCalls(AstProgram program, CompileTimeEvaluationSettings settings) {
+    CompileTimeEvaluator evaluator = new CompileTimeEvaluator();
+    evaluator.settings = settings;
+    evaluator.report = new CompileTimeEvaluationReport();
+    evaluator.report.evaluatedCalls = new ArrayList<>();
+    evaluator.report.skipReasonToCount = new LinkedHashMap<>();
+    evaluator.structs = new HashMap<>();
+
+    List<AstFunction> functions = new ArrayList<>();
+    for (AstCompilationUnit unit : program.compilationUnits) {
+      functions.addAll(unit.functions);
+      for (AstStruct struct : unit.structs) evaluator.structs.put(struct.name, struct);
+    }
+
+    evaluator.pureFunctions = findPureFunctions(functions);
+
+    for (AstFunction function : functions) {
+      if (function.hasJavaLibraryBinding) continue;
+      evaluatePureCalls(evaluator, function.bodyStatements);
+    }
+
+    return evaluator.report;
+  }
+
+  //
+  // purity
+  //
+
+  // starts with every function as pure and removes the ones, which call an impure function, until nothing changes. A recursive function stays pure.
+  private Set<AstFunction> findPureFunctions(List<AstFunction> functions) {
+    Map<AstFunction, Set<AstFunction>> functionToCallees = new HashMap<>();
+    Set<AstFunction> result = new HashSet<>();
+
+    for (AstFunction function : functions) {
+      if (function.hasJavaLibraryBinding) continue;
+
+      Set<String> parameters = new HashSet<>();
+      boolean hasVarargs = false;
+      for (AstParameterDeclaration parameter : function.parameters) {
+        parameters.add(parameter.name);
+        hasVarargs |= parameter.type.isVarargs;
+      }
+      if (hasVarargs) continue;
+
+      Set<AstFunction> callees = new HashSet<>();
+      if (!collectCallees(function.bodyStatements, parameters, callees)) continue;
+
+      functionToCallees.put(function, callees);
+      result.add(function);
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = result.removeIf(function -> !result.containsAll(functionToCallees.get(function)));
+    }
+
+    return result;
+  }
+
+  // returns false if a statement writes through a parameter.
+  private boolean collectCallees(List<AstStatement> statements, Set<String> parameters, Set<AstFunction> callees) {
+    for (AstStatement statement : statements) {
+      if (statement instanceof AstDeclaration) {
+        AstDeclaration declaration = (AstDeclaration) statement;
+        collectCallees(declaration.optionalInit, callees);
+
+      } else if (statement instanceof AstDefinition) {
+        AstDefinition definition = (AstDefinition) statement;
+        AstVariable lhs = definition.lhs;
+        if ((lhs.child != null || lhs.arrayExpressions.size() > 0) && parameters.contains(lhs.name)) return false;
+
+        collectCallees(lhs, callees);
+        collectCallees(definition.rhs, callees);
+
+      } else if (statement instanceof AstIfStatement) {
+        AstIfStatement ifStatement = (AstIfStatement) statement;
+        collectCallees(ifStatement.condition, callees);
+        if (!collectCallees(ifStatement.ifBody, parameters, callees)) return false;
+        if (!collectCallees(ifStatement.elseBody, parameters, callees)) return false;
+
+      } else if (statement instanceof AstWhileLoop) {
+        AstWhileLoop whileLoop = (AstWhileLoop) statement;
+        collectCallees(whileLoop.condition, callees);
+        if (!collectCallees(whileLoop.body, parameters, callees)) return false;
+
+      } else if (statement instanceof AstReturn) {
+        AstReturn _return = (AstReturn) statement;
+        if (_return.returnExpression != null) collectCallees(_return.returnExpression, callees);
+
+      } else if (statement instanceof AstFunctionCall) {
+        collectCallees((AstFunctionCall) statement, callees);
+
+      } else {
+        throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+      }
+    }
+    return true;
+  }
+
+  private void collectCallees(AstAssignment assignment, Set<AstFunction> callees) {
+    if (assignment instanceof AstNew) {
+      for (AstExpression arraySize : ((AstNew) assignment).arraySizes) collectCallees(arraySize, callees);
+
+    } else if (assignment instanceof AstVariable) {
+      for (AstVariable at = (AstVariable) assignment; at != null; at = at.child) {
+        for (AstExpression arrayExpression : at.arrayExpressions) collectCallees(arrayExpression, callees);
+      }
+
+    } else if (assignment instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) assignment;
+      collectCallees(binaryOperator.lhs, callees);
+      collectCallees(binaryOperator.rhs, callees);
+
+    } else if (assignment instanceof AstUnaryOperator) {
+      collectCallees(((AstUnaryOperator) assignment).body, callees);
+
+    } else if (assignment instanceof AstParenthesis) {
+      collectCallees(((AstParenthesis) assignment).body, callees);
+
+    } else if (assignment instanceof AstTypeCast) {
+      collectCallees(((AstTypeCast) assignment).expression, callees);
+
+    } else if (assignment instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) assignment;
+      callees.add(functionCall.function);
+      for (AstExpression argument : functionCall.arguments) collectCallees(argument, callees);
+    }
+  }
+
+  //
+  // substitution
+  //
+
+  private void evaluatePureCalls(CompileTimeEvaluator evaluator, List<AstStatement> statements) {
+    for (AstStatement statement : statements) {
+      if (statement instanceof AstDeclaration) {
+        AstDeclaration declaration = (AstDeclaration) statement;
+        declaration.optionalInit = evaluatePureCalls(evaluator, declaration.optionalInit);
+
+      } else if (statement instanceof AstDefinition) {
+        AstDefinition definition = (AstDefinition) statement;
+        evaluatePureCallsInAccessChain(evaluator, definition.lhs);
+        definition.rhs = evaluatePureCalls(evaluator, definition.rhs);
+
+      } else if (statement instanceof AstIfStatement) {
+        AstIfStatement ifStatement = (AstIfStatement) statement;
+        ifStatement.condition = evaluatePureCalls(evaluator, ifStatement.condition);
+        evaluatePureCalls(evaluator, ifStatement.ifBody);
+        evaluatePureCalls(evaluator, ifStatement.elseBody);
+
+      } else if (statement instanceof AstWhileLoop) {
+        AstWhileLoop whileLoop = (AstWhileLoop) statement;
+        whileLoop.condition = evaluatePureCalls(evaluator, whileLoop.condition);
+        evaluatePureCalls(evaluator, whileLoop.body);
+
+      } else if (statement instanceof AstReturn) {
+        AstReturn _return = (AstReturn) statement;
+        if (_return.returnExpression != null) _return.returnExpression = evaluatePureCalls(evaluator, _return.returnExpression);
+
+      } else if (statement instanceof AstFunctionCall) {
+        // the result isn't used, and a pure call without a result does nothing, which the later passes already remove.
+        evaluatePureCallsInArguments(evaluator, (AstFunctionCall) statement);
+
+      } else {
+        throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+      }
+    }
+  }
+
+  private AstAssignment evaluatePureCalls(CompileTimeEvaluator evaluator, AstAssignment assignment) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+      for (int i = 0; i < _new.arraySizes.size(); i++) {
+        _new.arraySizes.set(i, evaluatePureCalls(evaluator, _new.arraySizes.get(i)));
+      }
+      return _new;
+    }
+
+    return evaluatePureCalls(evaluator, (AstExpression) assignment);
+  }
+
+  private AstExpression evaluatePureCalls(CompileTimeEvaluator evaluator, AstExpression expression) {
+    if (expression instanceof AstVariable) {
+      evaluatePureCallsInAccessChain(evaluator, (AstVariable) expression);
+
+    } else if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
+      binaryOperator.lhs = evaluatePureCalls(evaluator, binaryOperator.lhs);
+      binaryOperator.rhs = evaluatePureCalls(evaluator, binaryOperator.rhs);
+
+    } else if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+      unaryOperator.body = evaluatePureCalls(evaluator, unaryOperator.body);
+
+    } else if (expression instanceof AstParenthesis) {
+      AstParenthesis parenthesis = (AstParenthesis) expression;
+      parenthesis.body = evaluatePureCalls(evaluator, parenthesis.body);
+
+    } else if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
+      typecast.expression = evaluatePureCalls(evaluator, typecast.expression);
+
+    } else if (expression instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) expression;
+      evaluatePureCallsInArguments(evaluator, functionCall);
+
+      AstExpression result = evaluatePureCall(evaluator, functionCall);
+      if (result != null) return result;
+    }
+
+    return expression;
+  }
+
+  private void evaluatePureCallsInAccessChain(CompileTimeEvaluator evaluator, AstVariable variable) {
+    for (AstVariable at = variable; at != null; at = at.child) {
+      for (int i = 0; i < at.arrayExpressions.size(); i++) {
+        at.arrayExpressions.set(i, evaluatePureCalls(evaluator, at.arrayExpressions.get(i)));
+      }
+    }
+  }
+
+  private void evaluatePureCallsInArguments(CompileTimeEvaluator evaluator, AstFunctionCall functionCall) {
+    for (int i = 0; i < functionCall.arguments.size(); i++) {
+      functionCall.arguments.set(i, evaluatePureCalls(evaluator, functionCall.arguments.get(i)));
+    }
+  }
+
+  // returns null if the call stays.
+  private AstExpression evaluatePureCall(CompileTimeEvaluator evaluator, AstFunctionCall functionCall) {
+    AstFunction function = functionCall.function;
+    if (!evaluator.pureFunctions.contains(function)) return null;
+
+    List<Object> arguments = new ArrayList<>();
+    for (AstExpression argument : functionCall.arguments) {
+      if (!(argument instanceof AstLiteral) || !isPrimitiveValueType(((AstLiteral) argument).type)) return null;
+      arguments.add(argument);
+    }
+
+    evaluator.report.callSites += 1;
+
+    if (!isConstantResultType(function.returnType)) {
+      skipPureCall(evaluator, "result is not a primitive or an array of primitives");
+      return null;
+    }
+
+    evaluator.steps = 0;
+    evaluator.deadline = System.nanoTime() + evaluator.settings.maxMillis * 1_000_000L;
+    evaluator.callDepth = 0;
+
+    try {
+      Object value = callFunction(evaluator, function, arguments);
+      AstExpression result = getConstantExpression(evaluator, value, function.returnType);
+      result = setLocation(result, functionCall.location);
+
+      evaluator.report.evaluatedCalls.add(String.format("%s = %s  (%d steps)", getCallString(functionCall), getConstantString(result), evaluator.steps));
+      return result;
+
+    } catch (EvaluationAbort abort) {
+      skipPureCall(evaluator, abort.getMessage());
+      return null;
+    }
+  }
+
+  private void skipPureCall(CompileTimeEvaluator evaluator, String reason) {
+    evaluator.report.skipReasonToCount.merge(reason, 1, Integer::sum);
+  }
+
+  private AstExpression getConstantExpression(CompileTimeEvaluator evaluator, Object value, AstType type) {
+    if (type.arrayDimension == 0) return getConstantLiteral(value, type);
+
+    if (value == null) throw new EvaluationAbort("result is nil");
+
+    EvaluatedArray array = (EvaluatedArray) value;
+    if (array.elements.length > evaluator.settings.maxArrayLength) throw new EvaluationAbort("result array is too long");
+
+    AstArrayLiteral result = new AstArrayLiteral();
+    result.type = astType_primitive(type.category, false, 1);
+    result.elements = new ArrayList<>();
+    for (Object element : array.elements) {
+      result.elements.add(getConstantLiteral(element, array.elementType));
+    }
+    return result;
+  }
+
+  // a new literal of exactly the type, so the overload resolution of the emitted code stays the same.
+  private AstLiteral getConstantLiteral(Object value, AstType type) {
+    AstLiteral literal = (AstLiteral) convertValue(value, type);
+
+    AstLiteral result;
+    if (isBoolType(type)) result = astLiteral_bool(getBoolValue(literal));
+    else if (isFloatingPointType(type)) result = astLiteral_floatingPoint(type, getFloatingPointValue(literal));
+    else result = astLiteral_integer(type, getIntegerValue(literal));
+
+    if (result == null) throw new EvaluationAbort("result has no literal");
+    return result;
+  }
+
+  private AstExpression setLocation(AstExpression constant, Location location) {
+    if (constant instanceof AstLiteral) ((AstLiteral) constant).location = location;
+    if (constant instanceof AstArrayLiteral) ((AstArrayLiteral) constant).location = location;
+    return constant;
+  }
+
+  //
+  // interpreter
+  //
+
+  private Object callFunction(CompileTimeEvaluator evaluator, AstFunction function, List<Object> arguments) {
+    if (!evaluator.pureFunctions.contains(function)) throw new EvaluationAbort("calls an impure function");
+    if (evaluator.callDepth >= evaluator.settings.maxCallDepth) throw new EvaluationAbort("call depth exceeded");
+
+    EvaluationFrame frame = new EvaluationFrame();
+    frame.scopes = new ArrayDeque<>();
+
+    Map<String, EvaluatedLocal> parameters = new HashMap<>();
+    for (int i = 0; i < function.parameters.size(); i++) {
+      AstParameterDeclaration parameter = function.parameters.get(i);
+      parameters.put(parameter.name, evaluatedLocal(parameter.type, convertValue(arguments.get(i), parameter.type)));
+    }
+    frame.scopes.push(parameters);
+
+    evaluator.callDepth += 1;
+    executeStatements(evaluator, frame, function.bodyStatements);
+    evaluator.callDepth -= 1;
+
+    if (function.returnType.category == AstTypeCategory.Void) return null;
+    if (frame.returnValue == null && !isReferenceType(function.returnType)) throw new EvaluationAbort("returns no value");
+    return convertValue(frame.returnValue, function.returnType);
+  }
+
+  // returns true if a return statement was executed.
+  private boolean executeStatements(CompileTimeEvaluator evaluator, EvaluationFrame frame, List<AstStatement> statements) {
+    frame.scopes.push(new HashMap<>());
+
+    for (AstStatement statement : statements) {
+      if (executeStatement(evaluator, frame, statement)) {
+        frame.scopes.pop();
+        return true;
+      }
+    }
+
+    frame.scopes.pop();
+    return false;
+  }
+
+  private boolean executeStatement(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstStatement statement) {
+    step(evaluator, 1);
+
+    if (statement instanceof AstDeclaration) {
+      AstDeclaration declaration = (AstDeclaration) statement;
+      Object value = evaluateAssignment(evaluator, frame, declaration.optionalInit, declaration.type);
+      frame.scopes.peek().put(declaration.identifier, evaluatedLocal(declaration.type, convertValue(value, declaration.type)));
+      return false;
+    }
+
+    if (statement instanceof AstDefinition) {
+      executeDefinition(evaluator, frame, (AstDefinition) statement);
+      return false;
+    }
+
+    if (statement instanceof AstIfStatement) {
+      AstIfStatement ifStatement = (AstIfStatement) statement;
+      boolean condition = evaluateCondition(evaluator, frame, ifStatement.condition);
+      return executeStatements(evaluator, frame, condition ? ifStatement.ifBody : ifStatement.elseBody);
+    }
+
+    if (statement instanceof AstWhileLoop) {
+      AstWhileLoop whileLoop = (AstWhileLoop) statement;
+      while (evaluateCondition(evaluator, frame, whileLoop.condition)) {
+        if (executeStatements(evaluator, frame, whileLoop.body)) return true;
+      }
+      return false;
+    }
+
+    if (statement instanceof AstReturn) {
+      AstReturn _return = (AstReturn) statement;
+      if (_return.returnExpression != null) frame.returnValue = evaluateExpression(evaluator, frame, _return.returnExpression);
+      return true;
+    }
+
+    if (statement instanceof AstFunctionCall) {
+      evaluateExpression(evaluator, frame, (AstFunctionCall) statement);
+      return false;
+    }
+
+    throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+  }
+
+  // the java evaluation order: the access chain of the lhs, then the rhs.
+  private void executeDefinition(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstDefinition definition) {
+    AstVariable lhs = definition.lhs;
+    EvaluatedLocal local = findEvaluatedLocal(frame, lhs.name);
+
+    if (lhs.child == null && lhs.arrayExpressions.size() == 0) {
+      Object value = evaluateAssignment(evaluator, frame, definition.rhs, local.type);
+      local.value = convertValue(value, local.type);
+      return;
+    }
+
+    Object base = local.value;
+
+    for (AstVariable at = lhs; ; at = at.child) {
+      int indexCount = at.arrayExpressions.size();
+
+      for (int i = 0; i < indexCount; i++) {
+        EvaluatedArray array = asArray(base);
+        int index = evaluateIndex(evaluator, frame, at.arrayExpressions.get(i), array);
+
+        if (at.child == null && i == indexCount - 1) {
+          Object value = evaluateAssignment(evaluator, frame, definition.rhs, array.elementType);
+          array.elements[index] = convertValue(value, array.elementType);
+          return;
+        }
+
+        base = array.elements[index];
+      }
+
+      EvaluatedStruct struct = asStruct(base);
+      AstVariable child = at.child;
+
+      if (child.child == null && child.arrayExpressions.size() == 0) {
+        AstType fieldType = getEvaluatedFieldType(struct, child.name);
+        Object value = evaluateAssignment(evaluator, frame, definition.rhs, fieldType);
+        struct.fields.put(child.name, convertValue(value, fieldType));
+        return;
+      }
+
+      base = struct.fields.get(child.name);
+    }
+  }
+
+  private Object evaluateAssignment(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstAssignment assignment, AstType type) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+
+      List<Integer> sizes = new ArrayList<>();
+      for (AstExpression arraySize : _new.arraySizes) {
+        AstLiteral size = asLiteral(evaluateExpression(evaluator, frame, arraySize));
+        sizes.add((int) getIntegerValue(size));
+      }
+      return allocate(evaluator, type, sizes, 0);
+    }
+
+    return evaluateExpression(evaluator, frame, (AstExpression) assignment);
+  }
+
+  private Object allocate(CompileTimeEvaluator evaluator, AstType type, List<Integer> sizes, int dimension) {
+    if (!isArrayType(type)) {
+      AstStruct struct = evaluator.structs.get(type.structName);
+      if (struct == null || struct.hasJavaLibraryBinding) throw new EvaluationAbort("allocates a java library struct");
+
+      EvaluatedStruct result = new EvaluatedStruct();
+      result.struct = struct;
+      result.fields = new HashMap<>();
+      for (AstStructField field : struct.fields) {
+        result.fields.put(field.name, convertValue(getDefaultValueForType(field.type), field.type));
+      }
+      step(evaluator, struct.fields.size());
+      return result;
+    }
+
+    // e.g. "new [3]" of a "[][] i32" leaves the inner arrays nil.
+    if (dimension == sizes.size()) return null;
+
+    int size = sizes.get(dimension);
+    if (size < 0) throw new EvaluationAbort("negative array size");
+    step(evaluator, size);
+
+    EvaluatedArray result = new EvaluatedArray();
+    result.elementType = astType(type.category, type.structName, false, type.arrayDimension - 1);
+    result.elements = new Object[size];
+    for (int i = 0; i < size; i++) {
+      if (dimension + 1 < sizes.size()) result.elements[i] = allocate(evaluator, result.elementType, sizes, dimension + 1);
+      else result.elements[i] = convertValue(getDefaultValueForType(result.elementType), result.elementType);
+    }
+    return result;
+  }
+
+  private boolean evaluateCondition(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstExpression condition) {
+    return getBoolValue(asLiteral(evaluateExpression(evaluator, frame, condition)));
+  }
+
+  private Object evaluateExpression(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstExpression expression) {
+    step(evaluator, 1);
+
+    if (expression instanceof AstLiteral) {
+      AstLiteral literal = (AstLiteral) expression;
+      if (literal.value.equals("nil")) return null;
+      return literal;
+    }
+
+    if (expression instanceof AstArrayLiteral) {
+      AstArrayLiteral arrayLiteral = (AstArrayLiteral) expression;
+      step(evaluator, arrayLiteral.elements.size());
+
+      EvaluatedArray result = new EvaluatedArray();
+      result.elementType = astType_primitive(arrayLiteral.type.category, false, 0);
+      result.elements = arrayLiteral.elements.toArray();
+      return result;
+    }
+
+    if (expression instanceof AstVariable) {
+      return evaluateVariable(evaluator, frame, (AstVariable) expression);
+    }
+
+    if (expression instanceof AstParenthesis) {
+      return evaluateExpression(evaluator, frame, ((AstParenthesis) expression).body);
+    }
+
+    if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+      AstLiteral body = asLiteral(evaluateExpression(evaluator, frame, unaryOperator.body));
+      return checkResult(evaluateUnaryOperator(unaryOperator.operator, body));
+    }
+
+    if (expression instanceof AstBinaryOperator) {
+      return evaluateBinary(evaluator, frame, (AstBinaryOperator) expression);
+    }
+
+    if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
+      Object value = evaluateExpression(evaluator, frame, typecast.expression);
+
+      if (isReferenceType(typecast.type)) {
+        if (value == null) return null;
+        throw new EvaluationAbort("casts a reference");
+      }
+
+      return checkResult(evaluateTypeCast(typecast.type, asLiteral(value)));
+    }
+
+    if (expression instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) expression;
+
+      List<Object> arguments = new ArrayList<>();
+      for (AstExpression argument : functionCall.arguments) {
+        arguments.add(evaluateExpression(evaluator, frame, argument));
+      }
+      return callFunction(evaluator, functionCall.function, arguments);
+    }
+
+    throw new CompilerException("unexpected expression %s.", expression.getClass().getSimpleName());
+  }
+
+  private Object evaluateBinary(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstBinaryOperator binaryOperator) {
+    Object lhs = evaluateExpression(evaluator, frame, binaryOperator.lhs);
+
+    if (isAny(binaryOperator.operator, "&&", "||")) {
+      boolean value = getBoolValue(asLiteral(lhs));
+      if (binaryOperator.operator.equals("&&") && !value) return lhs;
+      if (binaryOperator.operator.equals("||") && value) return lhs;
+      return asLiteral(evaluateExpression(evaluator, frame, binaryOperator.rhs));
+    }
+
+    Object rhs = evaluateExpression(evaluator, frame, binaryOperator.rhs);
+
+    // structs and arrays are compared by identity. Strings too in java, but which strings are the same object depends on the java compiler.
+    if (!isPrimitiveValue(lhs) || !isPrimitiveValue(rhs)) {
+      if (isStringValue(lhs) || isStringValue(rhs)) throw new EvaluationAbort("compares strings");
+
+      boolean same = (lhs == rhs);
+      if (binaryOperator.operator.equals("==")) return astLiteral_bool(same);
+      if (binaryOperator.operator.equals("!=")) return astLiteral_bool(!same);
+      throw new CompilerException("unexpected operator %s on references.", binaryOperator.operator);
+    }
+
+    return checkResult(evaluateBinaryOperator(binaryOperator.operator, (AstLiteral) lhs, (AstLiteral) rhs));
+  }
+
+  private Object evaluateVariable(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstVariable variable) {
+    Object value = findEvaluatedLocal(frame, variable.name).value;
+
+    for (AstVariable at = variable; ; at = at.child) {
+      for (AstExpression arrayExpression : at.arrayExpressions) {
+        EvaluatedArray array = asArray(value);
+        value = array.elements[evaluateIndex(evaluator, frame, arrayExpression, array)];
+      }
+
+      if (at.child == null) return value;
+
+      AstVariable child = at.child;
+
+      if (value instanceof EvaluatedArray) {
+        assertIt(child.name.equals("length"));
+        value = astLiteral_integer(astType_primitive(AstTypeCategory.I32, false, 0), ((EvaluatedArray) value).elements.length);
+        continue;
+      }
+
+      value = asStruct(value).fields.get(child.name);
+    }
+  }
+
+  private int evaluateIndex(CompileTimeEvaluator evaluator, EvaluationFrame frame, AstExpression indexExpression, EvaluatedArray array) {
+    long index = getIntegerValue(asLiteral(evaluateExpression(evaluator, frame, indexExpression)));
+    if (index < 0 || index >= array.elements.length) throw new EvaluationAbort("index out of bounds");
+    return (int) index;
+  }
+
+  // converts a primitive to the type of the variable, field, element, parameter or result it is stored in, like the implicit widening in java.
+  private Object convertValue(Object value, AstType type) {
+    if (isReferenceType(type)) {
+      if (value instanceof AstLiteral && !isStringValue(value)) throw new EvaluationAbort("boxes a primitive");
+      return value;
+    }
+
+    AstLiteral literal = asLiteral(value);
+    if (literal.type.category == type.category) return literal;
+    return checkResult(evaluateTypeCast(type, literal));
+  }
+
+  private AstType getEvaluatedFieldType(EvaluatedStruct struct, String name) {
+    for (AstStructField field : struct.struct.fields) {
+      if (field.name.equals(name)) return field.type;
+    }
+    throw new CompilerException("struct %s has no field %s.", struct.struct.name, name);
+  }
+
+  private EvaluatedLocal findEvaluatedLocal(EvaluationFrame frame, String name) {
+    for (Map<String, EvaluatedLocal> scope : frame.scopes) {
+      EvaluatedLocal match = scope.get(name);
+      if (match != null) return match;
+    }
+    throw new CompilerException("variable \"%s\" is not in scope.", name);
+  }
+
+  private EvaluatedLocal evaluatedLocal(AstType type, Object value) {
+    EvaluatedLocal result = new EvaluatedLocal();
+    result.type = type;
+    result.value = value;
+    return result;
+  }
+
+  private void step(CompileTimeEvaluator evaluator, int count) {
+    evaluator.steps += count;
+    if (evaluator.steps > evaluator.settings.maxSteps) throw new EvaluationAbort("step budget exceeded");
+    if (System.nanoTime() > evaluator.deadline) throw new EvaluationAbort("time budget exceeded");
+  }
+
+  // the evaluate* functions return null for results without a literal, e.g. a division by zero or NaN.
+  private AstLiteral checkResult(AstLiteral result) {
+    if (result == null) throw new EvaluationAbort("result of an operation has no literal");
+    return result;
+  }
+
+  private AstLiteral asLiteral(Object value) {
+    if (!(value instanceof AstLiteral)) throw new CompilerException("expected a primitive value, but got %s.", value);
+    return (AstLiteral) value;
+  }
+
+  private EvaluatedArray asArray(Object value) {
+    if (value == null) throw new EvaluationAbort("dereferences nil");
+    return (EvaluatedArray) value;
+  }
+
+  private EvaluatedStruct asStruct(Object value) {
+    if (value == null) throw new EvaluationAbort("dereferences nil");
+    return (EvaluatedStruct) value;
+  }
+
+  private boolean isPrimitiveValue(Object value) {
+    return value instanceof AstLiteral && !isStringValue(value);
+  }
+
+  private boolean isStringValue(Object value) {
+    return value instanceof AstLiteral && ((AstLiteral) value).type.category == AstTypeCategory.String;
+  }
+
+  private boolean isPrimitiveValueType(AstType type) {
+    if (type.isVarargs || type.arrayDimension > 0) return false;
+    return isNumberOrCharType(type) || isBoolType(type);
+  }
+
+  private boolean isConstantResultType(AstType type) {
+    if (type.isVarargs || type.arrayDimension > 1) return false;
+    return isPrimitiveValueType(astType_primitive(type.category, false, 0));
+  }
+
+  private boolean isArrayType(AstType type) {
+    return type.arrayDimension > 0 || type.isVarargs;
+  }
+
+  //
+  // report
+  //
+
+  private String getCallString(AstFunctionCall functionCall) {
+    List<String> arguments = new ArrayList<>();
+    for (AstExpression argument : functionCall.arguments) arguments.add(((AstLiteral) argument).value);
+    return String.format("%s(%s)", functionCall.name, String.join(", ", arguments));
+  }
+
+  private String getConstantString(AstExpression constant) {
+    if (constant instanceof AstLiteral) return ((AstLiteral) constant).value;
+
+    List<String> elements = new ArrayList<>();
+    for (AstLiteral element : ((AstArrayLiteral) constant).elements) elements.add(element.value);
+    return String.format("[%s]", String.join(", ", elements));
+  }
+
+  default String getCompileTimeEvaluationReport(CompileTimeEvaluationReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Compile-time evaluation\n");
+    builder.append("\n");
+
+    for (String call : report.evaluatedCalls) {
+      builder.append(String.format("  %s\n", call));
+    }
+
+    if (!report.skipReasonToCount.isEmpty()) {
+      builder.append("\n");
+      builder.append("not evaluated\n");
+      for (Map.Entry<String, Integer> entry : report.skipReasonToCount.entrySet()) {
+        builder.append(String.format("  %-50s %d\n", entry.getKey(), entry.getValue()));
+      }
+    }
+
+    builder.append("\n");
+    builder.append(String.format("evaluated %d of %d calls of pure functions with constant arguments.\n", report.evaluatedCalls.size(), report.callSites));
+
+    return builder.toString();
+  }
+}
@@ -1,23 +1,109 @@
 package pack;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-public interface CompilerModule extends ParserModule, TypeCheckerModule, JavaConverterModule, GraphvizModule {
+public interface CompilerModule extends ParserModule, TypeCheckerModule, ConstantFoldingModule, CompileTimeEvaluationModule, IrModule, TailCallModule, InlinerModule, DeadStoreModule, ScalarReplacementModule, CommonSubexpressionModule, LoopInvariantModule, ArrayIdiomModule, RangeAnalysisModule, LazyEnsureModule, MethodSplittingModule, PassManagerModule, JavaConverterModule, OutputFilesModule, GraphvizModule {
 
   public CompilerSettings settings = new CompilerSettings();
 
   static public class CompilerSettings {
     public boolean writeCompilerModulesToFile;
     public boolean writeOutputToFile;
-    // public boolean generateStaticFunctions;
+    // the functions become static methods of a final class, instead of default methods of an interface, which are called on an anonymous instance.
+    public boolean generateStaticFunctions;
+    // a file per struct, and the functions in classes of up to "outputClassMaxBytecodeSize" estimated bytes, grouped by their calls.
+    // The functions are static then. Every file of the program is listed in "./res/output/sources.txt" either way.
+    public boolean writeOutputClassesToFiles;
+    public int outputClassMaxBytecodeSize = 32000;
+    // "X.smap" next to a written "X.java", which maps its lines to the lines of the abc source, see SourceMapModule. "RewriteStackTraces"
+    // rewrites stack traces and "jfr print" output with them.
+    public boolean writeSourceMapsToFile;
     //public boolean singleFileOutputoutputSingleFile;
     public boolean catchableErrors;
 
     public boolean writeAstToFile;
     public String graphvizPath;
+
+    public boolean writeStructLayoutReportToFile;
+
+    // a generic struct or function, which instantiates itself with ever new type arguments, fails to compile at that many instances.
+    public int maxGenericInstances = 1000;
+
+    // 0 runs no optimizations, 1 the cheap ones and 2 also the expensive ones, like -O0, -O1 and -O2 of other compilers.
+    // A pass is switched off by its switch below, or by its name in "disabledPasses", e.g. "inlineFunctions". The lowering is required.
+    public int optimizationLevel = 2;
+    public Set<String> disabledPasses = new HashSet<>();
+    public boolean writePassReportToFile;
+
+    public boolean foldConstants = true;
+
+    public boolean evaluatePureCalls = true;
+    public int evaluationMaxSteps = 250000;
+    public int evaluationMaxMillis = 200;
+    public int evaluationMaxCallDepth = 200;
+    public int evaluationMaxArrayLength = 64;
+    public boolean writeCompileTimeEvaluationReportToFile;
+
+    public boolean eliminateTailCalls = true;
+
+    public boolean inlineFunctions = true;
+    public int inlineMaxCalleeSize = 12;
+    public int inlineMaxGrowthPerCaller = 120;
+    public boolean writeInliningReportToFile;
+
+    // "instrumentProfile" records a profile into "profilePath", when the compiled program runs, and "useProfile" compiles with it.
+    public boolean instrumentProfile;
+    public boolean useProfile;
+    public String profilePath = "./res/output/profile.txt";
+    public long profileHotCallSiteCount = 10000;
+    public int profileHotMaxCalleeSize = 40;
+    public int outlineColdMinSize = 4;
+    public boolean writeProfileReportToFile;
+
+    public boolean eliminateUnreachableCode = true;
+    public boolean writeUnreachableCodeReportToFile;
+
+    public boolean eliminateDeadStores = true;
+
+    public boolean replaceNonEscapingStructs = true;
+    public boolean eliminateCommonSubexpressions = true;
+
+    public boolean hoistLoopInvariants = true;
+    public boolean replaceArrayIdioms = true;
+
+    public boolean analyzeRanges = true;
+    public boolean writeRangeAnalysisReportToFile;
+
+    // the error arguments of an ensure call are only computed, when its condition fails.
+    public boolean guardEnsureCalls = true;
+
+    public boolean emitCountedLoops = true;
+    // a print with a literal format is written as a string concatenation, where that prints the same.
+    public boolean specializePrintFormats = true;
+
+    // the structs and functions are converted to java on that many threads. The output doesn't depend on it, 1 converts them one after the other.
+    // 1 by default: the code generation benchmark of 20000 functions, see BenchmarkModule, converts them in a median of 62 ms on 1 thread,
+    // and in 125 ms on 2 and 115 ms on 4 threads of a single core. Each member is buffered and copied once more, which the threads only pay
+    // back with cores to spare, and that hasn't been measured yet.
+    public int codeGenerationThreads = 1;
+
+    // estimated bytes of bytecode. Hotspot doesn't jit compile methods above 8000 bytes, and javac rejects methods above 64 KB.
+    public boolean splitHugeMethods = true;
+    public int splitMethodMaxBytecodeSize = 8000;
+    public int splitMethodPartBytecodeSize = 2000;
+    public boolean writeMethodSplittingReportToFile;
+
+    public boolean verifyIr = true;
+    public boolean writeIrToFile;
   }
 
   default void compile(String mainFilepath) {
@@ -30,10 +116,63 @@ public interface CompilerModule extends ParserModule, TypeCheckerModule, JavaCon
     
     typeCheck(astProgram);
 
-    String javaCode = convertToJavaCode(astProgram);
+    // the profile is keyed by source locations, so the hash is taken before any pass changes the program.
+    String sourceHash = getSourceHash(astProgram);
 
-    if (CompilerModule.settings.writeOutputToFile) {
-      writeStringToFile(javaCode, "./res/output/ABCProgramRunMe.java");
+    Profile profile = null;
+    if (CompilerModule.settings.useProfile && !CompilerModule.settings.instrumentProfile) {
+      profile = readProfile(CompilerModule.settings.profilePath, sourceHash);
+    }
+
+    if (CompilerModule.settings.writeStructLayoutReportToFile) {
+      String report = getStructLayoutReport(astProgram.compilationUnits.get(0));
+      writeStringToFile(report, "./res/output/struct_layouts.txt");
+    }
+
+    Compilation compilation = new Compilation();
+    compilation.astProgram = astProgram;
+    compilation.sourceHash = sourceHash;
+    compilation.profile = profile;
+
+    PassManagerSettings passSettings = new PassManagerSettings();
+    passSettings.optimizationLevel = CompilerModule.settings.optimizationLevel;
+    passSettings.disabledPasses = CompilerModule.settings.disabledPasses;
+    passSettings.verifyIr = CompilerModule.settings.verifyIr;
+
+    PassManagerReport passReport = runCompilerPasses(compilation, getCompilerPasses(compilation, passSettings), passSettings);
+
+    if (CompilerModule.settings.writePassReportToFile) {
+      writeStringToFile(getPassManagerReport(passReport), "./res/output/passes.txt");
+    }
+
+    IrProgram irProgram = compilation.irProgram;
+    UnreachableCode unreachableCode = compilation.unreachableCode;
+
+    if (CompilerModule.settings.writeIrToFile) {
+      writeStringToFile(getIrDump(irProgram), "./res/output/ir.txt");
+    }
+
+    // a single file is streamed, so the java code is never held in memory as a whole.
+    long javaCodeBytes;
+    List<String> javaFiles = new ArrayList<>();
+    if (CompilerModule.settings.writeOutputToFile && CompilerModule.settings.writeOutputClassesToFiles) {
+      OutputFiles outputFiles = writeJavaClassesToFiles(irProgram, "./res/output", CompilerModule.settings.outputClassMaxBytecodeSize, CompilerModule.settings.codeGenerationThreads, CompilerModule.settings.writeSourceMapsToFile);
+      javaFiles.addAll(outputFiles.paths);
+      javaCodeBytes = outputFiles.bytes;
+    } else if (CompilerModule.settings.writeOutputToFile) {
+      writeJavaCodeToFile(irProgram, "./res/output/ABCProgramRunMe.java");
+      javaFiles.add("./res/output/ABCProgramRunMe.java");
+      javaCodeBytes = getFileSize("./res/output/ABCProgramRunMe.java");
+    } else if (CompilerModule.settings.writeUnreachableCodeReportToFile && unreachableCode != null) {
+      javaCodeBytes = convertToJavaCode(irProgram).getBytes(StandardCharsets.UTF_8).length;
+    } else {
+      writeJavaCode(irProgram, Writer.nullWriter());
+      javaCodeBytes = 0;
+    }
+
+    if (CompilerModule.settings.writeUnreachableCodeReportToFile && unreachableCode != null) {
+      String report = getUnreachableCodeReport(unreachableCode, javaCodeBytes);
+      writeStringToFile(report, "./res/output/unreachable_code.txt");
     }
     
     if (CompilerModule.settings.writeCompilerModulesToFile) {
@@ -44,7 +183,166 @@ public interface CompilerModule extends ParserModule, TypeCheckerModule, JavaCon
       Path runtimeSupportPath = Paths.get("./res/modules/RuntimeSupport.txt");
       String runtimeSupportModule = readFileToString(runtimeSupportPath);
       writeStringToFile(runtimeSupportModule, "./res/output/RuntimeSupport.java");
+
+      Path profilerPath = Paths.get("./res/modules/Profiler.txt");
+      String profilerModule = readFileToString(profilerPath);
+      writeStringToFile(profilerModule, "./res/output/Profiler.java");
+    }
+
+    // the program needs the modules, also if they were written by an earlier compilation.
+    if (CompilerModule.settings.writeOutputToFile) {
+      javaFiles.add("./res/output/Preload.java");
+      javaFiles.add("./res/output/RuntimeSupport.java");
+      javaFiles.add("./res/output/Profiler.java");
+      writeJavaSourceManifest("./res/output/sources.txt", javaFiles);
+    }
+  }
+
+  // the passes between the typechecking and the code generation. The level of a pass is the lowest optimization level, which runs it.
+  private List<CompilerPass> getCompilerPasses(Compilation compilation, PassManagerSettings passSettings) {
+    List<CompilerPass> result = new ArrayList<>();
+
+    // other passes clean up after themselves with it, if it runs.
+    CompilerPass deadStores = compilerPass("eliminateDeadStores", 1, CompilerModule.settings.eliminateDeadStores, c -> eliminateDeadStores(c.irProgram), "inlineFunctions");
+    boolean eliminateDeadStores = getPassSkipReason(deadStores, passSettings) == null;
+
+    CompilerPass folding = compilerPass("foldConstants", 1, CompilerModule.settings.foldConstants, c -> foldConstants(c.astProgram));
+    boolean foldConstants = getPassSkipReason(folding, passSettings) == null;
+    result.add(folding);
+
+    result.add(compilerPass("evaluatePureCalls", 2, CompilerModule.settings.evaluatePureCalls, c -> {
+      CompileTimeEvaluationSettings evaluationSettings = new CompileTimeEvaluationSettings();
+      evaluationSettings.maxSteps = CompilerModule.settings.evaluationMaxSteps;
+      evaluationSettings.maxMillis = CompilerModule.settings.evaluationMaxMillis;
+      evaluationSettings.maxCallDepth = CompilerModule.settings.evaluationMaxCallDepth;
+      evaluationSettings.maxArrayLength = CompilerModule.settings.evaluationMaxArrayLength;
+
+      CompileTimeEvaluationReport evaluationReport = evaluatePureCalls(c.astProgram, evaluationSettings);
+
+      // e.g. a local initialized by an evaluated call is propagated, and an evaluated condition removes a branch.
+      if (!evaluationReport.evaluatedCalls.isEmpty() && foldConstants) foldConstants(c.astProgram);
+
+      if (CompilerModule.settings.writeCompileTimeEvaluationReportToFile) {
+        writeStringToFile(getCompileTimeEvaluationReport(evaluationReport), "./res/output/compile_time_evaluation.txt");
+      }
+    }, "foldConstants"));
+
+    result.add(requiredCompilerPass("lowerToIr", c -> c.irProgram = lowerToIr(c.astProgram), "foldConstants", "evaluatePureCalls"));
+
+    // before the optimizations, whose analyses grow faster than the functions, and before the instrumentation, so a profile fits the
+    // parts of both compilations.
+    result.add(compilerPass("splitHugeMethods", 0, CompilerModule.settings.splitHugeMethods, c -> {
+      MethodSplittingSettings splittingSettings = new MethodSplittingSettings();
+      splittingSettings.maxBytecodeSize = CompilerModule.settings.splitMethodMaxBytecodeSize;
+      splittingSettings.partBytecodeSize = CompilerModule.settings.splitMethodPartBytecodeSize;
+
+      MethodSplittingReport splittingReport = splitHugeMethods(c.irProgram, splittingSettings);
+
+      if (CompilerModule.settings.writeMethodSplittingReportToFile) {
+        writeStringToFile(getMethodSplittingReport(splittingReport), "./res/output/method_splitting.txt");
+      }
+    }, "lowerToIr"));
+
+    result.add(compilerPass("instrumentProfile", 0, CompilerModule.settings.instrumentProfile, c -> instrumentProfile(c.irProgram, CompilerModule.settings.profilePath, c.sourceHash), "splitHugeMethods"));
+
+    // at every level, since a loop written as a recursion overflows the stack without it.
+    result.add(compilerPass("eliminateTailCalls", 0, CompilerModule.settings.eliminateTailCalls, c -> eliminateTailCalls(c.irProgram), "instrumentProfile"));
+
+    result.add(compilerPass("inlineFunctions", 1, CompilerModule.settings.inlineFunctions, c -> {
+      InliningSettings inliningSettings = new InliningSettings();
+      inliningSettings.maxCalleeSize = CompilerModule.settings.inlineMaxCalleeSize;
+      inliningSettings.maxGrowthPerCaller = CompilerModule.settings.inlineMaxGrowthPerCaller;
+      inliningSettings.profile = c.profile;
+      inliningSettings.hotCallSiteCount = CompilerModule.settings.profileHotCallSiteCount;
+      inliningSettings.hotMaxCalleeSize = CompilerModule.settings.profileHotMaxCalleeSize;
+
+      InliningReport inliningReport = inlineFunctions(c.irProgram, inliningSettings);
+
+      if (CompilerModule.settings.writeInliningReportToFile) {
+        writeStringToFile(getInliningReport(inliningReport), "./res/output/inlining.txt");
+      }
+    }, "eliminateTailCalls"));
+
+    result.add(compilerPass("eliminateUnreachableCode", 1, CompilerModule.settings.eliminateUnreachableCode, c -> c.unreachableCode = removeUnreachableCode(c.irProgram), "inlineFunctions"));
+
+    result.add(deadStores);
+
+    result.add(compilerPass("replaceNonEscapingStructs", 2, CompilerModule.settings.replaceNonEscapingStructs, c -> {
+      int replacedCount = replaceNonEscapingStructs(c.irProgram);
+
+      // removing the default values of the fields turns "declare s$to = nil; s$to = new" into a single declaration,
+      // so a struct, which was held by a replaced struct, can be replaced in the next round.
+      while (replacedCount > 0 && eliminateDeadStores) {
+        eliminateDeadStores(c.irProgram);
+        replacedCount = replaceNonEscapingStructs(c.irProgram);
+      }
+    }, "eliminateDeadStores"));
+
+    result.add(compilerPass("eliminateCommonSubexpressions", 1, CompilerModule.settings.eliminateCommonSubexpressions, c -> eliminateCommonSubexpressions(c.irProgram), "replaceNonEscapingStructs"));
+
+    result.add(compilerPass("hoistLoopInvariants", 2, CompilerModule.settings.hoistLoopInvariants, c -> hoistLoopInvariants(c.irProgram), "eliminateCommonSubexpressions"));
+
+    result.add(compilerPass("replaceArrayIdioms", 1, CompilerModule.settings.replaceArrayIdioms, c -> {
+      int replacedCount = replaceArrayIdioms(c.irProgram);
+
+      // the index often isn't read after the loop.
+      if (replacedCount > 0 && eliminateDeadStores) eliminateDeadStores(c.irProgram);
+    }, "hoistLoopInvariants"));
+
+    result.add(compilerPass("analyzeRanges", 2, CompilerModule.settings.analyzeRanges, c -> {
+      RangeAnalysisReport rangeAnalysisReport = analyzeRanges(c.irProgram);
+
+      // the conditions of removed checks are usually unused now.
+      if (!rangeAnalysisReport.removedCalls.isEmpty() && eliminateDeadStores) eliminateDeadStores(c.irProgram);
+
+      if (CompilerModule.settings.writeRangeAnalysisReportToFile) {
+        writeStringToFile(getRangeAnalysisReport(rangeAnalysisReport), "./res/output/range_analysis.txt");
+      }
+    }, "replaceArrayIdioms"));
+
+    // the last optimization, since it moves code, which the other passes could still have removed, into functions of its own.
+    result.add(compilerPass("applyProfile", 2, compilation.profile != null, c -> {
+      ProfileReport profileReport = applyProfile(c.irProgram, c.profile, CompilerModule.settings.outlineColdMinSize);
+
+      if (CompilerModule.settings.writeProfileReportToFile) {
+        writeStringToFile(getProfileReport(c.profile, profileReport), "./res/output/profile_report.txt");
+      }
+    }, "analyzeRanges"));
+
+    // after the range analysis, which learns from the ensure calls and removes the ones, which never fail.
+    result.add(compilerPass("guardEnsureCalls", 1, CompilerModule.settings.guardEnsureCalls, c -> guardEnsureCalls(c.irProgram), "applyProfile"));
+
+    return result;
+  }
+
+  // the sizes are the bytes of java code, which would have been generated for the removed functions and structs.
+  private String getUnreachableCodeReport(UnreachableCode unreachableCode, long javaCodeBytes) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Unreachable code removed from the output\n");
+    builder.append("\n");
+
+    int removedBytes = 0;
+
+    for (AstStruct struct : unreachableCode.structs) {
+      int bytes = getJavaStructCode(struct).getBytes(StandardCharsets.UTF_8).length + 1;  // + the empty line in front.
+      builder.append(String.format("struct   %-50s %6d bytes\n", struct.name, bytes));
+      removedBytes += bytes;
+    }
+
+    for (IrFunction function : unreachableCode.functions) {
+      int bytes = getJavaFunctionCode(function).getBytes(StandardCharsets.UTF_8).length + 1;
+      builder.append(String.format("function %-50s %6d bytes\n", getIrFunctionSignature(function), bytes));
+      removedBytes += bytes;
     }
+
+    long totalBytes = javaCodeBytes + removedBytes;
+    double percentage = (totalBytes == 0) ? 0 : 100.0 * removedBytes / totalBytes;
+
+    builder.append("\n");
+    builder.append(String.format("removed %d structs and %d functions, %d of %d bytes (%.1f%%).\n", unreachableCode.structs.size(), unreachableCode.functions.size(), removedBytes, totalBytes, percentage));
+
+    return builder.toString();
   }
 
   static public class GraphvizIdGenerator {
@@ -345,4 +643,33 @@ public interface CompilerModule extends ParserModule, TypeCheckerModule, JavaCon
       e.printStackTrace();
     }
   }
+
+  private void writeJavaCodeToFile(IrProgram program, String filepath) {
+    List<JavaSourceLine> sourceLines = CompilerModule.settings.writeSourceMapsToFile ? new ArrayList<>() : null;
+
+    try (Writer writer = Files.newBufferedWriter(Paths.get(filepath), StandardCharsets.UTF_8)) {
+      writeJavaCode(program, writer, sourceLines);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    String sourceMapPath = getSourceMapPath(filepath);
+    if (sourceLines == null) {
+      deleteJavaFile(sourceMapPath);
+      return;
+    }
+
+    String sourceFilepath = program.source.compilationUnits.get(0).sourceFile.filename;
+    String javaFile = Paths.get(filepath).getFileName().toString();
+    writeStringToFile(getSourceMapCode(javaFile, sourceFilepath, sourceLines), sourceMapPath);
+  }
+
+  private long getFileSize(String filepath) {
+    try {
+      return Files.size(Paths.get(filepath));
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 0;
+    }
+  }
 }
@@ -0,0 +1,452 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pack.ParserModule.AstArrayLiteral;
+import pack.ParserModule.AstAssignment;
+import pack.ParserModule.AstBinaryOperator;
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstDeclaration;
+import pack.ParserModule.AstDefinition;
+import pack.ParserModule.AstExpression;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstFunctionCall;
+import pack.ParserModule.AstIfStatement;
+import pack.ParserModule.AstLiteral;
+import pack.ParserModule.AstNew;
+import pack.ParserModule.AstParenthesis;
+import pack.ParserModule.AstProgram;
+import pack.ParserModule.AstReturn;
+import pack.ParserModule.AstStatement;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCast;
+import pack.ParserModule.AstTypeCategory;
+import pack.ParserModule.AstUnaryOperator;
+import pack.ParserModule.AstVariable;
+import pack.ParserModule.AstWhileLoop;
+
+// Runs after the typechecker. Folds constant subexpressions, propagates the values of locals that are never reassigned
+// and removes code behind constant conditions. The emitted java code has to keep compiling, so statements that become
+// unreachable (e.g. after "while (true)") are removed as well, because javac rejects unreachable statements.
+public interface ConstantFoldingModule extends TypeCheckerModule {
+
+  static public class ConstantFolder {
+    public Deque<Map<String, AstDeclaration>> scopes;
+    public Map<AstDeclaration, Integer> assignmentCounts;  // plain reassignments and uses which need the variable, e.g. "a[0]".
+    public Map<AstDeclaration, AstLiteral> constants;
+  }
+
+  default void foldConstants(AstProgram program) {
+    for (AstCompilationUnit unit : program.compilationUnits) {
+      for (AstFunction function : unit.functions) {
+        if (function.hasJavaLibraryBinding) continue;
+
+        ConstantFolder folder = new ConstantFolder();
+        folder.scopes = new ArrayDeque<>();
+        folder.assignmentCounts = new HashMap<>();
+        folder.constants = new HashMap<>();
+
+        countAssignments(folder, function.bodyStatements);
+
+        assertIt(folder.scopes.isEmpty());
+
+        function.bodyStatements = foldStatements(folder, function.bodyStatements);
+      }
+    }
+  }
+
+  private void countAssignments(ConstantFolder folder, List<AstStatement> statements) {
+    folder.scopes.push(new HashMap<>());
+
+    for (AstStatement statement : statements) {
+      if (statement instanceof AstDeclaration) {
+        AstDeclaration declaration = (AstDeclaration) statement;
+        folder.scopes.peek().put(declaration.identifier, declaration);
+        folder.assignmentCounts.put(declaration, 0);
+        countAssignments(folder, declaration.optionalInit);
+
+      } else if (statement instanceof AstDefinition) {
+        AstDefinition definition = (AstDefinition) statement;
+        countAssignment(folder, definition.lhs);
+        countAssignments(folder, definition.rhs);
+
+      } else if (statement instanceof AstIfStatement) {
+        AstIfStatement ifStatement = (AstIfStatement) statement;
+        countAssignments(folder, ifStatement.condition);
+        countAssignments(folder, ifStatement.ifBody);
+        countAssignments(folder, ifStatement.elseBody);
+
+      } else if (statement instanceof AstWhileLoop) {
+        AstWhileLoop whileLoop = (AstWhileLoop) statement;
+        countAssignments(folder, whileLoop.condition);
+        countAssignments(folder, whileLoop.body);
+
+      } else if (statement instanceof AstReturn) {
+        AstReturn _return = (AstReturn) statement;
+        if (_return.returnExpression != null) countAssignments(folder, _return.returnExpression);
+
+      } else if (statement instanceof AstFunctionCall) {
+        AstFunctionCall functionCall = (AstFunctionCall) statement;
+        countAssignments(folder, functionCall);
+
+      } else {
+        throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+      }
+    }
+
+    folder.scopes.pop();
+  }
+
+  private void countAssignments(ConstantFolder folder, AstAssignment assignment) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+      for (AstExpression arraySize : _new.arraySizes) countAssignments(folder, arraySize);
+      return;
+    }
+
+    AstExpression expression = (AstExpression) assignment;
+
+    if (expression instanceof AstVariable) {
+      AstVariable variable = (AstVariable) expression;
+
+      // a field or element access needs the variable itself.
+      if (variable.child != null || variable.arrayExpressions.size() > 0) countAssignment(folder, variable);
+      countAssignmentsInAccessChain(folder, variable);
+
+    } else if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
+      countAssignments(folder, binaryOperator.lhs);
+      countAssignments(folder, binaryOperator.rhs);
+
+    } else if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+      countAssignments(folder, unaryOperator.body);
+
+    } else if (expression instanceof AstParenthesis) {
+      AstParenthesis parenthesis = (AstParenthesis) expression;
+      countAssignments(folder, parenthesis.body);
+
+    } else if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
+      countAssignments(folder, typecast.expression);
+
+    } else if (expression instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) expression;
+      for (AstExpression argument : functionCall.arguments) countAssignments(folder, argument);
+    }
+  }
+
+  private void countAssignment(ConstantFolder folder, AstVariable lhs) {
+    AstDeclaration declaration = findDeclaration(folder, lhs.name);
+    if (declaration == null) return;  // parameter
+
+    folder.assignmentCounts.merge(declaration, 1, Integer::sum);
+    countAssignmentsInAccessChain(folder, lhs);
+  }
+
+  private void countAssignmentsInAccessChain(ConstantFolder folder, AstVariable variable) {
+    for (AstVariable at = variable; at != null; at = at.child) {
+      for (AstExpression arrayExpression : at.arrayExpressions) countAssignments(folder, arrayExpression);
+    }
+  }
+
+  private AstDeclaration findDeclaration(ConstantFolder folder, String name) {
+    for (Map<String, AstDeclaration> scope : folder.scopes) {
+      AstDeclaration match = scope.get(name);
+      if (match != null) return match;
+    }
+    return null;
+  }
+
+  private List<AstStatement> foldStatements(ConstantFolder folder, List<AstStatement> statements) {
+    folder.scopes.push(new HashMap<>());
+
+    List<AstStatement> result = new ArrayList<>();
+
+    for (int i = 0; i < statements.size(); i++) {
+      AstStatement statement = statements.get(i);
+
+      if (statement instanceof AstDeclaration) {
+        AstDeclaration declaration = (AstDeclaration) statement;
+        declaration.optionalInit = foldAssignment(folder, declaration.optionalInit);
+        folder.scopes.peek().put(declaration.identifier, declaration);
+
+        AstLiteral constant = getPropagatableConstant(folder, declaration);
+        if (constant != null) {
+          folder.constants.put(declaration, constant);
+          continue;
+        }
+
+        result.add(declaration);
+
+      } else if (statement instanceof AstDefinition) {
+        AstDefinition definition = (AstDefinition) statement;
+        foldAccessChain(folder, definition.lhs);
+        definition.rhs = foldAssignment(folder, definition.rhs);
+        result.add(definition);
+
+      } else if (statement instanceof AstIfStatement) {
+        AstIfStatement ifStatement = (AstIfStatement) statement;
+        ifStatement.condition = foldExpression(folder, ifStatement.condition);
+        ifStatement.ifBody = foldStatements(folder, ifStatement.ifBody);
+        ifStatement.elseBody = foldStatements(folder, ifStatement.elseBody);
+
+        if (ifStatement.condition instanceof AstLiteral) {
+          AstLiteral condition = (AstLiteral) ifStatement.condition;
+          List<AstStatement> taken = getBoolValue(condition) ? ifStatement.ifBody : ifStatement.elseBody;
+
+          // the declarations of the taken branch move into the enclosing block, which fails if a later statement redeclares them.
+          List<AstStatement> remaining = statements.subList(i + 1, statements.size());
+          if (canSpliceInto(taken, remaining)) {
+            result.addAll(taken);
+          } else {
+            result.add(ifStatement);
+          }
+        } else {
+          result.add(ifStatement);
+        }
+
+      } else if (statement instanceof AstWhileLoop) {
+        AstWhileLoop whileLoop = (AstWhileLoop) statement;
+        whileLoop.condition = foldExpression(folder, whileLoop.condition);
+        whileLoop.body = foldStatements(folder, whileLoop.body);
+
+        if (whileLoop.condition instanceof AstLiteral) {
+          AstLiteral condition = (AstLiteral) whileLoop.condition;
+          if (!getBoolValue(condition)) continue;
+        }
+
+        result.add(whileLoop);
+
+      } else if (statement instanceof AstReturn) {
+        AstReturn _return = (AstReturn) statement;
+        if (_return.returnExpression != null) _return.returnExpression = foldExpression(folder, _return.returnExpression);
+        result.add(_return);
+
+      } else if (statement instanceof AstFunctionCall) {
+        AstFunctionCall functionCall = (AstFunctionCall) statement;
+        foldArguments(folder, functionCall);
+        result.add(functionCall);
+
+      } else {
+        throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+      }
+
+      if (result.size() > 0 && !canCompleteNormally(result.get(result.size() - 1))) break;
+    }
+
+    folder.scopes.pop();
+
+    return result;
+  }
+
+  private AstLiteral getPropagatableConstant(ConstantFolder folder, AstDeclaration declaration) {
+    if (folder.assignmentCounts.get(declaration) != 0) return null;
+    if (!(declaration.optionalInit instanceof AstLiteral)) return null;
+
+    AstType type = declaration.type;
+    if (type.isVarargs || type.arrayDimension > 0) return null;
+
+    AstLiteral init = (AstLiteral) declaration.optionalInit;
+    if (init.value.equals("nil")) return null;
+
+    if (type.category == AstTypeCategory.String) {
+      if (init.type.category != AstTypeCategory.String) return null;
+      return init;
+    }
+
+    if (type.category == init.type.category) return init;
+
+    // e.g. "x: i64 = 1;" has an i32 initializer. The propagated literal must have the declared type to keep the overload resolution intact.
+    return evaluateTypeCast(type, init);
+  }
+
+  private boolean canSpliceInto(List<AstStatement> taken, List<AstStatement> remaining) {
+    for (AstStatement statement : taken) {
+      if (!(statement instanceof AstDeclaration)) continue;
+
+      AstDeclaration declaration = (AstDeclaration) statement;
+      if (declaresName(remaining, declaration.identifier)) return false;
+    }
+    return true;
+  }
+
+  private boolean declaresName(List<AstStatement> statements, String name) {
+    for (AstStatement statement : statements) {
+      if (statement instanceof AstDeclaration) {
+        AstDeclaration declaration = (AstDeclaration) statement;
+        if (declaration.identifier.equals(name)) return true;
+
+      } else if (statement instanceof AstIfStatement) {
+        AstIfStatement ifStatement = (AstIfStatement) statement;
+        if (declaresName(ifStatement.ifBody, name)) return true;
+        if (declaresName(ifStatement.elseBody, name)) return true;
+
+      } else if (statement instanceof AstWhileLoop) {
+        AstWhileLoop whileLoop = (AstWhileLoop) statement;
+        if (declaresName(whileLoop.body, name)) return true;
+      }
+    }
+    return false;
+  }
+
+  // follows the java rules for reachability. There is no "break" in the language, so "while (true)" never completes.
+  private boolean canCompleteNormally(AstStatement statement) {
+    if (statement instanceof AstReturn) return false;
+
+    if (statement instanceof AstWhileLoop) {
+      AstWhileLoop whileLoop = (AstWhileLoop) statement;
+      if (!(whileLoop.condition instanceof AstLiteral)) return true;
+      return !getBoolValue((AstLiteral) whileLoop.condition);
+    }
+
+    if (statement instanceof AstIfStatement) {
+      AstIfStatement ifStatement = (AstIfStatement) statement;
+      if (ifStatement.elseBody.size() == 0) return true;  // "if (c) { return; }" completes normally in java, even if c is true.
+      return canCompleteNormally(ifStatement.ifBody) || canCompleteNormally(ifStatement.elseBody);
+    }
+
+    return true;
+  }
+
+  private boolean canCompleteNormally(List<AstStatement> statements) {
+    if (statements.size() == 0) return true;
+    return canCompleteNormally(statements.get(statements.size() - 1));
+  }
+
+  private AstAssignment foldAssignment(ConstantFolder folder, AstAssignment assignment) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+      for (int i = 0; i < _new.arraySizes.size(); i++) {
+        _new.arraySizes.set(i, foldExpression(folder, _new.arraySizes.get(i)));
+      }
+      return _new;
+    }
+
+    return foldExpression(folder, (AstExpression) assignment);
+  }
+
+  private AstExpression foldExpression(ConstantFolder folder, AstExpression expression) {
+    if (expression instanceof AstLiteral || expression instanceof AstArrayLiteral) {
+      return expression;
+    }
+
+    if (expression instanceof AstVariable) {
+      AstVariable variable = (AstVariable) expression;
+
+      if (variable.child == null && variable.arrayExpressions.size() == 0) {
+        AstDeclaration declaration = findDeclaration(folder, variable.name);
+        AstLiteral constant = folder.constants.get(declaration);
+        if (constant != null) return copyLiteral(constant);
+      }
+
+      foldAccessChain(folder, variable);
+      return variable;
+    }
+
+    if (expression instanceof AstParenthesis) {
+      AstParenthesis parenthesis = (AstParenthesis) expression;
+      parenthesis.body = foldExpression(folder, parenthesis.body);
+      if (parenthesis.body instanceof AstLiteral) return parenthesis.body;
+      return parenthesis;
+    }
+
+    if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+      unaryOperator.body = foldExpression(folder, unaryOperator.body);
+
+      if (unaryOperator.body instanceof AstLiteral) {
+        AstLiteral folded = evaluateUnaryOperator(unaryOperator.operator, (AstLiteral) unaryOperator.body);
+        if (folded != null) return folded;
+      }
+
+      return unaryOperator;
+    }
+
+    if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
+      binaryOperator.lhs = foldExpression(folder, binaryOperator.lhs);
+      binaryOperator.rhs = foldExpression(folder, binaryOperator.rhs);
+
+      AstExpression folded = foldBinaryOperator(binaryOperator);
+      if (folded != null) return folded;
+
+      return binaryOperator;
+    }
+
+    if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
+      typecast.expression = foldExpression(folder, typecast.expression);
+
+      if (typecast.expression instanceof AstLiteral) {
+        AstLiteral folded = evaluateTypeCast(typecast.type, (AstLiteral) typecast.expression);
+        if (folded != null) return folded;
+      }
+
+      return typecast;
+    }
+
+    if (expression instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) expression;
+      foldArguments(folder, functionCall);
+      return functionCall;
+    }
+
+    throw new CompilerException("unexpected expression %s.", expression.getClass().getSimpleName());
+  }
+
+  private AstExpression foldBinaryOperator(AstBinaryOperator binaryOperator) {
+    boolean lhsIsLiteral = binaryOperator.lhs instanceof AstLiteral;
+    boolean rhsIsLiteral = binaryOperator.rhs instanceof AstLiteral;
+
+    if (lhsIsLiteral && rhsIsLiteral) {
+      return evaluateBinaryOperator(binaryOperator.operator, (AstLiteral) binaryOperator.lhs, (AstLiteral) binaryOperator.rhs);
+    }
+
+    if (!isAny(binaryOperator.operator, "&&", "||")) return null;
+
+    boolean isAnd = binaryOperator.operator.equals("&&");
+
+    // a constant lhs decides whether the rhs is evaluated at all.
+    if (lhsIsLiteral) {
+      boolean lhs = getBoolValue((AstLiteral) binaryOperator.lhs);
+      if (isAnd) return lhs ? binaryOperator.rhs : astLiteral_bool(false);
+      return lhs ? astLiteral_bool(true) : binaryOperator.rhs;
+    }
+
+    // "e && false" and "e || true" still have to evaluate e, so only the neutral constants are removed.
+    if (rhsIsLiteral) {
+      boolean rhs = getBoolValue((AstLiteral) binaryOperator.rhs);
+      if (isAnd && rhs) return binaryOperator.lhs;
+      if (!isAnd && !rhs) return binaryOperator.lhs;
+    }
+
+    return null;
+  }
+
+  private void foldAccessChain(ConstantFolder folder, AstVariable variable) {
+    for (AstVariable at = variable; at != null; at = at.child) {
+      for (int i = 0; i < at.arrayExpressions.size(); i++) {
+        at.arrayExpressions.set(i, foldExpression(folder, at.arrayExpressions.get(i)));
+      }
+    }
+  }
+
+  private void foldArguments(ConstantFolder folder, AstFunctionCall functionCall) {
+    for (int i = 0; i < functionCall.arguments.size(); i++) {
+      functionCall.arguments.set(i, foldExpression(folder, functionCall.arguments.get(i)));
+    }
+  }
+
+  private AstLiteral copyLiteral(AstLiteral literal) {
+    AstLiteral result = astLiteral(literal.value, literal.type, literal.location);
+    result.integerValue = literal.integerValue;
+    result.floatingPointValue = literal.floatingPointValue;
+    return result;
+  }
+}
@@ -0,0 +1,641 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrCopyElements;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFillElements;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+
+// Control-flow graphs over the ir and a worklist solver for gen/kill problems on bit sets.
+// Liveness, reaching definitions, definite assignment and available expressions are all expressed as such problems.
+public interface DataflowModule extends IrModule {
+
+  static public class Cfg {
+    public IrFunction function;
+    public CfgNode entry;
+    public CfgNode exit;
+    public List<CfgNode> nodes;
+    public Map<IrBlock, CfgNode> blockToNode;
+
+    // the locals of the function (parameters first), numbered for the bit sets.
+    public List<IrLocal> locals;
+    public Map<IrLocal, Integer> localToIndex;
+  }
+
+  static public class CfgNode {
+    public int id;
+    public IrBlock block;  // null for the entry, the exit, conditions and joins.
+    public List<IrInstruction> instructions;
+    public List<IrValue> branchUses;  // read after the instructions, e.g. the condition of an if.
+    public List<CfgNode> successors;
+    public List<CfgNode> predecessors;
+  }
+
+  static public class DataflowProblem {
+    public boolean isForward;
+    public boolean isIntersection;  // a "must" problem, otherwise a "may" problem.
+    public int universeSize;
+    public BitSet boundary;  // the value at the entry of forward problems and at the exit of backward problems.
+    public Map<CfgNode, BitSet> gen;
+    public Map<CfgNode, BitSet> kill;
+  }
+
+  static public class DataflowResult {
+    public Map<CfgNode, BitSet> in;  // before the first instruction of the node.
+    public Map<CfgNode, BitSet> out;  // after the branch uses of the node.
+    public int iterations;
+  }
+
+  static public class ReachingDefinitions {
+    public List<IrInstruction> definitions;  // IrDeclare and IrAssign. Parameters are defined at the entry and aren't listed.
+    public Map<IrInstruction, Integer> definitionToIndex;
+    public DataflowResult result;
+  }
+
+  static public class AvailableExpressions {
+    public List<String> expressions;  // e.g. "%3 + L1", locals are identified by their index.
+    public Map<String, Integer> expressionToIndex;
+    public DataflowResult result;
+  }
+
+  default Cfg buildCfg(IrFunction function) {
+    Cfg result = new Cfg();
+    result.function = function;
+    result.nodes = new ArrayList<>();
+    result.blockToNode = new HashMap<>();
+    result.locals = new ArrayList<>(function.parameters);
+    result.localToIndex = new HashMap<>();
+
+    collectIrLocals(function.body, result.locals);
+    for (int i = 0; i < result.locals.size(); i++) {
+      result.localToIndex.put(result.locals.get(i), i);
+    }
+
+    result.entry = cfgNode(result, null);
+    result.exit = cfgNode(result, null);
+
+    CfgNode end = buildCfgSequence(result, function.body, result.entry);
+    if (end != null) linkCfgNodes(end, result.exit);
+
+    return result;
+  }
+
+  private void collectIrLocals(IrSequence sequence, List<IrLocal> locals) {
+    for (IrBlock block : getIrBlocks(sequence)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (instruction instanceof IrDeclare) locals.add(((IrDeclare) instruction).local);
+      }
+    }
+  }
+
+  // returns the node, where the control flow continues after the sequence. null if it ends with a return.
+  private CfgNode buildCfgSequence(Cfg cfg, IrSequence sequence, CfgNode current) {
+    for (IrRegion region : sequence.regions) {
+      if (current == null) return null;  // unreachable code after a return.
+
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+
+        CfgNode node = cfgNode(cfg, block);
+        cfg.blockToNode.put(block, node);
+        linkCfgNodes(current, node);
+
+        boolean returns = !block.instructions.isEmpty() && block.instructions.get(block.instructions.size() - 1) instanceof IrReturn;
+        if (returns) {
+          linkCfgNodes(node, cfg.exit);
+          current = null;
+        } else {
+          current = node;
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+
+        CfgNode branch = cfgNode(cfg, null);
+        branch.branchUses.add(_if.condition);
+        linkCfgNodes(current, branch);
+
+        CfgNode thenEnd = buildCfgSequence(cfg, _if.thenBody, branch);
+        CfgNode elseEnd = buildCfgSequence(cfg, _if.elseBody, branch);
+
+        current = joinCfgNodes(cfg, thenEnd, elseEnd);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+
+        CfgNode header = cfgNode(cfg, null);
+        linkCfgNodes(current, header);
+
+        CfgNode headerEnd = buildCfgSequence(cfg, loop.header, header);
+
+        CfgNode branch = cfgNode(cfg, null);
+        branch.branchUses.add(loop.condition);
+        linkCfgNodes(headerEnd, branch);
+
+        CfgNode bodyEnd = buildCfgSequence(cfg, loop.body, branch);
+        if (bodyEnd != null) linkCfgNodes(bodyEnd, header);
+
+        // the exit edge is kept for constant conditions as well, which is conservative for all problems.
+        current = cfgNode(cfg, null);
+        linkCfgNodes(branch, current);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+
+        CfgNode branch = cfgNode(cfg, null);
+        branch.branchUses.add(shortCircuit.lhs);
+        linkCfgNodes(current, branch);
+
+        CfgNode rhsEnd = buildCfgSequence(cfg, shortCircuit.rhsBody, branch);
+        CfgNode rhs = cfgNode(cfg, null);
+        rhs.branchUses.add(shortCircuit.rhs);
+        linkCfgNodes(rhsEnd, rhs);
+
+        current = joinCfgNodes(cfg, branch, rhs);
+
+      } else if (region instanceof IrSequence) {
+        current = buildCfgSequence(cfg, (IrSequence) region, current);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+
+    return current;
+  }
+
+  private CfgNode joinCfgNodes(Cfg cfg, CfgNode a, CfgNode b) {
+    if (a == null && b == null) return null;
+
+    CfgNode join = cfgNode(cfg, null);
+    if (a != null) linkCfgNodes(a, join);
+    if (b != null) linkCfgNodes(b, join);
+    return join;
+  }
+
+  private CfgNode cfgNode(Cfg cfg, IrBlock block) {
+    CfgNode result = new CfgNode();
+    result.id = cfg.nodes.size();
+    result.block = block;
+    result.instructions = (block != null) ? block.instructions : new ArrayList<>();
+    result.branchUses = new ArrayList<>();
+    result.successors = new ArrayList<>();
+    result.predecessors = new ArrayList<>();
+    cfg.nodes.add(result);
+    return result;
+  }
+
+  private void linkCfgNodes(CfgNode from, CfgNode to) {
+    from.successors.add(to);
+    to.predecessors.add(from);
+  }
+
+  default DataflowResult solveDataflow(Cfg cfg, DataflowProblem problem) {
+    DataflowResult result = new DataflowResult();
+    result.in = new HashMap<>();
+    result.out = new HashMap<>();
+
+    // "before" is where the meet happens: in for forward problems, out for backward problems.
+    Map<CfgNode, BitSet> before = problem.isForward ? result.in : result.out;
+    Map<CfgNode, BitSet> after = problem.isForward ? result.out : result.in;
+    CfgNode start = problem.isForward ? cfg.entry : cfg.exit;
+
+    BitSet top = new BitSet(problem.universeSize);
+    if (problem.isIntersection) top.set(0, problem.universeSize);
+
+    for (CfgNode node : cfg.nodes) {
+      before.put(node, (BitSet) top.clone());
+      after.put(node, (BitSet) top.clone());
+    }
+
+    Deque<CfgNode> worklist = new ArrayDeque<>();
+    boolean[] isQueued = new boolean[cfg.nodes.size()];
+
+    // reverse postorder for forward problems (postorder for backward ones) needs few iterations on structured code.
+    List<CfgNode> order = getCfgReversePostorder(cfg, problem.isForward);
+    for (CfgNode node : order) {
+      worklist.add(node);
+      isQueued[node.id] = true;
+    }
+
+    while (!worklist.isEmpty()) {
+      CfgNode node = worklist.poll();
+      isQueued[node.id] = false;
+      result.iterations += 1;
+
+      List<CfgNode> sources = problem.isForward ? node.predecessors : node.successors;
+
+      BitSet meet;
+      if (node == start) {
+        meet = (BitSet) problem.boundary.clone();
+      } else if (sources.isEmpty()) {
+        meet = new BitSet(problem.universeSize);  // unreachable
+      } else {
+        meet = (BitSet) after.get(sources.get(0)).clone();
+        for (int i = 1; i < sources.size(); i++) {
+          if (problem.isIntersection) meet.and(after.get(sources.get(i)));
+          else meet.or(after.get(sources.get(i)));
+        }
+      }
+      before.put(node, meet);
+
+      BitSet transferred = (BitSet) meet.clone();
+      BitSet kill = problem.kill.get(node);
+      BitSet gen = problem.gen.get(node);
+      if (kill != null) transferred.andNot(kill);
+      if (gen != null) transferred.or(gen);
+
+      if (transferred.equals(after.get(node))) continue;
+      after.put(node, transferred);
+
+      List<CfgNode> targets = problem.isForward ? node.successors : node.predecessors;
+      for (CfgNode target : targets) {
+        if (isQueued[target.id]) continue;
+        worklist.add(target);
+        isQueued[target.id] = true;
+      }
+    }
+
+    return result;
+  }
+
+  default List<CfgNode> getCfgReversePostorder(Cfg cfg, boolean isForward) {
+    List<CfgNode> postorder = new ArrayList<>();
+    boolean[] isVisited = new boolean[cfg.nodes.size()];
+
+    // iterative depth first search, the ir of big functions would overflow the stack.
+    Deque<CfgNode> nodes = new ArrayDeque<>();
+    Deque<Integer> nextSuccessor = new ArrayDeque<>();
+
+    CfgNode start = isForward ? cfg.entry : cfg.exit;
+    nodes.push(start);
+    nextSuccessor.push(0);
+    isVisited[start.id] = true;
+
+    while (!nodes.isEmpty()) {
+      CfgNode node = nodes.peek();
+      int next = nextSuccessor.pop();
+
+      List<CfgNode> successors = isForward ? node.successors : node.predecessors;
+      if (next < successors.size()) {
+        nextSuccessor.push(next + 1);
+
+        CfgNode successor = successors.get(next);
+        if (!isVisited[successor.id]) {
+          isVisited[successor.id] = true;
+          nodes.push(successor);
+          nextSuccessor.push(0);
+        }
+        continue;
+      }
+
+      nodes.pop();
+      postorder.add(node);
+    }
+
+    // nodes, which can't be reached from the start, are solved last.
+    for (CfgNode node : cfg.nodes) {
+      if (!isVisited[node.id]) postorder.add(0, node);
+    }
+
+    List<CfgNode> result = new ArrayList<>();
+    for (int i = postorder.size() - 1; i >= 0; i--) result.add(postorder.get(i));
+    return result;
+  }
+
+  // combines the effect of a node so far with the effect of the next instruction (in the direction of the problem).
+  private void composeDataflowEffect(BitSet gen, BitSet kill, BitSet nextGen, BitSet nextKill) {
+    gen.andNot(nextKill);
+    gen.or(nextGen);
+    kill.or(nextKill);
+  }
+
+  private DataflowProblem dataflowProblem(Cfg cfg, boolean isForward, boolean isIntersection, int universeSize) {
+    DataflowProblem result = new DataflowProblem();
+    result.isForward = isForward;
+    result.isIntersection = isIntersection;
+    result.universeSize = universeSize;
+    result.boundary = new BitSet(universeSize);
+    result.gen = new HashMap<>();
+    result.kill = new HashMap<>();
+    return result;
+  }
+
+  // the locals, which may be read before they are written again. Backward, may.
+  default DataflowResult computeLiveness(Cfg cfg) {
+    DataflowProblem problem = dataflowProblem(cfg, false, false, cfg.locals.size());
+
+    for (CfgNode node : cfg.nodes) {
+      BitSet gen = new BitSet();
+      BitSet kill = new BitSet();
+
+      BitSet branchUses = new BitSet();
+      for (IrValue use : node.branchUses) setLocalBit(cfg, branchUses, use);
+      composeDataflowEffect(gen, kill, branchUses, new BitSet());
+
+      for (int i = node.instructions.size() - 1; i >= 0; i--) {
+        IrInstruction instruction = node.instructions.get(i);
+        composeDataflowEffect(gen, kill, getLivenessUses(cfg, instruction), getDefinedLocals(cfg, instruction));
+      }
+
+      problem.gen.put(node, gen);
+      problem.kill.put(node, kill);
+    }
+
+    return solveDataflow(cfg, problem);
+  }
+
+  // the live locals after each instruction of the node.
+  default List<BitSet> getLiveAfterInstructions(Cfg cfg, DataflowResult liveness, CfgNode node) {
+    BitSet live = (BitSet) liveness.out.get(node).clone();
+    for (IrValue use : node.branchUses) setLocalBit(cfg, live, use);
+
+    List<BitSet> result = new ArrayList<>();
+    for (int i = 0; i < node.instructions.size(); i++) result.add(null);
+
+    for (int i = node.instructions.size() - 1; i >= 0; i--) {
+      IrInstruction instruction = node.instructions.get(i);
+      result.set(i, (BitSet) live.clone());
+
+      live.andNot(getDefinedLocals(cfg, instruction));
+      live.or(getLivenessUses(cfg, instruction));
+    }
+
+    return result;
+  }
+
+  private BitSet getLivenessUses(Cfg cfg, IrInstruction instruction) {
+    BitSet result = new BitSet();
+    for (IrValue operand : getIrOperands(instruction)) setLocalBit(cfg, result, operand);
+    return result;
+  }
+
+  private BitSet getDefinedLocals(Cfg cfg, IrInstruction instruction) {
+    BitSet result = new BitSet();
+    if (instruction instanceof IrDeclare) setLocalBit(cfg, result, ((IrDeclare) instruction).local);
+    if (instruction instanceof IrAssign) setLocalBit(cfg, result, ((IrAssign) instruction).local);
+    return result;
+  }
+
+  private void setLocalBit(Cfg cfg, BitSet set, IrValue value) {
+    if (!(value instanceof IrLocal)) return;
+    Integer index = cfg.localToIndex.get(value);
+    if (index != null) set.set(index);
+  }
+
+  // the locals, which have a value on every path to the node, like javac checks it. Forward, must.
+  // A declaration without a value makes the local unassigned again, e.g. in the next iteration of a loop.
+  default DataflowResult computeDefiniteAssignment(Cfg cfg) {
+    DataflowProblem problem = dataflowProblem(cfg, true, true, cfg.locals.size());
+    problem.boundary.set(0, cfg.function.parameters.size());
+
+    for (CfgNode node : cfg.nodes) {
+      BitSet gen = new BitSet();
+      BitSet kill = new BitSet();
+
+      for (IrInstruction instruction : node.instructions) {
+        BitSet assigned = new BitSet();
+        BitSet unassigned = new BitSet();
+
+        if (instruction instanceof IrDeclare) {
+          IrDeclare declare = (IrDeclare) instruction;
+          if (declare.value != null) setLocalBit(cfg, assigned, declare.local);
+          else setLocalBit(cfg, unassigned, declare.local);
+        }
+
+        if (instruction instanceof IrAssign) setLocalBit(cfg, assigned, ((IrAssign) instruction).local);
+
+        composeDataflowEffect(gen, kill, assigned, unassigned);
+      }
+
+      problem.gen.put(node, gen);
+      problem.kill.put(node, kill);
+    }
+
+    return solveDataflow(cfg, problem);
+  }
+
+  // the definitions of locals, which may reach the node without being overwritten. Forward, may.
+  default ReachingDefinitions computeReachingDefinitions(Cfg cfg) {
+    ReachingDefinitions result = new ReachingDefinitions();
+    result.definitions = new ArrayList<>();
+    result.definitionToIndex = new HashMap<>();
+
+    Map<IrLocal, BitSet> localToDefinitions = new HashMap<>();
+
+    for (CfgNode node : cfg.nodes) {
+      for (IrInstruction instruction : node.instructions) {
+        IrLocal local = getDefinedIrLocal(instruction);
+        if (local == null) continue;
+
+        int index = result.definitions.size();
+        result.definitions.add(instruction);
+        result.definitionToIndex.put(instruction, index);
+        localToDefinitions.computeIfAbsent(local, key -> new BitSet()).set(index);
+      }
+    }
+
+    DataflowProblem problem = dataflowProblem(cfg, true, false, result.definitions.size());
+
+    for (CfgNode node : cfg.nodes) {
+      BitSet gen = new BitSet();
+      BitSet kill = new BitSet();
+
+      for (IrInstruction instruction : node.instructions) {
+        IrLocal local = getDefinedIrLocal(instruction);
+        if (local == null) continue;
+
+        BitSet defined = new BitSet();
+        defined.set(result.definitionToIndex.get(instruction));
+        composeDataflowEffect(gen, kill, defined, localToDefinitions.get(local));
+      }
+
+      problem.gen.put(node, gen);
+      problem.kill.put(node, kill);
+    }
+
+    result.result = solveDataflow(cfg, problem);
+    return result;
+  }
+
+  default IrLocal getDefinedIrLocal(IrInstruction instruction) {
+    if (instruction instanceof IrDeclare) return ((IrDeclare) instruction).local;
+    if (instruction instanceof IrAssign) return ((IrAssign) instruction).local;
+    return null;
+  }
+
+  // the expressions, which have been computed on every path to the node and whose operands haven't changed since. Forward, must.
+  // Loads are killed by stores into the same field (or any element store) and by calls, since callees can write to the heap.
+  default AvailableExpressions computeAvailableExpressions(Cfg cfg) {
+    AvailableExpressions result = new AvailableExpressions();
+    result.expressions = new ArrayList<>();
+    result.expressionToIndex = new HashMap<>();
+
+    Map<String, BitSet> operandToExpressions = new HashMap<>();
+    BitSet fieldLoads = new BitSet();
+    BitSet elementLoads = new BitSet();
+
+    for (CfgNode node : cfg.nodes) {
+      for (IrInstruction instruction : node.instructions) {
+        String expression = getAvailableExpressionKey(cfg, instruction);
+        if (expression == null || result.expressionToIndex.containsKey(expression)) continue;
+
+        int index = result.expressions.size();
+        result.expressions.add(expression);
+        result.expressionToIndex.put(expression, index);
+
+        for (IrValue operand : getIrOperands(instruction)) {
+          operandToExpressions.computeIfAbsent(getAvailableOperandKey(cfg, operand), key -> new BitSet()).set(index);
+        }
+
+        if (instruction instanceof IrLoadField) fieldLoads.set(index);
+        if (instruction instanceof IrLoadElement) elementLoads.set(index);
+      }
+    }
+
+    DataflowProblem problem = dataflowProblem(cfg, true, true, result.expressions.size());
+
+    for (CfgNode node : cfg.nodes) {
+      BitSet gen = new BitSet();
+      BitSet kill = new BitSet();
+
+      for (IrInstruction instruction : node.instructions) {
+        BitSet computed = new BitSet();
+        BitSet killed = new BitSet();
+
+        IrValue defined = getIrResult(instruction);
+        if (defined == null) defined = getDefinedIrLocal(instruction);
+        if (defined != null) {
+          BitSet users = operandToExpressions.get(getAvailableOperandKey(cfg, defined));
+          if (users != null) killed.or(users);
+        }
+
+        if (instruction instanceof IrStoreField) {
+          String field = ((IrStoreField) instruction).field;
+          for (int i = fieldLoads.nextSetBit(0); i >= 0; i = fieldLoads.nextSetBit(i + 1)) {
+            if (result.expressions.get(i).endsWith("." + field)) killed.set(i);
+          }
+        }
+
+        if (instruction instanceof IrStoreElement || instruction instanceof IrCopyElements || instruction instanceof IrFillElements) killed.or(elementLoads);
+
+        if (instruction instanceof IrCall) {
+          killed.or(fieldLoads);
+          killed.or(elementLoads);
+        }
+
+        String expression = getAvailableExpressionKey(cfg, instruction);
+        if (expression != null) {
+          int index = result.expressionToIndex.get(expression);
+          if (!killed.get(index)) computed.set(index);
+        }
+
+        composeDataflowEffect(gen, kill, computed, killed);
+      }
+
+      problem.gen.put(node, gen);
+      problem.kill.put(node, kill);
+    }
+
+    result.result = solveDataflow(cfg, problem);
+    return result;
+  }
+
+  // null for instructions with side effects or without a result.
+  default String getAvailableExpressionKey(Cfg cfg, IrInstruction instruction) {
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      return String.format("%s %s %s", getAvailableOperandKey(cfg, binary.lhs), binary.operator, getAvailableOperandKey(cfg, binary.rhs));
+    }
+
+    if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      return String.format("%s%s", unary.operator, getAvailableOperandKey(cfg, unary.operand));
+    }
+
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      return String.format("(%s)%s", typeToString(cast.result.type), getAvailableOperandKey(cfg, cast.operand));
+    }
+
+    if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      return String.format("%s.length", getAvailableOperandKey(cfg, length.array));
+    }
+
+    if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      return String.format("%s[%s]", getAvailableOperandKey(cfg, load.array), getAvailableOperandKey(cfg, load.index));
+    }
+
+    if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      return String.format("%s.%s", getAvailableOperandKey(cfg, load.object), load.field);
+    }
+
+    return null;
+  }
+
+  // locals are identified by index, since sibling scopes may reuse a name.
+  private String getAvailableOperandKey(Cfg cfg, IrValue value) {
+    if (value instanceof IrLocal) return String.format("L%d", cfg.localToIndex.get(value));
+    if (value instanceof IrTemp) return String.format("%%%d", ((IrTemp) value).id);
+    if (value instanceof IrConstant) {
+      IrConstant constant = (IrConstant) value;
+      return String.format("%s:%s", constant.literal.value, typeToString(constant.literal.type));
+    }
+    throw new CompilerException("unexpected ir value %s.", value.getClass().getSimpleName());
+  }
+
+  default String getDataflowDump(Cfg cfg, DataflowResult result, List<String> universe) {
+    StringBuilder builder = new StringBuilder();
+
+    for (CfgNode node : cfg.nodes) {
+      String name = (node.block != null) ? String.format("b%d", node.block.id) : "-";
+      builder.append(String.format("n%d (%s) in=%s out=%s\n", node.id, name, getBitSetString(result.in.get(node), universe), getBitSetString(result.out.get(node), universe)));
+    }
+
+    return builder.toString();
+  }
+
+  private String getBitSetString(BitSet set, List<String> universe) {
+    List<String> names = new ArrayList<>();
+    for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) names.add(universe.get(i));
+    return String.format("{%s}", String.join(", ", names));
+  }
+
+  default List<String> getLocalNames(Cfg cfg) {
+    List<String> result = new ArrayList<>();
+    for (IrLocal local : cfg.locals) result.add(local.name);
+    return result;
+  }
+}
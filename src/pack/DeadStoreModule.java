@@ -0,0 +1,339 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Removes stores into locals, which are overwritten before they are read, e.g. the default values the typechecker gives every declaration.
+// A declaration, whose value is dead, keeps the local without a value as long as javac can prove that the local is assigned before every use.
+public interface DeadStoreModule extends DataflowModule {
+
+  default void eliminateDeadStores(IrProgram program) {
+    Set<String> structNames = new HashSet<>();
+    for (AstStruct struct : program.structs) structNames.add(struct.name);
+
+    for (IrFunction function : program.functions) {
+      eliminateDeadStores(function, structNames);
+    }
+  }
+
+  // structNames are the structs without java library bindings, i.e. the ones whose constructors have no side effects.
+  default void eliminateDeadStores(IrFunction function, Set<String> structNames) {
+    List<IrDeclare> emptiedDeclares = new ArrayList<>();
+
+    boolean changed = true;
+    while (changed) {
+      changed = removeDeadStores(function, emptiedDeclares);
+      changed |= removeUnusedIrTemps(function, structNames);
+    }
+
+    removeUnreferencedDeclares(function, emptiedDeclares);
+    restoreUnassignedDeclares(function, emptiedDeclares);
+    mergeDeclaresWithAssignments(function);
+    removeEmptyIrBlocks(function.body);
+  }
+
+  private boolean removeDeadStores(IrFunction function, List<IrDeclare> emptiedDeclares) {
+    Cfg cfg = buildCfg(function);
+    DataflowResult liveness = computeLiveness(cfg);
+
+    boolean changed = false;
+
+    for (CfgNode node : cfg.nodes) {
+      if (node.block == null) continue;
+
+      List<BitSet> liveAfter = getLiveAfterInstructions(cfg, liveness, node);
+      List<IrInstruction> kept = new ArrayList<>();
+
+      for (int i = 0; i < node.instructions.size(); i++) {
+        IrInstruction instruction = node.instructions.get(i);
+
+        IrLocal local = getDefinedIrLocal(instruction);
+        boolean isDead = local != null && !liveAfter.get(i).get(cfg.localToIndex.get(local));
+
+        if (isDead && instruction instanceof IrAssign) {
+          changed = true;
+          continue;
+        }
+
+        if (isDead && instruction instanceof IrDeclare) {
+          IrDeclare declare = (IrDeclare) instruction;
+          if (declare.value != null) {
+            declare.value = null;
+            emptiedDeclares.add(declare);
+            changed = true;
+          }
+        }
+
+        kept.add(instruction);
+      }
+
+      node.block.instructions.clear();
+      node.block.instructions.addAll(kept);
+    }
+
+    return changed;
+  }
+
+  // removes side effect free instructions, whose results are never used. Calls are kept, but their results are discarded.
+  default boolean removeUnusedIrTemps(IrFunction function, Set<String> structNames) {
+    boolean changed = false;
+
+    boolean removed = true;
+    while (removed) {
+      removed = false;
+      Map<IrTemp, Integer> uses = countIrTempUses(function.body);
+
+      for (IrBlock block : getIrBlocks(function.body)) {
+        List<IrInstruction> kept = new ArrayList<>();
+
+        for (IrInstruction instruction : block.instructions) {
+          IrTemp result = getIrResult(instruction);
+          boolean isUnused = result != null && !uses.containsKey(result);
+
+          if (isUnused && instruction instanceof IrCall) {
+            ((IrCall) instruction).result = null;
+            changed = true;
+
+          } else if (isUnused && isSideEffectFree(instruction, structNames)) {
+            removed = true;
+            changed = true;
+            continue;
+          }
+
+          kept.add(instruction);
+        }
+
+        block.instructions.clear();
+        block.instructions.addAll(kept);
+      }
+    }
+
+    return changed;
+  }
+
+  // loads and array allocations may throw, and the string conversion of a struct may call java library code.
+  default boolean isSideEffectFree(IrInstruction instruction, Set<String> structNames) {
+    if (instruction instanceof IrUnary) return true;
+
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      if (isReferenceOperand(binary.lhs) || isReferenceOperand(binary.rhs)) return false;
+
+      if (isIntegerType(binary.result.type) && isAny(binary.operator, "/", "%")) {
+        return isNonZeroIrConstant(binary.rhs);
+      }
+      return true;
+    }
+
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      return !isReferenceType(cast.result.type) && !isReferenceType(getIrValueType(cast.operand));
+    }
+
+    if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+      AstType type = _new.result.type;
+      return !isArrayType(type) && type.category == AstTypeCategory.Struct && structNames.contains(type.structName);
+    }
+
+    return false;
+  }
+
+  private boolean isReferenceOperand(IrValue value) {
+    AstType type = getIrValueType(value);
+    return isReferenceType(type) && type.category != AstTypeCategory.String;
+  }
+
+  private boolean isNonZeroIrConstant(IrValue value) {
+    if (!(value instanceof IrConstant)) return false;
+
+    String literal = ((IrConstant) value).literal.value;
+    try {
+      return Long.parseLong(literal.replace("l", "").replace("L", "")) != 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  // declarations of locals, which are only written to, disappear completely.
+  private void removeUnreferencedDeclares(IrFunction function, List<IrDeclare> emptiedDeclares) {
+    Set<IrLocal> referenced = new HashSet<>();
+    for (IrBlock block : getIrBlocks(function.body)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (instruction instanceof IrAssign) referenced.add(((IrAssign) instruction).local);
+        for (IrValue operand : getIrOperands(instruction)) {
+          if (operand instanceof IrLocal) referenced.add((IrLocal) operand);
+        }
+      }
+    }
+    collectIrConditionLocals(function.body, referenced);
+
+    Set<IrDeclare> unreferenced = new HashSet<>();
+    for (IrDeclare declare : emptiedDeclares) {
+      if (declare.value == null && !referenced.contains(declare.local)) unreferenced.add(declare);
+    }
+
+    if (unreferenced.isEmpty()) return;
+
+    for (IrBlock block : getIrBlocks(function.body)) {
+      block.instructions.removeIf(instruction -> unreferenced.contains(instruction));
+    }
+    emptiedDeclares.removeAll(unreferenced);
+  }
+
+  private void collectIrConditionLocals(IrSequence sequence, Set<IrLocal> locals) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        if (_if.condition instanceof IrLocal) locals.add((IrLocal) _if.condition);
+        collectIrConditionLocals(_if.thenBody, locals);
+        collectIrConditionLocals(_if.elseBody, locals);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        if (loop.condition instanceof IrLocal) locals.add((IrLocal) loop.condition);
+        collectIrConditionLocals(loop.header, locals);
+        collectIrConditionLocals(loop.body, locals);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        if (shortCircuit.lhs instanceof IrLocal) locals.add((IrLocal) shortCircuit.lhs);
+        if (shortCircuit.rhs instanceof IrLocal) locals.add((IrLocal) shortCircuit.rhs);
+        collectIrConditionLocals(shortCircuit.rhsBody, locals);
+
+      } else if (region instanceof IrSequence) {
+        collectIrConditionLocals((IrSequence) region, locals);
+      }
+    }
+  }
+
+  // javac rejects reads of locals, which aren't definitely assigned, even if the value read is never observed.
+  // Such declarations get the default value back. Any value will do, since the value is dead.
+  private void restoreUnassignedDeclares(IrFunction function, List<IrDeclare> emptiedDeclares) {
+    if (emptiedDeclares.isEmpty()) return;
+
+    Map<IrLocal, IrDeclare> localToDeclare = new HashMap<>();
+    for (IrDeclare declare : emptiedDeclares) localToDeclare.put(declare.local, declare);
+
+    boolean restored = true;
+    while (restored) {
+      restored = false;
+
+      Cfg cfg = buildCfg(function);
+      DataflowResult assigned = computeDefiniteAssignment(cfg);
+
+      for (CfgNode node : cfg.nodes) {
+        BitSet current = (BitSet) assigned.in.get(node).clone();
+
+        for (IrInstruction instruction : node.instructions) {
+          for (IrValue operand : getIrOperands(instruction)) {
+            restored |= restoreUnassignedDeclare(cfg, current, operand, localToDeclare);
+          }
+
+          IrLocal local = getDefinedIrLocal(instruction);
+          if (local == null) continue;
+
+          boolean hasValue = !(instruction instanceof IrDeclare) || ((IrDeclare) instruction).value != null;
+          current.set(cfg.localToIndex.get(local), hasValue);
+        }
+
+        for (IrValue use : node.branchUses) {
+          restored |= restoreUnassignedDeclare(cfg, current, use, localToDeclare);
+        }
+      }
+    }
+  }
+
+  private boolean restoreUnassignedDeclare(Cfg cfg, BitSet assigned, IrValue value, Map<IrLocal, IrDeclare> localToDeclare) {
+    if (!(value instanceof IrLocal)) return false;
+
+    IrLocal local = (IrLocal) value;
+    if (assigned.get(cfg.localToIndex.get(local))) return false;
+
+    IrDeclare declare = localToDeclare.get(local);
+    if (declare == null || declare.value != null) return false;
+
+    declare.value = irConstant(getDefaultValueForType(local.type));
+    return true;
+  }
+
+  // "declare x; ...; x = v" in the same block becomes "...; declare x = v", if nothing in between refers to x.
+  private void mergeDeclaresWithAssignments(IrFunction function) {
+    for (IrBlock block : getIrBlocks(function.body)) {
+      List<IrInstruction> instructions = block.instructions;
+
+      for (int i = 0; i < instructions.size(); i++) {
+        if (!(instructions.get(i) instanceof IrDeclare)) continue;
+
+        IrDeclare declare = (IrDeclare) instructions.get(i);
+        if (declare.value != null) continue;
+
+        for (int j = i + 1; j < instructions.size(); j++) {
+          IrInstruction instruction = instructions.get(j);
+
+          if (instruction instanceof IrAssign && ((IrAssign) instruction).local == declare.local) {
+            declare.value = ((IrAssign) instruction).value;
+            instructions.set(j, declare);
+            instructions.remove(i);
+            i -= 1;
+            break;
+          }
+
+          if (getIrOperands(instruction).contains(declare.local)) break;
+        }
+      }
+    }
+  }
+
+  default void removeEmptyIrBlocks(IrSequence sequence) {
+    sequence.regions.removeIf(region -> region instanceof IrBlock && ((IrBlock) region).instructions.isEmpty());
+
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        removeEmptyIrBlocks(_if.thenBody);
+        removeEmptyIrBlocks(_if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        removeEmptyIrBlocks(loop.header);
+        removeEmptyIrBlocks(loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        removeEmptyIrBlocks(((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        removeEmptyIrBlocks((IrSequence) region);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The format strings of "print" and "ensure", which follow java.util.Formatter. A literal format is checked against the types of
+// its arguments when the program is typechecked, instead of failing when the program runs. The java converter writes a "print" with
+// a literal format as a string concatenation, so neither the format is parsed nor the arguments are boxed at runtime.
+public interface FormatModule extends ParserModule {
+
+  // either literal text or a specifier.
+  static public class FormatPart {
+    public String text;  // as written in the source, escapes included. null for a specifier.
+    public String specifier;  // e.g. "%d" or "%-8.2f".
+    public char conversion;
+    public boolean hasFlags;  // flags, a width or a precision.
+  }
+
+  default boolean isFormatFunction(AstFunction function) {
+    if (!function.hasJavaLibraryBinding || !"Preload".equals(function.javaLibraryName)) return false;
+    return function.name.equals("print") || function.name.equals("ensure");
+  }
+
+  // the format is the first parameter of "print" and the second one of "ensure".
+  default int getFormatParameterIndex(AstFunction function) {
+    return function.name.equals("ensure") ? 1 : 0;
+  }
+
+  // returns null if the format uses more than "%[flags][width][.precision]conversion", e.g. argument indices or dates.
+  default List<FormatPart> parseFormat(String format) {
+    List<FormatPart> result = new ArrayList<>();
+
+    int textStart = 0;
+    int i = 0;
+    while (i < format.length()) {
+      if (format.charAt(i) != '%') {
+        i += 1;
+        continue;
+      }
+
+      if (i > textStart) result.add(formatText(format.substring(textStart, i)));
+
+      int start = i;
+      i += 1;
+      while (i < format.length() && "-#+ 0,(".indexOf(format.charAt(i)) != -1) i += 1;
+      while (i < format.length() && Character.isDigit(format.charAt(i))) i += 1;
+      if (i < format.length() && format.charAt(i) == '.') {
+        i += 1;
+        while (i < format.length() && Character.isDigit(format.charAt(i))) i += 1;
+      }
+
+      if (i == format.length()) return null;
+
+      char conversion = format.charAt(i);
+      if ("bBhHsScCdoxXeEfgGaA%n".indexOf(conversion) == -1) return null;
+      i += 1;
+
+      FormatPart specifier = new FormatPart();
+      specifier.specifier = format.substring(start, i);
+      specifier.conversion = conversion;
+      specifier.hasFlags = (i - start) > 2;
+      result.add(specifier);
+
+      textStart = i;
+    }
+
+    if (format.length() > textStart) result.add(formatText(format.substring(textStart)));
+
+    return result;
+  }
+
+  private FormatPart formatText(String text) {
+    FormatPart result = new FormatPart();
+    result.text = text;
+    return result;
+  }
+
+  default boolean isFormatArgumentSpecifier(FormatPart part) {
+    return part.text == null && part.conversion != '%' && part.conversion != 'n';
+  }
+
+  // whether java.util.Formatter accepts a value of the type for the conversion. "any" and "nil" are only known at runtime.
+  default boolean doesFormatArgumentFit(char conversion, AstType type) {
+    if (type.category == AstTypeCategory.Any || type.category == AstTypeCategory.Object) return true;
+
+    boolean isArray = type.arrayDimension > 0 || type.isVarargs;
+    AstTypeCategory category = type.category;
+
+    if ("doxX".indexOf(conversion) != -1) {
+      return !isArray && (category == AstTypeCategory.I8 || category == AstTypeCategory.I16 || category == AstTypeCategory.I32 || category == AstTypeCategory.I64);
+    }
+
+    if ("cC".indexOf(conversion) != -1) {
+      return !isArray && (category == AstTypeCategory.Char || category == AstTypeCategory.I8 || category == AstTypeCategory.I16 || category == AstTypeCategory.I32);
+    }
+
+    if ("eEfgGaA".indexOf(conversion) != -1) {
+      return !isArray && (category == AstTypeCategory.F32 || category == AstTypeCategory.F64);
+    }
+
+    return true;
+  }
+}
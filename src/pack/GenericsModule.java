@@ -0,0 +1,200 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Generic structs and functions are compiled by monomorphisation. The typechecker creates a copy of a generic struct or function for
+// every distinct list of type arguments, e.g. "Array(i32)" becomes the struct "Array$i32" with an "[] i32" field. The copies are ordinary
+// structs and functions, so the later passes and the java converter never see a type parameter, and an i32 element is never boxed.
+public interface GenericsModule extends ParserModule {
+
+  // a struct, which the typechecker created from a generic one.
+  static public class GenericStructInstance {
+    public AstStruct struct;
+    public AstStruct generic;
+    public List<AstType> typeArguments;
+  }
+
+  // a function, which the typechecker created from a generic one. Its body gets typechecked with the bound type parameters.
+  static public class GenericFunctionInstance {
+    public AstFunction function;
+    public Map<String, AstType> typeBindings;
+  }
+
+  default boolean isGeneric(AstStruct struct) {
+    return struct.typeParameters != null && !struct.typeParameters.isEmpty();
+  }
+
+  default boolean isGeneric(AstFunction function) {
+    return function.typeParameters != null && !function.typeParameters.isEmpty();
+  }
+
+  // e.g. "Array$i32" or "Pair$1d$char$Array$i32" for Pair([] char, Array(i32)). "$" can't be part of an abc identifier, so the name never
+  // collides with a declared struct. A generic struct takes a fixed number of type arguments, so the name is unambiguous.
+  default String getGenericInstanceName(String genericName, List<AstType> typeArguments) {
+    StringBuilder builder = new StringBuilder(genericName);
+    for (AstType typeArgument : typeArguments) {
+      builder.append('$');
+      if (typeArgument.arrayDimension > 0) builder.append(typeArgument.arrayDimension).append("d$");
+
+      if (typeArgument.category == AstTypeCategory.Struct) builder.append(typeArgument.structName);
+      else builder.append(typeArgument.category.name().toLowerCase());
+    }
+    return builder.toString();
+  }
+
+  //
+  // cloning. The types are shared with the generic function, the typechecker replaces them instead of changing them.
+  //
+
+  default List<AstStatement> cloneAstStatements(List<AstStatement> statements) {
+    List<AstStatement> result = new ArrayList<>();
+    for (AstStatement statement : statements) {
+      result.add(cloneAstStatement(statement));
+    }
+    return result;
+  }
+
+  private AstStatement cloneAstStatement(AstStatement statement) {
+    if (statement instanceof AstFunctionCall) {
+      return cloneAstFunctionCall((AstFunctionCall) statement);
+    }
+
+    if (statement instanceof AstDeclaration) {
+      AstDeclaration declaration = (AstDeclaration) statement;
+      AstDeclaration result = new AstDeclaration();
+      result.location = declaration.location;
+      result.type = declaration.type;
+      result.identifier = declaration.identifier;
+      if (declaration.optionalInit != null) result.optionalInit = cloneAstAssignment(declaration.optionalInit);
+      return result;
+    }
+
+    if (statement instanceof AstDefinition) {
+      AstDefinition definition = (AstDefinition) statement;
+      AstDefinition result = new AstDefinition();
+      result.lhs = cloneAstVariable(definition.lhs);
+      result.rhs = cloneAstAssignment(definition.rhs);
+      return result;
+    }
+
+    if (statement instanceof AstIfStatement) {
+      AstIfStatement ifStatement = (AstIfStatement) statement;
+      AstIfStatement result = new AstIfStatement();
+      result.location = ifStatement.location;
+      result.condition = cloneAstExpression(ifStatement.condition);
+      result.ifBody = cloneAstStatements(ifStatement.ifBody);
+      result.elseBody = cloneAstStatements(ifStatement.elseBody);
+      return result;
+    }
+
+    if (statement instanceof AstWhileLoop) {
+      AstWhileLoop whileLoop = (AstWhileLoop) statement;
+      AstWhileLoop result = new AstWhileLoop();
+      result.location = whileLoop.location;
+      result.condition = cloneAstExpression(whileLoop.condition);
+      result.body = cloneAstStatements(whileLoop.body);
+      return result;
+    }
+
+    if (statement instanceof AstReturn) {
+      AstReturn _return = (AstReturn) statement;
+      AstReturn result = new AstReturn();
+      result.location = _return.location;
+      if (_return.returnExpression != null) result.returnExpression = cloneAstExpression(_return.returnExpression);
+      return result;
+    }
+
+    throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+  }
+
+  private AstAssignment cloneAstAssignment(AstAssignment assignment) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+      AstNew result = new AstNew();
+      result.location = _new.location;
+      result.arraySizes = new ArrayList<>();
+      for (AstExpression arraySize : _new.arraySizes) {
+        result.arraySizes.add(cloneAstExpression(arraySize));
+      }
+      return result;
+    }
+
+    return cloneAstExpression((AstExpression) assignment);
+  }
+
+  private AstExpression cloneAstExpression(AstExpression expression) {
+    if (expression instanceof AstFunctionCall) {
+      return cloneAstFunctionCall((AstFunctionCall) expression);
+    }
+
+    if (expression instanceof AstVariable) {
+      return cloneAstVariable((AstVariable) expression);
+    }
+
+    if (expression instanceof AstLiteral) {
+      AstLiteral literal = (AstLiteral) expression;
+      return astLiteral(literal.value, literal.type, literal.location);
+    }
+
+    if (expression instanceof AstTypeCast) {
+      AstTypeCast typeCast = (AstTypeCast) expression;
+      AstTypeCast result = new AstTypeCast();
+      result.type = typeCast.type;
+      result.expression = cloneAstExpression(typeCast.expression);
+      result.implicit = typeCast.implicit;
+      return result;
+    }
+
+    if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
+      AstBinaryOperator result = new AstBinaryOperator();
+      result.lhs = cloneAstExpression(binaryOperator.lhs);
+      result.operator = binaryOperator.operator;
+      result.rhs = cloneAstExpression(binaryOperator.rhs);
+      return result;
+    }
+
+    if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+      AstUnaryOperator result = new AstUnaryOperator();
+      result.operator = unaryOperator.operator;
+      result.body = cloneAstExpression(unaryOperator.body);
+      return result;
+    }
+
+    if (expression instanceof AstParenthesis) {
+      AstParenthesis parenthesis = (AstParenthesis) expression;
+      AstParenthesis result = new AstParenthesis();
+      result.body = cloneAstExpression(parenthesis.body);
+      return result;
+    }
+
+    throw new CompilerException("unexpected expression %s.", expression.getClass().getSimpleName());
+  }
+
+  private AstFunctionCall cloneAstFunctionCall(AstFunctionCall functionCall) {
+    AstFunctionCall result = new AstFunctionCall();
+    result.location = functionCall.location;
+    result.name = functionCall.name;
+    result.arguments = new ArrayList<>();
+    for (AstExpression argument : functionCall.arguments) {
+      result.arguments.add(cloneAstExpression(argument));
+    }
+    return result;
+  }
+
+  private AstVariable cloneAstVariable(AstVariable variable) {
+    AstVariable result = new AstVariable();
+    result.location = variable.location;
+    result.name = variable.name;
+    result.fieldOrdinal = -1;
+    result.arrayExpressions = new ArrayList<>();
+    for (AstExpression arrayExpression : variable.arrayExpressions) {
+      result.arrayExpressions.add(cloneAstExpression(arrayExpression));
+    }
+    if (variable.child != null) result.child = cloneAstVariable(variable.child);
+    return result;
+  }
+}
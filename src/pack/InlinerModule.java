@@ -0,0 +1,634 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrCopyElements;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFillElements;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+
+// Copies the bodies of small functions into their callers. Callees are inlined into each other first (bottom up),
+// so a chain of forwarding overloads collapses into its last function.
+// The ir has no jumps, so only callees, whose returns all end the function, can be inlined.
+public interface InlinerModule extends CallGraphModule, ProfileModule {
+
+  static public class InliningSettings {
+    public int maxCalleeSize;  // in ir instructions and regions.
+    public int maxGrowthPerCaller;  // in ir instructions and regions.
+
+    public Profile profile;  // null without a profile.
+    public long hotCallSiteCount;  // a call site, which ran at least this often, may inline callees up to hotMaxCalleeSize.
+    public int hotMaxCalleeSize;  // in ir instructions and regions.
+  }
+
+  static public class InliningReport {
+    public int callSites;
+    public int inlinedCallSites;
+    public Map<String, Integer> skipReasonToCount;
+    public Map<IrFunction, List<String>> callerToInlinedCallees;
+  }
+
+  static public class Inliner {
+    public InliningSettings settings;
+    public InliningReport report;
+    public CallGraph graph;
+    public Set<IrFunction> recursive;
+
+    public IrFunction caller;
+    public int growth;  // of the current caller.
+    public int inlinedCount;  // in the current caller, makes the names of the copied locals unique.
+    public Map<IrTemp, IrValue> replacements;  // the results of inlined calls in the current caller.
+  }
+
+  // the mapping from the callee into the caller for one call site.
+  static public class IrCloner {
+    public IrFunction caller;
+    public Map<IrTemp, IrTemp> temps;
+    public Map<IrLocal, IrValue> locals;
+    public Set<IrLocal> copiedLocals;
+    public String suffix;
+    public IrLocal result;  // assigned by the returns. null, if the callee returns void or the result is discarded.
+  }
+
+  default InliningReport inlineFunctions(IrProgram program, InliningSettings settings) {
+    Inliner inliner = new Inliner();
+    inliner.settings = settings;
+    inliner.graph = buildCallGraph(program);
+    inliner.recursive = new HashSet<>();
+
+    inliner.report = new InliningReport();
+    inliner.report.skipReasonToCount = new LinkedHashMap<>();
+    inliner.report.callerToInlinedCallees = new LinkedHashMap<>();
+
+    for (IrFunction function : program.functions) {
+      if (isRecursive(inliner.graph, function)) inliner.recursive.add(function);
+    }
+
+    for (IrFunction function : getBottomUpOrder(inliner.graph, program)) {
+      inliner.caller = function;
+      inliner.growth = 0;
+      inliner.inlinedCount = 0;
+      inliner.replacements = new HashMap<>();
+
+      inlineCallsInSequence(inliner, function.body);
+
+      // an argument of an inlined call may be the result of a call inlined before, so replacements are followed.
+      mapIrValues(function.body, value -> {
+        while (inliner.replacements.containsKey(value)) value = inliner.replacements.get(value);
+        return value;
+      });
+    }
+
+    return inliner.report;
+  }
+
+  // callees before their callers. Functions in a cycle are in an arbitrary order, calls between them aren't inlined.
+  private List<IrFunction> getBottomUpOrder(CallGraph graph, IrProgram program) {
+    List<IrFunction> result = new ArrayList<>();
+    Set<IrFunction> visited = new HashSet<>();
+
+    for (IrFunction function : program.functions) {
+      addBottomUp(graph, function, visited, result);
+    }
+
+    return result;
+  }
+
+  private void addBottomUp(CallGraph graph, IrFunction function, Set<IrFunction> visited, List<IrFunction> order) {
+    if (!visited.add(function)) return;
+
+    for (IrFunction callee : graph.callees.get(function)) {
+      addBottomUp(graph, callee, visited, order);
+    }
+
+    order.add(function);
+  }
+
+  private void inlineCallsInSequence(Inliner inliner, IrSequence sequence) {
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+
+      if (region instanceof IrBlock) {
+        List<IrRegion> inlined = inlineCallsInBlock(inliner, (IrBlock) region);
+        if (inlined == null) continue;
+
+        sequence.regions.remove(i);
+        sequence.regions.addAll(i, inlined);
+        i += inlined.size() - 1;
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        inlineCallsInSequence(inliner, _if.thenBody);
+        inlineCallsInSequence(inliner, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        inlineCallsInSequence(inliner, loop.header);
+        inlineCallsInSequence(inliner, loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        inlineCallsInSequence(inliner, ((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        inlineCallsInSequence(inliner, (IrSequence) region);
+      }
+    }
+
+    mergeAdjacentIrBlocks(sequence);
+  }
+
+  // returns the regions replacing the block, or null if no call in the block was inlined.
+  private List<IrRegion> inlineCallsInBlock(Inliner inliner, IrBlock block) {
+    List<IrRegion> result = null;
+    IrBlock current = block;
+
+    for (int i = 0; i < current.instructions.size(); i++) {
+      IrInstruction instruction = current.instructions.get(i);
+      if (!(instruction instanceof IrCall)) continue;
+
+      IrCall call = (IrCall) instruction;
+      IrFunction callee = inliner.graph.sourceToFunction.get(call.function);
+      if (callee == null) continue;  // java library binding.
+
+      inliner.report.callSites += 1;
+
+      String skipReason = getInliningSkipReason(inliner, call, callee);
+      if (skipReason != null) {
+        inliner.report.skipReasonToCount.merge(skipReason, 1, Integer::sum);
+        continue;
+      }
+
+      if (result == null) result = new ArrayList<>();
+
+      IrBlock rest = irBlock(inliner.caller);
+      rest.instructions.addAll(current.instructions.subList(i + 1, current.instructions.size()));
+      current.instructions.subList(i, current.instructions.size()).clear();
+
+      result.add(current);
+      result.addAll(inlineCall(inliner, call, callee));
+
+      inliner.growth += getIrSize(callee.body);
+      inliner.inlinedCount += 1;
+      inliner.report.inlinedCallSites += 1;
+      inliner.report.callerToInlinedCallees.computeIfAbsent(inliner.caller, key -> new ArrayList<>()).add(getIrFunctionSignature(callee));
+
+      current = rest;
+      i = -1;
+    }
+
+    if (result != null) result.add(current);
+    return result;
+  }
+
+  private String getInliningSkipReason(Inliner inliner, IrCall call, IrFunction callee) {
+    if (inliner.recursive.contains(callee)) return "recursive";
+    if (callee == inliner.caller) return "recursive";
+
+    for (IrLocal parameter : callee.parameters) {
+      if (parameter.type.isVarargs) return "varargs";
+    }
+
+    if (!hasOnlyTailReturns(callee.body, true)) return "early return";
+
+    long count = -1;
+    if (inliner.settings.profile != null && call.location != null) count = getProfileCount(inliner.settings.profile, getCallSiteProfileKey(call));
+    if (count == 0) return "cold call site";
+
+    int maxCalleeSize = (count >= inliner.settings.hotCallSiteCount) ? Math.max(inliner.settings.maxCalleeSize, inliner.settings.hotMaxCalleeSize) : inliner.settings.maxCalleeSize;
+
+    int size = getIrSize(callee.body);
+    if (size > maxCalleeSize) return "callee too big";
+    if (inliner.growth + size > inliner.settings.maxGrowthPerCaller) return "caller growth budget exhausted";
+
+    return null;
+  }
+
+  // a return in tail position is the last thing the function does, e.g. at the end of both branches of a final if.
+  private boolean hasOnlyTailReturns(IrSequence sequence, boolean isTail) {
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+      boolean isLast = isTail && i == sequence.regions.size() - 1;
+
+      if (region instanceof IrBlock) {
+        List<IrInstruction> instructions = ((IrBlock) region).instructions;
+        for (int j = 0; j < instructions.size(); j++) {
+          boolean isLastInstruction = isLast && j == instructions.size() - 1;
+          if (instructions.get(j) instanceof IrReturn && !isLastInstruction) return false;
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        if (!hasOnlyTailReturns(_if.thenBody, isLast)) return false;
+        if (!hasOnlyTailReturns(_if.elseBody, isLast)) return false;
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        if (!hasOnlyTailReturns(loop.header, false)) return false;
+        if (!hasOnlyTailReturns(loop.body, false)) return false;
+
+      } else if (region instanceof IrShortCircuit) {
+        if (!hasOnlyTailReturns(((IrShortCircuit) region).rhsBody, false)) return false;
+
+      } else if (region instanceof IrSequence) {
+        if (!hasOnlyTailReturns((IrSequence) region, isLast)) return false;
+      }
+    }
+
+    return true;
+  }
+
+  // the returned regions replace the call. The arguments of the call are computed already.
+  private List<IrRegion> inlineCall(Inliner inliner, IrCall call, IrFunction callee) {
+    IrCloner cloner = new IrCloner();
+    cloner.caller = inliner.caller;
+    cloner.temps = new HashMap<>();
+    cloner.locals = new HashMap<>();
+    cloner.copiedLocals = new HashSet<>();
+    cloner.suffix = String.format("$%d", inliner.inlinedCount);
+
+    IrBlock prologue = irBlock(inliner.caller);
+
+    Set<IrLocal> assignedParameters = getAssignedIrLocals(callee.body);
+    for (int i = 0; i < callee.parameters.size(); i++) {
+      IrLocal parameter = callee.parameters.get(i);
+      IrValue argument = call.arguments.get(i);
+
+      // java converts the argument to the parameter type, a substituted value has to have the exact type already.
+      boolean isSubstitutable = !assignedParameters.contains(parameter) && areExactSameType(getIrValueType(argument), parameter.type);
+      if (isSubstitutable) {
+        cloner.locals.put(parameter, argument);
+        continue;
+      }
+
+      IrLocal copy = copyIrLocal(cloner, parameter);
+      prologue.instructions.add(irDeclare(copy, argument));
+    }
+
+    IrValue returnValue = getSingleReturnValue(callee);
+    boolean isResultUsed = call.result != null;
+
+    if (isResultUsed && returnValue == null) {
+      cloner.result = irLocal(getInlinedResultName(cloner, callee), callee.returnType, false);
+      prologue.instructions.add(irDeclare(cloner.result, null));
+    }
+
+    List<IrRegion> result = new ArrayList<>();
+    result.add(prologue);
+    result.addAll(cloneIrSequence(cloner, callee.body).regions);
+
+    if (!isResultUsed) return result;
+
+    IrValue resultValue = cloner.result;
+    if (resultValue == null) {
+      IrValue value = cloneIrValue(cloner, returnValue);
+
+      // a local of the caller may be assigned before the result is used, so the value is saved into a new local.
+      boolean isCallerLocal = value instanceof IrLocal && !cloner.copiedLocals.contains(value);
+      if (isCallerLocal || !areExactSameType(getIrValueType(value), callee.returnType)) {
+        IrLocal saved = irLocal(getInlinedResultName(cloner, callee), callee.returnType, false);
+        IrBlock epilogue = irBlock(inliner.caller);
+        epilogue.instructions.add(irDeclare(saved, value));
+        result.add(epilogue);
+        value = saved;
+      }
+
+      resultValue = value;
+    }
+
+    inliner.replacements.put(call.result, resultValue);
+
+    return result;
+  }
+
+  // the value of the only return, if it is the last instruction of the function. Otherwise the returns assign a result local.
+  private IrValue getSingleReturnValue(IrFunction callee) {
+    List<IrRegion> regions = callee.body.regions;
+    if (regions.isEmpty()) return null;
+
+    IrRegion last = regions.get(regions.size() - 1);
+    if (!(last instanceof IrBlock)) return null;
+
+    List<IrInstruction> instructions = ((IrBlock) last).instructions;
+    if (instructions.isEmpty()) return null;
+
+    IrInstruction instruction = instructions.get(instructions.size() - 1);
+    if (!(instruction instanceof IrReturn)) return null;
+
+    return ((IrReturn) instruction).value;
+  }
+
+  // "$" can't be part of an abc identifier, so the name doesn't collide with the copied locals.
+  private String getInlinedResultName(IrCloner cloner, IrFunction callee) {
+    return String.format("$%s%s", callee.name, cloner.suffix);
+  }
+
+  private Set<IrLocal> getAssignedIrLocals(IrSequence sequence) {
+    Set<IrLocal> result = new HashSet<>();
+    for (IrBlock block : getIrBlocks(sequence)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (instruction instanceof IrAssign) result.add(((IrAssign) instruction).local);
+      }
+    }
+    return result;
+  }
+
+  private IrLocal copyIrLocal(IrCloner cloner, IrLocal local) {
+    IrLocal result = irLocal(String.format("%s%s", local.name, cloner.suffix), local.type, false);
+    cloner.locals.put(local, result);
+    cloner.copiedLocals.add(result);
+    return result;
+  }
+
+  private IrSequence cloneIrSequence(IrCloner cloner, IrSequence sequence) {
+    IrSequence result = irSequence();
+
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = irBlock(cloner.caller);
+        for (IrInstruction instruction : ((IrBlock) region).instructions) {
+          IrInstruction clone = cloneIrInstruction(cloner, instruction);
+          if (clone != null) block.instructions.add(clone);
+        }
+        result.regions.add(block);
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        IrIf clone = new IrIf();
+        clone.location = _if.location;
+        clone.condition = cloneIrValue(cloner, _if.condition);
+        clone.thenBody = cloneIrSequence(cloner, _if.thenBody);
+        clone.elseBody = cloneIrSequence(cloner, _if.elseBody);
+        result.regions.add(clone);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        IrLoop clone = new IrLoop();
+        clone.location = loop.location;
+        clone.header = cloneIrSequence(cloner, loop.header);
+        clone.condition = cloneIrValue(cloner, loop.condition);
+        clone.body = cloneIrSequence(cloner, loop.body);
+        result.regions.add(clone);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        IrShortCircuit clone = new IrShortCircuit();
+        clone.operator = shortCircuit.operator;
+        clone.lhs = cloneIrValue(cloner, shortCircuit.lhs);
+        clone.rhsBody = cloneIrSequence(cloner, shortCircuit.rhsBody);
+        clone.rhs = cloneIrValue(cloner, shortCircuit.rhs);
+        clone.result = cloneIrTemp(cloner, shortCircuit.result);
+        result.regions.add(clone);
+
+      } else if (region instanceof IrSequence) {
+        result.regions.add(cloneIrSequence(cloner, (IrSequence) region));
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+
+    return result;
+  }
+
+  // returns null for returns, which are dropped.
+  private IrInstruction cloneIrInstruction(IrCloner cloner, IrInstruction instruction) {
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      IrValue value = (declare.value != null) ? cloneIrValue(cloner, declare.value) : null;
+      return irDeclare(copyIrLocal(cloner, declare.local), value);
+    }
+
+    if (instruction instanceof IrAssign) {
+      IrAssign assign = (IrAssign) instruction;
+      IrAssign clone = new IrAssign();
+      clone.value = cloneIrValue(cloner, assign.value);
+      clone.local = (IrLocal) cloneIrValue(cloner, assign.local);
+      return clone;
+    }
+
+    if (instruction instanceof IrReturn) {
+      IrReturn _return = (IrReturn) instruction;
+      if (cloner.result == null) return null;
+
+      IrAssign clone = new IrAssign();
+      clone.local = cloner.result;
+      clone.value = cloneIrValue(cloner, _return.value);
+      return clone;
+    }
+
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      IrBinary clone = new IrBinary();
+      clone.operator = binary.operator;
+      clone.lhs = cloneIrValue(cloner, binary.lhs);
+      clone.rhs = cloneIrValue(cloner, binary.rhs);
+      clone.result = cloneIrTemp(cloner, binary.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      IrUnary clone = new IrUnary();
+      clone.operator = unary.operator;
+      clone.operand = cloneIrValue(cloner, unary.operand);
+      clone.result = cloneIrTemp(cloner, unary.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      IrCast clone = new IrCast();
+      clone.operand = cloneIrValue(cloner, cast.operand);
+      clone.result = cloneIrTemp(cloner, cast.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
+      IrCall clone = new IrCall();
+      clone.name = call.name;
+      clone.function = call.function;
+      clone.arguments = new ArrayList<>();
+      for (IrValue argument : call.arguments) clone.arguments.add(cloneIrValue(cloner, argument));
+      clone.result = (call.result != null) ? cloneIrTemp(cloner, call.result) : null;
+      clone.location = call.location;
+      return clone;
+    }
+
+    if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+      IrNew clone = new IrNew();
+      clone.arraySizes = new ArrayList<>();
+      for (IrValue size : _new.arraySizes) clone.arraySizes.add(cloneIrValue(cloner, size));
+      clone.fieldValues = new ArrayList<>();
+      for (IrValue value : _new.fieldValues) clone.fieldValues.add(cloneIrValue(cloner, value));
+      clone.result = cloneIrTemp(cloner, _new.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      IrLoadField clone = new IrLoadField();
+      clone.object = cloneIrValue(cloner, load.object);
+      clone.field = load.field;
+      clone.ordinal = load.ordinal;
+      clone.result = cloneIrTemp(cloner, load.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      IrStoreField clone = new IrStoreField();
+      clone.object = cloneIrValue(cloner, store.object);
+      clone.field = store.field;
+      clone.ordinal = store.ordinal;
+      clone.value = cloneIrValue(cloner, store.value);
+      return clone;
+    }
+
+    if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      IrLoadElement clone = new IrLoadElement();
+      clone.array = cloneIrValue(cloner, load.array);
+      clone.index = cloneIrValue(cloner, load.index);
+      clone.result = cloneIrTemp(cloner, load.result);
+      clone.isInBounds = load.isInBounds;
+      return clone;
+    }
+
+    if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      IrStoreElement clone = new IrStoreElement();
+      clone.array = cloneIrValue(cloner, store.array);
+      clone.index = cloneIrValue(cloner, store.index);
+      clone.value = cloneIrValue(cloner, store.value);
+      clone.isInBounds = store.isInBounds;
+      return clone;
+    }
+
+    if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      IrArrayLength clone = new IrArrayLength();
+      clone.array = cloneIrValue(cloner, length.array);
+      clone.result = cloneIrTemp(cloner, length.result);
+      return clone;
+    }
+
+    if (instruction instanceof IrCopyElements) {
+      IrCopyElements copy = (IrCopyElements) instruction;
+      IrCopyElements clone = new IrCopyElements();
+      clone.source = cloneIrValue(cloner, copy.source);
+      clone.sourceIndex = cloneIrValue(cloner, copy.sourceIndex);
+      clone.destination = cloneIrValue(cloner, copy.destination);
+      clone.destinationIndex = cloneIrValue(cloner, copy.destinationIndex);
+      clone.count = cloneIrValue(cloner, copy.count);
+      return clone;
+    }
+
+    if (instruction instanceof IrFillElements) {
+      IrFillElements fill = (IrFillElements) instruction;
+      IrFillElements clone = new IrFillElements();
+      clone.array = cloneIrValue(cloner, fill.array);
+      clone.fromIndex = cloneIrValue(cloner, fill.fromIndex);
+      clone.toIndex = cloneIrValue(cloner, fill.toIndex);
+      clone.value = cloneIrValue(cloner, fill.value);
+      return clone;
+    }
+
+    throw new CompilerException("unexpected ir instruction %s.", instruction.getClass().getSimpleName());
+  }
+
+  private IrTemp cloneIrTemp(IrCloner cloner, IrTemp temp) {
+    return cloner.temps.computeIfAbsent(temp, key -> newIrTemp(cloner.caller, key.type));
+  }
+
+  private IrValue cloneIrValue(IrCloner cloner, IrValue value) {
+    if (value instanceof IrTemp) return cloneIrTemp(cloner, (IrTemp) value);
+    if (value instanceof IrConstant) return value;
+
+    if (value instanceof IrLocal) {
+      IrValue result = cloner.locals.get(value);
+      if (result == null) throw new CompilerException("local \"%s\" is used before it is declared.", ((IrLocal) value).name);
+      return result;
+    }
+
+    throw new CompilerException("unexpected ir value %s.", value.getClass().getSimpleName());
+  }
+
+  // a block, which an inlined call was split off, is empty, if the call was its only instruction and the callee starts with a region,
+  // e.g. a loop, since every argument is substituted. The empty blocks are dropped, nothing refers to a block by its id.
+  private void mergeAdjacentIrBlocks(IrSequence sequence) {
+    List<IrRegion> regions = sequence.regions;
+
+    for (int i = regions.size() - 1; i > 0; i--) {
+      if (!(regions.get(i) instanceof IrBlock) || !(regions.get(i - 1) instanceof IrBlock)) continue;
+
+      IrBlock previous = (IrBlock) regions.get(i - 1);
+      previous.instructions.addAll(((IrBlock) regions.get(i)).instructions);
+      regions.remove(i);
+    }
+
+    regions.removeIf(region -> region instanceof IrBlock && ((IrBlock) region).instructions.isEmpty());
+  }
+
+  default String getInliningReport(InliningReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Inlining\n");
+    builder.append("\n");
+
+    for (Map.Entry<IrFunction, List<String>> entry : report.callerToInlinedCallees.entrySet()) {
+      builder.append(String.format("%s\n", getIrFunctionSignature(entry.getKey())));
+
+      Map<String, Integer> calleeToCount = new LinkedHashMap<>();
+      for (String callee : entry.getValue()) calleeToCount.merge(callee, 1, Integer::sum);
+
+      for (Map.Entry<String, Integer> callee : calleeToCount.entrySet()) {
+        builder.append(String.format("  %-50s x%d\n", callee.getKey(), callee.getValue()));
+      }
+    }
+
+    if (!report.skipReasonToCount.isEmpty()) {
+      builder.append("\n");
+      builder.append("not inlined\n");
+      for (Map.Entry<String, Integer> entry : report.skipReasonToCount.entrySet()) {
+        builder.append(String.format("  %-50s %d\n", entry.getKey(), entry.getValue()));
+      }
+    }
+
+    builder.append("\n");
+    builder.append(String.format("inlined %d of %d call sites.\n", report.inlinedCallSites, report.callSites));
+
+    return builder.toString();
+  }
+}
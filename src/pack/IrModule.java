@@ -0,0 +1,1499 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import pack.ParserModule.AstArrayLiteral;
+import pack.ParserModule.AstAssignment;
+import pack.ParserModule.AstBinaryOperator;
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstDeclaration;
+import pack.ParserModule.AstDefinition;
+import pack.ParserModule.AstExpression;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstFunctionCall;
+import pack.ParserModule.AstIfStatement;
+import pack.ParserModule.AstLiteral;
+import pack.ParserModule.AstNew;
+import pack.ParserModule.AstParameterDeclaration;
+import pack.ParserModule.AstParenthesis;
+import pack.ParserModule.AstProgram;
+import pack.ParserModule.AstReturn;
+import pack.ParserModule.AstStatement;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCast;
+import pack.ParserModule.AstTypeCategory;
+import pack.ParserModule.AstUnaryOperator;
+import pack.ParserModule.AstVariable;
+import pack.ParserModule.AstWhileLoop;
+import pack.ParserModule.Location;
+import pack.StructLayoutModule.FieldLayout;
+
+// The mid-level representation between the typed ast and the java code.
+// A function body is a tree of regions, which keeps the structured control flow of the source (java has no goto),
+// while all straight-line code lives in basic blocks of typed three-address instructions.
+// Intermediate values are explicit temporaries, each defined exactly once. Locals and parameters may be reassigned.
+public interface IrModule extends TypeCheckerModule {
+
+  static public class IrProgram {
+    public AstProgram source;
+    public List<AstStruct> structs;  // without java library bindings.
+    public List<IrFunction> functions;  // without java library bindings.
+  }
+
+  static public class IrFunction {
+    public AstFunction source;
+    public String name;
+    public List<IrLocal> parameters;
+    public AstType returnType;
+    public IrSequence body;
+
+    public int tempCount;
+    public int blockCount;
+  }
+
+  static public interface IrRegion {
+  }
+
+  static public class IrSequence implements IrRegion {
+    public List<IrRegion> regions;
+  }
+
+  static public class IrBlock implements IrRegion {
+    public int id;
+    public List<IrInstruction> instructions;
+  }
+
+  static public class IrIf implements IrRegion {
+    public Location location;  // of the if statement, null if the compiler created the region.
+    public IrValue condition;  // computed before the region.
+    public IrSequence thenBody;
+    public IrSequence elseBody;
+  }
+
+  static public class IrLoop implements IrRegion {
+    public Location location;  // of the while loop, null if the compiler created the region.
+    public IrSequence header;  // computes the condition, runs before every iteration.
+    public IrValue condition;
+    public IrSequence body;
+  }
+
+  // "&&" and "||". result = lhs, and only if lhs doesn't decide the result: rhsBody, result = rhs.
+  static public class IrShortCircuit implements IrRegion {
+    public IrTemp result;
+    public String operator;
+    public IrValue lhs;  // computed before the region.
+    public IrSequence rhsBody;
+    public IrValue rhs;
+  }
+
+  static public interface IrValue {
+  }
+
+  static public class IrTemp implements IrValue {
+    public int id;
+    public AstType type;
+  }
+
+  static public class IrLocal implements IrValue {
+    public String name;
+    public AstType type;
+    public boolean isParameter;
+  }
+
+  static public class IrConstant implements IrValue {
+    public AstLiteral literal;
+  }
+
+  static public interface IrInstruction {
+  }
+
+  static public class IrDeclare implements IrInstruction {
+    public IrLocal local;
+    public IrValue value;  // null if the local is assigned before every use.
+  }
+
+  static public class IrAssign implements IrInstruction {
+    public IrLocal local;
+    public IrValue value;
+  }
+
+  static public class IrBinary implements IrInstruction {
+    public IrTemp result;
+    public String operator;
+    public IrValue lhs;
+    public IrValue rhs;
+  }
+
+  static public class IrUnary implements IrInstruction {
+    public IrTemp result;
+    public String operator;
+    public IrValue operand;
+  }
+
+  static public class IrCast implements IrInstruction {
+    public IrTemp result;  // the type of the result is the target type.
+    public IrValue operand;
+  }
+
+  static public class IrCall implements IrInstruction {
+    public IrTemp result;  // null if the function returns void or the result is discarded.
+    public String name;
+    public AstFunction function;
+    public List<IrValue> arguments;
+    public Location location;  // of the call in the source, null if the compiler created the call.
+  }
+
+  static public class IrNew implements IrInstruction {
+    public IrTemp result;  // a struct or an array.
+    public List<IrValue> arraySizes;
+    public List<IrValue> fieldValues;  // the constructor arguments of a struct in field order, empty if the struct is created with its default values.
+  }
+
+  static public class IrLoadField implements IrInstruction {
+    public IrTemp result;
+    public IrValue object;
+    public String field;
+    public int ordinal;
+  }
+
+  static public class IrStoreField implements IrInstruction {
+    public IrValue object;
+    public String field;
+    public int ordinal;
+    public IrValue value;
+  }
+
+  static public class IrLoadElement implements IrInstruction {
+    public IrTemp result;
+    public IrValue array;
+    public IrValue index;
+    public boolean isInBounds;  // proven by the range analysis.
+  }
+
+  static public class IrStoreElement implements IrInstruction {
+    public IrValue array;
+    public IrValue index;
+    public IrValue value;
+    public boolean isInBounds;  // proven by the range analysis.
+  }
+
+  static public class IrArrayLength implements IrInstruction {
+    public IrTemp result;
+    public IrValue array;
+  }
+
+  // "System.arraycopy", the elements are copied as if through a temporary array, so the ranges may overlap.
+  static public class IrCopyElements implements IrInstruction {
+    public IrValue source;
+    public IrValue sourceIndex;
+    public IrValue destination;
+    public IrValue destinationIndex;
+    public IrValue count;
+  }
+
+  // "Arrays.fill", fromIndex inclusive and toIndex exclusive.
+  static public class IrFillElements implements IrInstruction {
+    public IrValue array;
+    public IrValue fromIndex;
+    public IrValue toIndex;
+    public IrValue value;
+  }
+
+  static public class IrReturn implements IrInstruction {
+    public IrValue value;  // null in void functions.
+  }
+
+  static public class IrLowerer {
+    public IrFunction function;
+    public IrSequence sequence;  // where new instructions and regions are appended.
+    public Deque<Map<String, IrLocal>> scopes;
+    public Map<String, AstStruct> nameToStruct;
+  }
+
+  default IrProgram lowerToIr(AstProgram program) {
+    AstCompilationUnit unit = program.compilationUnits.get(0);
+
+    Map<String, AstStruct> nameToStruct = new HashMap<>();
+    for (AstStruct struct : unit.structs) nameToStruct.put(struct.name, struct);
+
+    IrProgram result = new IrProgram();
+    result.source = program;
+    result.structs = new ArrayList<>();
+    result.functions = new ArrayList<>();
+
+    for (AstStruct struct : unit.structs) {
+      if (struct.hasJavaLibraryBinding) continue;
+      result.structs.add(struct);
+    }
+
+    for (AstFunction function : unit.functions) {
+      if (function.hasJavaLibraryBinding) continue;
+      result.functions.add(lowerFunction(function, nameToStruct));
+    }
+
+    return result;
+  }
+
+  default IrFunction lowerFunction(AstFunction function, Map<String, AstStruct> nameToStruct) {
+    IrFunction result = new IrFunction();
+    result.source = function;
+    result.name = function.name;
+    result.returnType = function.returnType;
+    result.parameters = new ArrayList<>();
+
+    IrLowerer lowerer = new IrLowerer();
+    lowerer.function = result;
+    lowerer.scopes = new ArrayDeque<>();
+    lowerer.nameToStruct = nameToStruct;
+
+    Map<String, IrLocal> parameterScope = new HashMap<>();
+    for (AstParameterDeclaration parameter : function.parameters) {
+      IrLocal local = irLocal(parameter.name, parameter.type, true);
+      result.parameters.add(local);
+      parameterScope.put(parameter.name, local);
+    }
+
+    lowerer.scopes.push(parameterScope);
+    result.body = lowerStatements(lowerer, function.bodyStatements);
+    lowerer.scopes.pop();
+
+    return result;
+  }
+
+  private IrSequence lowerStatements(IrLowerer lowerer, List<AstStatement> statements) {
+    IrSequence result = irSequence();
+
+    IrSequence enclosing = lowerer.sequence;
+    lowerer.sequence = result;
+    lowerer.scopes.push(new HashMap<>());
+
+    for (int i = 0; i < statements.size(); i++) {
+      int initializerCount = lowerStructCreation(lowerer, statements, i);
+      if (initializerCount != -1) {
+        i += initializerCount;
+        continue;
+      }
+
+      lowerStatement(lowerer, statements.get(i));
+    }
+
+    lowerer.scopes.pop();
+    lowerer.sequence = enclosing;
+
+    return result;
+  }
+
+  // a declaration, which creates a struct, and the stores, which initialize it, become a single constructor call. The values are computed
+  // in the order of the stores, before the struct is created. Returns the number of lowered stores, -1 if the statement doesn't create a struct.
+  private int lowerStructCreation(IrLowerer lowerer, List<AstStatement> statements, int index) {
+    List<AstDefinition> initializers = getStructInitializers(statements, index);
+    if (initializers.isEmpty()) return -1;
+
+    AstDeclaration declaration = (AstDeclaration) statements.get(index);
+    AstStruct struct = lowerer.nameToStruct.get(declaration.type.structName);
+    if (struct == null || struct.hasJavaLibraryBinding || !hasFieldsConstructor(struct.layout)) return -1;
+
+    Map<String, IrValue> values = new HashMap<>();
+    for (AstDefinition initializer : initializers) {
+      FieldLayout field = getFieldLayout(lowerer, declaration.type, initializer.lhs.child);
+      values.put(field.field.name, lowerAssignment(lowerer, initializer.rhs, field.field.type));
+    }
+
+    IrNew instruction = new IrNew();
+    instruction.arraySizes = new ArrayList<>();
+    instruction.fieldValues = getIrFieldValues(struct, values);
+    instruction.result = newIrTemp(lowerer, declaration.type);
+    emitIr(lowerer, instruction);
+
+    IrDeclare declare = irDeclare(irLocal(declaration.identifier, declaration.type, false), instruction.result);
+    lowerer.scopes.peek().put(declaration.identifier, declare.local);
+    emitIr(lowerer, declare);
+
+    return initializers.size();
+  }
+
+  // the fields without a value get their default value.
+  private List<IrValue> getIrFieldValues(AstStruct struct, Map<String, IrValue> values) {
+    List<IrValue> result = new ArrayList<>();
+    for (FieldLayout field : struct.layout.fields) {
+      IrValue value = values.get(field.field.name);
+      result.add((value != null) ? value : getIrDefaultValue(field.field.type));
+    }
+    return result;
+  }
+
+  private void lowerStatement(IrLowerer lowerer, AstStatement statement) {
+    if (statement instanceof AstDeclaration) {
+      AstDeclaration declaration = (AstDeclaration) statement;
+
+      IrDeclare declare = new IrDeclare();
+      declare.value = lowerAssignment(lowerer, declaration.optionalInit, declaration.type);
+      declare.local = irLocal(declaration.identifier, declaration.type, false);
+      lowerer.scopes.peek().put(declaration.identifier, declare.local);
+      emitIr(lowerer, declare);
+      return;
+    }
+
+    if (statement instanceof AstDefinition) {
+      AstDefinition definition = (AstDefinition) statement;
+      lowerDefinition(lowerer, definition);
+      return;
+    }
+
+    if (statement instanceof AstIfStatement) {
+      AstIfStatement ifStatement = (AstIfStatement) statement;
+
+      IrIf region = new IrIf();
+      region.location = ifStatement.location;
+      region.condition = lowerExpression(lowerer, ifStatement.condition);
+      region.thenBody = lowerStatements(lowerer, ifStatement.ifBody);
+      region.elseBody = lowerStatements(lowerer, ifStatement.elseBody);
+      lowerer.sequence.regions.add(region);
+      return;
+    }
+
+    if (statement instanceof AstWhileLoop) {
+      AstWhileLoop whileLoop = (AstWhileLoop) statement;
+
+      IrLoop region = new IrLoop();
+      region.location = whileLoop.location;
+      region.header = irSequence();
+
+      IrSequence enclosing = lowerer.sequence;
+      lowerer.sequence = region.header;
+      region.condition = lowerExpression(lowerer, whileLoop.condition);
+      lowerer.sequence = enclosing;
+
+      region.body = lowerStatements(lowerer, whileLoop.body);
+      lowerer.sequence.regions.add(region);
+      return;
+    }
+
+    if (statement instanceof AstReturn) {
+      AstReturn _return = (AstReturn) statement;
+
+      IrReturn instruction = new IrReturn();
+      if (_return.returnExpression != null) instruction.value = lowerExpression(lowerer, _return.returnExpression);
+      emitIr(lowerer, instruction);
+      return;
+    }
+
+    if (statement instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) statement;
+      lowerFunctionCall(lowerer, functionCall, false);
+      return;
+    }
+
+    throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+  }
+
+  // the last access of the lhs chain becomes the store. Everything before it is loaded, in java evaluation order.
+  private void lowerDefinition(IrLowerer lowerer, AstDefinition definition) {
+    AstVariable lhs = definition.lhs;
+    IrLocal local = findIrLocal(lowerer, lhs.name);
+
+    if (lhs.child == null && lhs.arrayExpressions.size() == 0) {
+      IrAssign assign = new IrAssign();
+      assign.local = local;
+      assign.value = lowerAssignment(lowerer, definition.rhs, local.type);
+      emitIr(lowerer, assign);
+      return;
+    }
+
+    IrValue base = local;
+    AstType type = local.type;
+
+    for (AstVariable at = lhs; ; at = at.child) {
+      int indexCount = at.arrayExpressions.size();
+
+      for (int i = 0; i < indexCount; i++) {
+        IrValue index = lowerExpression(lowerer, at.arrayExpressions.get(i));
+        AstType elementType = getElementType(type);
+
+        if (at.child == null && i == indexCount - 1) {
+          IrStoreElement store = new IrStoreElement();
+          store.array = base;
+          store.index = index;
+          store.value = lowerAssignment(lowerer, definition.rhs, elementType);
+          emitIr(lowerer, store);
+          return;
+        }
+
+        base = emitLoadElement(lowerer, base, index, elementType);
+        type = elementType;
+      }
+
+      AstVariable child = at.child;
+      FieldLayout field = getFieldLayout(lowerer, type, child);
+
+      if (child.child == null && child.arrayExpressions.size() == 0) {
+        AstStruct struct = lowerer.nameToStruct.get(type.structName);
+        if (struct.immutable) throw new CompilerException("field \"%s\" of immutable struct \"%s\" is stored after its creation.", child.name, struct.name);
+
+        IrStoreField store = new IrStoreField();
+        store.object = base;
+        store.field = child.name;
+        store.ordinal = field.ordinal;
+        store.value = lowerAssignment(lowerer, definition.rhs, field.field.type);
+        emitIr(lowerer, store);
+        return;
+      }
+
+      base = emitLoadField(lowerer, base, field);
+      type = field.field.type;
+    }
+  }
+
+  private IrValue lowerAssignment(IrLowerer lowerer, AstAssignment assignment, AstType type) {
+    if (assignment instanceof AstNew) {
+      AstNew _new = (AstNew) assignment;
+
+      IrNew instruction = new IrNew();
+      instruction.arraySizes = new ArrayList<>();
+      for (AstExpression arraySize : _new.arraySizes) {
+        instruction.arraySizes.add(lowerExpression(lowerer, arraySize));
+      }
+      instruction.fieldValues = new ArrayList<>();
+      instruction.result = newIrTemp(lowerer, type);
+
+      // the fields of an immutable struct are final, so they are passed even if they are all default values.
+      AstStruct struct = isArrayType(type) ? null : lowerer.nameToStruct.get(type.structName);
+      if (struct != null && struct.immutable) instruction.fieldValues = getIrFieldValues(struct, Map.of());
+      emitIr(lowerer, instruction);
+      return instruction.result;
+    }
+
+    return lowerExpression(lowerer, (AstExpression) assignment);
+  }
+
+  private IrValue lowerExpression(IrLowerer lowerer, AstExpression expression) {
+    if (expression instanceof AstLiteral) {
+      AstLiteral literal = (AstLiteral) expression;
+      return irConstant(literal);
+    }
+
+    if (expression instanceof AstArrayLiteral) {
+      AstArrayLiteral arrayLiteral = (AstArrayLiteral) expression;
+      return lowerArrayLiteral(lowerer, arrayLiteral);
+    }
+
+    if (expression instanceof AstVariable) {
+      AstVariable variable = (AstVariable) expression;
+      return lowerVariable(lowerer, variable);
+    }
+
+    if (expression instanceof AstParenthesis) {
+      AstParenthesis parenthesis = (AstParenthesis) expression;
+      return lowerExpression(lowerer, parenthesis.body);
+    }
+
+    if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
+
+      if (isAny(binaryOperator.operator, "&&", "||")) {
+        IrShortCircuit region = new IrShortCircuit();
+        region.operator = binaryOperator.operator;
+        region.lhs = lowerExpression(lowerer, binaryOperator.lhs);
+        region.rhsBody = irSequence();
+
+        IrSequence enclosing = lowerer.sequence;
+        lowerer.sequence = region.rhsBody;
+        region.rhs = lowerExpression(lowerer, binaryOperator.rhs);
+        lowerer.sequence = enclosing;
+
+        region.result = newIrTemp(lowerer, astType_primitive(AstTypeCategory.Bool, false, 0));
+        lowerer.sequence.regions.add(region);
+        return region.result;
+      }
+
+      IrBinary instruction = new IrBinary();
+      instruction.operator = binaryOperator.operator;
+      instruction.lhs = lowerExpression(lowerer, binaryOperator.lhs);
+      instruction.rhs = lowerExpression(lowerer, binaryOperator.rhs);
+
+      AstType type = getBinaryResultType(instruction.operator, getIrValueType(instruction.lhs), getIrValueType(instruction.rhs));
+      instruction.result = newIrTemp(lowerer, type);
+      emitIr(lowerer, instruction);
+      return instruction.result;
+    }
+
+    if (expression instanceof AstUnaryOperator) {
+      AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
+
+      IrUnary instruction = new IrUnary();
+      instruction.operator = unaryOperator.operator;
+      instruction.operand = lowerExpression(lowerer, unaryOperator.body);
+
+      AstType operandType = getIrValueType(instruction.operand);
+      AstType type = isNumberOrCharType(operandType) ? autoPromoteType(operandType) : operandType;  // java promotes i8, i16 and char.
+      instruction.result = newIrTemp(lowerer, type);
+      emitIr(lowerer, instruction);
+      return instruction.result;
+    }
+
+    if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
+
+      IrCast instruction = new IrCast();
+      instruction.operand = lowerExpression(lowerer, typecast.expression);
+      instruction.result = newIrTemp(lowerer, typecast.type);
+      emitIr(lowerer, instruction);
+      return instruction.result;
+    }
+
+    if (expression instanceof AstFunctionCall) {
+      AstFunctionCall functionCall = (AstFunctionCall) expression;
+      return lowerFunctionCall(lowerer, functionCall, true);
+    }
+
+    throw new CompilerException("unexpected expression %s.", expression.getClass().getSimpleName());
+  }
+
+  // a new array is zeroed, so only the other elements are stored.
+  private IrValue lowerArrayLiteral(IrLowerer lowerer, AstArrayLiteral arrayLiteral) {
+    AstType indexType = astType_primitive(AstTypeCategory.I32, false, 0);
+
+    IrNew instruction = new IrNew();
+    instruction.arraySizes = new ArrayList<>();
+    instruction.arraySizes.add(irConstant(astLiteral_integer(indexType, arrayLiteral.elements.size())));
+    instruction.fieldValues = new ArrayList<>();
+    instruction.result = newIrTemp(lowerer, arrayLiteral.type);
+    emitIr(lowerer, instruction);
+
+    for (int i = 0; i < arrayLiteral.elements.size(); i++) {
+      AstLiteral element = arrayLiteral.elements.get(i);
+      if (isZeroLiteral(element)) continue;
+
+      IrStoreElement store = new IrStoreElement();
+      store.array = instruction.result;
+      store.index = irConstant(astLiteral_integer(indexType, i));
+      store.value = irConstant(element);
+      emitIr(lowerer, store);
+    }
+
+    return instruction.result;
+  }
+
+  private boolean isZeroLiteral(AstLiteral literal) {
+    if (isBoolType(literal.type)) return !getBoolValue(literal);
+    if (isFloatingPointType(literal.type)) return Double.doubleToRawLongBits(literal.floatingPointValue) == 0;  // -0.0 isn't the default value.
+    return isIntegerType(literal.type) && literal.integerValue == 0;
+  }
+
+  private IrValue lowerVariable(IrLowerer lowerer, AstVariable variable) {
+    IrLocal local = findIrLocal(lowerer, variable.name);
+
+    IrValue value = local;
+    AstType type = local.type;
+
+    for (AstVariable at = variable; ; at = at.child) {
+      for (AstExpression arrayExpression : at.arrayExpressions) {
+        IrValue index = lowerExpression(lowerer, arrayExpression);
+        type = getElementType(type);
+        value = emitLoadElement(lowerer, value, index, type);
+      }
+
+      if (at.child == null) return value;
+
+      AstVariable child = at.child;
+
+      if (isArrayType(type)) {
+        assertIt(child.name.equals("length"));
+
+        IrArrayLength instruction = new IrArrayLength();
+        instruction.array = value;
+        instruction.result = newIrTemp(lowerer, astType_primitive(AstTypeCategory.I32, false, 0));
+        emitIr(lowerer, instruction);
+
+        value = instruction.result;
+        type = instruction.result.type;
+        continue;
+      }
+
+      FieldLayout field = getFieldLayout(lowerer, type, child);
+      value = emitLoadField(lowerer, value, field);
+      type = field.field.type;
+    }
+  }
+
+  private IrValue lowerFunctionCall(IrLowerer lowerer, AstFunctionCall functionCall, boolean isResultUsed) {
+    assertIt(functionCall.function != null);
+
+    IrCall instruction = new IrCall();
+    instruction.name = functionCall.name;
+    instruction.function = functionCall.function;
+    instruction.arguments = new ArrayList<>();
+    instruction.location = functionCall.location;
+
+    for (AstExpression argument : functionCall.arguments) {
+      instruction.arguments.add(lowerExpression(lowerer, argument));
+    }
+
+    if (isResultUsed) instruction.result = newIrTemp(lowerer, functionCall.function.returnType);
+
+    emitIr(lowerer, instruction);
+    return instruction.result;
+  }
+
+  private IrTemp emitLoadElement(IrLowerer lowerer, IrValue array, IrValue index, AstType elementType) {
+    IrLoadElement instruction = new IrLoadElement();
+    instruction.array = array;
+    instruction.index = index;
+    instruction.result = newIrTemp(lowerer, elementType);
+    emitIr(lowerer, instruction);
+    return instruction.result;
+  }
+
+  private IrTemp emitLoadField(IrLowerer lowerer, IrValue object, FieldLayout field) {
+    IrLoadField instruction = new IrLoadField();
+    instruction.object = object;
+    instruction.field = field.field.name;
+    instruction.ordinal = field.ordinal;
+    instruction.result = newIrTemp(lowerer, field.field.type);
+    emitIr(lowerer, instruction);
+    return instruction.result;
+  }
+
+  private FieldLayout getFieldLayout(IrLowerer lowerer, AstType structType, AstVariable field) {
+    AstStruct struct = lowerer.nameToStruct.get(structType.structName);
+    assertIt(struct != null);
+    assertIt(field.fieldOrdinal != -1);
+    return struct.layout.fields.get(field.fieldOrdinal);
+  }
+
+  private IrLocal findIrLocal(IrLowerer lowerer, String name) {
+    for (Map<String, IrLocal> scope : lowerer.scopes) {
+      IrLocal match = scope.get(name);
+      if (match != null) return match;
+    }
+    throw new CompilerException("variable \"%s\" is not in scope of function \"%s\".", name, lowerer.function.name);
+  }
+
+  private void emitIr(IrLowerer lowerer, IrInstruction instruction) {
+    List<IrRegion> regions = lowerer.sequence.regions;
+
+    IrRegion last = regions.isEmpty() ? null : regions.get(regions.size() - 1);
+    if (!(last instanceof IrBlock)) {
+      last = irBlock(lowerer.function);
+      regions.add(last);
+    }
+
+    ((IrBlock) last).instructions.add(instruction);
+  }
+
+  private IrTemp newIrTemp(IrLowerer lowerer, AstType type) {
+    return newIrTemp(lowerer.function, type);
+  }
+
+  default IrTemp newIrTemp(IrFunction function, AstType type) {
+    IrTemp result = new IrTemp();
+    result.id = function.tempCount;
+    result.type = astType(type.category, type.structName, type.isVarargs, type.arrayDimension);
+    function.tempCount += 1;
+    return result;
+  }
+
+  default IrBlock irBlock(IrFunction function) {
+    IrBlock result = new IrBlock();
+    result.id = function.blockCount;
+    result.instructions = new ArrayList<>();
+    function.blockCount += 1;
+    return result;
+  }
+
+  default IrSequence irSequence() {
+    IrSequence result = new IrSequence();
+    result.regions = new ArrayList<>();
+    return result;
+  }
+
+  default IrLocal irLocal(String name, AstType type, boolean isParameter) {
+    IrLocal result = new IrLocal();
+    result.name = name;
+    result.type = type;
+    result.isParameter = isParameter;
+    return result;
+  }
+
+  default IrDeclare irDeclare(IrLocal local, IrValue value) {
+    IrDeclare result = new IrDeclare();
+    result.local = local;
+    result.value = value;
+    return result;
+  }
+
+  default IrAssign irAssign(IrLocal local, IrValue value) {
+    IrAssign result = new IrAssign();
+    result.local = local;
+    result.value = value;
+    return result;
+  }
+
+  default IrReturn irReturn(IrValue value) {
+    IrReturn result = new IrReturn();
+    result.value = value;
+    return result;
+  }
+
+  default IrConstant irConstant(AstLiteral literal) {
+    IrConstant result = new IrConstant();
+    result.literal = literal;
+    return result;
+  }
+
+  // the value a new struct has in a field of the type.
+  default IrConstant getIrDefaultValue(AstType type) {
+    if (isReferenceType(type)) return irConstant(astLiteral("nil", type, null));
+    if (isIntegerType(type)) return irConstant(astLiteral_integer(type, 0));
+    if (isBoolType(type)) return irConstant(astLiteral_bool(false));
+    return irConstant(astLiteral("0", astType_primitive(type.category, false, 0), null));
+  }
+
+  default boolean isArrayType(AstType type) {
+    return type.arrayDimension > 0 || type.isVarargs;
+  }
+
+  // the java varargs parameter "T... v" is a "T[]".
+  default AstType getElementType(AstType arrayType) {
+    assertIt(isArrayType(arrayType));
+    if (arrayType.isVarargs) return astType(arrayType.category, arrayType.structName, false, arrayType.arrayDimension);
+    return astType(arrayType.category, arrayType.structName, false, arrayType.arrayDimension - 1);
+  }
+
+  // follows java, e.g. the type of a shift only depends on the lhs.
+  default AstType getBinaryResultType(String operator, AstType lhsType, AstType rhsType) {
+    if (isAny(operator, "<", ">", "<=", ">=", "==", "!=", "&&", "||")) return astType_primitive(AstTypeCategory.Bool, false, 0);
+    if (isBoolType(lhsType)) return astType_primitive(AstTypeCategory.Bool, false, 0);
+    if (isAny(operator, "<<", ">>", ">>>")) return autoPromoteType(lhsType);
+    return autoPromoteTypeAfterBinaryOperation(lhsType, rhsType);
+  }
+
+  default AstType getIrValueType(IrValue value) {
+    if (value instanceof IrTemp) return ((IrTemp) value).type;
+    if (value instanceof IrLocal) return ((IrLocal) value).type;
+    if (value instanceof IrConstant) return ((IrConstant) value).literal.type;
+    throw new CompilerException("unexpected ir value %s.", value.getClass().getSimpleName());
+  }
+
+  default IrTemp getIrResult(IrInstruction instruction) {
+    if (instruction instanceof IrBinary) return ((IrBinary) instruction).result;
+    if (instruction instanceof IrUnary) return ((IrUnary) instruction).result;
+    if (instruction instanceof IrCast) return ((IrCast) instruction).result;
+    if (instruction instanceof IrCall) return ((IrCall) instruction).result;
+    if (instruction instanceof IrNew) return ((IrNew) instruction).result;
+    if (instruction instanceof IrLoadField) return ((IrLoadField) instruction).result;
+    if (instruction instanceof IrLoadElement) return ((IrLoadElement) instruction).result;
+    if (instruction instanceof IrArrayLength) return ((IrArrayLength) instruction).result;
+    return null;
+  }
+
+  // in java evaluation order.
+  default List<IrValue> getIrOperands(IrInstruction instruction) {
+    List<IrValue> result = new ArrayList<>();
+
+    if (instruction instanceof IrDeclare) {
+      IrValue value = ((IrDeclare) instruction).value;
+      if (value != null) result.add(value);
+
+    } else if (instruction instanceof IrAssign) {
+      result.add(((IrAssign) instruction).value);
+
+    } else if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      result.add(binary.lhs);
+      result.add(binary.rhs);
+
+    } else if (instruction instanceof IrUnary) {
+      result.add(((IrUnary) instruction).operand);
+
+    } else if (instruction instanceof IrCast) {
+      result.add(((IrCast) instruction).operand);
+
+    } else if (instruction instanceof IrCall) {
+      result.addAll(((IrCall) instruction).arguments);
+
+    } else if (instruction instanceof IrNew) {
+      result.addAll(((IrNew) instruction).arraySizes);
+      result.addAll(((IrNew) instruction).fieldValues);
+
+    } else if (instruction instanceof IrLoadField) {
+      result.add(((IrLoadField) instruction).object);
+
+    } else if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      result.add(store.object);
+      result.add(store.value);
+
+    } else if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      result.add(load.array);
+      result.add(load.index);
+
+    } else if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      result.add(store.array);
+      result.add(store.index);
+      result.add(store.value);
+
+    } else if (instruction instanceof IrArrayLength) {
+      result.add(((IrArrayLength) instruction).array);
+
+    } else if (instruction instanceof IrCopyElements) {
+      IrCopyElements copy = (IrCopyElements) instruction;
+      result.add(copy.source);
+      result.add(copy.sourceIndex);
+      result.add(copy.destination);
+      result.add(copy.destinationIndex);
+      result.add(copy.count);
+
+    } else if (instruction instanceof IrFillElements) {
+      IrFillElements fill = (IrFillElements) instruction;
+      result.add(fill.array);
+      result.add(fill.fromIndex);
+      result.add(fill.toIndex);
+      result.add(fill.value);
+
+    } else if (instruction instanceof IrReturn) {
+      IrValue value = ((IrReturn) instruction).value;
+      if (value != null) result.add(value);
+
+    } else {
+      throw new CompilerException("unexpected ir instruction %s.", instruction.getClass().getSimpleName());
+    }
+
+    return result;
+  }
+
+  // replaces the values read by the instruction, the results and the assigned locals stay.
+  default void mapIrOperands(IrInstruction instruction, UnaryOperator<IrValue> mapping) {
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      if (declare.value != null) declare.value = mapping.apply(declare.value);
+
+    } else if (instruction instanceof IrAssign) {
+      IrAssign assign = (IrAssign) instruction;
+      assign.value = mapping.apply(assign.value);
+
+    } else if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      binary.lhs = mapping.apply(binary.lhs);
+      binary.rhs = mapping.apply(binary.rhs);
+
+    } else if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      unary.operand = mapping.apply(unary.operand);
+
+    } else if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      cast.operand = mapping.apply(cast.operand);
+
+    } else if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
+      call.arguments.replaceAll(mapping);
+
+    } else if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+      _new.arraySizes.replaceAll(mapping);
+      _new.fieldValues.replaceAll(mapping);
+
+    } else if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      load.object = mapping.apply(load.object);
+
+    } else if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      store.object = mapping.apply(store.object);
+      store.value = mapping.apply(store.value);
+
+    } else if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      load.array = mapping.apply(load.array);
+      load.index = mapping.apply(load.index);
+
+    } else if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      store.array = mapping.apply(store.array);
+      store.index = mapping.apply(store.index);
+      store.value = mapping.apply(store.value);
+
+    } else if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      length.array = mapping.apply(length.array);
+
+    } else if (instruction instanceof IrCopyElements) {
+      IrCopyElements copy = (IrCopyElements) instruction;
+      copy.source = mapping.apply(copy.source);
+      copy.sourceIndex = mapping.apply(copy.sourceIndex);
+      copy.destination = mapping.apply(copy.destination);
+      copy.destinationIndex = mapping.apply(copy.destinationIndex);
+      copy.count = mapping.apply(copy.count);
+
+    } else if (instruction instanceof IrFillElements) {
+      IrFillElements fill = (IrFillElements) instruction;
+      fill.array = mapping.apply(fill.array);
+      fill.fromIndex = mapping.apply(fill.fromIndex);
+      fill.toIndex = mapping.apply(fill.toIndex);
+      fill.value = mapping.apply(fill.value);
+
+    } else if (instruction instanceof IrReturn) {
+      IrReturn _return = (IrReturn) instruction;
+      if (_return.value != null) _return.value = mapping.apply(_return.value);
+
+    } else {
+      throw new CompilerException("unexpected ir instruction %s.", instruction.getClass().getSimpleName());
+    }
+  }
+
+  // replaces every value read in the sequence, including the conditions of its regions.
+  default void mapIrValues(IrSequence sequence, UnaryOperator<IrValue> mapping) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        for (IrInstruction instruction : ((IrBlock) region).instructions) {
+          mapIrOperands(instruction, mapping);
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        _if.condition = mapping.apply(_if.condition);
+        mapIrValues(_if.thenBody, mapping);
+        mapIrValues(_if.elseBody, mapping);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        mapIrValues(loop.header, mapping);
+        loop.condition = mapping.apply(loop.condition);
+        mapIrValues(loop.body, mapping);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        shortCircuit.lhs = mapping.apply(shortCircuit.lhs);
+        mapIrValues(shortCircuit.rhsBody, mapping);
+        shortCircuit.rhs = mapping.apply(shortCircuit.rhs);
+
+      } else if (region instanceof IrSequence) {
+        mapIrValues((IrSequence) region, mapping);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+  }
+
+  default List<IrBlock> getIrBlocks(IrSequence sequence) {
+    List<IrBlock> result = new ArrayList<>();
+    collectIrBlocks(sequence, result);
+    return result;
+  }
+
+  private void collectIrBlocks(IrSequence sequence, List<IrBlock> blocks) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        blocks.add((IrBlock) region);
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        collectIrBlocks(_if.thenBody, blocks);
+        collectIrBlocks(_if.elseBody, blocks);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        collectIrBlocks(loop.header, blocks);
+        collectIrBlocks(loop.body, blocks);
+
+      } else if (region instanceof IrShortCircuit) {
+        collectIrBlocks(((IrShortCircuit) region).rhsBody, blocks);
+
+      } else if (region instanceof IrSequence) {
+        collectIrBlocks((IrSequence) region, blocks);
+      }
+    }
+  }
+
+  // the temps, short circuit results and locals, which the sequence defines or declares.
+  default Set<IrValue> getDefinedIrValues(IrSequence sequence) {
+    Set<IrValue> result = new HashSet<>();
+
+    for (IrBlock block : getIrBlocks(sequence)) {
+      for (IrInstruction instruction : block.instructions) {
+        IrTemp temp = getIrResult(instruction);
+        if (temp != null) result.add(temp);
+        if (instruction instanceof IrDeclare) result.add(((IrDeclare) instruction).local);
+      }
+    }
+
+    collectShortCircuitResults(sequence, result);
+    return result;
+  }
+
+  private void collectShortCircuitResults(IrSequence sequence, Set<IrValue> results) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        collectShortCircuitResults(_if.thenBody, results);
+        collectShortCircuitResults(_if.elseBody, results);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        collectShortCircuitResults(loop.header, results);
+        collectShortCircuitResults(loop.body, results);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        results.add(shortCircuit.result);
+        collectShortCircuitResults(shortCircuit.rhsBody, results);
+
+      } else if (region instanceof IrSequence) {
+        collectShortCircuitResults((IrSequence) region, results);
+      }
+    }
+  }
+
+  // in instructions and regions.
+  default int getIrSize(IrSequence sequence) {
+    int result = 0;
+
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        result += ((IrBlock) region).instructions.size();
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        result += 1 + getIrSize(_if.thenBody) + getIrSize(_if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        result += 1 + getIrSize(loop.header) + getIrSize(loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        result += 1 + getIrSize(((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        result += getIrSize((IrSequence) region);
+      }
+    }
+
+    return result;
+  }
+
+  // temps used once can be folded back into a java expression by the code generator.
+  default Map<IrTemp, Integer> countIrTempUses(IrSequence sequence) {
+    Map<IrTemp, Integer> result = new HashMap<>();
+    countIrTempUses(sequence, result);
+    return result;
+  }
+
+  private void countIrTempUses(IrSequence sequence, Map<IrTemp, Integer> uses) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        for (IrInstruction instruction : ((IrBlock) region).instructions) {
+          for (IrValue operand : getIrOperands(instruction)) countIrTempUse(operand, uses);
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        countIrTempUse(_if.condition, uses);
+        countIrTempUses(_if.thenBody, uses);
+        countIrTempUses(_if.elseBody, uses);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        countIrTempUses(loop.header, uses);
+        countIrTempUse(loop.condition, uses);
+        countIrTempUses(loop.body, uses);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        countIrTempUse(shortCircuit.lhs, uses);
+        countIrTempUses(shortCircuit.rhsBody, uses);
+        countIrTempUse(shortCircuit.rhs, uses);
+
+      } else if (region instanceof IrSequence) {
+        countIrTempUses((IrSequence) region, uses);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+  }
+
+  private void countIrTempUse(IrValue value, Map<IrTemp, Integer> uses) {
+    if (value instanceof IrTemp) uses.merge((IrTemp) value, 1, Integer::sum);
+  }
+
+  static public class IrVerifier {
+    public IrFunction function;
+    public Set<IrTemp> definedTemps;  // a temp is only defined once in the whole function.
+    public Deque<Set<IrValue>> scopes;  // the temps and locals visible from the current sequence.
+  }
+
+  // checks the invariants the optimizations and the code generator rely on. Failures are bugs in the compiler.
+  default void verifyIr(IrProgram program) {
+    for (IrFunction function : program.functions) {
+      verifyIrFunction(function);
+    }
+  }
+
+  default void verifyIrFunction(IrFunction function) {
+    IrVerifier verifier = new IrVerifier();
+    verifier.function = function;
+    verifier.definedTemps = new HashSet<>();
+    verifier.scopes = new ArrayDeque<>();
+
+    verifier.scopes.push(new HashSet<>(function.parameters));
+    verifyIrSequence(verifier, function.body);
+    verifier.scopes.pop();
+  }
+
+  private void verifyIrSequence(IrVerifier verifier, IrSequence sequence) {
+    verifier.scopes.push(new HashSet<>());
+    verifyIrRegions(verifier, sequence);
+    verifier.scopes.pop();
+  }
+
+  // verifies the regions in the current scope.
+  private void verifyIrRegions(IrVerifier verifier, IrSequence sequence) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+        if (block.instructions.size() == 0) reportIrError(verifier, "block b%d is empty.", block.id);
+
+        for (int i = 0; i < block.instructions.size(); i++) {
+          IrInstruction instruction = block.instructions.get(i);
+          verifyIrInstruction(verifier, instruction);
+
+          if (instruction instanceof IrReturn && i != block.instructions.size() - 1) reportIrError(verifier, "block b%d continues after a return.", block.id);
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        verifyIrCondition(verifier, _if.condition);
+        verifyIrSequence(verifier, _if.thenBody);
+        verifyIrSequence(verifier, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+
+        // the condition is computed in the header, so it is only visible in there.
+        verifier.scopes.push(new HashSet<>());
+        verifyIrRegions(verifier, loop.header);
+        verifyIrCondition(verifier, loop.condition);
+        verifier.scopes.pop();
+
+        verifyIrSequence(verifier, loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        if (!isAny(shortCircuit.operator, "&&", "||")) reportIrError(verifier, "unexpected short circuit operator \"%s\".", shortCircuit.operator);
+
+        verifyIrCondition(verifier, shortCircuit.lhs);
+
+        verifier.scopes.push(new HashSet<>());
+        verifyIrRegions(verifier, shortCircuit.rhsBody);
+        verifyIrCondition(verifier, shortCircuit.rhs);
+        verifier.scopes.pop();
+
+        verifyIrDefinition(verifier, shortCircuit.result);
+        if (!isBoolType(shortCircuit.result.type)) reportIrError(verifier, "result %%%d of \"%s\" isn't a bool.", shortCircuit.result.id, shortCircuit.operator);
+
+      } else if (region instanceof IrSequence) {
+        verifyIrSequence(verifier, (IrSequence) region);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+  }
+
+  private void verifyIrInstruction(IrVerifier verifier, IrInstruction instruction) {
+    for (IrValue operand : getIrOperands(instruction)) {
+      verifyIrUse(verifier, operand);
+    }
+
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      if (declare.local.isParameter) reportIrError(verifier, "parameter \"%s\" is declared as a local.", declare.local.name);
+      if (isIrVisible(verifier, declare.local)) reportIrError(verifier, "local \"%s\" is declared twice.", declare.local.name);
+      verifier.scopes.peek().add(declare.local);
+      return;
+    }
+
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      AstType expected = getBinaryResultType(binary.operator, getIrValueType(binary.lhs), getIrValueType(binary.rhs));
+      if (!areExactSameType(expected, binary.result.type)) reportIrError(verifier, "%%%d = %s has type %s, expected %s.", binary.result.id, binary.operator, typeToString(binary.result.type), typeToString(expected));
+    }
+
+    if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      if (!isArrayType(getIrValueType(load.array))) reportIrError(verifier, "%%%d loads an element of a non-array.", load.result.id);
+    }
+
+    if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      if (!isArrayType(getIrValueType(store.array))) reportIrError(verifier, "element store into a non-array.");
+    }
+
+    if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      if (!isArrayType(getIrValueType(length.array))) reportIrError(verifier, "%%%d takes the length of a non-array.", length.result.id);
+    }
+
+    if (instruction instanceof IrCopyElements) {
+      IrCopyElements copy = (IrCopyElements) instruction;
+      AstType sourceType = getIrValueType(copy.source);
+      AstType destinationType = getIrValueType(copy.destination);
+      if (!isArrayType(sourceType) || !areExactSameType(sourceType, destinationType)) reportIrError(verifier, "element copy between %s and %s.", typeToString(sourceType), typeToString(destinationType));
+    }
+
+    if (instruction instanceof IrFillElements) {
+      IrFillElements fill = (IrFillElements) instruction;
+      if (!isArrayType(getIrValueType(fill.array))) reportIrError(verifier, "element fill of a non-array.");
+    }
+
+    if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      if (getIrValueType(load.object).category != AstTypeCategory.Struct) reportIrError(verifier, "%%%d loads field \"%s\" of a non-struct.", load.result.id, load.field);
+    }
+
+    if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      if (getIrValueType(store.object).category != AstTypeCategory.Struct) reportIrError(verifier, "field store \"%s\" into a non-struct.", store.field);
+    }
+
+    if (instruction instanceof IrReturn) {
+      IrReturn _return = (IrReturn) instruction;
+      boolean isVoid = verifier.function.returnType.category == AstTypeCategory.Void;
+      if (isVoid && _return.value != null) reportIrError(verifier, "void function returns a value.");
+      if (!isVoid && _return.value == null) reportIrError(verifier, "missing return value.");
+    }
+
+    IrTemp result = getIrResult(instruction);
+    if (result != null) verifyIrDefinition(verifier, result);
+  }
+
+  private void verifyIrCondition(IrVerifier verifier, IrValue condition) {
+    verifyIrUse(verifier, condition);
+    if (!isBoolType(getIrValueType(condition))) reportIrError(verifier, "condition %s isn't a bool.", getIrValueString(condition));
+  }
+
+  private void verifyIrDefinition(IrVerifier verifier, IrTemp temp) {
+    if (temp.type == null) reportIrError(verifier, "%%%d has no type.", temp.id);
+    if (!verifier.definedTemps.add(temp)) reportIrError(verifier, "%%%d is defined twice.", temp.id);
+    verifier.scopes.peek().add(temp);
+  }
+
+  private void verifyIrUse(IrVerifier verifier, IrValue value) {
+    if (value == null) reportIrError(verifier, "missing operand.");
+    if (value instanceof IrConstant) return;
+    if (!isIrVisible(verifier, value)) reportIrError(verifier, "%s is used outside of its scope or before its definition.", getIrValueString(value));
+  }
+
+  private boolean isIrVisible(IrVerifier verifier, IrValue value) {
+    for (Set<IrValue> scope : verifier.scopes) {
+      if (scope.contains(value)) return true;
+    }
+    return false;
+  }
+
+  private void reportIrError(IrVerifier verifier, String format, Object... args) {
+    String message = String.format(format, args);
+    throw new CompilerException("invalid ir in function \"%s\": %s\n%s", verifier.function.name, message, getIrFunctionDump(verifier.function));
+  }
+
+  default String getIrDump(IrProgram program) {
+    StringBuilder builder = new StringBuilder();
+    for (IrFunction function : program.functions) {
+      builder.append(getIrFunctionDump(function));
+      builder.append("\n");
+    }
+    return builder.toString();
+  }
+
+  default String getIrFunctionDump(IrFunction function) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append(String.format("function %s {\n", getIrFunctionSignature(function)));
+    appendIrSequence(builder, function.body, 1);
+    builder.append("}\n");
+
+    return builder.toString();
+  }
+
+  default String getIrFunctionSignature(IrFunction function) {
+    List<String> parameters = new ArrayList<>();
+    for (IrLocal parameter : function.parameters) {
+      parameters.add(String.format("%s: %s", parameter.name, typeToString(parameter.type)));
+    }
+
+    return String.format("%s(%s) -> %s", function.name, String.join(", ", parameters), typeToString(function.returnType));
+  }
+
+  private void appendIrSequence(StringBuilder builder, IrSequence sequence, int depth) {
+    String indent = "  ".repeat(depth);
+
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+        builder.append(String.format("%sb%d:\n", indent, block.id));
+        for (IrInstruction instruction : block.instructions) {
+          builder.append(String.format("%s  %s\n", indent, getIrInstructionString(instruction)));
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        builder.append(String.format("%sif %s {\n", indent, getIrValueString(_if.condition)));
+        appendIrSequence(builder, _if.thenBody, depth + 1);
+        if (_if.elseBody.regions.size() > 0) {
+          builder.append(String.format("%s} else {\n", indent));
+          appendIrSequence(builder, _if.elseBody, depth + 1);
+        }
+        builder.append(String.format("%s}\n", indent));
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        builder.append(String.format("%sloop {\n", indent));
+        appendIrSequence(builder, loop.header, depth + 1);
+        builder.append(String.format("%s} while %s {\n", indent, getIrValueString(loop.condition)));
+        appendIrSequence(builder, loop.body, depth + 1);
+        builder.append(String.format("%s}\n", indent));
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        builder.append(String.format("%s%s = %s %s {\n", indent, getIrDefinitionString(shortCircuit.result), getIrValueString(shortCircuit.lhs), shortCircuit.operator));
+        appendIrSequence(builder, shortCircuit.rhsBody, depth + 1);
+        builder.append(String.format("%s} %s\n", indent, getIrValueString(shortCircuit.rhs)));
+
+      } else if (region instanceof IrSequence) {
+        appendIrSequence(builder, (IrSequence) region, depth);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+  }
+
+  default String getIrInstructionString(IrInstruction instruction) {
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      if (declare.value == null) return String.format("declare %s: %s", declare.local.name, typeToString(declare.local.type));
+      return String.format("declare %s: %s = %s", declare.local.name, typeToString(declare.local.type), getIrValueString(declare.value));
+    }
+
+    if (instruction instanceof IrAssign) {
+      IrAssign assign = (IrAssign) instruction;
+      return String.format("%s = %s", assign.local.name, getIrValueString(assign.value));
+    }
+
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      return String.format("%s = %s %s %s", getIrDefinitionString(binary.result), getIrValueString(binary.lhs), binary.operator, getIrValueString(binary.rhs));
+    }
+
+    if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      return String.format("%s = %s%s", getIrDefinitionString(unary.result), unary.operator, getIrValueString(unary.operand));
+    }
+
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      return String.format("%s = cast %s", getIrDefinitionString(cast.result), getIrValueString(cast.operand));
+    }
+
+    if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
+
+      List<String> arguments = new ArrayList<>();
+      for (IrValue argument : call.arguments) arguments.add(getIrValueString(argument));
+
+      String callString = String.format("call %s(%s)", call.name, String.join(", ", arguments));
+      if (call.result == null) return callString;
+      return String.format("%s = %s", getIrDefinitionString(call.result), callString);
+    }
+
+    if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+
+      StringBuilder sizes = new StringBuilder();
+      for (IrValue size : _new.arraySizes) sizes.append(String.format("[%s]", getIrValueString(size)));
+
+      if (!_new.fieldValues.isEmpty()) {
+        List<String> values = new ArrayList<>();
+        for (IrValue value : _new.fieldValues) values.add(getIrValueString(value));
+        sizes.append(String.format("(%s)", String.join(", ", values)));
+      }
+
+      return String.format("%s = new%s", getIrDefinitionString(_new.result), sizes);
+    }
+
+    if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      return String.format("%s = %s.%s", getIrDefinitionString(load.result), getIrValueString(load.object), load.field);
+    }
+
+    if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      return String.format("%s.%s = %s", getIrValueString(store.object), store.field, getIrValueString(store.value));
+    }
+
+    if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      String bounds = load.isInBounds ? "  (in bounds)" : "";
+      return String.format("%s = %s[%s]%s", getIrDefinitionString(load.result), getIrValueString(load.array), getIrValueString(load.index), bounds);
+    }
+
+    if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      String bounds = store.isInBounds ? "  (in bounds)" : "";
+      return String.format("%s[%s] = %s%s", getIrValueString(store.array), getIrValueString(store.index), getIrValueString(store.value), bounds);
+    }
+
+    if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      return String.format("%s = length %s", getIrDefinitionString(length.result), getIrValueString(length.array));
+    }
+
+    if (instruction instanceof IrCopyElements) {
+      IrCopyElements copy = (IrCopyElements) instruction;
+      return String.format("copy %s[%s..] = %s[%s..] count %s", getIrValueString(copy.destination), getIrValueString(copy.destinationIndex), getIrValueString(copy.source), getIrValueString(copy.sourceIndex), getIrValueString(copy.count));
+    }
+
+    if (instruction instanceof IrFillElements) {
+      IrFillElements fill = (IrFillElements) instruction;
+      return String.format("fill %s[%s..%s] = %s", getIrValueString(fill.array), getIrValueString(fill.fromIndex), getIrValueString(fill.toIndex), getIrValueString(fill.value));
+    }
+
+    if (instruction instanceof IrReturn) {
+      IrReturn _return = (IrReturn) instruction;
+      if (_return.value == null) return "return";
+      return String.format("return %s", getIrValueString(_return.value));
+    }
+
+    throw new CompilerException("unexpected ir instruction %s.", instruction.getClass().getSimpleName());
+  }
+
+  private String getIrDefinitionString(IrTemp temp) {
+    return String.format("%%%d: %s", temp.id, typeToString(temp.type));
+  }
+
+  default String getIrValueString(IrValue value) {
+    if (value instanceof IrTemp) return String.format("%%%d", ((IrTemp) value).id);
+    if (value instanceof IrLocal) return ((IrLocal) value).name;
+
+    if (value instanceof IrConstant) {
+      AstLiteral literal = ((IrConstant) value).literal;
+      if (literal.type.category == AstTypeCategory.String && !literal.value.equals("nil")) return String.format("\"%s\"", literal.value);
+      return literal.value;
+    }
+
+    throw new CompilerException("unexpected ir value %s.", value.getClass().getSimpleName());
+  }
+}
@@ -1,50 +1,129 @@
 package pack;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import pack.ParserModule.AstAssignment;
-import pack.ParserModule.AstBinaryOperator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrCopyElements;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFillElements;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
 import pack.ParserModule.AstCompilationUnit;
-import pack.ParserModule.AstDeclaration;
-import pack.ParserModule.AstDefinition;
-import pack.ParserModule.AstExpression;
 import pack.ParserModule.AstFunction;
-import pack.ParserModule.AstFunctionCall;
-import pack.ParserModule.AstIfStatement;
 import pack.ParserModule.AstLiteral;
-import pack.ParserModule.AstNew;
-import pack.ParserModule.AstParameterDeclaration;
-import pack.ParserModule.AstParenthesis;
-import pack.ParserModule.AstProgram;
-import pack.ParserModule.AstReturn;
-import pack.ParserModule.AstStatement;
 import pack.ParserModule.AstStruct;
-import pack.ParserModule.AstStructField;
 import pack.ParserModule.AstType;
-import pack.ParserModule.AstTypeCast;
 import pack.ParserModule.AstTypeCategory;
-import pack.ParserModule.AstUnaryOperator;
-import pack.ParserModule.AstVariable;
-import pack.ParserModule.AstWhileLoop;
+import pack.ParserModule.Location;
+import pack.FormatModule.FormatPart;
+import pack.StructLayoutModule.FieldLayout;
 
-public interface JavaConverterModule {
+public interface JavaConverterModule extends IrModule {
 
   static public class JavaConverter {
-    public StringBuilder builder;
+    public Appendable out;  // the code is appended to it line by line, e.g. a buffered file writer, so it is never held as a whole.
+    public int lines;  // written so far.
     public int indents;
     public int spacesPerIndent;
+    public List<String> indentations;  // the indentation of every depth seen so far, shared with the nested converters.
+
+    public Map<IrTemp, Integer> tempUses;  // of the function being converted.
+
+    public boolean emitCountedLoops;
+    public Set<IrInstruction> foldedInstructions;  // written as part of a for statement instead of on their own.
+
+    public boolean emitStaticFunctions;
+
+    public boolean specializePrintFormats;
+
+    public Map<AstFunction, String> functionToClass;  // the class of every function, if the classes are written to files of their own. null otherwise.
+    public String javaClass;  // the class being written then.
+
+    public List<JavaSourceLine> sourceLines;  // of the written lines, which have an abc line. null if they aren't recorded.
+    public int sourceLine;  // of the code being converted, 0 outside of functions.
+  }
+
+  // a java line and the abc line it was generated from, both starting at 1. The line of the last call, if or loop is taken, which
+  // ends up in the frames of a stack trace, since they are the places, where a function is left.
+  static public class JavaSourceLine {
+    public int javaLine;
+    public int sourceLine;
+  }
+
+  // a struct or function, which was converted on its own.
+  static public class JavaMemberCode {
+    public String code;
+    public int lines;
+    public List<JavaSourceLine> sourceLines;  // in the lines of the member.
+  }
+
+  // "i = s; while (i < n) { ...; i = i + c; }" with an int i, which the body doesn't write otherwise, and a bound n, which the loop doesn't change.
+  // It is written as "for (int i = s; i < n; i += c) { ... }", the shape javac and the jit recognize as a counted loop.
+  static public class JavaCountedLoop {
+    public IrLocal index;
+    public IrDeclare declare;  // null if the index lives on after the loop, then the for statement has no initialization.
+    public IrBinary condition;
+    public IrBinary step;
+    public IrAssign increment;
+  }
+
+  // a temp, whose java expression is not written yet. It is inlined into its single use, if the evaluation order allows it.
+  static public class JavaExpression {
+    public IrTemp temp;
+    public String code;
+    public int sourceLine;
+  }
+
+  default String convertToJavaCode(IrProgram program) {
+    StringBuilder builder = new StringBuilder();
+    writeJavaCode(program, builder);
+    return builder.toString();
+  }
+
+  default void writeJavaCode(IrProgram program, Appendable out) {
+    writeJavaCode(program, out, null);
   }
 
-  default String convertToJavaCode(AstProgram astProgram) {
-    JavaConverter converter = new JavaConverter();
-    converter.builder = new StringBuilder();
-    converter.spacesPerIndent = 2;
-    converter.indents = 0;
+  // records the abc line of every java line into "sourceLines", if it isn't null.
+  default void writeJavaCode(IrProgram program, Appendable out, List<JavaSourceLine> sourceLines) {
+    JavaConverter converter = javaConverter(out, 0);
+    converter.sourceLines = sourceLines;
 
-    AstCompilationUnit mainUnit = astProgram.compilationUnits.get(0);
+    AstCompilationUnit mainUnit = program.source.compilationUnits.get(0);
 
     emitLine(converter, "package output;");
     emitEmptyLine(converter);
@@ -58,7 +137,8 @@ public interface JavaConverterModule {
 
         indent(converter);
         {
-          emitLine(converter, "new MainModule() {}.main();");
+          if (converter.emitStaticFunctions) emitLine(converter, "MainModule.main();");
+          else emitLine(converter, "new MainModule() {}.main();");
         }
         unindent(converter);
 
@@ -67,64 +147,306 @@ public interface JavaConverterModule {
       emitLine(converter, "};");
       emitEmptyLine(converter);
 
-      String javaLibraryBindings = getJavaLibraryBindings(mainUnit.javaLibraryDependencyNames);
-
-      emitLine(converter, "static public interface MainModule %s{", javaLibraryBindings);
+      if (converter.emitStaticFunctions) {
+        // the class implements the libraries for their nested types, e.g. their structs.
+        String javaLibraryBindings = getJavaLibraryBindings(mainUnit.javaLibraryDependencyNames).replaceFirst("^extends ", "implements ");
+        emitLine(converter, "static public final class MainModule ", javaLibraryBindings, "{");
+      } else {
+        String javaLibraryBindings = getJavaLibraryBindings(mainUnit.javaLibraryDependencyNames);
+        emitLine(converter, "static public interface MainModule ", javaLibraryBindings, "{");
+      }
 
       indent(converter);
       {
+        if (converter.emitStaticFunctions && hasJavaLibraryInstanceFunctions(mainUnit.javaLibraryDependencyNames)) {
+          emitEmptyLine(converter);
+          emitLine(converter, "static final MainModule $library = new MainModule();");
+        }
 
-        for (AstStruct struct : mainUnit.structs) {
-          if (struct.hasJavaLibraryBinding) continue;
+        emitJavaModuleMembers(converter, program);
+      }
+      unindent(converter);
 
-          emitEmptyLine(converter);
+      emitLine(converter, "}");
+    }
+    unindent(converter);
 
-          emitLine(converter, "static public class %s {", struct.name);
+    emitLine(converter, "}");
+  }
 
-          indent(converter);
-          {
-            for (AstStructField field : struct.fields) {
-              String javaType = getJavaTypeString(field.type);
-              emitLine(converter, "public %s %s;", javaType, field.name);
-            }
-          }
-          unindent(converter);
+  //
+  // a file per class. A struct is a top-level class, and the functions are static members of a few classes, which call the package-private
+  // functions of each other by the class name.
+  //
 
-          emitLine(converter, "}");
-        }
+  // "mainClass" has the main function, null if the program has none.
+  default void writeJavaMainClass(String mainClass, Appendable out) {
+    JavaConverter converter = javaConverter(out, 0);
 
-        for (AstFunction function : mainUnit.functions) {
-          if (function.hasJavaLibraryBinding) continue;
+    emitLine(converter, "package output;");
+    emitEmptyLine(converter);
+    emitLine(converter, "public class ABCProgramRunMe {");
 
-          emitEmptyLine(converter);
+    indent(converter);
+    {
+      emitLine(converter, "public static void main(String[] args) {");
 
-          String functionHeader = getJavaFunctionHeader(function);
-          emitLine(converter, "%s {", functionHeader);
+      if (mainClass != null) {
+        indent(converter);
+        emitLine(converter, mainClass, ".main();");
+        unindent(converter);
+      }
 
-          indent(converter);
-          {
-            for (AstStatement statement : function.bodyStatements) {
-              emitJavaStatement(converter, statement);
-            }
-          }
-          unindent(converter);
+      emitLine(converter, "}");
+    }
+    unindent(converter);
+
+    emitLine(converter, "}");
+  }
+
+  default void writeJavaStructClass(IrProgram program, AstStruct struct, Appendable out) {
+    JavaConverter converter = javaConverter(out, 0);
+
+    emitLine(converter, "package output;");
+    emitEmptyLine(converter);
+
+    // a field may have a struct of a java library, which is nested in the library.
+    List<String> javaLibraryNames = new ArrayList<>(program.source.compilationUnits.get(0).javaLibraryDependencyNames);
+    Collections.sort(javaLibraryNames);
+
+    for (String javaLibraryName : javaLibraryNames) {
+      emitLine(converter, "import output.", javaLibraryName, ".*;");
+    }
+    if (!javaLibraryNames.isEmpty()) emitEmptyLine(converter);
+
+    emitJavaStruct(converter, struct, "public class ");
+  }
+
+  default void writeJavaFunctionClass(IrProgram program, String javaClass, List<IrFunction> functions, Map<AstFunction, String> functionToClass, Appendable out, List<JavaSourceLine> sourceLines) {
+    JavaConverter converter = javaConverter(out, 0);
+    converter.sourceLines = sourceLines;
+    converter.emitStaticFunctions = true;
+    converter.functionToClass = functionToClass;
+    converter.javaClass = javaClass;
+
+    Set<String> javaLibraryNames = program.source.compilationUnits.get(0).javaLibraryDependencyNames;
+
+    emitLine(converter, "package output;");
+    emitEmptyLine(converter);
+
+    // the class implements the libraries for their nested types, like the main module of the static functions.
+    String javaLibraryBindings = getJavaLibraryBindings(javaLibraryNames).replaceFirst("^extends ", "implements ");
+    emitLine(converter, "final class ", javaClass, " ", javaLibraryBindings, "{");
+
+    indent(converter);
+    {
+      if (hasJavaLibraryInstanceFunctions(javaLibraryNames)) {
+        emitEmptyLine(converter);
+        emitLine(converter, "static final ", javaClass, " $library = new ", javaClass, "();");
+      }
+
+      for (IrFunction function : functions) {
+        emitEmptyLine(converter);
+        emitJavaFunction(converter, function);
+      }
+    }
+    unindent(converter);
+
+    emitLine(converter, "}");
+  }
+
+  private void emitJavaModuleMembers(JavaConverter converter, IrProgram program) {
+    int threads = CompilerModule.settings.codeGenerationThreads;
+    if (threads > 1) {
+      emitJavaModuleMembersInParallel(converter, program, threads);
+      return;
+    }
+
+    for (AstStruct struct : program.structs) {
+      emitEmptyLine(converter);
+      emitJavaStruct(converter, struct, "static public class ");
+    }
+
+    for (IrFunction function : program.functions) {
+      emitEmptyLine(converter);
+      emitJavaFunction(converter, function);
+    }
+  }
 
-          emitLine(converter, "}");
+  // the structs and functions don't depend on each other, so every one of them is converted into its own buffer on a pool.
+  // The buffers are written in source order, so the code is the same as the sequential one.
+  // Only a batch of them is converted at a time, so the code is still streamed instead of being held as a whole.
+  private void emitJavaModuleMembersInParallel(JavaConverter converter, IrProgram program, int threads) {
+    List<Callable<JavaMemberCode>> members = new ArrayList<>();
+    for (AstStruct struct : program.structs) members.add(() -> getJavaMemberCode(converter, member -> emitJavaStruct(member, struct, "static public class ")));
+    for (IrFunction function : program.functions) members.add(() -> getJavaMemberCode(converter, member -> emitJavaFunction(member, function)));
+
+    int batchSize = threads * 64;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+
+    try {
+      for (int start = 0; start < members.size(); start += batchSize) {
+        List<ForkJoinTask<JavaMemberCode>> batch = new ArrayList<>();
+        for (Callable<JavaMemberCode> member : members.subList(start, Math.min(start + batchSize, members.size()))) {
+          batch.add(pool.submit(member));
+        }
+
+        for (ForkJoinTask<JavaMemberCode> code : batch) {
+          emitEmptyLine(converter);
+          appendJavaMemberCode(converter, code.join());
         }
       }
-      unindent(converter);
+    } finally {
+      pool.shutdown();
+    }
+  }
 
-      emitLine(converter, "}");
+  private void emitJavaStruct(JavaConverter converter, AstStruct struct, String declaration) {
+    emitLine(converter, declaration, struct.name, " {");
+
+    indent(converter);
+    {
+      // the jit may trust final fields to never change, and fold their loads.
+      String modifiers = struct.immutable ? "public final " : "public ";
+      for (FieldLayout field : struct.layout.fields) {
+        String javaType = getJavaTypeString(field.field.type);
+        emitLine(converter, modifiers, javaType, " ", field.field.name, ";");
+      }
+
+      if (hasFieldsConstructor(struct.layout)) emitJavaStructConstructors(converter, struct);
+    }
+    unindent(converter);
+
+    emitLine(converter, "}");
+  }
+
+  // a struct is created with its default values or with a value for every field. An immutable struct always gets every value.
+  private void emitJavaStructConstructors(JavaConverter converter, AstStruct struct) {
+    emitEmptyLine(converter);
+    if (!struct.immutable) {
+      emitLine(converter, "public ", struct.name, "() {}");
+      emitEmptyLine(converter);
+    }
+
+    List<String> parameters = new ArrayList<>();
+    for (FieldLayout field : struct.layout.fields) {
+      parameters.add(getJavaTypeString(field.field.type) + " " + field.field.name);
+    }
+
+    emitLine(converter, "public ", struct.name, "(", String.join(", ", parameters), ") {");
+    indent(converter);
+    {
+      for (FieldLayout field : struct.layout.fields) {
+        emitLine(converter, "this.", field.field.name, " = ", field.field.name, ";");
+      }
+    }
+    unindent(converter);
+    emitLine(converter, "}");
+  }
+
+  private JavaMemberCode getJavaMemberCode(JavaConverter converter, Consumer<JavaConverter> emitter) {
+    StringBuilder builder = new StringBuilder();
+    JavaConverter member = moduleMemberJavaConverter(builder);
+    if (converter.sourceLines != null) member.sourceLines = new ArrayList<>();
+    emitter.accept(member);
+
+    JavaMemberCode result = new JavaMemberCode();
+    result.code = builder.toString();
+    result.lines = member.lines;
+    result.sourceLines = member.sourceLines;
+    return result;
+  }
+
+  private void appendJavaMemberCode(JavaConverter converter, JavaMemberCode member) {
+    if (converter.sourceLines != null) {
+      for (JavaSourceLine line : member.sourceLines) {
+        addJavaSourceLine(converter, converter.lines + line.javaLine, line.sourceLine);
+      }
+    }
+
+    append(converter, member.code);
+    converter.lines += member.lines;
+  }
+
+  private void emitJavaFunction(JavaConverter converter, IrFunction function) {
+    String functionHeader = getJavaFunctionHeader(converter, function);
+    converter.sourceLine = (function.source.location != null) ? function.source.location.lineStart : 0;
+    emitLine(converter, functionHeader, " {");
+
+    indent(converter);
+    {
+      converter.tempUses = countIrTempUses(function.body);
+      converter.foldedInstructions = new HashSet<>();
+      emitJavaSequence(converter, function.body);
     }
     unindent(converter);
 
     emitLine(converter, "}");
+    converter.sourceLine = 0;
+  }
+
+  // the java code of a single struct or function, as it is written inside of the main module.
+  default String getJavaStructCode(AstStruct struct) {
+    StringBuilder builder = new StringBuilder();
+    emitJavaStruct(moduleMemberJavaConverter(builder), struct, "static public class ");
+    return builder.toString();
+  }
+
+  default String getJavaFunctionCode(IrFunction function) {
+    StringBuilder builder = new StringBuilder();
+    emitJavaFunction(moduleMemberJavaConverter(builder), function);
+    return builder.toString();
+  }
 
-    String result = converter.builder.toString();
+  private JavaConverter moduleMemberJavaConverter(Appendable out) {
+    return javaConverter(out, 2);
+  }
 
+  private JavaConverter javaConverter(Appendable out, int indents) {
+    JavaConverter result = new JavaConverter();
+    result.out = out;
+    result.spacesPerIndent = 2;
+    result.indents = indents;
+    result.indentations = new ArrayList<>();
+    result.emitCountedLoops = CompilerModule.settings.emitCountedLoops;
+    result.emitStaticFunctions = CompilerModule.settings.generateStaticFunctions;
+    result.specializePrintFormats = CompilerModule.settings.specializePrintFormats;
     return result;
   }
 
+  // the modules of the compiler also have their functions as static members of their nested class "Static".
+  private boolean isStaticJavaLibrary(String javaLibraryName) {
+    return javaLibraryName.equals("Preload") || javaLibraryName.equals("Profiler");
+  }
+
+  // RuntimeSupport only has types.
+  private boolean hasJavaLibraryInstanceFunctions(Set<String> javaLibraryNames) {
+    for (String name : javaLibraryNames) {
+      if (!isStaticJavaLibrary(name) && !name.equals("RuntimeSupport")) return true;
+    }
+    return false;
+  }
+
+  // as static functions, the functions of the other java libraries are called on an instance of the main module, which implements them.
+  // "$" can't be part of an abc identifier, so the instance never collides with a function.
+  private String getJavaCallName(JavaConverter converter, IrCall call) {
+    if (!call.function.hasJavaLibraryBinding) return getJavaFunctionCallName(converter, call);
+    if (!converter.emitStaticFunctions) return call.name;
+    if (isStaticJavaLibrary(call.function.javaLibraryName)) return call.function.javaLibraryName + ".Static." + call.name;
+    return "$library." + call.name;
+  }
+
+  // a function of another class is called by the name of its class.
+  private String getJavaFunctionCallName(JavaConverter converter, IrCall call) {
+    if (converter.functionToClass == null) return call.name;
+
+    String javaClass = converter.functionToClass.get(call.function);
+    if (javaClass == null) throw new CompilerException("function \"%s\" has no class.", call.name);
+
+    if (javaClass.equals(converter.javaClass)) return call.name;
+    return javaClass + "." + call.name;
+  }
+
   default String getJavaLibraryBindings(Set<String> javaLibraryNames) {
     StringBuilder builder = new StringBuilder();
 
@@ -152,249 +474,692 @@ public interface JavaConverterModule {
     return builder.toString();
   }
 
-  private String getJavaAssignment(AstAssignment assignment, AstType type) {
-    if (assignment instanceof AstExpression) {
-      AstExpression expression = (AstExpression) assignment;
-      return getJavaExpressionString(expression);
+  private String getJavaFunctionHeader(JavaConverter converter, IrFunction function) {
+    StringBuilder builder = new StringBuilder();
+
+    String returnType = getJavaTypeString(function.returnType);
+    String modifier = converter.emitStaticFunctions ? "static" : "default";
+    builder.append(modifier);
+    builder.append(" ");
+    builder.append(returnType);
+    builder.append(" ");
+    builder.append(function.name);
+    builder.append("(");
+
+    for (int i = 0; i < function.parameters.size() - 1; i++) {
+      IrLocal parameter = function.parameters.get(i);
+
+      String javaParameterType = getJavaTypeString(parameter.type);
+      builder.append(javaParameterType);
+      builder.append(" ");
+      builder.append(parameter.name);
+      builder.append(", ");
+    }
+
+    if (function.parameters.size() > 0) {
+      IrLocal parameter = function.parameters.get(function.parameters.size() - 1);
+
+      String javaParameterType = getJavaTypeString(parameter.type);
+      builder.append(javaParameterType);
+      builder.append(" ");
+      builder.append(parameter.name);
     }
 
-    if (assignment instanceof AstNew) {
-      AstNew _new = (AstNew) assignment;
+    builder.append(")");
+
+    return builder.toString();
+  }
 
-      if (type.arrayDimension > 0) {
-        StringBuilder builder = new StringBuilder();
-        String javaBaseType = getJavaBaseTypeString(type);
+  private void emitJavaSequence(JavaConverter converter, IrSequence sequence) {
+    List<JavaExpression> pending = new ArrayList<>();
+    emitJavaRegions(converter, pending, sequence);
+    flushJavaExpressions(converter, pending);
+  }
 
-        builder.append("new ");
-        builder.append(javaBaseType);
+  private void emitJavaRegions(JavaConverter converter, List<JavaExpression> pending, IrSequence sequence) {
+    Map<IrLoop, JavaCountedLoop> countedLoops = findJavaCountedLoops(converter, sequence);
 
-        for (AstExpression arraySubExpression : _new.arraySizes) {
-          builder.append("[");
-          builder.append(getJavaExpressionString(arraySubExpression));
-          builder.append("]");
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+        for (IrInstruction instruction : block.instructions) {
+          if (converter.foldedInstructions.contains(instruction)) continue;
+          emitJavaInstruction(converter, pending, instruction);
         }
 
-        return builder.toString();
-      }
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        String condition = takeJavaOperand(converter, pending, _if.condition);
+        flushJavaExpressions(converter, pending);
 
-      String javaBaseType = getJavaBaseTypeString(type);
-      return String.format("new %s()", javaBaseType);
-    }
+        setJavaSourceLine(converter, _if.location);
+        emitLine(converter, "if (", condition, ") {");
+
+        indent(converter);
+        emitJavaSequence(converter, _if.thenBody);
+        unindent(converter);
+
+        if (_if.elseBody.regions.size() > 0) {
+          emitLine(converter, "} else {");
+
+          indent(converter);
+          emitJavaSequence(converter, _if.elseBody);
+          unindent(converter);
+        }
+
+        emitLine(converter, "}");
+
+      } else if (region instanceof IrLoop && countedLoops.containsKey(region)) {
+        emitJavaCountedLoop(converter, pending, (IrLoop) region, countedLoops.get(region));
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        flushJavaExpressions(converter, pending);
+        emitJavaLoop(converter, loop);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        emitJavaShortCircuit(converter, pending, shortCircuit);
 
-    throw new CompilerException("not handled assignment: %s", assignment.getClass().getSimpleName());
+      } else if (region instanceof IrSequence) {
+        flushJavaExpressions(converter, pending);
+        emitJavaSequence(converter, (IrSequence) region);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
   }
 
-  private void emitJavaStatement(JavaConverter converter, AstStatement statement) {
-    if (statement instanceof AstDeclaration) {
-      AstDeclaration decl = (AstDeclaration) statement;
-      String javaType = getJavaTypeString(decl.type);
+  private void emitJavaLoop(JavaConverter converter, IrLoop loop) {
+    JavaConverter header = createNestedJavaConverter(converter);
+    List<JavaExpression> headerPending = new ArrayList<>();
+    emitJavaRegions(header, headerPending, loop.header);
+    String condition = takeJavaOperand(header, headerPending, loop.condition);
+
+    setJavaSourceLine(converter, loop.location);
+    if (header.lines == 0 && headerPending.isEmpty()) {
+      emitLine(converter, "while (", condition, ") {");
+
+      indent(converter);
+      emitJavaSequence(converter, loop.body);
+      unindent(converter);
 
-      String initializationValue = getJavaAssignment(decl.optionalInit, decl.type);
-      emitLine(converter, "%s %s = %s;", javaType, decl.identifier, initializationValue);
+      emitLine(converter, "}");
       return;
     }
 
-    if (statement instanceof AstDefinition) {
-      AstDefinition defn = (AstDefinition) statement;
+    // the condition needs statements, which have to run before every check.
+    emitLine(converter, "while (true) {");
 
-      AstVariable lhs = defn.lhs;
-      while (lhs.child != null) lhs = lhs.child;
+    indent(converter);
+    {
+      List<JavaExpression> pending = new ArrayList<>();
+      emitJavaRegions(converter, pending, loop.header);
+      condition = takeJavaOperand(converter, pending, loop.condition);
+      flushJavaExpressions(converter, pending);
 
-      String javaLhs = getJavaExpressionString(defn.lhs);
-      String javaRhs = getJavaAssignment(defn.rhs, lhs.type);
-      emitLine(converter, "%s = %s;", javaLhs, javaRhs);
-      return;
+      emitLine(converter, "if (!", getJavaPrimaryString(condition), ") break;");
+      emitJavaSequence(converter, loop.body);
     }
+    unindent(converter);
 
-    if (statement instanceof AstReturn) {
-      AstReturn _return = (AstReturn) statement;
-      
-      if (_return.returnExpression == null) { // void
-        emitLine(converter, "return;");
-        return;
-      }
-      
-      String javaReturn = getJavaExpressionString(_return.returnExpression);
-      emitLine(converter, "return %s;", javaReturn);
-      return;
+    emitLine(converter, "}");
+  }
+
+  private void emitJavaCountedLoop(JavaConverter converter, List<JavaExpression> pending, IrLoop loop, JavaCountedLoop counted) {
+    String initialization = "";
+    if (counted.declare != null) {
+      String value = takeJavaOperand(converter, pending, counted.declare.value);
+      initialization = getJavaTypeString(counted.index.type) + " " + counted.index.name + " = " + value;
     }
+    flushJavaExpressions(converter, pending);
 
-    if (statement instanceof AstFunctionCall) {
-      AstFunctionCall functionCall = (AstFunctionCall) statement;
-      String javaFunctionCall = getJavaFunctionCallString(functionCall);
-      emitLine(converter, javaFunctionCall + ";");
-      return;
+    List<String> operands = takeJavaOperands(converter, new ArrayList<>(), getIrOperands(counted.condition));
+    String condition = getJavaInstructionString(converter, counted.condition, operands);
+
+    setJavaSourceLine(converter, loop.location);
+    emitLine(converter, "for (", initialization, "; ", condition, "; ", getJavaCountedLoopUpdate(counted), ") {");
+
+    indent(converter);
+    emitJavaSequence(converter, loop.body);
+    unindent(converter);
+
+    emitLine(converter, "}");
+  }
+
+  private String getJavaCountedLoopUpdate(JavaCountedLoop counted) {
+    IrBinary step = counted.step;
+    IrValue amount = (step.lhs == counted.index) ? step.rhs : step.lhs;
+    String name = counted.index.name;
+
+    String value = getJavaValueString(amount);
+    if (value.equals("1")) return name + step.operator + step.operator;
+    return name + " " + step.operator + "= " + value;
+  }
+
+  private Map<IrLoop, JavaCountedLoop> findJavaCountedLoops(JavaConverter converter, IrSequence sequence) {
+    Map<IrLoop, JavaCountedLoop> result = new HashMap<>();
+    if (!converter.emitCountedLoops) return result;
+
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      if (!(sequence.regions.get(i) instanceof IrLoop)) continue;
+
+      JavaCountedLoop counted = findJavaCountedLoop(sequence, i);
+      if (counted == null) continue;
+
+      result.put((IrLoop) sequence.regions.get(i), counted);
+      converter.foldedInstructions.add(counted.step);
+      converter.foldedInstructions.add(counted.increment);
+      if (counted.declare != null) converter.foldedInstructions.add(counted.declare);
     }
 
-    if (statement instanceof AstIfStatement) {
-      AstIfStatement ifStatement = (AstIfStatement) statement;
+    return result;
+  }
+
+  private JavaCountedLoop findJavaCountedLoop(IrSequence sequence, int loopIndex) {
+    IrLoop loop = (IrLoop) sequence.regions.get(loopIndex);
+
+    if (loop.header.regions.size() != 1 || !(loop.header.regions.get(0) instanceof IrBlock)) return null;
+    List<IrInstruction> header = ((IrBlock) loop.header.regions.get(0)).instructions;
+    if (header.size() != 1 || !(header.get(0) instanceof IrBinary)) return null;
+
+    IrBinary condition = (IrBinary) header.get(0);
+    if (condition.result != loop.condition) return null;
+
+    // the body ends with "%t = i + c; i = %t".
+    if (loop.body.regions.isEmpty() || !(loop.body.regions.get(loop.body.regions.size() - 1) instanceof IrBlock)) return null;
+    List<IrInstruction> last = ((IrBlock) loop.body.regions.get(loop.body.regions.size() - 1)).instructions;
+    if (last.size() < 2 || !(last.get(last.size() - 2) instanceof IrBinary) || !(last.get(last.size() - 1) instanceof IrAssign)) return null;
+
+    JavaCountedLoop result = new JavaCountedLoop();
+    result.condition = condition;
+    result.step = (IrBinary) last.get(last.size() - 2);
+    result.increment = (IrAssign) last.get(last.size() - 1);
+    result.index = result.increment.local;
+
+    IrLocal index = result.index;
+    if (index.type.category != AstTypeCategory.I32 || index.type.arrayDimension != 0) return null;
+    if (result.increment.value != result.step.result) return null;
+
+    boolean isUp = result.step.operator.equals("+") && (result.step.lhs == index || result.step.rhs == index);
+    boolean isDown = result.step.operator.equals("-") && result.step.lhs == index;
+    IrValue amount = (result.step.lhs == index) ? result.step.rhs : result.step.lhs;
+    if (!isPositiveIntConstant(amount) || (!isUp && !isDown)) return null;
+
+    // "i < n" counts up, "i > n" counts down, the bound may be on either side.
+    IrValue bound;
+    String operator;
+    if (condition.lhs == index) {
+      bound = condition.rhs;
+      operator = condition.operator;
+    } else if (condition.rhs == index) {
+      bound = condition.lhs;
+      operator = getMirroredOperator(condition.operator);
+    } else {
+      return null;
+    }
 
-      String javaConditionExpression = getJavaExpressionString(ifStatement.condition);
-      String condition = String.format("if (%s) {", javaConditionExpression);
-      emitLine(converter, condition);
+    if (isUp && !isAny(operator, "<", "<=")) return null;
+    if (isDown && !isAny(operator, ">", ">=")) return null;
+    if (bound == index || !isAny(getIrValueType(bound).category, AstTypeCategory.I8, AstTypeCategory.I16, AstTypeCategory.I32, AstTypeCategory.Char)) return null;
 
-      indent(converter);
-      for (AstStatement statementInBody : ifStatement.ifBody) {
-        emitJavaStatement(converter, statementInBody);
+    // nothing but the increment writes the index, and nothing writes the bound.
+    for (IrBlock block : getIrBlocks(loop.body)) {
+      for (IrInstruction instruction : block.instructions) {
+        IrLocal written = getWrittenIrLocal(instruction);
+        if (written == bound) return null;
+        if (written == index && instruction != result.increment) return null;
       }
-      unindent(converter);
+    }
 
-      if (ifStatement.elseBody.size() == 0) {
-        emitLine(converter, "}");
-        return;
-      }
+    result.declare = findJavaCountedLoopDeclare(sequence, loopIndex, index);
+    return result;
+  }
 
-      emitLine(converter, "} else {");
+  // the declaration moves into the for statement, if the code after the loop doesn't refer to the index.
+  // Instructions between the declaration and the loop, e.g. hoisted loop invariants, are fine, as long as the initial value doesn't depend on them.
+  private IrDeclare findJavaCountedLoopDeclare(IrSequence sequence, int loopIndex, IrLocal index) {
+    IrRegion previous = (loopIndex > 0) ? sequence.regions.get(loopIndex - 1) : null;
+    if (!(previous instanceof IrBlock)) return null;
 
-      indent(converter);
-      for (AstStatement statementInBody : ifStatement.elseBody) {
-        emitJavaStatement(converter, statementInBody);
+    List<IrRegion> rest = sequence.regions.subList(loopIndex + 1, sequence.regions.size());
+    if (isIrLocalReferenced(rest, index)) return null;
+
+    List<IrInstruction> instructions = ((IrBlock) previous).instructions;
+    for (int i = instructions.size() - 1; i >= 0; i--) {
+      IrInstruction instruction = instructions.get(i);
+
+      if (instruction instanceof IrDeclare && ((IrDeclare) instruction).local == index) {
+        IrDeclare declare = (IrDeclare) instruction;
+        if (declare.value == null || declare.value instanceof IrTemp) return null;
+
+        for (IrInstruction after : instructions.subList(i + 1, instructions.size())) {
+          if (declare.value instanceof IrLocal && getWrittenIrLocal(after) == declare.value) return null;
+        }
+        return declare;
       }
-      unindent(converter);
 
-      emitLine(converter, "}");
+      if (getWrittenIrLocal(instruction) == index || getIrOperands(instruction).contains(index)) return null;
+    }
 
-      return;
+    return null;
+  }
+
+  private boolean isPositiveIntConstant(IrValue value) {
+    if (!(value instanceof IrConstant)) return false;
+
+    AstLiteral literal = ((IrConstant) value).literal;
+    if (literal.type.category != AstTypeCategory.I32) return false;
+
+    try {
+      return Integer.parseInt(literal.value) > 0;
+    } catch (NumberFormatException e) {
+      return false;
     }
+  }
+
+  private String getMirroredOperator(String operator) {
+    if (operator.equals("<")) return ">";
+    if (operator.equals("<=")) return ">=";
+    if (operator.equals(">")) return "<";
+    if (operator.equals(">=")) return "<=";
+    return operator;
+  }
 
-    if (statement instanceof AstWhileLoop) {
-      AstWhileLoop whileLoop = (AstWhileLoop) statement;
+  private IrLocal getWrittenIrLocal(IrInstruction instruction) {
+    if (instruction instanceof IrAssign) return ((IrAssign) instruction).local;
+    if (instruction instanceof IrDeclare) return ((IrDeclare) instruction).local;
+    return null;
+  }
 
-      String javaConditionExpression = getJavaExpressionString(whileLoop.condition);
-      String condition = String.format("while (%s) {", javaConditionExpression);
-      emitLine(converter, condition);
+  private boolean isIrLocalReferenced(List<IrRegion> regions, IrLocal local) {
+    IrSequence sequence = irSequence();
+    sequence.regions.addAll(regions);
 
-      indent(converter);
-      for (AstStatement statementInBody : whileLoop.body) {
-        emitJavaStatement(converter, statementInBody);
+    for (IrBlock block : getIrBlocks(sequence)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (getWrittenIrLocal(instruction) == local) return true;
       }
-      unindent(converter);
+    }
 
-      emitLine(converter, "}");
+    boolean[] isRead = { false };
+    mapIrValues(sequence, value -> {
+      if (value == local) isRead[0] = true;
+      return value;
+    });
+    return isRead[0];
+  }
+
+  private void emitJavaShortCircuit(JavaConverter converter, List<JavaExpression> pending, IrShortCircuit shortCircuit) {
+    String lhs = takeJavaOperand(converter, pending, shortCircuit.lhs);
+
+    JavaConverter rhsConverter = createNestedJavaConverter(converter);
+    List<JavaExpression> rhsPending = new ArrayList<>();
+    emitJavaRegions(rhsConverter, rhsPending, shortCircuit.rhsBody);
+    String rhs = takeJavaOperand(rhsConverter, rhsPending, shortCircuit.rhs);
+
+    if (rhsConverter.lines == 0 && rhsPending.isEmpty()) {
+      String code = "(" + lhs + " " + shortCircuit.operator + " " + rhs + ")";
+      emitJavaResult(converter, pending, shortCircuit.result, code, false);
       return;
     }
 
-    throw new CompilerException("unsupported statement: %s", statement.getClass().getName());
+    // the rhs needs statements, so they are guarded by an if.
+    String name = getJavaTempName(shortCircuit.result);
+    String guard = shortCircuit.operator.equals("&&") ? name : "!" + name;
+
+    flushJavaExpressions(converter, pending);
+    emitLine(converter, "boolean ", name, " = ", lhs, ";");
+    emitLine(converter, "if (", guard, ") {");
+
+    indent(converter);
+    {
+      List<JavaExpression> guardedPending = new ArrayList<>();
+      emitJavaRegions(converter, guardedPending, shortCircuit.rhsBody);
+      rhs = takeJavaOperand(converter, guardedPending, shortCircuit.rhs);
+      flushJavaExpressions(converter, guardedPending);
+      emitLine(converter, name, " = ", rhs, ";");
+    }
+    unindent(converter);
+
+    emitLine(converter, "}");
   }
 
-  private String getJavaFunctionHeader(AstFunction function) {
-    StringBuilder builder = new StringBuilder();
+  private void emitJavaInstruction(JavaConverter converter, List<JavaExpression> pending, IrInstruction instruction) {
+    List<String> operands = takeJavaOperands(converter, pending, getIrOperands(instruction));
+    String code = getJavaInstructionString(converter, instruction, operands);
+    if (instruction instanceof IrCall) setJavaSourceLine(converter, ((IrCall) instruction).location);
 
-    String returnType = getJavaTypeString(function.returnType);
-    String start = String.format("default %s %s", returnType, function.name);
-    builder.append(start);
-    builder.append("(");
+    IrTemp result = getIrResult(instruction);
+    if (result != null) {
+      emitJavaResult(converter, pending, result, code, instruction instanceof IrCall);
+      return;
+    }
 
-    for (int i = 0; i < function.parameters.size() - 1; i++) {
-      AstParameterDeclaration parameter = function.parameters.get(i);
+    flushJavaExpressions(converter, pending);
+    emitLine(converter, code, ";");
+  }
 
-      String javaParameterType = getJavaTypeString(parameter.type);
-      String javaParameter = String.format("%s %s", javaParameterType, parameter.name);
-      builder.append(javaParameter);
-      builder.append(", ");
+  private void emitJavaResult(JavaConverter converter, List<JavaExpression> pending, IrTemp result, String code, boolean isCall) {
+    int uses = converter.tempUses.getOrDefault(result, 0);
+
+    if (uses == 1) {
+      JavaExpression expression = new JavaExpression();
+      expression.temp = result;
+      expression.code = code;
+      expression.sourceLine = converter.sourceLine;
+      pending.add(expression);
+      return;
     }
 
-    if (function.parameters.size() > 0) {
-      AstParameterDeclaration parameter = function.parameters.get(function.parameters.size() - 1);
+    flushJavaExpressions(converter, pending);
 
-      String javaParameterType = getJavaTypeString(parameter.type);
-      String javaParameter = String.format("%s %s", javaParameterType, parameter.name);
-      builder.append(javaParameter);
+    if (uses == 0 && isCall) {
+      emitLine(converter, code, ";");
+      return;
     }
 
-    builder.append(")");
+    emitLine(converter, getJavaTypeString(result.type), " ", getJavaTempName(result), " = ", code, ";");
+  }
 
-    return builder.toString();
+  private String takeJavaOperand(JavaConverter converter, List<JavaExpression> pending, IrValue operand) {
+    List<IrValue> operands = new ArrayList<>();
+    operands.add(operand);
+    return takeJavaOperands(converter, pending, operands).get(0);
   }
 
-  private String getJavaFunctionCallString(AstFunctionCall functionCall) {
-    StringBuilder builder = new StringBuilder();
-    builder.append(functionCall.name);
-    builder.append("(");
+  // the pending expressions can only be inlined if the operands are the most recent ones in the same order.
+  // Otherwise java would evaluate them in a different order than the ir, so they are written to variables first.
+  private List<String> takeJavaOperands(JavaConverter converter, List<JavaExpression> pending, List<IrValue> operands) {
+    List<IrTemp> pendingOperands = new ArrayList<>();
+    for (IrValue operand : operands) {
+      if (!(operand instanceof IrTemp)) continue;
+      if (findJavaExpression(pending, (IrTemp) operand) == null) continue;
+      pendingOperands.add((IrTemp) operand);
+    }
 
-    for (int i = 0; i < functionCall.arguments.size() - 1; i++) {
-      AstExpression arg = functionCall.arguments.get(i);
-      String javaExpression = getJavaExpressionString(arg);
-      builder.append(javaExpression);
-      builder.append(", ");
+    boolean isInOrder = pendingOperands.size() <= pending.size();
+    for (int i = 0; isInOrder && i < pendingOperands.size(); i++) {
+      JavaExpression expression = pending.get(pending.size() - pendingOperands.size() + i);
+      if (expression.temp != pendingOperands.get(i)) isInOrder = false;
     }
 
-    if (functionCall.arguments.size() > 0) {
-      AstExpression argN = functionCall.arguments.get(functionCall.arguments.size() - 1);
-      String javaExpression = getJavaExpressionString(argN);
-      builder.append(javaExpression);
+    if (!isInOrder) flushJavaExpressions(converter, pending);
+
+    List<String> result = new ArrayList<>();
+    for (IrValue operand : operands) {
+      JavaExpression expression = (operand instanceof IrTemp) ? findJavaExpression(pending, (IrTemp) operand) : null;
+      if (expression != null) {
+        pending.remove(expression);
+        result.add(expression.code);
+        continue;
+      }
+
+      result.add(getJavaValueString(operand));
     }
 
-    builder.append(")");
+    return result;
+  }
 
-    return builder.toString();
+  private JavaExpression findJavaExpression(List<JavaExpression> pending, IrTemp temp) {
+    for (JavaExpression expression : pending) {
+      if (expression.temp == temp) return expression;
+    }
+    return null;
+  }
+
+  // an expression keeps the abc line, at which it was computed.
+  private void flushJavaExpressions(JavaConverter converter, List<JavaExpression> pending) {
+    int sourceLine = converter.sourceLine;
+    for (JavaExpression expression : pending) {
+      converter.sourceLine = expression.sourceLine;
+      emitLine(converter, getJavaTypeString(expression.temp.type), " ", getJavaTempName(expression.temp), " = ", expression.code, ";");
+    }
+    converter.sourceLine = sourceLine;
+    pending.clear();
   }
 
-  private String getJavaExpressionString(AstExpression expression) {
+  // regions and calls, which the compiler created, have no location and keep the line.
+  private void setJavaSourceLine(JavaConverter converter, Location location) {
+    if (location != null) converter.sourceLine = location.lineStart;
+  }
 
-    if (expression instanceof AstLiteral) {
-      AstLiteral literal = (AstLiteral) expression;
-      if (literal.value.equals("nil")) return "null";
+  private void addJavaSourceLine(JavaConverter converter, int javaLine, int sourceLine) {
+    JavaSourceLine line = new JavaSourceLine();
+    line.javaLine = javaLine;
+    line.sourceLine = sourceLine;
+    converter.sourceLines.add(line);
+  }
 
-      if (literal.type.category == AstTypeCategory.String) {
-        return String.format("\"%s\"", literal.value);
-      }
+  // it only finds out, whether statements are needed, so its code is discarded.
+  private JavaConverter createNestedJavaConverter(JavaConverter converter) {
+    JavaConverter result = new JavaConverter();
+    result.out = Writer.nullWriter();
+    result.indents = converter.indents;
+    result.spacesPerIndent = converter.spacesPerIndent;
+    result.indentations = converter.indentations;
+    result.tempUses = converter.tempUses;
+    result.emitCountedLoops = converter.emitCountedLoops;
+    result.foldedInstructions = converter.foldedInstructions;
+    return result;
+  }
 
-      return literal.value;
+  private String getJavaInstructionString(JavaConverter converter, IrInstruction instruction, List<String> operands) {
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      if (declare.value == null) return getJavaTypeString(declare.local.type) + " " + declare.local.name;
+      return getJavaTypeString(declare.local.type) + " " + declare.local.name + " = " + operands.get(0);
+    }
 
-    } else if (expression instanceof AstBinaryOperator) {
-      AstBinaryOperator operator = (AstBinaryOperator) expression;
-      String lhs = getJavaExpressionString(operator.lhs);
-      String rhs = getJavaExpressionString(operator.rhs);
-      return String.format("(%s %s %s)", lhs, operator.operator, rhs);  // parenthesis for safety
+    if (instruction instanceof IrAssign) {
+      IrAssign assign = (IrAssign) instruction;
+      return assign.local.name + " = " + operands.get(0);
+    }
 
-    } else if (expression instanceof AstUnaryOperator) {
-      AstUnaryOperator operator = (AstUnaryOperator) expression;
-      String rhs = getJavaExpressionString(operator.body);
-      return String.format("(%s%s)", operator.operator, rhs); // parenthesis for safety
+    if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      return "(" + operands.get(0) + " " + binary.operator + " " + operands.get(1) + ")";  // parenthesis for safety
+    }
 
-    } else if (expression instanceof AstParenthesis) {
-      AstParenthesis parenthesis = (AstParenthesis) expression;
-      String body = getJavaExpressionString(parenthesis.body);
-      return String.format("(%s)", body);
+    if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      return "(" + unary.operator + operands.get(0) + ")";  // parenthesis for safety
+    }
 
-    } else if (expression instanceof AstVariable) {
-      AstVariable variable = (AstVariable) expression;
+    if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      return "(" + getJavaTypeString(cast.result.type) + ")" + operands.get(0);
+    }
 
-      StringBuilder builder = new StringBuilder();
-      String firstName = variable.name;
-      builder.append(firstName);
+    if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
 
-      for (AstExpression arrayExpression : variable.arrayExpressions) {
-        String javaExpression = getJavaExpressionString(arrayExpression);
+      String print = converter.specializePrintFormats ? getJavaPrintString(call, operands) : null;
+      if (print != null) return print;
 
+      return getJavaCallName(converter, call) + "(" + String.join(", ", operands) + ")";
+    }
+
+    if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+      AstType type = _new.result.type;
+
+      String javaBaseType = getJavaBaseTypeString(type);
+      if (type.arrayDimension == 0) return "new " + javaBaseType + "(" + String.join(", ", operands) + ")";
+
+      StringBuilder builder = new StringBuilder();
+      builder.append("new ");
+      builder.append(javaBaseType);
+
+      for (String arraySize : operands) {
         builder.append("[");
-        builder.append(javaExpression);
+        builder.append(arraySize);
         builder.append("]");
       }
 
-      if (variable.child != null) {
-        String javaExpression = getJavaExpressionString(variable.child);
+      builder.append(getJavaArrayBrackets(type.arrayDimension - operands.size()));
+
+      return builder.toString();
+    }
+
+    if (instruction instanceof IrLoadField) {
+      IrLoadField load = (IrLoadField) instruction;
+      return getJavaPrimaryString(operands.get(0)) + "." + load.field;
+    }
+
+    if (instruction instanceof IrStoreField) {
+      IrStoreField store = (IrStoreField) instruction;
+      return getJavaPrimaryString(operands.get(0)) + "." + store.field + " = " + operands.get(1);
+    }
+
+    if (instruction instanceof IrLoadElement) {
+      return getJavaPrimaryString(operands.get(0)) + "[" + operands.get(1) + "]";
+    }
+
+    if (instruction instanceof IrStoreElement) {
+      return getJavaPrimaryString(operands.get(0)) + "[" + operands.get(1) + "] = " + operands.get(2);
+    }
+
+    if (instruction instanceof IrArrayLength) {
+      return getJavaPrimaryString(operands.get(0)) + ".length";
+    }
+
+    if (instruction instanceof IrCopyElements) {
+      return "System.arraycopy(" + String.join(", ", operands) + ")";
+    }
+
+    if (instruction instanceof IrFillElements) {
+      return "java.util.Arrays.fill(" + String.join(", ", operands) + ")";
+    }
+
+    if (instruction instanceof IrReturn) {
+      if (operands.size() == 0) return "return";  // void
+      return "return " + operands.get(0);
+    }
+
+    throw new CompilerException("unexpected ir instruction %s.", instruction.getClass().getSimpleName());
+  }
+
+  // a print with a literal format becomes a string concatenation, if every specifier converts its argument the same way "+" does,
+  // e.g. "%d" of an int. Others, like "%.2f" or "%d" of any, still go through printf.
+  private String getJavaPrintString(IrCall call, List<String> operands) {
+    if (!isFormatFunction(call.function) || !call.function.name.equals("print") || call.arguments.isEmpty()) return null;
+    if (!(call.arguments.get(0) instanceof IrConstant)) return null;
+
+    AstLiteral format = ((IrConstant) call.arguments.get(0)).literal;
+    if (format.type.category != AstTypeCategory.String) return null;
+
+    List<FormatPart> parts = parseFormat(format.value);
+    if (parts == null) return null;
+
+    List<String> pieces = new ArrayList<>();
+    int argumentIndex = 1;
+
+    for (FormatPart part : parts) {
+      if (part.text != null) {
+        pieces.add("\"" + part.text + "\"");
+        continue;
+      }
+
+      if (part.hasFlags) return null;
 
-        builder.append(".");
-        builder.append(javaExpression);
+      if (part.conversion == '%') {
+        pieces.add("\"%\"");
+        continue;
       }
 
-      return builder.toString();
+      if (part.conversion == 'n') {
+        pieces.add("System.lineSeparator()");
+        continue;
+      }
 
-    } else if (expression instanceof AstFunctionCall) {
-      AstFunctionCall functionCall = (AstFunctionCall) expression;
-      return getJavaFunctionCallString(functionCall);
+      if (argumentIndex == call.arguments.size()) return null;
+      if (!isJavaConcatenatedAsFormatted(part.conversion, getIrValueType(call.arguments.get(argumentIndex)))) return null;
 
-    } else if (expression instanceof AstTypeCast) {
-      AstTypeCast typecast = (AstTypeCast) expression;
-      String javaType = getJavaTypeString(typecast.type);
-      String javaExpression = getJavaExpressionString(typecast.expression);
-      return String.format("(%s)%s", javaType, javaExpression);
+      pieces.add(operands.get(argumentIndex));
+      argumentIndex += 1;
+    }
 
-    } else {
-      throw new CompilerException("unexpected AstExpression: %s", expression.getClass().getSimpleName());
+    // printf ignores extra arguments, but they are still evaluated.
+    if (argumentIndex != call.arguments.size()) return null;
+
+    boolean startsWithText = !parts.isEmpty() && parts.get(0).text != null;
+    if (!startsWithText) pieces.add(0, "\"\"");
+
+    return "System.out.print(" + String.join(" + ", pieces) + ")";
+  }
+
+  private boolean isJavaConcatenatedAsFormatted(char conversion, AstType type) {
+    if (type.arrayDimension > 0 || type.isVarargs) return false;
+
+    AstTypeCategory category = type.category;
+    if (conversion == 'd') return category == AstTypeCategory.I8 || category == AstTypeCategory.I16 || category == AstTypeCategory.I32 || category == AstTypeCategory.I64;
+    if (conversion == 'c') return category == AstTypeCategory.Char;
+    if (conversion == 'b') return category == AstTypeCategory.Bool;
+    if (conversion == 's') return true;
+    return false;
+  }
+
+  private String getJavaValueString(IrValue value) {
+    if (value instanceof IrTemp) return getJavaTempName((IrTemp) value);
+    if (value instanceof IrLocal) return ((IrLocal) value).name;
+    if (value instanceof IrConstant) return getJavaLiteralString(((IrConstant) value).literal);
+    throw new CompilerException("unexpected ir value %s.", value.getClass().getSimpleName());
+  }
+
+  // "$" can't be part of an abc identifier, so temps never collide with locals.
+  private String getJavaTempName(IrTemp temp) {
+    return "$t" + temp.id;
+  }
+
+  // a cast like "(Dog)v" has to be parenthesized before a field access, an array index or a negation.
+  private String getJavaPrimaryString(String code) {
+    if (!code.startsWith("(")) return code;
+    if (isJavaFullyParenthesized(code)) return code;
+    return "(" + code + ")";
+  }
+
+  private boolean isJavaFullyParenthesized(String code) {
+    int depth = 0;
+    char quote = 0;
+
+    for (int i = 0; i < code.length(); i++) {
+      char c = code.charAt(i);
+
+      if (quote != 0) {
+        if (c == '\\') i += 1;
+        else if (c == quote) quote = 0;
+        continue;
+      }
+
+      if (c == '"' || c == '\'') quote = c;
+      else if (c == '(') depth += 1;
+      else if (c == ')') {
+        depth -= 1;
+        if (depth == 0 && i != code.length() - 1) return false;
+      }
+    }
+
+    return true;
+  }
+
+  private String getJavaLiteralString(AstLiteral literal) {
+    if (literal.value.equals("nil")) return "null";
+
+    if (literal.type.category == AstTypeCategory.String) {
+      return "\"" + literal.value + "\"";
     }
+
+    // literals created by the constant folding aren't written as in the source code, e.g. a folded char is its code point.
+    String value = literal.value;
+    if (value.startsWith("-")) value = "(" + value + ")";
+
+    if (literal.type.category == AstTypeCategory.Char && !value.startsWith("'")) return "(char)" + value;
+    if (literal.type.category == AstTypeCategory.I8) return "(byte)" + value;
+    if (literal.type.category == AstTypeCategory.I16) return "(short)" + value;
+
+    return value;
   }
 
   private String getJavaBaseTypeString(AstType type) {
@@ -417,7 +1182,7 @@ public interface JavaConverterModule {
     String baseType = getJavaBaseTypeString(type);
     String brackets = getJavaArrayBrackets(type.arrayDimension);
     String varargs = getJavaArrayVarargs(type.isVarargs);
-    return String.format("%s%s%s", baseType, brackets, varargs);
+    return baseType + brackets + varargs;
   }
 
   default String getJavaArrayVarargs(boolean isVarargs) {
@@ -425,20 +1190,30 @@ public interface JavaConverterModule {
     return "";
   }
 
-  private void emitLine(JavaConverter converter, String format, Object... args) {
-    String indention = getTextIndentation(converter.indents * converter.spacesPerIndent);
-    String text = String.format(format, args);
-    String indentedText = String.format("%s%s", indention, text);
-    converter.builder.append(indentedText);
-    converter.builder.append("\n");
-  }
+  // the parts are appended one after the other, so the line itself is never built.
+  private void emitLine(JavaConverter converter, String... parts) {
+    if (converter.sourceLines != null && converter.sourceLine != 0) addJavaSourceLine(converter, converter.lines + 1, converter.sourceLine);
 
-  private void emitLine(JavaConverter converter, String line) {
-    emitLine(converter, "%s", line);
+    append(converter, getTextIndentation(converter));
+    for (String part : parts) {
+      append(converter, part);
+    }
+    append(converter, "\n");
+
+    converter.lines += 1;
   }
 
   private void emitEmptyLine(JavaConverter converter) {
-    converter.builder.append("\n");
+    append(converter, "\n");
+    converter.lines += 1;
+  }
+
+  private void append(JavaConverter converter, String text) {
+    try {
+      converter.out.append(text);
+    } catch (IOException e) {
+      throw new CompilerException("failed to write the java code: %s", e.getMessage());
+    }
   }
 
   private void indent(JavaConverter converter) {
@@ -453,8 +1228,11 @@ public interface JavaConverterModule {
     return repeat("[]", arrayDimension);
   }
 
-  private String getTextIndentation(int spaceCount) {
-    return repeat(" ", spaceCount);
+  private String getTextIndentation(JavaConverter converter) {
+    while (converter.indentations.size() <= converter.indents) {
+      converter.indentations.add(repeat(" ", converter.indentations.size() * converter.spacesPerIndent));
+    }
+    return converter.indentations.get(converter.indents);
   }
 
   private String repeat(String str, int count) {
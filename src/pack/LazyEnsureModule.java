@@ -0,0 +1,158 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstTypeCategory;
+
+// Guards the ensure calls by their condition, so the error arguments are only computed and boxed, when the check fails:
+//   %c = i < n; %a = a.size; ensure(%c, "...", i, %a)   ->   %c = i < n; %t = !%c; if (%t) { %a = a.size; ensure(false, "...", i, %a); }
+// Only the instructions right in front of the call, which compute nothing but its error arguments, move into the guard. They have no
+// side effects, so skipping them is only visible in a program, in which computing the arguments would have crashed.
+public interface LazyEnsureModule extends IrModule {
+
+  // returns the number of guarded calls.
+  default int guardEnsureCalls(IrProgram program) {
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      Map<IrTemp, Integer> tempUses = countIrTempUses(function.body);
+      result += guardEnsureCalls(function, tempUses, function.body);
+    }
+    return result;
+  }
+
+  private int guardEnsureCalls(IrFunction function, Map<IrTemp, Integer> tempUses, IrSequence sequence) {
+    int result = 0;
+
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+
+        int callIndex = findUnguardedEnsureCall(block);
+        if (callIndex == -1) continue;
+
+        // the rest of the block is looked at again as the block after the guard.
+        List<IrRegion> replacement = getGuardedEnsureCall(function, tempUses, block, callIndex);
+        sequence.regions.remove(i);
+        sequence.regions.addAll(i, replacement);
+        i += 1;
+        result += 1;
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        result += guardEnsureCalls(function, tempUses, _if.thenBody);
+        result += guardEnsureCalls(function, tempUses, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        result += guardEnsureCalls(function, tempUses, loop.header);
+        result += guardEnsureCalls(function, tempUses, loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        result += guardEnsureCalls(function, tempUses, ((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        result += guardEnsureCalls(function, tempUses, (IrSequence) region);
+      }
+    }
+
+    return result;
+  }
+
+  // a constant condition is left alone, it either never fails or always does.
+  private int findUnguardedEnsureCall(IrBlock block) {
+    for (int i = 0; i < block.instructions.size(); i++) {
+      IrInstruction instruction = block.instructions.get(i);
+      if (!(instruction instanceof IrCall)) continue;
+
+      IrCall call = (IrCall) instruction;
+      if (!isFormatFunction(call.function) || !call.function.name.equals("ensure") || call.arguments.isEmpty()) continue;
+      if (call.arguments.get(0) instanceof IrConstant) continue;
+
+      return i;
+    }
+    return -1;
+  }
+
+  // the block before the guard, the guard and the block after it.
+  private List<IrRegion> getGuardedEnsureCall(IrFunction function, Map<IrTemp, Integer> tempUses, IrBlock block, int callIndex) {
+    IrCall call = (IrCall) block.instructions.get(callIndex);
+    IrValue condition = call.arguments.get(0);
+
+    Set<IrTemp> arguments = new HashSet<>();
+    for (IrValue argument : call.arguments.subList(1, call.arguments.size())) {
+      if (argument instanceof IrTemp && argument != condition) arguments.add((IrTemp) argument);
+    }
+
+    int firstMoved = callIndex;
+    while (firstMoved > 0) {
+      IrInstruction instruction = block.instructions.get(firstMoved - 1);
+      IrTemp result = getIrResult(instruction);
+      if (result == null || !arguments.contains(result) || tempUses.getOrDefault(result, 0) != 1 || !isSideEffectFree(instruction)) break;
+
+      for (IrValue operand : getIrOperands(instruction)) {
+        if (operand instanceof IrTemp) arguments.add((IrTemp) operand);
+      }
+      firstMoved -= 1;
+    }
+
+    List<IrRegion> result = new ArrayList<>();
+
+    IrBlock before = irBlock(function);
+    before.instructions.addAll(block.instructions.subList(0, firstMoved));
+
+    IrUnary failed = new IrUnary();
+    failed.result = newIrTemp(function, astType_primitive(AstTypeCategory.Bool, false, 0));
+    failed.operator = "!";
+    failed.operand = condition;
+    before.instructions.add(failed);
+    result.add(before);
+
+    IrIf guard = new IrIf();
+    guard.condition = failed.result;
+    guard.thenBody = irSequence();
+    guard.elseBody = irSequence();
+    result.add(guard);
+
+    IrBlock failure = irBlock(function);
+    failure.instructions.addAll(block.instructions.subList(firstMoved, callIndex));
+    call.arguments.set(0, irConstant(astLiteral("false", astType_primitive(AstTypeCategory.Bool, false, 0), call.location)));
+    failure.instructions.add(call);
+    guard.thenBody.regions.add(failure);
+
+    IrBlock after = irBlock(function);
+    after.instructions.addAll(block.instructions.subList(callIndex + 1, block.instructions.size()));
+    if (!after.instructions.isEmpty()) result.add(after);
+
+    return result;
+  }
+
+  // they may still throw, e.g. on an index out of bounds.
+  private boolean isSideEffectFree(IrInstruction instruction) {
+    return instruction instanceof IrBinary || instruction instanceof IrUnary || instruction instanceof IrCast || instruction instanceof IrLoadField || instruction instanceof IrLoadElement || instruction instanceof IrArrayLength;
+  }
+}
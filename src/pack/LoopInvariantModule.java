@@ -0,0 +1,332 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstStruct;
+
+// Moves computations, whose operands don't change inside of a loop, in front of the loop, e.g. the "array.size" in "while (i < array.size)".
+// Loads may throw, so a load is only moved, if its object is known to be non-null, or if the load runs before anything else in the loop header.
+// Field writes are tracked per struct field. A call writes the fields, which the callee and its callees write.
+public interface LoopInvariantModule extends CallGraphModule, DeadStoreModule {
+
+  static public class FieldWrites {
+    public Map<AstFunction, Set<String>> functionToWrittenFields;  // "Struct.field", java library functions write no abc fields.
+  }
+
+  static public class LoopHoister {
+    public IrFunction function;
+    public FieldWrites writes;
+    public Set<String> structNames;
+    public Set<IrLocal> reassignedLocals;  // locals with more than one definition can't be non-null facts.
+    public int hoistedCount;
+  }
+
+  // returns the number of hoisted instructions.
+  default int hoistLoopInvariants(IrProgram program) {
+    FieldWrites writes = computeFieldWrites(program);
+
+    Set<String> structNames = new HashSet<>();
+    for (AstStruct struct : program.structs) structNames.add(struct.name);
+
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      LoopHoister hoister = new LoopHoister();
+      hoister.function = function;
+      hoister.writes = writes;
+      hoister.structNames = structNames;
+      hoister.reassignedLocals = getReassignedIrLocals(function);
+
+      hoistLoopInvariants(hoister, function.body, new HashSet<>());
+      if (hoister.hoistedCount > 0) removeEmptyIrBlocks(function.body);
+      result += hoister.hoistedCount;
+    }
+    return result;
+  }
+
+  default FieldWrites computeFieldWrites(IrProgram program) {
+    FieldWrites result = new FieldWrites();
+    result.functionToWrittenFields = new HashMap<>();
+
+    CallGraph graph = buildCallGraph(program);
+
+    for (IrFunction function : program.functions) {
+      Set<String> fields = new HashSet<>();
+      for (IrBlock block : getIrBlocks(function.body)) {
+        for (IrInstruction instruction : block.instructions) {
+          if (instruction instanceof IrStoreField) fields.add(getFieldKey((IrStoreField) instruction));
+        }
+      }
+      result.functionToWrittenFields.put(function.source, fields);
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (IrFunction function : program.functions) {
+        Set<String> fields = result.functionToWrittenFields.get(function.source);
+        for (IrFunction callee : graph.callees.get(function)) {
+          changed |= fields.addAll(result.functionToWrittenFields.get(callee.source));
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private String getFieldKey(IrStoreField store) {
+    return String.format("%s.%s", getIrValueType(store.object).structName, store.field);
+  }
+
+  private String getFieldKey(IrLoadField load) {
+    return String.format("%s.%s", getIrValueType(load.object).structName, load.field);
+  }
+
+  private Set<IrLocal> getReassignedIrLocals(IrFunction function) {
+    Set<IrLocal> result = new HashSet<>();
+    for (IrBlock block : getIrBlocks(function.body)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (instruction instanceof IrAssign) result.add(((IrAssign) instruction).local);
+      }
+    }
+    return result;
+  }
+
+  // nonNull are the values, which are dereferenced on every path to the current position.
+  private void hoistLoopInvariants(LoopHoister hoister, IrSequence sequence, Set<IrValue> nonNull) {
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+
+      if (region instanceof IrBlock) {
+        for (IrInstruction instruction : ((IrBlock) region).instructions) {
+          addDereferencedValue(hoister, nonNull, instruction);
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        hoistLoopInvariants(hoister, _if.thenBody, new HashSet<>(nonNull));
+        hoistLoopInvariants(hoister, _if.elseBody, new HashSet<>(nonNull));
+
+      } else if (region instanceof IrShortCircuit) {
+        hoistLoopInvariants(hoister, ((IrShortCircuit) region).rhsBody, new HashSet<>(nonNull));
+
+      } else if (region instanceof IrSequence) {
+        hoistLoopInvariants(hoister, (IrSequence) region, new HashSet<>(nonNull));
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+
+        // inner loops first, their invariants may be invariant in this loop as well.
+        Set<IrValue> loopNonNull = new HashSet<>(nonNull);
+        hoistLoopInvariants(hoister, loop.header, loopNonNull);
+        hoistLoopInvariants(hoister, loop.body, new HashSet<>(loopNonNull));
+
+        List<IrInstruction> hoisted = hoistLoopInvariants(hoister, loop, nonNull);
+        if (hoisted.isEmpty()) continue;
+
+        IrRegion previous = (i > 0) ? sequence.regions.get(i - 1) : null;
+        if (previous instanceof IrBlock) {
+          ((IrBlock) previous).instructions.addAll(hoisted);
+        } else {
+          IrBlock block = irBlock(hoister.function);
+          block.instructions.addAll(hoisted);
+          sequence.regions.add(i, block);
+          i += 1;
+        }
+
+        for (IrInstruction instruction : hoisted) addDereferencedValue(hoister, nonNull, instruction);
+      }
+    }
+  }
+
+  private void addDereferencedValue(LoopHoister hoister, Set<IrValue> nonNull, IrInstruction instruction) {
+    IrValue value = null;
+    if (instruction instanceof IrLoadField) value = ((IrLoadField) instruction).object;
+    if (instruction instanceof IrStoreField) value = ((IrStoreField) instruction).object;
+    if (instruction instanceof IrLoadElement) value = ((IrLoadElement) instruction).array;
+    if (instruction instanceof IrStoreElement) value = ((IrStoreElement) instruction).array;
+    if (instruction instanceof IrArrayLength) value = ((IrArrayLength) instruction).array;
+
+    if (value == null || value instanceof IrConstant) return;
+    if (value instanceof IrLocal && hoister.reassignedLocals.contains(value)) return;
+
+    nonNull.add(value);
+  }
+
+  // returns the instructions removed from the loop in evaluation order.
+  private List<IrInstruction> hoistLoopInvariants(LoopHoister hoister, IrLoop loop, Set<IrValue> nonNull) {
+    Set<IrLocal> definedLocals = new HashSet<>();
+    Set<IrTemp> definedTemps = new HashSet<>();
+    Set<String> writtenFields = new HashSet<>();
+    collectLoopDefinitions(hoister, loop.header, definedLocals, definedTemps, writtenFields);
+    collectLoopDefinitions(hoister, loop.body, definedLocals, definedTemps, writtenFields);
+
+    Set<IrValue> loopNonNull = new HashSet<>(nonNull);
+    List<IrInstruction> result = new ArrayList<>();
+
+    // the loads at the start of the header run at least once, before anything, which could be observed.
+    List<IrInstruction> prefix = new ArrayList<>();
+    if (!loop.header.regions.isEmpty() && loop.header.regions.get(0) instanceof IrBlock) {
+      for (IrInstruction instruction : ((IrBlock) loop.header.regions.get(0)).instructions) {
+        if (!isSideEffectFree(instruction, hoister.structNames) && !isLoad(instruction)) break;
+        prefix.add(instruction);
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+
+      List<IrBlock> blocks = new ArrayList<>();
+      collectLoopBlocks(loop.header, blocks);
+      collectLoopBlocks(loop.body, blocks);
+
+      for (IrBlock block : blocks) {
+        for (int i = 0; i < block.instructions.size(); i++) {
+          IrInstruction instruction = block.instructions.get(i);
+
+          if (!isLoopInvariant(hoister, instruction, definedLocals, definedTemps, writtenFields)) continue;
+
+          // allocations are side effect free, but each iteration must get a new object.
+          boolean isSafe = isSideEffectFree(instruction, hoister.structNames) && !(instruction instanceof IrNew);
+          if (isLoad(instruction)) isSafe = isFirstInHeader(loop, block, i, prefix) || loopNonNull.contains(getLoadedObject(instruction));
+          if (instruction instanceof IrLoadElement) isSafe = false;  // the index may be out of bounds.
+          if (!isSafe) continue;
+
+          block.instructions.remove(i);
+          i -= 1;
+
+          result.add(instruction);
+          definedTemps.remove(getIrResult(instruction));
+          addDereferencedValue(hoister, loopNonNull, instruction);
+          hoister.hoistedCount += 1;
+          changed = true;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  // a load, which may throw, keeps its place in front of everything else the loop does.
+  private boolean isFirstInHeader(IrLoop loop, IrBlock block, int index, List<IrInstruction> prefix) {
+    if (index != 0 || loop.header.regions.isEmpty()) return false;
+    return loop.header.regions.get(0) == block && prefix.contains(block.instructions.get(index));
+  }
+
+  private boolean isLoad(IrInstruction instruction) {
+    return instruction instanceof IrLoadField || instruction instanceof IrArrayLength || instruction instanceof IrLoadElement;
+  }
+
+  private IrValue getLoadedObject(IrInstruction instruction) {
+    if (instruction instanceof IrLoadField) return ((IrLoadField) instruction).object;
+    if (instruction instanceof IrArrayLength) return ((IrArrayLength) instruction).array;
+    if (instruction instanceof IrLoadElement) return ((IrLoadElement) instruction).array;
+    return null;
+  }
+
+  private boolean isLoopInvariant(LoopHoister hoister, IrInstruction instruction, Set<IrLocal> definedLocals, Set<IrTemp> definedTemps, Set<String> writtenFields) {
+    if (getIrResult(instruction) == null) return false;
+    if (instruction instanceof IrCall) return false;
+
+    for (IrValue operand : getIrOperands(instruction)) {
+      if (operand instanceof IrLocal && definedLocals.contains(operand)) return false;
+      if (operand instanceof IrTemp && definedTemps.contains(operand)) return false;
+    }
+
+    if (instruction instanceof IrLoadField) return !writtenFields.contains(getFieldKey((IrLoadField) instruction));
+
+    return true;
+  }
+
+  // instructions in inner loops aren't moved, the inner loops already moved what they could.
+  private void collectLoopBlocks(IrSequence sequence, List<IrBlock> blocks) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        blocks.add((IrBlock) region);
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        collectLoopBlocks(_if.thenBody, blocks);
+        collectLoopBlocks(_if.elseBody, blocks);
+
+      } else if (region instanceof IrShortCircuit) {
+        collectLoopBlocks(((IrShortCircuit) region).rhsBody, blocks);
+
+      } else if (region instanceof IrSequence) {
+        collectLoopBlocks((IrSequence) region, blocks);
+      }
+    }
+  }
+
+  private void collectLoopDefinitions(LoopHoister hoister, IrSequence sequence, Set<IrLocal> locals, Set<IrTemp> temps, Set<String> writtenFields) {
+    for (IrBlock block : getIrBlocks(sequence)) {
+      for (IrInstruction instruction : block.instructions) {
+        IrLocal local = getDefinedIrLocal(instruction);
+        if (local != null) locals.add(local);
+
+        IrTemp temp = getIrResult(instruction);
+        if (temp != null) temps.add(temp);
+
+        if (instruction instanceof IrStoreField) writtenFields.add(getFieldKey((IrStoreField) instruction));
+
+        if (instruction instanceof IrCall) {
+          Set<String> calleeWrites = hoister.writes.functionToWrittenFields.get(((IrCall) instruction).function);
+          if (calleeWrites != null) writtenFields.addAll(calleeWrites);
+        }
+      }
+    }
+
+    // the results of short-circuits are defined in the loop as well.
+    collectShortCircuitResults(sequence, temps);
+  }
+
+  private void collectShortCircuitResults(IrSequence sequence, Set<IrTemp> temps) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        temps.add(shortCircuit.result);
+        collectShortCircuitResults(shortCircuit.rhsBody, temps);
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        collectShortCircuitResults(_if.thenBody, temps);
+        collectShortCircuitResults(_if.elseBody, temps);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        collectShortCircuitResults(loop.header, temps);
+        collectShortCircuitResults(loop.body, temps);
+
+      } else if (region instanceof IrSequence) {
+        collectShortCircuitResults((IrSequence) region, temps);
+      }
+    }
+  }
+}
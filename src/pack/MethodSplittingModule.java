@@ -0,0 +1,549 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstParameterDeclaration;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstStructField;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Splits functions, whose java method would be too big, into parts.
+// Hotspot doesn't jit compile methods with more than 8000 bytes of bytecode (HugeMethodLimit), and javac rejects methods with more than 64 KB.
+// The size is estimated from the ir, and runs of consecutive regions of an oversized function move into functions "<name>$part<n>" of about
+// partBytecodeSize each. If the calls of the parts are still too big, they are grouped into parts again.
+// The values, which a part shares with the function or with other parts, live in the fields of a frame struct, which the function creates
+// and passes to every part:
+//   main :: () { a: i32 = 1; ...; print("%d", a); }   ->   main :: () { $frame: main$Frame0 = new; main$part0($frame); main$part1($frame); }
+//   main$part0 :: ($frame: main$Frame0) { $frame.a = 1; ... }   and   main$part1 :: ($frame: main$Frame0) { ...; print("%d", $frame.a); }
+// So a part needs no other parameters and no return value, however many values live across it, and the calls stay small.
+// The pass runs right after the lowering, since the analyses of the optimizations grow faster than the functions.
+public interface MethodSplittingModule extends IrModule {
+
+  static public class MethodSplittingSettings {
+    public int maxBytecodeSize;  // estimated, a function above is split.
+    public int partBytecodeSize;  // estimated.
+  }
+
+  static public class MethodSplittingReport {
+    public List<String> splitFunctions;
+    public int partCount;
+  }
+
+  static public class MethodSplitter {
+    public MethodSplittingSettings settings;
+    public IrFunction function;
+    public IrLocal frame;  // of the split function.
+    public AstType frameType;
+    public int firstPartNumber;  // the numbers are unique in the program, since overloads share the name.
+    public List<IrFunction> parts;
+    public Map<IrFunction, IrLocal> partToFrame;  // the frame parameter of every part.
+    public Set<IrBlock> callBlocks;  // the calls of the parts.
+  }
+
+  static public class FrameRewriter {
+    public IrFunction function;
+    public IrLocal frame;  // of the function.
+    public Map<IrValue, IrFunction> homes;  // the function, which defines a value.
+    public Map<IrValue, AstStructField> fields;  // the shared values.
+    public Map<String, Integer> fieldOrdinals;
+  }
+
+  default MethodSplittingReport splitHugeMethods(IrProgram program, MethodSplittingSettings settings) {
+    MethodSplittingReport result = new MethodSplittingReport();
+    result.splitFunctions = new ArrayList<>();
+
+    List<IrFunction> parts = new ArrayList<>();
+
+    for (IrFunction function : program.functions) {
+      int size = estimateBytecodeSize(function.body);
+      if (size <= settings.maxBytecodeSize) continue;
+
+      String frameName = String.format("%s$Frame%d", function.name, result.splitFunctions.size());
+
+      MethodSplitter splitter = new MethodSplitter();
+      splitter.settings = settings;
+      splitter.function = function;
+      splitter.frameType = astType_struct(frameName, false, 0);
+      splitter.frame = irLocal("$frame", splitter.frameType, false);
+      splitter.firstPartNumber = parts.size();
+      splitter.parts = new ArrayList<>();
+      splitter.partToFrame = new HashMap<>();
+      splitter.callBlocks = new HashSet<>();
+
+      splitIrSequence(splitter, function.body);
+      if (splitter.parts.isEmpty()) continue;
+
+      program.structs.add(shareIrValuesInFrame(splitter, frameName));
+      parts.addAll(splitter.parts);
+
+      result.partCount += splitter.parts.size();
+      result.splitFunctions.add(String.format("%-50s %8d bytes  into %4d parts, %6d bytes left", getIrFunctionSignature(function), size, splitter.parts.size(), estimateBytecodeSize(function.body)));
+    }
+
+    program.functions.addAll(parts);
+    return result;
+  }
+
+  private void splitIrSequence(MethodSplitter splitter, IrSequence sequence) {
+    int partSize = splitter.settings.partBytecodeSize;
+    if (estimateBytecodeSize(sequence) <= partSize) return;
+
+    // a region, which is too big for a part by itself, is split on the inside first.
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+      if (estimateBytecodeSize(region) <= partSize) continue;
+
+      if (region instanceof IrBlock) {
+        List<IrBlock> blocks = splitIrBlock(splitter, (IrBlock) region);
+        sequence.regions.remove(i);
+        sequence.regions.addAll(i, blocks);
+        i += blocks.size() - 1;
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        splitIrSequence(splitter, _if.thenBody);
+        splitIrSequence(splitter, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        splitIrSequence(splitter, ((IrLoop) region).body);
+
+      } else if (region instanceof IrSequence) {
+        splitIrSequence(splitter, (IrSequence) region);
+      }
+    }
+
+    // every round replaces runs of regions by calls, until the calls fit.
+    while (estimateBytecodeSize(sequence) > partSize) {
+      int regionCount = sequence.regions.size();
+
+      List<IrRegion> regions = new ArrayList<>();
+      List<IrRegion> part = new ArrayList<>();
+      int size = 0;
+
+      for (IrRegion region : sequence.regions) {
+        int regionSize = estimateBytecodeSize(region);
+        if (!part.isEmpty() && size + regionSize > partSize) {
+          regions.addAll(outlineIrRegions(splitter, part));
+          part = new ArrayList<>();
+          size = 0;
+        }
+        part.add(region);
+        size += regionSize;
+      }
+      regions.addAll(outlineIrRegions(splitter, part));
+
+      sequence.regions = regions;
+      if (sequence.regions.size() >= regionCount) break;
+    }
+  }
+
+  private List<IrBlock> splitIrBlock(MethodSplitter splitter, IrBlock block) {
+    List<IrBlock> result = new ArrayList<>();
+    List<IrInstruction> instructions = new ArrayList<>(block.instructions);
+    block.instructions.clear();
+
+    IrBlock current = block;
+    int size = 0;
+
+    for (IrInstruction instruction : instructions) {
+      int instructionSize = estimateBytecodeSize(instruction);
+      if (!current.instructions.isEmpty() && size + instructionSize > splitter.settings.partBytecodeSize) {
+        result.add(current);
+        current = irBlock(splitter.function);
+        size = 0;
+      }
+      current.instructions.add(instruction);
+      size += instructionSize;
+    }
+
+    result.add(current);
+    return result;
+  }
+
+  // returns the regions, which replace the part in the function.
+  private List<IrRegion> outlineIrRegions(MethodSplitter splitter, List<IrRegion> regions) {
+    IrFunction caller = splitter.function;
+
+    // a part, which would only call another part, makes no progress.
+    if (regions.size() == 1 && splitter.callBlocks.contains(regions.get(0))) return regions;
+
+    IrSequence body = irSequence();
+    body.regions.addAll(regions);
+
+    // a return would have to leave the function.
+    for (IrBlock block : getIrBlocks(body)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (instruction instanceof IrReturn) return regions;
+      }
+    }
+
+    IrFunction part = new IrFunction();
+    part.name = String.format("%s$part%d", caller.name, splitter.firstPartNumber + splitter.parts.size());
+    part.returnType = astType_primitive(AstTypeCategory.Void, false, 0);
+    part.parameters = new ArrayList<>();
+    part.body = body;
+    part.tempCount = caller.tempCount;
+    part.blockCount = caller.blockCount;
+
+    IrLocal frame = irLocal("$frame", splitter.frameType, true);
+    part.parameters.add(frame);
+
+    AstParameterDeclaration declaration = new AstParameterDeclaration();
+    declaration.name = frame.name;
+    declaration.type = frame.type;
+
+    AstFunction source = new AstFunction();
+    source.name = part.name;
+    source.location = caller.source.location;
+    source.parameters = new ArrayList<>();
+    source.parameters.add(declaration);
+    source.returnType = part.returnType;
+    source.bodyStatements = new ArrayList<>();
+    part.source = source;
+
+    // the calls of the parts, which were split out of these regions before, pass the frame of this part now.
+    mapIrValues(body, value -> (value == splitter.frame) ? frame : value);
+
+    IrCall call = new IrCall();
+    call.name = part.name;
+    call.function = source;
+    call.arguments = new ArrayList<>();
+    call.arguments.add(splitter.frame);
+
+    IrBlock callBlock = irBlock(caller);
+    callBlock.instructions.add(call);
+
+    splitter.parts.add(part);
+    splitter.partToFrame.put(part, frame);
+    splitter.callBlocks.add(callBlock);
+
+    List<IrRegion> result = new ArrayList<>();
+    result.add(callBlock);
+    return result;
+  }
+
+  //
+  // frame
+  //
+
+  // the values, which are read or assigned in another function than the one, which defines them, move into the frame.
+  // A temp is only written once, so the function, which defines it, keeps reading it directly. A local is read and written through
+  // the frame everywhere, since a part may assign it.
+  private AstStruct shareIrValuesInFrame(MethodSplitter splitter, String frameName) {
+    IrFunction function = splitter.function;
+
+    List<IrFunction> functions = new ArrayList<>();
+    functions.add(function);
+    functions.addAll(splitter.parts);
+
+    Map<IrValue, IrFunction> homes = new HashMap<>();
+    for (IrLocal parameter : function.parameters) homes.put(parameter, function);
+    for (IrFunction current : functions) {
+      for (IrValue value : getDefinedIrValues(current.body)) homes.put(value, current);
+    }
+
+    Set<IrValue> shared = new LinkedHashSet<>();
+    for (IrFunction current : functions) {
+      mapIrValues(current.body, value -> {
+        if (homes.containsKey(value) && homes.get(value) != current) shared.add(value);
+        return value;
+      });
+
+      for (IrBlock block : getIrBlocks(current.body)) {
+        for (IrInstruction instruction : block.instructions) {
+          if (instruction instanceof IrAssign && homes.get(((IrAssign) instruction).local) != current) shared.add(((IrAssign) instruction).local);
+        }
+      }
+    }
+
+    AstStruct struct = new AstStruct();
+    struct.name = frameName;
+    struct.location = function.source.location;
+    struct.fields = new ArrayList<>();
+
+    Map<IrValue, AstStructField> fields = new LinkedHashMap<>();
+    Set<String> fieldNames = new HashSet<>();
+    for (IrValue value : shared) {
+      String name = (value instanceof IrLocal) ? ((IrLocal) value).name : String.format("$t%d", ((IrTemp) value).id);
+
+      // locals of different scopes may share a name.
+      String fieldName = name;
+      for (int i = 2; !fieldNames.add(fieldName); i++) fieldName = String.format("%s$%d", name, i);
+
+      AstStructField field = new AstStructField();
+      field.name = fieldName;
+      field.type = getFrameFieldType(getIrValueType(value));
+      field.location = struct.location;
+      struct.fields.add(field);
+      fields.put(value, field);
+    }
+    struct.layout = buildStructLayout(struct);
+
+    for (IrFunction current : functions) {
+      FrameRewriter rewriter = new FrameRewriter();
+      rewriter.function = current;
+      rewriter.frame = (current == function) ? splitter.frame : splitter.partToFrame.get(current);
+      rewriter.homes = homes;
+      rewriter.fields = fields;
+      rewriter.fieldOrdinals = struct.layout.fieldNameToOrdinal;
+      rewriteFrameAccesses(rewriter, current.body);
+    }
+
+    // the function creates the frame, and copies its parameters, which the parts read, into it.
+    FrameRewriter rewriter = new FrameRewriter();
+    rewriter.function = function;
+    rewriter.frame = splitter.frame;
+    rewriter.fields = fields;
+    rewriter.fieldOrdinals = struct.layout.fieldNameToOrdinal;
+
+    IrNew _new = new IrNew();
+    _new.result = newIrTemp(function, splitter.frameType);
+    _new.arraySizes = new ArrayList<>();
+    _new.fieldValues = new ArrayList<>();
+
+    IrBlock entry = irBlock(function);
+    entry.instructions.add(_new);
+    entry.instructions.add(irDeclare(splitter.frame, _new.result));
+    for (IrLocal parameter : function.parameters) {
+      if (fields.containsKey(parameter)) entry.instructions.add(irFrameStore(rewriter, parameter, parameter));
+    }
+    function.body.regions.add(0, entry);
+
+    return struct;
+  }
+
+  private void rewriteFrameAccesses(FrameRewriter rewriter, IrSequence sequence) {
+    List<IrRegion> regions = new ArrayList<>();
+
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+        List<IrInstruction> instructions = new ArrayList<>();
+
+        for (IrInstruction instruction : block.instructions) {
+          mapIrOperands(instruction, value -> loadFromFrame(rewriter, instructions, value));
+
+          IrLocal written = null;
+          IrValue value = null;
+          if (instruction instanceof IrDeclare) {
+            written = ((IrDeclare) instruction).local;
+            value = ((IrDeclare) instruction).value;
+          }
+          if (instruction instanceof IrAssign) {
+            written = ((IrAssign) instruction).local;
+            value = ((IrAssign) instruction).value;
+          }
+
+          if (written != null && rewriter.fields.containsKey(written)) {
+            if (value == null) value = irConstant(getDefaultValueForType(written.type));
+            instructions.add(irFrameStore(rewriter, written, value));
+            continue;
+          }
+
+          instructions.add(instruction);
+
+          IrTemp result = getIrResult(instruction);
+          if (result != null && rewriter.fields.containsKey(result)) instructions.add(irFrameStore(rewriter, result, result));
+        }
+
+        block.instructions = instructions;
+        regions.add(block);
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        _if.condition = loadFromFrameBefore(rewriter, regions, _if.condition);
+        rewriteFrameAccesses(rewriter, _if.thenBody);
+        rewriteFrameAccesses(rewriter, _if.elseBody);
+        regions.add(_if);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        rewriteFrameAccesses(rewriter, loop.header);
+        loop.condition = loadFromFrameBefore(rewriter, loop.header.regions, loop.condition);
+        rewriteFrameAccesses(rewriter, loop.body);
+        regions.add(loop);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        shortCircuit.lhs = loadFromFrameBefore(rewriter, regions, shortCircuit.lhs);
+        rewriteFrameAccesses(rewriter, shortCircuit.rhsBody);
+        shortCircuit.rhs = loadFromFrameBefore(rewriter, shortCircuit.rhsBody.regions, shortCircuit.rhs);
+        regions.add(shortCircuit);
+
+        if (rewriter.fields.containsKey(shortCircuit.result)) {
+          IrBlock store = irBlock(rewriter.function);
+          store.instructions.add(irFrameStore(rewriter, shortCircuit.result, shortCircuit.result));
+          regions.add(store);
+        }
+
+      } else if (region instanceof IrSequence) {
+        rewriteFrameAccesses(rewriter, (IrSequence) region);
+        regions.add(region);
+
+      } else {
+        throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+      }
+    }
+
+    sequence.regions = regions;
+  }
+
+  // the load is added to the instructions in front of the one, which reads the value.
+  private IrValue loadFromFrame(FrameRewriter rewriter, List<IrInstruction> instructions, IrValue value) {
+    IrLoadField load = irFrameLoad(rewriter, value);
+    if (load == null) return value;
+
+    instructions.add(load);
+    return load.result;
+  }
+
+  // a region reads its condition, so the load goes into the last block in front of it.
+  private IrValue loadFromFrameBefore(FrameRewriter rewriter, List<IrRegion> regions, IrValue value) {
+    IrLoadField load = irFrameLoad(rewriter, value);
+    if (load == null) return value;
+
+    if (regions.isEmpty() || !(regions.get(regions.size() - 1) instanceof IrBlock)) regions.add(irBlock(rewriter.function));
+    ((IrBlock) regions.get(regions.size() - 1)).instructions.add(load);
+    return load.result;
+  }
+
+  // null if the value is read directly.
+  private IrLoadField irFrameLoad(FrameRewriter rewriter, IrValue value) {
+    AstStructField field = rewriter.fields.get(value);
+    if (field == null) return null;
+    if (value instanceof IrTemp && rewriter.homes.get(value) == rewriter.function) return null;
+
+    IrLoadField result = new IrLoadField();
+    result.result = newIrTemp(rewriter.function, field.type);
+    result.object = rewriter.frame;
+    result.field = field.name;
+    result.ordinal = rewriter.fieldOrdinals.get(field.name);
+    return result;
+  }
+
+  private IrStoreField irFrameStore(FrameRewriter rewriter, IrValue shared, IrValue value) {
+    AstStructField field = rewriter.fields.get(shared);
+
+    IrStoreField result = new IrStoreField();
+    result.object = rewriter.frame;
+    result.field = field.name;
+    result.ordinal = rewriter.fieldOrdinals.get(field.name);
+    result.value = value;
+    return result;
+  }
+
+  // "T... v" is a "T[]" in java.
+  private AstType getFrameFieldType(AstType type) {
+    if (!type.isVarargs) return type;
+    return astType(type.category, type.structName, false, type.arrayDimension + 1);
+  }
+
+  //
+  // size estimate
+  //
+
+  // of the bytecode javac generates for the unoptimized ir. The optimizations usually shrink a function, e.g. by removing copies, and the
+  // inliner grows it a bit, so the estimate is somewhat above the size of the method in the end.
+  default int estimateBytecodeSize(IrSequence sequence) {
+    int result = 0;
+    for (IrRegion region : sequence.regions) {
+      result += estimateBytecodeSize(region);
+    }
+    return result;
+  }
+
+  private int estimateBytecodeSize(IrRegion region) {
+    if (region instanceof IrBlock) {
+      int result = 0;
+      for (IrInstruction instruction : ((IrBlock) region).instructions) {
+        result += estimateBytecodeSize(instruction);
+      }
+      return result;
+    }
+
+    if (region instanceof IrIf) {
+      IrIf _if = (IrIf) region;
+      return 2 + 3 + estimateBytecodeSize(_if.thenBody) + 3 + estimateBytecodeSize(_if.elseBody);
+    }
+
+    if (region instanceof IrLoop) {
+      IrLoop loop = (IrLoop) region;
+      return estimateBytecodeSize(loop.header) + 2 + 3 + estimateBytecodeSize(loop.body) + 3;
+    }
+
+    if (region instanceof IrShortCircuit) {
+      IrShortCircuit shortCircuit = (IrShortCircuit) region;
+      return 2 + 3 + estimateBytecodeSize(shortCircuit.rhsBody) + 2 + 2 + 3 + 2;
+    }
+
+    if (region instanceof IrSequence) return estimateBytecodeSize((IrSequence) region);
+
+    throw new CompilerException("unexpected ir region %s.", region.getClass().getSimpleName());
+  }
+
+  // loads of the operands, the operation and the store of the result. Most temps are folded into an expression, so they aren't stored.
+  private int estimateBytecodeSize(IrInstruction instruction) {
+    int result = 2 * getIrOperands(instruction).size();
+    if (getIrResult(instruction) != null) result += 1;
+
+    if (instruction instanceof IrDeclare || instruction instanceof IrAssign) return result + 1;
+
+    // a comparison pushes its result with two jumps.
+    if (instruction instanceof IrBinary) return result + (isAny(((IrBinary) instruction).operator, "<", ">", "<=", ">=", "==", "!=") ? 7 : 1);
+
+    // "this", the invoke and, for varargs, the array with the boxed arguments.
+    if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
+      boolean isVarargs = call.function.parameters.stream().anyMatch(parameter -> parameter.type.isVarargs);
+      return result + 1 + 5 + (isVarargs ? 5 + 7 * call.arguments.size() : 0);
+    }
+
+    if (instruction instanceof IrNew) return result + 7;
+    return result + 2;
+  }
+
+  default String getMethodSplittingReport(MethodSplittingReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Methods split into parts\n");
+    builder.append("\n");
+
+    for (String function : report.splitFunctions) {
+      builder.append(String.format("  %s\n", function));
+    }
+
+    builder.append("\n");
+    builder.append(String.format("split %d functions into %d parts.\n", report.splitFunctions.size(), report.partCount));
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,291 @@
+package pack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrProgram;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstStruct;
+
+// Writes the java code as a file per top-level class, instead of nesting everything in a single file. A struct is a class of its own, and
+// the functions are grouped into classes by their calls, up to an estimated size. So javac never gets one huge compilation unit, and no
+// class gets near the limits of the class file format, like the 65535 entries of its constant pool.
+// The files of a compilation are listed in a manifest, which javac takes as an argument file, "javac @sources.txt". A file, whose code
+// didn't change, isn't written again, so a build sees from its timestamp, that it is up to date.
+public interface OutputFilesModule extends SourceMapModule, MethodSplittingModule {
+
+  static public class OutputFiles {
+    public List<String> paths;  // of every file of the program, also of the ones, which weren't written again.
+    public int writtenFiles;
+    public long bytes;
+  }
+
+  // a function class gets a source map, if "writeSourceMaps" is set.
+  default OutputFiles writeJavaClassesToFiles(IrProgram program, String directory, int maxClassBytecodeSize, int threads, boolean writeSourceMaps) {
+    List<List<IrFunction>> functionClasses = groupJavaFunctionClasses(program, maxClassBytecodeSize);
+
+    Map<AstFunction, String> functionToClass = new HashMap<>();
+    String mainClass = null;
+    for (int i = 0; i < functionClasses.size(); i++) {
+      String javaClass = getJavaFunctionClassName(i);
+      for (IrFunction function : functionClasses.get(i)) {
+        functionToClass.put(function.source, javaClass);
+        if (isProgramEntry(function)) mainClass = javaClass;
+      }
+    }
+
+    // every file is converted on its own.
+    Map<String, Supplier<String>> files = new LinkedHashMap<>();
+    String main = mainClass;
+    files.put("ABCProgramRunMe", () -> getJavaCode(out -> writeJavaMainClass(main, out)));
+
+    for (AstStruct struct : program.structs) {
+      files.put(struct.name, () -> getJavaCode(out -> writeJavaStructClass(program, struct, out)));
+    }
+
+    String sourceFilepath = program.source.compilationUnits.get(0).sourceFile.filename;
+    Set<String> mappedFiles = new HashSet<>();
+
+    for (int i = 0; i < functionClasses.size(); i++) {
+      String javaClass = getJavaFunctionClassName(i);
+      List<IrFunction> functions = functionClasses.get(i);
+
+      if (!writeSourceMaps) {
+        files.put(javaClass, () -> getJavaCode(out -> writeJavaFunctionClass(program, javaClass, functions, functionToClass, out, null)));
+        continue;
+      }
+
+      // the map is written along with the code, on the same thread.
+      String sourceMapPath = getSourceMapPath(String.format("%s/%s.java", directory, javaClass));
+      mappedFiles.add(javaClass);
+      files.put(javaClass, () -> {
+        List<JavaSourceLine> sourceLines = new ArrayList<>();
+        String code = getJavaCode(out -> writeJavaFunctionClass(program, javaClass, functions, functionToClass, out, sourceLines));
+        writeJavaFileIfChanged(sourceMapPath, getSourceMapCode(javaClass + ".java", sourceFilepath, sourceLines));
+        return code;
+      });
+    }
+
+    OutputFiles result = new OutputFiles();
+    result.paths = new ArrayList<>();
+
+    List<Supplier<Boolean>> writes = new ArrayList<>();
+    for (Map.Entry<String, Supplier<String>> file : files.entrySet()) {
+      String path = String.format("%s/%s.java", directory, file.getKey());
+      result.paths.add(path);
+      writes.add(() -> writeJavaFileIfChanged(path, file.getValue().get()));
+
+      // a map of an earlier compilation would rewrite the lines wrong.
+      if (!mappedFiles.contains(file.getKey())) deleteJavaFile(getSourceMapPath(path));
+    }
+
+    for (boolean written : runJavaFileWrites(writes, threads)) {
+      if (written) result.writtenFiles += 1;
+    }
+
+    for (String path : result.paths) {
+      result.bytes += getJavaFileSize(path);
+    }
+
+    return result;
+  }
+
+  // "javac @sources.txt" compiles every listed file. The files of the previous manifest, which aren't listed anymore, are deleted, so javac
+  // never sees a stale class, e.g. of a removed struct, when it is run on the whole directory.
+  default void writeJavaSourceManifest(String manifestPath, List<String> paths) {
+    Path manifest = Paths.get(manifestPath);
+
+    try {
+      if (Files.exists(manifest)) {
+        Set<String> current = new HashSet<>(paths);
+        for (String previous : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+          if (previous.isBlank() || current.contains(previous)) continue;
+          Files.deleteIfExists(Paths.get(previous));
+          Files.deleteIfExists(Paths.get(getSourceMapPath(previous)));
+        }
+      }
+
+      Files.write(manifest, paths, StandardCharsets.UTF_8);
+
+    } catch (IOException e) {
+      throw new CompilerException("failed to write the manifest \"%s\": %s", manifestPath, e.getMessage());
+    }
+  }
+
+  default List<String> readJavaSourceManifest(String manifestPath) {
+    try {
+      List<String> result = new ArrayList<>();
+      for (String line : Files.readAllLines(Paths.get(manifestPath), StandardCharsets.UTF_8)) {
+        if (!line.isBlank()) result.add(line);
+      }
+      return result;
+
+    } catch (IOException e) {
+      throw new CompilerException("failed to read the manifest \"%s\": %s", manifestPath, e.getMessage());
+    }
+  }
+
+  // "$" can't be part of an abc identifier, so the class never collides with a struct.
+  default String getJavaFunctionClassName(int index) {
+    return "Functions$" + index;
+  }
+
+  // the functions in the order of a depth-first walk over the calls, starting at main, so a caller and its callees tend to end up in the
+  // same class. A class is full, when the next function would grow it over the size, a bigger function gets a class of its own.
+  default List<List<IrFunction>> groupJavaFunctionClasses(IrProgram program, int maxClassBytecodeSize) {
+    Map<AstFunction, IrFunction> sourceToFunction = new HashMap<>();
+    for (IrFunction function : program.functions) {
+      sourceToFunction.put(function.source, function);
+    }
+
+    List<IrFunction> roots = new ArrayList<>();
+    for (IrFunction function : program.functions) {
+      if (isProgramEntry(function)) roots.add(function);
+    }
+    roots.addAll(program.functions);
+
+    List<IrFunction> ordered = new ArrayList<>();
+    Set<IrFunction> visited = new HashSet<>();
+    Deque<IrFunction> pending = new ArrayDeque<>();
+
+    for (IrFunction root : roots) {
+      pending.push(root);
+
+      while (!pending.isEmpty()) {
+        IrFunction function = pending.pop();
+        if (!visited.add(function)) continue;
+        ordered.add(function);
+
+        // pushed in reverse, so the first callee is visited first.
+        List<IrFunction> callees = new ArrayList<>(getCalledIrFunctions(function, sourceToFunction));
+        for (int i = callees.size() - 1; i >= 0; i--) {
+          if (!visited.contains(callees.get(i))) pending.push(callees.get(i));
+        }
+      }
+    }
+
+    List<List<IrFunction>> result = new ArrayList<>();
+    List<IrFunction> current = null;
+    int currentSize = 0;
+
+    for (IrFunction function : ordered) {
+      int size = estimateBytecodeSize(function.body);
+
+      if (current == null || (!current.isEmpty() && currentSize + size > maxClassBytecodeSize)) {
+        current = new ArrayList<>();
+        currentSize = 0;
+        result.add(current);
+      }
+
+      current.add(function);
+      currentSize += size;
+    }
+
+    return result;
+  }
+
+  private Set<IrFunction> getCalledIrFunctions(IrFunction function, Map<AstFunction, IrFunction> sourceToFunction) {
+    Set<IrFunction> result = new LinkedHashSet<>();
+    for (IrBlock block : getIrBlocks(function.body)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (!(instruction instanceof IrCall)) continue;
+
+        IrFunction callee = sourceToFunction.get(((IrCall) instruction).function);
+        if (callee != null) result.add(callee);
+      }
+    }
+    return result;
+  }
+
+  private boolean isProgramEntry(IrFunction function) {
+    return function.source.name.equals("main") && function.parameters.isEmpty();
+  }
+
+  private String getJavaCode(Consumer<Appendable> writer) {
+    StringBuilder builder = new StringBuilder();
+    writer.accept(builder);
+    return builder.toString();
+  }
+
+  // returns whether the file was written.
+  private boolean writeJavaFileIfChanged(String filepath, String code) {
+    Path path = Paths.get(filepath);
+    byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+
+    try {
+      if (Files.exists(path) && Files.size(path) == bytes.length && Arrays.equals(Files.readAllBytes(path), bytes)) return false;
+
+      Files.write(path, bytes);
+      return true;
+
+    } catch (IOException e) {
+      throw new CompilerException("failed to write the java code to \"%s\": %s", filepath, e.getMessage());
+    }
+  }
+
+  default void deleteJavaFile(String filepath) {
+    try {
+      Files.deleteIfExists(Paths.get(filepath));
+    } catch (IOException e) {
+      throw new CompilerException("failed to delete \"%s\": %s", filepath, e.getMessage());
+    }
+  }
+
+  private long getJavaFileSize(String filepath) {
+    try {
+      return Files.size(Paths.get(filepath));
+    } catch (IOException e) {
+      throw new CompilerException("failed to read the size of \"%s\": %s", filepath, e.getMessage());
+    }
+  }
+
+  // the files are independent of each other, so they are converted and written on a pool.
+  private List<Boolean> runJavaFileWrites(List<Supplier<Boolean>> writes, int threads) {
+    List<Boolean> result = new ArrayList<>();
+
+    if (threads <= 1) {
+      for (Supplier<Boolean> write : writes) {
+        result.add(write.get());
+      }
+      return result;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+      for (Supplier<Boolean> write : writes) {
+        tasks.add(pool.submit(write::get));
+      }
+
+      for (ForkJoinTask<Boolean> task : tasks) {
+        result.add(task.join());
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    return result;
+  }
+}
@@ -9,6 +9,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import pack.StructLayoutModule.StructLayout;
+
 public interface ParserModule {
 
   static public class AstProgram {
@@ -50,6 +52,8 @@ public interface ParserModule {
 
     public boolean isVarargs;
     public int arrayDimension;  // 0 if not an array.
+
+    public List<AstType> typeArguments;  // e.g. "Array(i32)". null if the struct isn't generic.
   }
 
   static public class AstTypeCast implements AstExpression {
@@ -66,6 +70,7 @@ public interface ParserModule {
   }
 
   static public class AstWhileLoop implements AstStatement {
+    public Location location;
     public AstExpression condition;
     public List<AstStatement> body;
   }
@@ -76,6 +81,7 @@ public interface ParserModule {
   }
 
   static public class AstIfStatement implements AstStatement {
+    public Location location;
     public AstExpression condition;
     public List<AstStatement> ifBody;
     public List<AstStatement> elseBody;
@@ -90,6 +96,7 @@ public interface ParserModule {
     public Location location;
     public String name;
     public List<AstExpression> arguments;
+    public AstFunction function;  // the called overload, resolved by the typechecker.
   }
 
   static public class AstVariable implements AstExpression {
@@ -99,6 +106,7 @@ public interface ParserModule {
     public AstType type;  // inferred by the typechecker;
     public AstVariable child;   // e.g. "a.b" => b would be children
     public boolean readOnly;
+    public int fieldOrdinal;  // resolved by the typechecker. -1 if the variable is not a struct field.
   }
 
   static public enum TokenLiteralType {
@@ -114,6 +122,13 @@ public interface ParserModule {
     public double floatingPointValue;
   }
 
+  // a new array with constant elements. It has no syntax, the compile-time evaluation creates it for the result of a call.
+  static public class AstArrayLiteral implements AstExpression {
+    public Location location;
+    public AstType type;
+    public List<AstLiteral> elements;
+  }
+
   static public class AstBinaryOperator implements AstExpression {
     public AstExpression lhs;
     public String operator;
@@ -141,6 +156,7 @@ public interface ParserModule {
     public String name;
     public List<AstParameterDeclaration> parameters;
     public AstType returnType;
+    public List<String> typeParameters;  // declared by "$T" in the parameter types. null or empty if the function isn't generic.
 
     // body
     public List<AstStatement> bodyStatements;
@@ -153,6 +169,7 @@ public interface ParserModule {
   static public class Parser {
     public int at;
     public List<Token> tokens;
+    public List<String> typeParameters;  // of the function, whose parameter types are being parsed. null elsewhere.
 
     public SourceFile sourceCode;
   }
@@ -166,6 +183,8 @@ public interface ParserModule {
   static public class AstStruct {
     public Location location; // header
     public String name;
+    public List<String> typeParameters;  // e.g. "Array :: struct($T)". null or empty if the struct isn't generic.
+    public boolean immutable;  // "Point :: struct #immutable", the fields are only assigned right after the struct is created.
 
     // body
     public List<AstStructField> fields;
@@ -173,6 +192,8 @@ public interface ParserModule {
     // no body
     public boolean hasJavaLibraryBinding;
     public String javaLibraryName;
+
+    public StructLayout layout;  // built by the typechecker.
   }
 
   default AstProgram parseUnits(String mainFilepath) {
@@ -351,6 +372,7 @@ public interface ParserModule {
   private AstStruct parseStruct(Parser parser) {
     AstStruct result = new AstStruct();
     result.fields = new ArrayList<>();
+    result.typeParameters = new ArrayList<>();
     result.location = new Location();
 
     Token name = expectToken(parser, TokenType.Identifier);
@@ -365,6 +387,28 @@ public interface ParserModule {
     result.location.lineEnd = structKeywordToken.location.lineEnd;
     result.location.charEnd = structKeywordToken.location.charEnd;
 
+    // e.g. struct($K, $V)
+    Token maybeTypeParameters = peekToken(parser);
+    if (matches(maybeTypeParameters, "(")) {
+      eatToken(parser);
+
+      while (true) {
+        if (!result.typeParameters.isEmpty()) expectToken(parser, ",");
+
+        expectToken(parser, "$");
+        Token typeParameter = expectToken(parser, TokenType.Identifier);
+        if (result.typeParameters.contains(typeParameter.value)) reportError(parser, typeParameter, "redeclaration of type parameter \"%s\".", typeParameter.value);
+        result.typeParameters.add(typeParameter.value);
+
+        if (isEndOfTokens(parser)) reportEndOfFileError(parser, "struct type parameters are not complete, but end of file has been reached.");
+        if (matches(peekToken(parser), ")")) break;
+      }
+
+      Token closingParenthesis = expectToken(parser, ")");
+      result.location.lineEnd = closingParenthesis.location.lineEnd;
+      result.location.charEnd = closingParenthesis.location.charEnd;
+    }
+
     Token maybeFromJavaLibrary = peekToken(parser);
     if (matches(maybeFromJavaLibrary, "#lib")) {
       eatToken(parser);
@@ -384,6 +428,15 @@ public interface ParserModule {
       return result;
     }
 
+    Token maybeImmutable = peekToken(parser);
+    if (matches(maybeImmutable, "#immutable")) {
+      eatToken(parser);
+      result.immutable = true;
+
+      result.location.lineEnd = maybeImmutable.location.lineEnd;
+      result.location.charEnd = maybeImmutable.location.charEnd;
+    }
+
     expectToken(parser, "{");
     while (true) {
 
@@ -513,7 +566,33 @@ public interface ParserModule {
 
     if (matches(token, "any")) return astType_primitive(AstTypeCategory.Any, isVarargs, arrayDimensions);
 
-    if (matches(token, TokenType.Identifier)) return astType_struct(token.value, isVarargs, arrayDimensions);
+    // "$T" declares the type parameter T, which then is an ordinary type name.
+    if (matches(token, "$")) {
+      if (parser.typeParameters == null) reportError(parser, token, "type parameters can only be declared in the parameter types of a function.");
+
+      Token typeParameter = expectToken(parser, TokenType.Identifier);
+      if (!parser.typeParameters.contains(typeParameter.value)) parser.typeParameters.add(typeParameter.value);
+      return astType_struct(typeParameter.value, isVarargs, arrayDimensions);
+    }
+
+    if (matches(token, TokenType.Identifier)) {
+      AstType result = astType_struct(token.value, isVarargs, arrayDimensions);
+      if (isEndOfTokens(parser) || !matches(peekToken(parser), "(")) return result;
+
+      // e.g. Array(i32)
+      eatToken(parser);
+      result.typeArguments = new ArrayList<>();
+      while (true) {
+        if (!result.typeArguments.isEmpty()) expectToken(parser, ",");
+        result.typeArguments.add(parseType(parser));
+
+        if (isEndOfTokens(parser)) reportEndOfFileError(parser, "type arguments are not complete, but end of file has been reached.");
+        if (matches(peekToken(parser), ")")) break;
+      }
+      expectToken(parser, ")");
+
+      return result;
+    }
 
     reportError(parser, token, "expected a type but found \"%s\" (%s).", token.value, token.type);
     return null;
@@ -522,6 +601,7 @@ public interface ParserModule {
   private AstFunction parseFunction(Parser parser) {
     AstFunction result = new AstFunction();
     result.parameters = new ArrayList<>();
+    result.typeParameters = new ArrayList<>();
     result.bodyStatements = new ArrayList<>();
 
     Token functionName = expectToken(parser, TokenType.Identifier);
@@ -551,7 +631,9 @@ public interface ParserModule {
       Token parameterName = expectToken(parser, TokenType.Identifier);
       expectToken(parser, ":");
 
+      parser.typeParameters = result.typeParameters;
       AstType type = parseType(parser);
+      parser.typeParameters = null;
 
       AstParameterDeclaration parameter = new AstParameterDeclaration();
       parameter.location = parameterName.location;
@@ -655,7 +737,8 @@ public interface ParserModule {
     AstWhileLoop result = new AstWhileLoop();
     result.body = new ArrayList<>();
 
-    expectToken(parser, "while");
+    Token whileToken = expectToken(parser, "while");
+    result.location = location_copy(whileToken.location);
     expectToken(parser, "(");
     AstExpression condition = parseExpression(parser);
     result.condition = condition;
@@ -689,7 +772,8 @@ public interface ParserModule {
     result.ifBody = new ArrayList<>();
     result.elseBody = new ArrayList<>();
 
-    expectToken(parser, "if");
+    Token ifToken = expectToken(parser, "if");
+    result.location = location_copy(ifToken.location);
     expectToken(parser, "(");
     AstExpression condition = parseExpression(parser);
     result.condition = condition;
@@ -907,6 +991,7 @@ public interface ParserModule {
     result.name = name.value;
     result.location = new Location();
     result.arrayExpressions = new ArrayList<>();
+    result.fieldOrdinal = -1;
 
     result.location.lineStart = name.location.lineStart;
     result.location.charStart = name.location.charStart;
@@ -1646,6 +1731,7 @@ public interface ParserModule {
     if (eatSymbols(lexer, ":")) return token_seperator(":", consume(lexer));
 
     if (eatSymbols(lexer, "..")) return token_seperator("..", consume(lexer));
+    if (eatSymbols(lexer, "$")) return token_seperator("$", consume(lexer));
     if (eatSymbols(lexer, ".")) return token_seperator(".", consume(lexer));
 
     if (eatSymbols(lexer, ",")) return token_seperator(",", consume(lexer));
@@ -1700,6 +1786,7 @@ public interface ParserModule {
     if (eatWord(lexer, "new")) return token_keyword("new", consume(lexer));
 
     if (eatWord(lexer, "#lib")) return token_keyword("#lib", consume(lexer));
+    if (eatWord(lexer, "#immutable")) return token_keyword("#immutable", consume(lexer));
 
     if (eatWord(lexer, "return")) return token_keyword("return", consume(lexer));
     if (eatWord(lexer, "if")) return token_keyword("if", consume(lexer));
@@ -0,0 +1,325 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import pack.CallGraphModule.UnreachableCode;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrProgram;
+import pack.ParserModule.AstAssignment;
+import pack.ParserModule.AstBinaryOperator;
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstDeclaration;
+import pack.ParserModule.AstDefinition;
+import pack.ParserModule.AstExpression;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstFunctionCall;
+import pack.ParserModule.AstIfStatement;
+import pack.ParserModule.AstNew;
+import pack.ParserModule.AstParenthesis;
+import pack.ParserModule.AstProgram;
+import pack.ParserModule.AstReturn;
+import pack.ParserModule.AstStatement;
+import pack.ParserModule.AstTypeCast;
+import pack.ParserModule.AstUnaryOperator;
+import pack.ParserModule.AstVariable;
+import pack.ParserModule.AstWhileLoop;
+import pack.ProfileModule.Profile;
+
+// Runs the passes of the compiler between the typechecking and the code generation, in the order they declare.
+// A pass runs, if the optimization level is at least its level, its switch in the compiler settings is on, and it isn't disabled by name:
+//   -O0  only the passes the output needs, e.g. the lowering and the splitting of huge methods.
+//   -O1  also the cheap optimizations, e.g. constant folding, inlining and dead store elimination.
+//   -O2  also the expensive ones, e.g. the compile-time evaluation, scalar replacement and the range analysis.
+// Every pass is timed, and the nodes of the program are counted before and after it, the ast nodes until the lowering and the ir
+// instructions and regions afterwards. If enabled, the ir is verified after every pass, so a broken invariant names the pass, which broke it.
+public interface PassManagerModule extends CallGraphModule, ProfileModule {
+
+  static public class Compilation {
+    public AstProgram astProgram;
+    public IrProgram irProgram;  // set by the lowering.
+    public String sourceHash;
+    public Profile profile;  // null if the program is compiled without a profile.
+    public UnreachableCode unreachableCode;
+  }
+
+  static public class CompilerPass {
+    public String name;
+    public int level;  // the lowest optimization level, which runs the pass.
+    public boolean enabled;  // the switch of the pass in the compiler settings.
+    public boolean required;  // the output can't be generated without it, e.g. the lowering, so it can't be disabled.
+    public List<String> runsAfter;  // the passes, which run first, if they run at all.
+    public Consumer<Compilation> run;
+  }
+
+  static public class PassManagerSettings {
+    public int optimizationLevel;
+    public Set<String> disabledPasses;
+    public boolean verifyIr;
+  }
+
+  static public class PassResult {
+    public CompilerPass pass;
+    public String skipReason;  // null if the pass ran.
+    public long nanos;
+    public long verificationNanos;
+    public int nodesBefore;
+    public int nodesAfter;
+    public boolean lowered;  // ast nodes before, ir nodes after.
+  }
+
+  static public class PassManagerReport {
+    public int optimizationLevel;
+    public List<PassResult> results;
+  }
+
+  default CompilerPass compilerPass(String name, int level, boolean enabled, Consumer<Compilation> run, String... runsAfter) {
+    CompilerPass result = new CompilerPass();
+    result.name = name;
+    result.level = level;
+    result.enabled = enabled;
+    result.runsAfter = Arrays.asList(runsAfter);
+    result.run = run;
+    return result;
+  }
+
+  // runs at every optimization level.
+  default CompilerPass requiredCompilerPass(String name, Consumer<Compilation> run, String... runsAfter) {
+    CompilerPass result = compilerPass(name, 0, true, run, runsAfter);
+    result.required = true;
+    return result;
+  }
+
+  // null if the pass runs.
+  default String getPassSkipReason(CompilerPass pass, PassManagerSettings settings) {
+    if (!pass.enabled) return "switched off";
+    if (settings.disabledPasses.contains(pass.name)) return "disabled";
+    if (pass.level > settings.optimizationLevel) return String.format("needs -O%d", pass.level);
+    return null;
+  }
+
+  default PassManagerReport runCompilerPasses(Compilation compilation, List<CompilerPass> passes, PassManagerSettings settings) {
+    Map<String, CompilerPass> nameToPass = new HashMap<>();
+    for (CompilerPass pass : passes) nameToPass.put(pass.name, pass);
+
+    for (String name : settings.disabledPasses) {
+      if (!nameToPass.containsKey(name)) throw new CompilerException("unknown compiler pass \"%s\" can't be disabled.", name);
+      if (nameToPass.get(name).required) throw new CompilerException("compiler pass \"%s\" is required and can't be disabled.", name);
+    }
+
+    PassManagerReport result = new PassManagerReport();
+    result.optimizationLevel = settings.optimizationLevel;
+    result.results = new ArrayList<>();
+
+    for (CompilerPass pass : orderCompilerPasses(passes)) {
+      PassResult passResult = new PassResult();
+      passResult.pass = pass;
+      passResult.skipReason = getPassSkipReason(pass, settings);
+      result.results.add(passResult);
+
+      if (passResult.skipReason != null) continue;
+
+      boolean isIr = compilation.irProgram != null;
+      passResult.nodesBefore = countNodes(compilation);
+
+      long start = System.nanoTime();
+      pass.run.accept(compilation);
+      passResult.nanos = System.nanoTime() - start;
+
+      passResult.nodesAfter = countNodes(compilation);
+      passResult.lowered = !isIr && compilation.irProgram != null;
+
+      if (settings.verifyIr && compilation.irProgram != null) {
+        start = System.nanoTime();
+        try {
+          verifyIr(compilation.irProgram);
+        } catch (CompilerException e) {
+          throw new CompilerException("invalid ir after the pass \"%s\": %s", pass.name, e.getMessage());
+        }
+        passResult.verificationNanos = System.nanoTime() - start;
+      }
+    }
+
+    return result;
+  }
+
+  // a pass runs after the passes it names, otherwise the passes keep their order.
+  private List<CompilerPass> orderCompilerPasses(List<CompilerPass> passes) {
+    Map<String, CompilerPass> nameToPass = new HashMap<>();
+    for (CompilerPass pass : passes) {
+      if (nameToPass.put(pass.name, pass) != null) throw new CompilerException("compiler pass \"%s\" is declared twice.", pass.name);
+    }
+
+    for (CompilerPass pass : passes) {
+      for (String name : pass.runsAfter) {
+        if (!nameToPass.containsKey(name)) throw new CompilerException("compiler pass \"%s\" runs after the unknown pass \"%s\".", pass.name, name);
+      }
+    }
+
+    List<CompilerPass> result = new ArrayList<>();
+    Set<String> ordered = new HashSet<>();
+
+    while (result.size() < passes.size()) {
+      CompilerPass next = null;
+      for (CompilerPass pass : passes) {
+        if (!ordered.contains(pass.name) && ordered.containsAll(pass.runsAfter)) {
+          next = pass;
+          break;
+        }
+      }
+
+      if (next == null) {
+        List<String> cycle = new ArrayList<>();
+        for (CompilerPass pass : passes) {
+          if (!ordered.contains(pass.name)) cycle.add(pass.name);
+        }
+        throw new CompilerException("compiler passes %s run after each other in a cycle.", cycle);
+      }
+
+      result.add(next);
+      ordered.add(next.name);
+    }
+
+    return result;
+  }
+
+  //
+  // node count
+  //
+
+  private int countNodes(Compilation compilation) {
+    if (compilation.irProgram != null) {
+      int result = 0;
+      for (IrFunction function : compilation.irProgram.functions) {
+        result += 1 + getIrSize(function.body);
+      }
+      return result;
+    }
+
+    int result = 0;
+    for (AstCompilationUnit unit : compilation.astProgram.compilationUnits) {
+      for (AstFunction function : unit.functions) {
+        result += 1 + countAstNodes(function.bodyStatements);
+      }
+    }
+    return result;
+  }
+
+  private int countAstNodes(List<AstStatement> statements) {
+    int result = 0;
+    for (AstStatement statement : statements) {
+      result += countAstNodes(statement);
+    }
+    return result;
+  }
+
+  private int countAstNodes(AstStatement statement) {
+    if (statement instanceof AstDeclaration) return 1 + countAstNodes(((AstDeclaration) statement).optionalInit);
+
+    if (statement instanceof AstDefinition) {
+      AstDefinition definition = (AstDefinition) statement;
+      return 1 + countAstNodes(definition.lhs) + countAstNodes(definition.rhs);
+    }
+
+    if (statement instanceof AstReturn) return 1 + countAstNodes(((AstReturn) statement).returnExpression);
+
+    if (statement instanceof AstFunctionCall) return countAstNodes((AstExpression) statement);
+
+    if (statement instanceof AstIfStatement) {
+      AstIfStatement _if = (AstIfStatement) statement;
+      return 1 + countAstNodes(_if.condition) + countAstNodes(_if.ifBody) + countAstNodes(_if.elseBody);
+    }
+
+    if (statement instanceof AstWhileLoop) {
+      AstWhileLoop loop = (AstWhileLoop) statement;
+      return 1 + countAstNodes(loop.condition) + countAstNodes(loop.body);
+    }
+
+    throw new CompilerException("unexpected statement %s.", statement.getClass().getSimpleName());
+  }
+
+  private int countAstNodes(AstAssignment assignment) {
+    if (assignment == null) return 0;
+
+    if (assignment instanceof AstNew) {
+      int result = 1;
+      for (AstExpression size : ((AstNew) assignment).arraySizes) {
+        result += countAstNodes(size);
+      }
+      return result;
+    }
+
+    AstExpression expression = (AstExpression) assignment;
+
+    if (expression instanceof AstBinaryOperator) {
+      AstBinaryOperator operator = (AstBinaryOperator) expression;
+      return 1 + countAstNodes(operator.lhs) + countAstNodes(operator.rhs);
+    }
+
+    if (expression instanceof AstUnaryOperator) return 1 + countAstNodes(((AstUnaryOperator) expression).body);
+    if (expression instanceof AstParenthesis) return 1 + countAstNodes(((AstParenthesis) expression).body);
+    if (expression instanceof AstTypeCast) return 1 + countAstNodes(((AstTypeCast) expression).expression);
+
+    if (expression instanceof AstFunctionCall) {
+      int result = 1;
+      for (AstExpression argument : ((AstFunctionCall) expression).arguments) {
+        result += countAstNodes(argument);
+      }
+      return result;
+    }
+
+    if (expression instanceof AstVariable) {
+      int result = 0;
+      for (AstVariable variable = (AstVariable) expression; variable != null; variable = variable.child) {
+        result += 1;
+        if (variable.arrayExpressions == null) continue;
+        for (AstExpression index : variable.arrayExpressions) {
+          result += countAstNodes(index);
+        }
+      }
+      return result;
+    }
+
+    // literals.
+    return 1;
+  }
+
+  default String getPassManagerReport(PassManagerReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append(String.format("Compiler passes at -O%d\n", report.optimizationLevel));
+    builder.append("\n");
+    builder.append("  nodes are the ast nodes before the lowering, and the ir instructions and regions after it.\n");
+    builder.append("\n");
+    builder.append(String.format("  %-32s %10s %10s %8s %8s %8s\n", "pass", "time", "verify", "before", "after", "delta"));
+
+    int ranCount = 0;
+    long nanos = 0;
+    long verificationNanos = 0;
+
+    for (PassResult result : report.results) {
+      if (result.skipReason != null) {
+        builder.append(String.format("  %-32s skipped, %s\n", result.pass.name, result.skipReason));
+        continue;
+      }
+
+      String delta = result.lowered ? "lowered" : String.format("%+d", result.nodesAfter - result.nodesBefore);
+      builder.append(String.format("  %-32s %7.2f ms %7.2f ms %8d %8d %8s\n", result.pass.name, result.nanos / 1e6, result.verificationNanos / 1e6, result.nodesBefore, result.nodesAfter, delta));
+
+      ranCount += 1;
+      nanos += result.nanos;
+      verificationNanos += result.verificationNanos;
+    }
+
+    builder.append("\n");
+    builder.append(String.format("ran %d of %d passes in %.2f ms, verified the ir in %.2f ms.\n", ranCount, report.results.size(), nanos / 1e6, verificationNanos / 1e6));
+
+    return builder.toString();
+  }
+}
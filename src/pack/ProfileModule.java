@@ -0,0 +1,443 @@
+package pack;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstParameterDeclaration;
+import pack.ParserModule.AstProgram;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+import pack.ParserModule.Location;
+
+// Profile-guided optimization in two compilations. The first one ("instrumentProfile") counts how often every function, call site and
+// both sides of every if and while run, and the program writes the counts into the profile when it exits. The second one ("useProfile")
+// reads the profile: the inliner skips call sites, which never ran, and inlines bigger callees into hot ones, a branch, which never ran,
+// moves into a function of its own, so the jit compiles less code for the hot function, and the functions are emitted hottest first.
+// The counters are keyed by source locations, e.g. "if 12:5 then", so a profile of another version of the source is ignored with a warning.
+public interface ProfileModule extends IrModule {
+
+  static public class Profile {
+    public String path;
+    public Map<String, Long> counts;
+  }
+
+  static public class ProfileInstrumenter {
+    public List<String> keys;  // the index is the id of the counter.
+    public AstFunction count;  // profile_count :: (id: i32) #lib "Profiler";
+  }
+
+  static public class ColdBlockOutliner {
+    public Profile profile;
+    public int minSize;  // in ir instructions.
+    public IrFunction function;
+    public List<IrFunction> outlined;
+    public List<String> outlinedBlocks;
+  }
+
+  static public class ProfileReport {
+    public List<String> outlinedBlocks;
+    public List<String> functionOrder;  // hottest first.
+  }
+
+  default String getSourceHash(AstProgram program) {
+    CRC32 crc = new CRC32();
+    for (AstCompilationUnit unit : program.compilationUnits) {
+      crc.update(unit.sourceFile.content.getBytes(StandardCharsets.UTF_8));
+    }
+    return String.format("%08x", crc.getValue());
+  }
+
+  default String getFunctionProfileKey(IrFunction function) {
+    return String.format("function %s", getIrFunctionSignature(function));
+  }
+
+  default String getCallSiteProfileKey(IrCall call) {
+    return String.format("call %d:%d %s", call.location.lineStart, call.location.charStart, call.name);
+  }
+
+  private String getBranchProfileKey(String statement, Location location, String branch) {
+    return String.format("%s %d:%d %s", statement, location.lineStart, location.charStart, branch);
+  }
+
+  // returns -1 if the profile doesn't know the key, e.g. for code which the compiler created.
+  default long getProfileCount(Profile profile, String key) {
+    return profile.counts.getOrDefault(key, -1L);
+  }
+
+  //
+  // instrumentation
+  //
+
+  default void instrumentProfile(IrProgram program, String profilePath, String sourceHash) {
+    ProfileInstrumenter instrumenter = new ProfileInstrumenter();
+    instrumenter.keys = new ArrayList<>();
+    instrumenter.count = profilerLibraryFunction("profile_count", List.of("id"), List.of(AstTypeCategory.I32));
+
+    for (IrFunction function : program.functions) {
+      instrumentProfile(instrumenter, function, function.body);
+
+      int id = addProfileCounter(instrumenter, getFunctionProfileKey(function));
+      prependIrInstruction(function, function.body, profileCountCall(instrumenter, id));
+    }
+
+    AstCompilationUnit mainUnit = program.source.compilationUnits.get(0);
+    mainUnit.javaLibraryDependencyNames.add("Profiler");
+
+    IrFunction main = null;
+    for (IrFunction function : program.functions) {
+      if (function.name.equals("main") && function.parameters.isEmpty()) main = function;
+    }
+    if (!mainUnit.hasProgramEntry || main == null) return;
+
+    AstFunction start = profilerLibraryFunction("profile_start", List.of("path", "sourceHash", "keys"), List.of(AstTypeCategory.String, AstTypeCategory.String, AstTypeCategory.String));
+
+    IrCall call = new IrCall();
+    call.name = start.name;
+    call.function = start;
+    call.arguments = new ArrayList<>();
+    call.arguments.add(profileStringConstant(profilePath));
+    call.arguments.add(profileStringConstant(sourceHash));
+    call.arguments.add(profileStringConstant(String.join(";", instrumenter.keys)));
+    prependIrInstruction(main, main.body, call);
+  }
+
+  private void instrumentProfile(ProfileInstrumenter instrumenter, IrFunction function, IrSequence sequence) {
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+
+      if (region instanceof IrBlock) {
+        List<IrInstruction> instructions = ((IrBlock) region).instructions;
+        for (int j = 0; j < instructions.size(); j++) {
+          if (!(instructions.get(j) instanceof IrCall)) continue;
+
+          IrCall call = (IrCall) instructions.get(j);
+          if (call.location == null || call.function.hasJavaLibraryBinding) continue;
+
+          int id = addProfileCounter(instrumenter, getCallSiteProfileKey(call));
+          instructions.add(j, profileCountCall(instrumenter, id));
+          j += 1;
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        instrumentProfile(instrumenter, function, _if.thenBody);
+        instrumentProfile(instrumenter, function, _if.elseBody);
+        if (_if.location == null) continue;
+
+        int thenId = addProfileCounter(instrumenter, getBranchProfileKey("if", _if.location, "then"));
+        prependIrInstruction(function, _if.thenBody, profileCountCall(instrumenter, thenId));
+
+        int elseId = addProfileCounter(instrumenter, getBranchProfileKey("if", _if.location, "else"));
+        prependIrInstruction(function, _if.elseBody, profileCountCall(instrumenter, elseId));
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        instrumentProfile(instrumenter, function, loop.header);
+        instrumentProfile(instrumenter, function, loop.body);
+        if (loop.location == null) continue;
+
+        int bodyId = addProfileCounter(instrumenter, getBranchProfileKey("while", loop.location, "body"));
+        prependIrInstruction(function, loop.body, profileCountCall(instrumenter, bodyId));
+
+        // a return inside of the loop leaves it without an exit count.
+        int exitId = addProfileCounter(instrumenter, getBranchProfileKey("while", loop.location, "exit"));
+        IrBlock exit = irBlock(function);
+        exit.instructions.add(profileCountCall(instrumenter, exitId));
+        sequence.regions.add(i + 1, exit);
+        i += 1;
+
+      } else if (region instanceof IrShortCircuit) {
+        instrumentProfile(instrumenter, function, ((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        instrumentProfile(instrumenter, function, (IrSequence) region);
+      }
+    }
+  }
+
+  private int addProfileCounter(ProfileInstrumenter instrumenter, String key) {
+    instrumenter.keys.add(key);
+    return instrumenter.keys.size() - 1;
+  }
+
+  private IrCall profileCountCall(ProfileInstrumenter instrumenter, int id) {
+    IrCall result = new IrCall();
+    result.name = instrumenter.count.name;
+    result.function = instrumenter.count;
+    result.arguments = new ArrayList<>();
+    result.arguments.add(irConstant(astLiteral_integer(astType_primitive(AstTypeCategory.I32, false, 0), id)));
+    return result;
+  }
+
+  // the value of a string literal is written into the java code as it is, so it has to be escaped already.
+  private IrConstant profileStringConstant(String value) {
+    String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"");
+    return irConstant(astLiteral(escaped, astType_primitive(AstTypeCategory.String, false, 0), null));
+  }
+
+  private void prependIrInstruction(IrFunction function, IrSequence sequence, IrInstruction instruction) {
+    if (!sequence.regions.isEmpty() && sequence.regions.get(0) instanceof IrBlock) {
+      ((IrBlock) sequence.regions.get(0)).instructions.add(0, instruction);
+      return;
+    }
+
+    IrBlock block = irBlock(function);
+    block.instructions.add(instruction);
+    sequence.regions.add(0, block);
+  }
+
+  private AstFunction profilerLibraryFunction(String name, List<String> parameterNames, List<AstTypeCategory> parameterTypes) {
+    AstFunction result = new AstFunction();
+    result.name = name;
+    result.hasJavaLibraryBinding = true;
+    result.javaLibraryName = "Profiler";
+    result.location = new Location();
+    result.parameters = new ArrayList<>();
+    result.bodyStatements = new ArrayList<>();
+    result.returnType = astType_primitive(AstTypeCategory.Void, false, 0);
+
+    for (int i = 0; i < parameterNames.size(); i++) {
+      AstParameterDeclaration parameter = new AstParameterDeclaration();
+      parameter.name = parameterNames.get(i);
+      parameter.type = astType_primitive(parameterTypes.get(i), false, 0);
+      result.parameters.add(parameter);
+    }
+    return result;
+  }
+
+  //
+  // reading
+  //
+
+  // returns null, with a warning, if the profile is missing, broken or was recorded for another version of the source.
+  default Profile readProfile(String profilePath, String sourceHash) {
+    String content = readFileToString(Paths.get(profilePath));
+    if (content == null) {
+      System.out.printf("warning: the profile \"%s\" doesn't exist, compiling without it.\n", profilePath);
+      return null;
+    }
+
+    Profile result = new Profile();
+    result.path = profilePath;
+    result.counts = new HashMap<>();
+    String profileSourceHash = null;
+
+    for (String line : content.split("\n")) {
+      if (line.isBlank() || line.startsWith("#")) continue;
+
+      if (line.startsWith("source ")) {
+        profileSourceHash = line.substring("source ".length()).trim();
+        continue;
+      }
+
+      int separator = line.indexOf(' ');
+      try {
+        long count = Long.parseLong(line.substring(0, Math.max(separator, 0)));
+        result.counts.merge(line.substring(separator + 1).trim(), count, Long::sum);
+      } catch (NumberFormatException e) {
+        System.out.printf("warning: the profile \"%s\" has an invalid line \"%s\", compiling without it.\n", profilePath, line);
+        return null;
+      }
+    }
+
+    if (!sourceHash.equals(profileSourceHash)) {
+      System.out.printf("warning: the profile \"%s\" is stale, the source changed since it was recorded (hash %s, now %s). Compiling without it.\n", profilePath, profileSourceHash, sourceHash);
+      return null;
+    }
+
+    return result;
+  }
+
+  //
+  // use
+  //
+
+  default ProfileReport applyProfile(IrProgram program, Profile profile, int outlineMinSize) {
+    ProfileReport result = new ProfileReport();
+
+    ColdBlockOutliner outliner = new ColdBlockOutliner();
+    outliner.profile = profile;
+    outliner.minSize = outlineMinSize;
+    outliner.outlined = new ArrayList<>();
+    outliner.outlinedBlocks = new ArrayList<>();
+
+    for (IrFunction function : program.functions) {
+      outliner.function = function;
+      outlineColdBlocks(outliner, function.body);
+    }
+    program.functions.addAll(outliner.outlined);
+    result.outlinedBlocks = outliner.outlinedBlocks;
+
+    // the sort is stable, so functions without a count, e.g. the outlined ones, stay in their order at the end.
+    program.functions.sort(Comparator.comparingLong((IrFunction function) -> -getProfileCount(profile, getFunctionProfileKey(function))));
+
+    result.functionOrder = new ArrayList<>();
+    for (IrFunction function : program.functions) {
+      long count = getProfileCount(profile, getFunctionProfileKey(function));
+      result.functionOrder.add(String.format("%12s  %s", (count < 0) ? "-" : Long.toString(count), getIrFunctionSignature(function)));
+    }
+
+    return result;
+  }
+
+  private void outlineColdBlocks(ColdBlockOutliner outliner, IrSequence sequence) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+
+        if (_if.location != null) {
+          long thenCount = getProfileCount(outliner.profile, getBranchProfileKey("if", _if.location, "then"));
+          long elseCount = getProfileCount(outliner.profile, getBranchProfileKey("if", _if.location, "else"));
+
+          // only a branch of an if, which ran, is known to be cold.
+          if (thenCount == 0 && elseCount > 0 && canOutline(outliner, _if.thenBody)) {
+            _if.thenBody = outlineColdBlock(outliner, _if.thenBody, getBranchProfileKey("if", _if.location, "then"));
+          }
+          if (elseCount == 0 && thenCount > 0 && canOutline(outliner, _if.elseBody)) {
+            _if.elseBody = outlineColdBlock(outliner, _if.elseBody, getBranchProfileKey("if", _if.location, "else"));
+          }
+        }
+
+        outlineColdBlocks(outliner, _if.thenBody);
+        outlineColdBlocks(outliner, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        outlineColdBlocks(outliner, loop.header);
+        outlineColdBlocks(outliner, loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        outlineColdBlocks(outliner, ((IrShortCircuit) region).rhsBody);
+
+      } else if (region instanceof IrSequence) {
+        outlineColdBlocks(outliner, (IrSequence) region);
+      }
+    }
+  }
+
+  // a return would have to leave the caller, and an assigned local of the caller would only change the parameter of the new function.
+  private boolean canOutline(ColdBlockOutliner outliner, IrSequence body) {
+    Set<IrLocal> declared = new HashSet<>();
+    int size = 0;
+
+    for (IrBlock block : getIrBlocks(body)) {
+      for (IrInstruction instruction : block.instructions) {
+        size += 1;
+        if (instruction instanceof IrReturn) return false;
+        if (instruction instanceof IrDeclare) declared.add(((IrDeclare) instruction).local);
+        if (instruction instanceof IrAssign && !declared.contains(((IrAssign) instruction).local)) return false;
+      }
+    }
+
+    return size >= outliner.minSize;
+  }
+
+  // the values, which the body reads, but doesn't define, become the parameters of the new function.
+  private IrSequence outlineColdBlock(ColdBlockOutliner outliner, IrSequence body, String key) {
+    IrFunction caller = outliner.function;
+
+    Set<IrValue> defined = getDefinedIrValues(body);
+
+    Set<IrValue> reads = new LinkedHashSet<>();
+    mapIrValues(body, value -> {
+      if ((value instanceof IrTemp || value instanceof IrLocal) && !defined.contains(value)) reads.add(value);
+      return value;
+    });
+
+    IrFunction function = new IrFunction();
+    function.name = String.format("%s$cold%d", caller.name, outliner.outlined.size());
+    function.returnType = astType_primitive(AstTypeCategory.Void, false, 0);
+    function.parameters = new ArrayList<>();
+    function.body = body;
+    function.tempCount = caller.tempCount;
+    function.blockCount = caller.blockCount;
+
+    AstFunction source = new AstFunction();
+    source.name = function.name;
+    source.location = caller.source.location;
+    source.parameters = new ArrayList<>();
+    source.returnType = function.returnType;
+    source.bodyStatements = new ArrayList<>();
+    function.source = source;
+
+    Map<IrValue, IrLocal> parameters = new HashMap<>();
+    for (IrValue read : reads) {
+      AstType type = getIrValueType(read);
+      String name = (read instanceof IrLocal) ? ((IrLocal) read).name : String.format("$t%d", ((IrTemp) read).id);
+
+      IrLocal parameter = irLocal(name, type, true);
+      function.parameters.add(parameter);
+      parameters.put(read, parameter);
+
+      AstParameterDeclaration declaration = new AstParameterDeclaration();
+      declaration.name = name;
+      declaration.type = type;
+      source.parameters.add(declaration);
+    }
+    mapIrValues(body, value -> parameters.getOrDefault(value, (IrLocal) null) != null ? parameters.get(value) : value);
+
+    IrCall call = new IrCall();
+    call.name = function.name;
+    call.function = source;
+    call.arguments = new ArrayList<>(reads);
+
+    IrBlock block = irBlock(caller);
+    block.instructions.add(call);
+
+    IrSequence result = irSequence();
+    result.regions.add(block);
+
+    outliner.outlined.add(function);
+    outliner.outlinedBlocks.add(String.format("%-30s %3d instructions  into %s", key, getIrBlocks(body).stream().mapToInt(b -> b.instructions.size()).sum(), getIrFunctionSignature(function)));
+    return result;
+  }
+
+  default String getProfileReport(Profile profile, ProfileReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append(String.format("Profile %s\n", profile.path));
+    builder.append("\n");
+
+    builder.append("functions, hottest first\n");
+    for (String function : report.functionOrder) builder.append(String.format("  %s\n", function));
+
+    if (!report.outlinedBlocks.isEmpty()) {
+      builder.append("\n");
+      builder.append("outlined cold branches\n");
+      for (String block : report.outlinedBlocks) builder.append(String.format("  %s\n", block));
+    }
+
+    builder.append("\n");
+    builder.append(String.format("outlined %d cold branches.\n", report.outlinedBlocks.size()));
+
+    return builder.toString();
+  }
+}
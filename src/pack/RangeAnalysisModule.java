@@ -0,0 +1,883 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrArrayLength;
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBinary;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrCast;
+import pack.IrModule.IrConstant;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadElement;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreElement;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrUnary;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstFunction;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// An interval analysis of the integer values of each function, together with "x < y" and "x <= y" facts between values, which
+// conditions, ensure calls and element accesses establish. It removes ensure calls, whose condition always holds, and marks element
+// accesses, whose index is always in bounds. The ranges of parameters come from the call sites, unless the function is a call graph root.
+public interface RangeAnalysisModule extends CallGraphModule {
+
+  // a loop, whose header state still changes after that many iterations, is analyzed with the full ranges and without facts.
+  static public final int MAX_LOOP_ITERATIONS = 32;
+
+  static public class Range {
+    public long min;
+    public long max;
+  }
+
+  // a missing value has the full range of its type, a missing fact doesn't hold.
+  static public class RangeState {
+    public Map<IrValue, Range> ranges;
+    public Map<IrValue, Range> lengths;  // of arrays.
+    public Map<IrValue, Set<IrValue>> lessThan;
+    public Map<IrValue, Set<IrValue>> lessOrEqual;
+    public Set<IrTemp> lengthTemps;  // whose array hasn't been written since.
+  }
+
+  static public class RangeAnalyzer {
+    public IrFunction function;
+    public Map<IrTemp, IrBinary> comparisons;
+    public Map<IrTemp, IrUnary> negations;
+    public Map<IrTemp, IrShortCircuit> shortCircuits;
+    public Map<IrTemp, IrValue> lengthToArray;
+    public boolean isFinal;  // false while a loop is iterated to its fixpoint.
+
+    public Map<AstFunction, List<Range>> argumentRanges;  // joined over the call sites.
+    public RangeAnalysisReport report;  // null until the last round.
+  }
+
+  static public class RangeAnalysisReport {
+    public Map<IrFunction, List<String>> parameterRanges;
+    public Map<IrFunction, List<String>> removedChecks;
+    public Map<IrFunction, List<String>> inBoundsAccesses;
+    public Set<IrCall> removedCalls;
+    public int checkCount;
+    public int accessCount;
+  }
+
+  default RangeAnalysisReport analyzeRanges(IrProgram program) {
+    Set<IrFunction> roots = new HashSet<>(getCallGraphRoots(program));
+    Map<AstFunction, List<Range>> parameterRanges = new HashMap<>();
+
+    // every round uses the parameter ranges of the previous one, which hold for any call, so stopping early is fine.
+    int maxRounds = 4;
+    for (int round = 0; round < maxRounds; round++) {
+      Map<AstFunction, List<Range>> argumentRanges = new HashMap<>();
+      for (IrFunction function : program.functions) {
+        analyzeRanges(function, parameterRanges.get(function.source), argumentRanges, null);
+      }
+
+      // the arguments of varargs calls don't line up with the parameters.
+      Map<AstFunction, List<Range>> next = new HashMap<>();
+      for (IrFunction function : program.functions) {
+        if (roots.contains(function)) continue;
+
+        List<Range> ranges = argumentRanges.get(function.source);
+        if (ranges != null && ranges.size() == function.parameters.size()) next.put(function.source, ranges);
+      }
+
+      boolean changed = !areSameParameterRanges(parameterRanges, next);
+      parameterRanges = next;
+      if (!changed) break;
+    }
+
+    RangeAnalysisReport report = new RangeAnalysisReport();
+    report.parameterRanges = new LinkedHashMap<>();
+    report.removedChecks = new LinkedHashMap<>();
+    report.inBoundsAccesses = new LinkedHashMap<>();
+    report.removedCalls = new HashSet<>();
+
+    for (IrFunction function : program.functions) {
+      List<Range> ranges = parameterRanges.get(function.source);
+      analyzeRanges(function, ranges, new HashMap<>(), report);
+
+      List<String> parameters = new ArrayList<>();
+      for (int i = 0; ranges != null && i < ranges.size(); i++) {
+        IrLocal parameter = function.parameters.get(i);
+        if (ranges.get(i) == null || isSameRange(ranges.get(i), getTypeRange(parameter.type))) continue;
+        parameters.add(String.format("%s in %s", parameter.name, getRangeString(ranges.get(i))));
+      }
+      report.parameterRanges.put(function, parameters);
+    }
+
+    for (IrFunction function : program.functions) {
+      for (IrBlock block : getIrBlocks(function.body)) {
+        block.instructions.removeIf(instruction -> report.removedCalls.contains(instruction));
+      }
+    }
+
+    return report;
+  }
+
+  private boolean areSameParameterRanges(Map<AstFunction, List<Range>> a, Map<AstFunction, List<Range>> b) {
+    if (!a.keySet().equals(b.keySet())) return false;
+
+    for (AstFunction function : a.keySet()) {
+      List<Range> rangesA = a.get(function);
+      List<Range> rangesB = b.get(function);
+      for (int i = 0; i < rangesA.size(); i++) {
+        if (!isSameRange(rangesA.get(i), rangesB.get(i))) return false;
+      }
+    }
+    return true;
+  }
+
+  private void analyzeRanges(IrFunction function, List<Range> parameterRanges, Map<AstFunction, List<Range>> argumentRanges, RangeAnalysisReport report) {
+    RangeAnalyzer analyzer = new RangeAnalyzer();
+    analyzer.function = function;
+    analyzer.comparisons = new HashMap<>();
+    analyzer.negations = new HashMap<>();
+    analyzer.shortCircuits = new HashMap<>();
+    analyzer.lengthToArray = new HashMap<>();
+    analyzer.isFinal = true;
+    analyzer.argumentRanges = argumentRanges;
+    analyzer.report = report;
+
+    if (report != null) {
+      report.removedChecks.put(function, new ArrayList<>());
+      report.inBoundsAccesses.put(function, new ArrayList<>());
+    }
+
+    RangeState state = emptyRangeState();
+    for (int i = 0; parameterRanges != null && i < parameterRanges.size(); i++) {
+      if (parameterRanges.get(i) != null) state.ranges.put(function.parameters.get(i), parameterRanges.get(i));
+    }
+
+    analyzeRanges(analyzer, function.body, state);
+  }
+
+  // returns null if the end of the sequence can't be reached.
+  private RangeState analyzeRanges(RangeAnalyzer analyzer, IrSequence sequence, RangeState state) {
+    for (IrRegion region : sequence.regions) {
+      if (state == null) return null;
+
+      if (region instanceof IrBlock) {
+        for (IrInstruction instruction : ((IrBlock) region).instructions) {
+          state = analyzeRanges(analyzer, instruction, state);
+          if (state == null) return null;
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        RangeState thenState = analyzeRanges(analyzer, _if.thenBody, refineRanges(analyzer, copyRangeState(state), _if.condition, true));
+        RangeState elseState = analyzeRanges(analyzer, _if.elseBody, refineRanges(analyzer, copyRangeState(state), _if.condition, false));
+        state = joinRangeStates(thenState, elseState);
+
+      } else if (region instanceof IrLoop) {
+        state = analyzeLoopRanges(analyzer, (IrLoop) region, state);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        analyzer.shortCircuits.put(shortCircuit.result, shortCircuit);
+
+        boolean runsRhs = shortCircuit.operator.equals("&&");
+        RangeState rhsState = analyzeRanges(analyzer, shortCircuit.rhsBody, refineRanges(analyzer, copyRangeState(state), shortCircuit.lhs, runsRhs));
+        state = joinRangeStates(refineRanges(analyzer, copyRangeState(state), shortCircuit.lhs, !runsRhs), rhsState);
+
+      } else if (region instanceof IrSequence) {
+        state = analyzeRanges(analyzer, (IrSequence) region, state);
+      }
+    }
+
+    return state;
+  }
+
+  // iterates the loop with widening until the state at the header doesn't change, then runs it once more to record the results.
+  // The next state is joined with the previous one, so the ranges only grow and the facts only shrink, and the widening ends the growth.
+  private RangeState analyzeLoopRanges(RangeAnalyzer analyzer, IrLoop loop, RangeState entry) {
+    boolean isFinal = analyzer.isFinal;
+    analyzer.isFinal = false;
+
+    RangeState head = entry;
+    for (int iteration = 0; ; iteration++) {
+      if (iteration == MAX_LOOP_ITERATIONS) {
+        head = (entry == null) ? null : emptyRangeState();
+        break;
+      }
+
+      RangeState headerEnd = analyzeRanges(analyzer, loop.header, copyRangeState(head));
+      RangeState bodyStart = (headerEnd == null) ? null : refineRanges(analyzer, copyRangeState(headerEnd), loop.condition, true);
+      RangeState bodyEnd = (bodyStart == null) ? null : analyzeRanges(analyzer, loop.body, bodyStart);
+
+      RangeState next = joinRangeStates(head, bodyEnd);
+      if (iteration >= 2) next = widenRangeState(head, next);
+      if (isSameRangeState(head, next)) break;
+      head = next;
+    }
+
+    analyzer.isFinal = isFinal;
+
+    RangeState headerEnd = analyzeRanges(analyzer, loop.header, copyRangeState(head));
+    if (headerEnd == null) return null;
+
+    RangeState bodyStart = refineRanges(analyzer, copyRangeState(headerEnd), loop.condition, true);
+    if (bodyStart != null) analyzeRanges(analyzer, loop.body, bodyStart);
+
+    return refineRanges(analyzer, headerEnd, loop.condition, false);
+  }
+
+  private RangeState analyzeRanges(RangeAnalyzer analyzer, IrInstruction instruction, RangeState state) {
+    if (instruction instanceof IrReturn) return null;
+
+    // a temp is defined again in every iteration of a loop.
+    IrValue defined = getIrResult(instruction);
+    if (instruction instanceof IrDeclare) defined = ((IrDeclare) instruction).local;
+    if (instruction instanceof IrAssign) defined = ((IrAssign) instruction).local;
+    if (defined != null) {
+      killRangeFacts(analyzer, state, defined);
+      state.ranges.remove(defined);
+      state.lengths.remove(defined);
+    }
+
+    if (instruction instanceof IrDeclare) {
+      IrDeclare declare = (IrDeclare) instruction;
+      assignRange(state, declare.local, declare.value);
+
+    } else if (instruction instanceof IrAssign) {
+      IrAssign assign = (IrAssign) instruction;
+      assignRange(state, assign.local, assign.value);
+
+    } else if (instruction instanceof IrBinary) {
+      IrBinary binary = (IrBinary) instruction;
+      if (isComparison(binary)) analyzer.comparisons.put(binary.result, binary);
+      putRange(state, binary.result, getBinaryRange(state, binary));
+      addBinaryFacts(state, binary);
+
+    } else if (instruction instanceof IrUnary) {
+      IrUnary unary = (IrUnary) instruction;
+      if (unary.operator.equals("!")) analyzer.negations.put(unary.result, unary);
+
+      Range operand = getRange(state, unary.operand);
+      if (unary.operator.equals("-") && operand != null && operand.min != Long.MIN_VALUE) {
+        putRange(state, unary.result, clampRange(unary.result.type, -operand.max, -operand.min));
+      }
+
+    } else if (instruction instanceof IrCast) {
+      IrCast cast = (IrCast) instruction;
+      Range operand = getRange(state, cast.operand);
+      if (operand != null && isIntegerType(cast.result.type)) putRange(state, cast.result, clampRange(cast.result.type, operand.min, operand.max));
+
+    } else if (instruction instanceof IrNew) {
+      IrNew _new = (IrNew) instruction;
+      if (!_new.arraySizes.isEmpty()) {
+        Range size = getRange(state, _new.arraySizes.get(0));
+        if (size != null) state.lengths.put(_new.result, newRange(Math.max(0, size.min), Math.min(Integer.MAX_VALUE, size.max)));
+      }
+
+    } else if (instruction instanceof IrArrayLength) {
+      IrArrayLength length = (IrArrayLength) instruction;
+      analyzer.lengthToArray.put(length.result, length.array);
+      addLengthFacts(analyzer, state, length);
+
+      Range range = state.lengths.get(length.array);
+      putRange(state, length.result, (range != null) ? range : newRange(0, Integer.MAX_VALUE));
+
+    } else if (instruction instanceof IrLoadElement) {
+      IrLoadElement load = (IrLoadElement) instruction;
+      load.isInBounds = analyzeElementAccess(analyzer, state, instruction, load.array, load.index, load.isInBounds);
+
+    } else if (instruction instanceof IrStoreElement) {
+      IrStoreElement store = (IrStoreElement) instruction;
+      store.isInBounds = analyzeElementAccess(analyzer, state, instruction, store.array, store.index, store.isInBounds);
+
+    } else if (instruction instanceof IrCall) {
+      IrCall call = (IrCall) instruction;
+      analyzeCallRanges(analyzer, state, call);
+      if (isEnsureCall(call)) return refineRanges(analyzer, state, call.arguments.get(0), true);
+    }
+
+    return state;
+  }
+
+  private void analyzeCallRanges(RangeAnalyzer analyzer, RangeState state, IrCall call) {
+    if (isEnsureCall(call) && analyzer.isFinal && analyzer.report != null) {
+      analyzer.report.checkCount += 1;
+      if (decideCondition(analyzer, state, call.arguments.get(0)) == Boolean.TRUE) {
+        analyzer.report.removedCalls.add(call);
+        analyzer.report.removedChecks.get(analyzer.function).add(getIrInstructionString(call));
+      }
+    }
+
+    if (call.function.hasJavaLibraryBinding || !analyzer.isFinal) return;
+
+    List<Range> ranges = new ArrayList<>();
+    for (IrValue argument : call.arguments) ranges.add(getRange(state, argument));
+
+    List<Range> joined = analyzer.argumentRanges.get(call.function);
+    if (joined == null) {
+      analyzer.argumentRanges.put(call.function, ranges);
+      return;
+    }
+    if (joined.size() != ranges.size()) {
+      for (int i = 0; i < joined.size(); i++) joined.set(i, null);
+      return;
+    }
+
+    for (int i = 0; i < joined.size(); i++) {
+      joined.set(i, joinRanges(joined.get(i), ranges.get(i)));
+    }
+  }
+
+  private boolean isEnsureCall(IrCall call) {
+    AstFunction function = call.function;
+    return function.hasJavaLibraryBinding && function.name.equals("ensure") && "Preload".equals(function.javaLibraryName) && !call.arguments.isEmpty();
+  }
+
+  // returns whether the access is in bounds. The access throws otherwise, so afterwards the index is known to be in bounds.
+  private boolean analyzeElementAccess(RangeAnalyzer analyzer, RangeState state, IrInstruction instruction, IrValue array, IrValue index, boolean wasInBounds) {
+    Range range = getRange(state, index);
+
+    boolean isInBounds = range != null && range.min >= 0 && isBelowLength(analyzer, state, index, range, array);
+    if (!(index instanceof IrConstant) && range != null && range.min < 0) putRange(state, index, newRange(0, range.max));
+
+    // only the last round marks the access, since the parameter ranges of earlier rounds may be too narrow.
+    if (!analyzer.isFinal || analyzer.report == null) return wasInBounds;
+
+    analyzer.report.accessCount += 1;
+    if (isInBounds) analyzer.report.inBoundsAccesses.get(analyzer.function).add(getIrInstructionString(instruction));
+    return isInBounds;
+  }
+
+  private boolean isBelowLength(RangeAnalyzer analyzer, RangeState state, IrValue index, Range range, IrValue array) {
+    Range length = state.lengths.get(array);
+    if (length != null && range.max < length.min) return true;
+
+    for (IrTemp bound : state.lengthTemps) {
+      if (analyzer.lengthToArray.get(bound) == array && isLess(state, index, bound)) return true;
+    }
+    return false;
+  }
+
+  // the length of the same array is often loaded more than once, e.g. by "while (i < a.length) { ensure(i < a.length, ...); }".
+  private void addLengthFacts(RangeAnalyzer analyzer, RangeState state, IrArrayLength length) {
+    for (IrTemp earlier : state.lengthTemps) {
+      if (analyzer.lengthToArray.get(earlier) != length.array) continue;
+      addRangeFact(state.lessOrEqual, length.result, earlier);
+      addRangeFact(state.lessOrEqual, earlier, length.result);
+    }
+    state.lengthTemps.add(length.result);
+  }
+
+  private void assignRange(RangeState state, IrLocal local, IrValue value) {
+    if (value == null) return;
+
+    Range range = getRange(state, value);
+    if (range != null) state.ranges.put(local, range);
+
+    Range length = state.lengths.get(value);
+    if (length != null) state.lengths.put(local, length);
+
+    // the local equals the value, so it has the same facts.
+    if (value instanceof IrConstant) return;
+
+    for (IrValue bound : state.lessThan.getOrDefault(value, new HashSet<>())) addRangeFact(state.lessThan, local, bound);
+    for (IrValue bound : state.lessOrEqual.getOrDefault(value, new HashSet<>())) addRangeFact(state.lessOrEqual, local, bound);
+    addRangeFact(state.lessOrEqual, local, value);
+    addRangeFact(state.lessOrEqual, value, local);
+  }
+
+  // the facts about a value, which is written, and about the lengths of an array, which a local held.
+  private void killRangeFacts(RangeAnalyzer analyzer, RangeState state, IrValue value) {
+    Set<IrValue> killed = new HashSet<>();
+    killed.add(value);
+    for (Map.Entry<IrTemp, IrValue> entry : analyzer.lengthToArray.entrySet()) {
+      if (entry.getValue() == value) killed.add(entry.getKey());
+    }
+
+    for (Map<IrValue, Set<IrValue>> facts : List.of(state.lessThan, state.lessOrEqual)) {
+      facts.keySet().removeAll(killed);
+      for (Set<IrValue> bounds : facts.values()) bounds.removeAll(killed);
+    }
+    state.lengthTemps.removeAll(killed);
+  }
+
+  private Range getBinaryRange(RangeState state, IrBinary binary) {
+    if (!isIntegerType(binary.result.type)) return null;
+
+    Range lhs = getRange(state, binary.lhs);
+    Range rhs = getRange(state, binary.rhs);
+    if (lhs == null || rhs == null) return null;
+
+    AstType type = binary.result.type;
+    try {
+      switch (binary.operator) {
+        case "+":
+          return clampRange(type, Math.addExact(lhs.min, rhs.min), Math.addExact(lhs.max, rhs.max));
+
+        case "-":
+          return clampRange(type, Math.subtractExact(lhs.min, rhs.max), Math.subtractExact(lhs.max, rhs.min));
+
+        case "*": {
+          long a = Math.multiplyExact(lhs.min, rhs.min);
+          long b = Math.multiplyExact(lhs.min, rhs.max);
+          long c = Math.multiplyExact(lhs.max, rhs.min);
+          long d = Math.multiplyExact(lhs.max, rhs.max);
+          return clampRange(type, Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+        }
+
+        case "/":
+          if (rhs.min == rhs.max && rhs.min > 0) return clampRange(type, lhs.min / rhs.min, lhs.max / rhs.min);
+          return null;
+
+        case "%": {
+          if (rhs.min != rhs.max || rhs.min == 0 || rhs.min == Long.MIN_VALUE) return null;
+          long limit = Math.abs(rhs.min) - 1;
+          if (lhs.min >= 0) return newRange(0, Math.min(lhs.max, limit));
+          if (lhs.max <= 0) return newRange(Math.max(lhs.min, -limit), 0);
+          return newRange(-limit, limit);
+        }
+
+        case "&":
+          if (lhs.min >= 0 && rhs.min >= 0) return newRange(0, Math.min(lhs.max, rhs.max));
+          if (lhs.min >= 0) return newRange(0, lhs.max);
+          if (rhs.min >= 0) return newRange(0, rhs.max);
+          return null;
+
+        case ">>":
+          if (lhs.min >= 0 && rhs.min == rhs.max && rhs.min >= 0 && rhs.min < 32) return newRange(lhs.min >> rhs.min, lhs.max >> rhs.min);
+          return null;
+
+        default:
+          return null;
+      }
+    } catch (ArithmeticException e) {
+      return null;
+    }
+  }
+
+  // "x + c" is above x for a positive c, and at most y, if x < y and c = 1, unless it overflows.
+  private void addBinaryFacts(RangeState state, IrBinary binary) {
+    if (!isIntegerType(binary.result.type)) return;
+
+    boolean isAdd = binary.operator.equals("+");
+    boolean isSubtract = binary.operator.equals("-");
+    if (!isAdd && !isSubtract) return;
+
+    IrValue value = binary.lhs;
+    Range constant = getConstantRange(binary.rhs);
+    if (isAdd && constant == null) {
+      value = binary.rhs;
+      constant = getConstantRange(binary.lhs);
+    }
+    if (constant == null || constant.min == Long.MIN_VALUE || value instanceof IrConstant) return;
+
+    long amount = isAdd ? constant.min : -constant.min;
+
+    // a result, which may wrap around, isn't ordered with the value.
+    Range range = getRange(state, value);
+    Range full = getTypeRange(binary.result.type);
+    if (range.max > full.max - Math.max(amount, 0) || range.min < full.min - Math.min(amount, 0)) return;
+
+    if (amount > 0) addRangeFact(state.lessThan, value, binary.result);
+    if (amount < 0) addRangeFact(state.lessThan, binary.result, value);
+    if (amount <= 0) addRangeFact(state.lessOrEqual, binary.result, value);
+
+    if (amount == 1) {
+      for (IrValue bound : state.lessThan.getOrDefault(value, new HashSet<>())) addRangeFact(state.lessOrEqual, binary.result, bound);
+    }
+    if (amount < 0) {
+      for (IrValue bound : state.lessOrEqual.getOrDefault(value, new HashSet<>())) addRangeFact(state.lessThan, binary.result, bound);
+      for (IrValue bound : state.lessThan.getOrDefault(value, new HashSet<>())) addRangeFact(state.lessThan, binary.result, bound);
+    }
+  }
+
+  private boolean isComparison(IrBinary binary) {
+    return isAny(binary.operator, "<", "<=", ">", ">=", "==", "!=") && isIntegerType(getIrValueType(binary.lhs)) && isIntegerType(getIrValueType(binary.rhs));
+  }
+
+  // returns null if the condition can't have the outcome, i.e. the path is unreachable.
+  private RangeState refineRanges(RangeAnalyzer analyzer, RangeState state, IrValue condition, boolean outcome) {
+    if (state == null) return null;
+
+    if (condition instanceof IrConstant) {
+      String literal = ((IrConstant) condition).literal.value;
+      if (literal.equals("true") && !outcome) return null;
+      if (literal.equals("false") && outcome) return null;
+      return state;
+    }
+
+    IrUnary negation = analyzer.negations.get(condition);
+    if (negation != null) return refineRanges(analyzer, state, negation.operand, !outcome);
+
+    IrShortCircuit shortCircuit = analyzer.shortCircuits.get(condition);
+    if (shortCircuit != null) {
+      boolean isAnd = shortCircuit.operator.equals("&&");
+      if (isAnd != outcome) return state;  // either side decided the outcome.
+
+      state = refineRanges(analyzer, state, shortCircuit.lhs, outcome);
+      return refineRanges(analyzer, state, shortCircuit.rhs, outcome);
+    }
+
+    IrBinary comparison = analyzer.comparisons.get(condition);
+    if (comparison == null) return state;
+
+    String operator = outcome ? comparison.operator : getNegatedComparison(comparison.operator);
+    return refineComparison(state, comparison.lhs, operator, comparison.rhs);
+  }
+
+  private RangeState refineComparison(RangeState state, IrValue lhs, String operator, IrValue rhs) {
+    if (operator.equals(">")) return refineComparison(state, rhs, "<", lhs);
+    if (operator.equals(">=")) return refineComparison(state, rhs, "<=", lhs);
+
+    Range a = getRange(state, lhs);
+    Range b = getRange(state, rhs);
+    if (a == null || b == null) return state;
+
+    if (operator.equals("!=")) {
+      if (a.min == a.max && b.min == b.max && a.min == b.min) return null;
+      return state;
+    }
+
+    if (operator.equals("==")) {
+      Range both = newRange(Math.max(a.min, b.min), Math.min(a.max, b.max));
+      if (both.min > both.max) return null;
+      putRange(state, lhs, both);
+      putRange(state, rhs, both);
+      return state;
+    }
+
+    long gap = operator.equals("<") ? 1 : 0;
+    if (b.max == Long.MIN_VALUE && gap == 1) return null;
+    if (a.min == Long.MAX_VALUE && gap == 1) return null;
+
+    Range newA = newRange(a.min, Math.min(a.max, b.max - gap));
+    Range newB = newRange(Math.max(b.min, a.min + gap), b.max);
+    if (newA.min > newA.max || newB.min > newB.max) return null;
+
+    putRange(state, lhs, newA);
+    putRange(state, rhs, newB);
+
+    if (!(lhs instanceof IrConstant) && !(rhs instanceof IrConstant)) {
+      addRangeFact(gap == 1 ? state.lessThan : state.lessOrEqual, lhs, rhs);
+    }
+    return state;
+  }
+
+  private String getNegatedComparison(String operator) {
+    if (operator.equals("<")) return ">=";
+    if (operator.equals("<=")) return ">";
+    if (operator.equals(">")) return "<=";
+    if (operator.equals(">=")) return "<";
+    if (operator.equals("==")) return "!=";
+    return "==";
+  }
+
+  // TRUE or FALSE if the condition always has that outcome, otherwise null.
+  private Boolean decideCondition(RangeAnalyzer analyzer, RangeState state, IrValue condition) {
+    if (condition instanceof IrConstant) {
+      String literal = ((IrConstant) condition).literal.value;
+      if (literal.equals("true")) return true;
+      if (literal.equals("false")) return false;
+      return null;
+    }
+
+    IrUnary negation = analyzer.negations.get(condition);
+    if (negation != null) {
+      Boolean operand = decideCondition(analyzer, state, negation.operand);
+      return (operand == null) ? null : !operand;
+    }
+
+    IrBinary comparison = analyzer.comparisons.get(condition);
+    if (comparison == null) return null;
+
+    return decideComparison(state, comparison.lhs, comparison.operator, comparison.rhs);
+  }
+
+  private Boolean decideComparison(RangeState state, IrValue lhs, String operator, IrValue rhs) {
+    if (operator.equals(">")) return decideComparison(state, rhs, "<", lhs);
+    if (operator.equals(">=")) return decideComparison(state, rhs, "<=", lhs);
+
+    Range a = getRange(state, lhs);
+    Range b = getRange(state, rhs);
+    if (a == null || b == null) return null;
+
+    boolean isLess = a.max < b.min || isLess(state, lhs, rhs);
+    boolean isLessOrEqual = isLess || a.max <= b.min || lhs == rhs || isLessOrEqual(state, lhs, rhs);
+    boolean isGreater = b.max < a.min || isLess(state, rhs, lhs);
+    boolean isGreaterOrEqual = isGreater || b.max <= a.min || lhs == rhs || isLessOrEqual(state, rhs, lhs);
+
+    if (operator.equals("<")) {
+      if (isLess) return true;
+      if (isGreaterOrEqual) return false;
+    }
+
+    if (operator.equals("<=")) {
+      if (isLessOrEqual) return true;
+      if (isGreater) return false;
+    }
+
+    boolean isEqual = isLessOrEqual && isGreaterOrEqual;
+    boolean isDifferent = isLess || isGreater;
+
+    if (operator.equals("==")) {
+      if (isEqual) return true;
+      if (isDifferent) return false;
+    }
+
+    if (operator.equals("!=")) {
+      if (isDifferent) return true;
+      if (isEqual) return false;
+    }
+
+    return null;
+  }
+
+  // follows the facts one step, e.g. "i < n" and "n <= m".
+  private boolean isLess(RangeState state, IrValue lhs, IrValue rhs) {
+    if (hasRangeFact(state.lessThan, lhs, rhs)) return true;
+
+    for (IrValue bound : state.lessThan.getOrDefault(lhs, new HashSet<>())) {
+      if (hasRangeFact(state.lessOrEqual, bound, rhs)) return true;
+    }
+    for (IrValue bound : state.lessOrEqual.getOrDefault(lhs, new HashSet<>())) {
+      if (hasRangeFact(state.lessThan, bound, rhs)) return true;
+    }
+    return false;
+  }
+
+  private boolean isLessOrEqual(RangeState state, IrValue lhs, IrValue rhs) {
+    if (hasRangeFact(state.lessOrEqual, lhs, rhs)) return true;
+
+    for (IrValue bound : state.lessOrEqual.getOrDefault(lhs, new HashSet<>())) {
+      if (hasRangeFact(state.lessOrEqual, bound, rhs)) return true;
+    }
+    return false;
+  }
+
+  private boolean hasRangeFact(Map<IrValue, Set<IrValue>> facts, IrValue lhs, IrValue rhs) {
+    Set<IrValue> bounds = facts.get(lhs);
+    return bounds != null && bounds.contains(rhs);
+  }
+
+  private void addRangeFact(Map<IrValue, Set<IrValue>> facts, IrValue lhs, IrValue rhs) {
+    if (lhs == rhs) return;
+    facts.computeIfAbsent(lhs, key -> new HashSet<>()).add(rhs);
+  }
+
+  // null for values, which aren't integers.
+  private Range getRange(RangeState state, IrValue value) {
+    AstType type = getIrValueType(value);
+    if (!isIntegerType(type)) return null;
+
+    if (value instanceof IrConstant) {
+      Range constant = getConstantRange(value);
+      return (constant != null) ? constant : getTypeRange(type);
+    }
+
+    Range range = state.ranges.get(value);
+    return (range != null) ? range : getTypeRange(type);
+  }
+
+  private Range getConstantRange(IrValue value) {
+    if (!(value instanceof IrConstant)) return null;
+
+    IrConstant constant = (IrConstant) value;
+    if (!isIntegerType(constant.literal.type) || constant.literal.type.category == AstTypeCategory.Char) return null;
+
+    try {
+      long parsed = Long.parseLong(constant.literal.value.replace("l", "").replace("L", ""));
+      return newRange(parsed, parsed);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private void putRange(RangeState state, IrValue value, Range range) {
+    if (range == null || value instanceof IrConstant) return;
+    state.ranges.put(value, range);
+  }
+
+  private Range getTypeRange(AstType type) {
+    switch (type.category) {
+      case I8: return newRange(Byte.MIN_VALUE, Byte.MAX_VALUE);
+      case I16: return newRange(Short.MIN_VALUE, Short.MAX_VALUE);
+      case I32: return newRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+      case Char: return newRange(Character.MIN_VALUE, Character.MAX_VALUE);
+      default: return newRange(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+  }
+
+  // java wraps around, so a result, which doesn't fit into the type, can be anything.
+  private Range clampRange(AstType type, long min, long max) {
+    Range full = getTypeRange(type);
+    if (min < full.min || max > full.max) return full;
+    return newRange(min, max);
+  }
+
+  private Range newRange(long min, long max) {
+    Range result = new Range();
+    result.min = min;
+    result.max = max;
+    return result;
+  }
+
+  private Range joinRanges(Range a, Range b) {
+    if (a == null || b == null) return null;
+    return newRange(Math.min(a.min, b.min), Math.max(a.max, b.max));
+  }
+
+  private boolean isSameRange(Range a, Range b) {
+    if (a == null || b == null) return a == b;
+    return a.min == b.min && a.max == b.max;
+  }
+
+  private String getRangeString(Range range) {
+    return String.format("[%d, %d]", range.min, range.max);
+  }
+
+  private RangeState emptyRangeState() {
+    RangeState result = new RangeState();
+    result.ranges = new HashMap<>();
+    result.lengths = new HashMap<>();
+    result.lessThan = new HashMap<>();
+    result.lessOrEqual = new HashMap<>();
+    result.lengthTemps = new HashSet<>();
+    return result;
+  }
+
+  private RangeState copyRangeState(RangeState state) {
+    if (state == null) return null;
+
+    RangeState result = emptyRangeState();
+    result.ranges.putAll(state.ranges);
+    result.lengths.putAll(state.lengths);
+    for (Map.Entry<IrValue, Set<IrValue>> entry : state.lessThan.entrySet()) result.lessThan.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    for (Map.Entry<IrValue, Set<IrValue>> entry : state.lessOrEqual.entrySet()) result.lessOrEqual.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    result.lengthTemps.addAll(state.lengthTemps);
+    return result;
+  }
+
+  // null is the state of unreachable code.
+  private RangeState joinRangeStates(RangeState a, RangeState b) {
+    if (a == null) return copyRangeState(b);
+    if (b == null) return copyRangeState(a);
+
+    RangeState result = emptyRangeState();
+    joinRangeMaps(result.ranges, a.ranges, b.ranges);
+    joinRangeMaps(result.lengths, a.lengths, b.lengths);
+    intersectRangeFacts(result.lessThan, a.lessThan, b.lessThan);
+    intersectRangeFacts(result.lessOrEqual, a.lessOrEqual, b.lessOrEqual);
+    result.lengthTemps.addAll(a.lengthTemps);
+    result.lengthTemps.retainAll(b.lengthTemps);
+    return result;
+  }
+
+  private void joinRangeMaps(Map<IrValue, Range> result, Map<IrValue, Range> a, Map<IrValue, Range> b) {
+    for (Map.Entry<IrValue, Range> entry : a.entrySet()) {
+      Range other = b.get(entry.getKey());
+      if (other != null) result.put(entry.getKey(), joinRanges(entry.getValue(), other));
+    }
+  }
+
+  private void intersectRangeFacts(Map<IrValue, Set<IrValue>> result, Map<IrValue, Set<IrValue>> a, Map<IrValue, Set<IrValue>> b) {
+    for (Map.Entry<IrValue, Set<IrValue>> entry : a.entrySet()) {
+      Set<IrValue> other = b.get(entry.getKey());
+      if (other == null) continue;
+
+      Set<IrValue> both = new HashSet<>(entry.getValue());
+      both.retainAll(other);
+      if (!both.isEmpty()) result.put(entry.getKey(), both);
+    }
+  }
+
+  // bounds, which still move after a few iterations, are given up, and so are the facts, which don't hold in both states.
+  private RangeState widenRangeState(RangeState previous, RangeState next) {
+    if (previous == null || next == null) return next;
+
+    RangeState result = copyRangeState(next);
+    widenRangeMap(result.ranges, previous.ranges, next.ranges, null);
+    widenRangeMap(result.lengths, previous.lengths, next.lengths, newRange(0, Integer.MAX_VALUE));
+
+    result.lessThan.clear();
+    result.lessOrEqual.clear();
+    intersectRangeFacts(result.lessThan, previous.lessThan, next.lessThan);
+    intersectRangeFacts(result.lessOrEqual, previous.lessOrEqual, next.lessOrEqual);
+    result.lengthTemps.retainAll(previous.lengthTemps);
+    return result;
+  }
+
+  private void widenRangeMap(Map<IrValue, Range> result, Map<IrValue, Range> previous, Map<IrValue, Range> next, Range limit) {
+    for (Map.Entry<IrValue, Range> entry : next.entrySet()) {
+      Range old = previous.get(entry.getKey());
+      if (old == null) {
+        result.remove(entry.getKey());
+        continue;
+      }
+
+      Range full = (limit != null) ? limit : getTypeRange(getIrValueType(entry.getKey()));
+      Range range = entry.getValue();
+      long min = (range.min < old.min) ? full.min : range.min;
+      long max = (range.max > old.max) ? full.max : range.max;
+      result.put(entry.getKey(), newRange(min, max));
+    }
+  }
+
+  private boolean isSameRangeState(RangeState a, RangeState b) {
+    if (a == null || b == null) return a == b;
+
+    if (!a.ranges.keySet().equals(b.ranges.keySet()) || !a.lengths.keySet().equals(b.lengths.keySet())) return false;
+    for (IrValue value : a.ranges.keySet()) {
+      if (!isSameRange(a.ranges.get(value), b.ranges.get(value))) return false;
+    }
+    for (IrValue value : a.lengths.keySet()) {
+      if (!isSameRange(a.lengths.get(value), b.lengths.get(value))) return false;
+    }
+
+    return a.lessThan.equals(b.lessThan) && a.lessOrEqual.equals(b.lessOrEqual) && a.lengthTemps.equals(b.lengthTemps);
+  }
+
+  default String getRangeAnalysisReport(RangeAnalysisReport report) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Range analysis\n");
+    builder.append("\n");
+
+    int removedCount = 0;
+    int inBoundsCount = 0;
+
+    for (IrFunction function : report.removedChecks.keySet()) {
+      List<String> parameters = report.parameterRanges.get(function);
+      List<String> removed = report.removedChecks.get(function);
+      List<String> inBounds = report.inBoundsAccesses.get(function);
+      removedCount += removed.size();
+      inBoundsCount += inBounds.size();
+
+      if (parameters.isEmpty() && removed.isEmpty() && inBounds.isEmpty()) continue;
+
+      builder.append(String.format("%s\n", getIrFunctionSignature(function)));
+      for (String parameter : parameters) builder.append(String.format("  parameter  %s\n", parameter));
+      for (String check : removed) builder.append(String.format("  removed    %s\n", check));
+      for (String access : inBounds) builder.append(String.format("  in bounds  %s\n", access));
+    }
+
+    builder.append("\n");
+    builder.append(String.format("removed %d of %d ensure checks.\n", removedCount, report.checkCount));
+    builder.append(String.format("proved %d of %d element accesses in bounds.\n", inBoundsCount, report.accessCount));
+
+    return builder.toString();
+  }
+}
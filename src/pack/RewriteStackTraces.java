@@ -0,0 +1,22 @@
+package pack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import pack.SourceMapModule.SourceMap;
+
+// Rewrites the java lines of a stack trace or a profile, read from stdin, to the lines of the abc source, with the source maps of the
+// files in "./res/output/sources.txt". The program has to be compiled with "writeSourceMapsToFile" set, e.g.
+//   jfr print --events jdk.ExecutionSample recording.jfr | java -cp bin pack.RewriteStackTraces
+public class RewriteStackTraces {
+
+  public static void main(String[] args) throws IOException {
+    OutputFilesModule module = new OutputFilesModule() {};
+    String manifestPath = (args.length > 0) ? args[0] : "./res/output/sources.txt";
+
+    List<SourceMap> sourceMaps = module.readSourceMaps(module.readJavaSourceManifest(manifestPath));
+    String trace = new String(System.in.readAllBytes(), StandardCharsets.UTF_8);
+    System.out.print(module.rewriteStackTrace(trace, sourceMaps));
+  }
+}
@@ -4,5 +4,10 @@ public class RunMe {
 
   public static void main(String[] args) {
     new TestModule() {}.run();
+
+    boolean runBenchmarks = false;
+    if (runBenchmarks) {
+      new BenchmarkModule() {}.runBenchmarks();
+    }
   }
 }
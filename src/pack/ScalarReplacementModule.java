@@ -0,0 +1,273 @@
+package pack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pack.IrModule.IrAssign;
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrDeclare;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLoadField;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrNew;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrShortCircuit;
+import pack.IrModule.IrStoreField;
+import pack.IrModule.IrTemp;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstStructField;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+// Replaces structs, which never leave the function that creates them, by one local per field:
+//   p: Point = new; p.x = 1; print("%d", p.x);   ->   int p$x = 0; int p$y = 0; p$x = 1; print("%d", p$x);
+// A struct escapes, if it is passed, stored, returned, compared or cast. The only other allowed use is declaring a local, which is never
+// assigned again, so the local always holds the struct. The jit only removes such allocations, if it inlines every use.
+public interface ScalarReplacementModule extends DeadStoreModule {
+
+  static public class ScalarReplacer {
+    public IrFunction function;
+    public Map<String, AstStruct> structs;  // without java library bindings, by name.
+    public Map<IrValue, List<IrInstruction>> uses;  // of temps and locals by instructions.
+    public Set<IrValue> regionUses;  // conditions and short circuit operands.
+    public Map<IrInstruction, IrBlock> instructionToBlock;
+    public Map<IrLocal, Integer> definitionCounts;
+    public Set<String> localNames;
+
+    public Map<IrInstruction, List<IrInstruction>> rewrites;  // an empty list removes the instruction.
+    public Map<IrValue, IrValue> replacements;  // of the results of removed loads.
+    public int replacedCount;
+  }
+
+  static public class ScalarObject {
+    public IrNew allocation;
+    public AstStruct struct;
+    public Set<IrValue> aliases;  // the result of the allocation and the locals, which only ever hold it.
+    public List<IrDeclare> aliasDeclares;
+    public List<IrLoadField> loads;
+    public List<IrStoreField> stores;
+    public Map<String, IrLocal> fieldLocals;
+  }
+
+  // returns the number of replaced allocations.
+  default int replaceNonEscapingStructs(IrProgram program) {
+    Map<String, AstStruct> structs = new HashMap<>();
+    for (AstStruct struct : program.structs) structs.put(struct.name, struct);
+
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      result += replaceNonEscapingStructs(function, structs);
+    }
+    return result;
+  }
+
+  private int replaceNonEscapingStructs(IrFunction function, Map<String, AstStruct> structs) {
+    ScalarReplacer replacer = new ScalarReplacer();
+    replacer.function = function;
+    replacer.structs = structs;
+    replacer.uses = new HashMap<>();
+    replacer.regionUses = new HashSet<>();
+    replacer.instructionToBlock = new HashMap<>();
+    replacer.definitionCounts = new HashMap<>();
+    replacer.localNames = new HashSet<>();
+    replacer.rewrites = new HashMap<>();
+    replacer.replacements = new HashMap<>();
+
+    for (IrLocal parameter : function.parameters) replacer.localNames.add(parameter.name);
+    collectScalarUses(replacer, function.body);
+
+    for (IrBlock block : getIrBlocks(function.body)) {
+      for (IrInstruction instruction : block.instructions) {
+        if (!(instruction instanceof IrNew)) continue;
+
+        ScalarObject object = findNonEscapingStruct(replacer, (IrNew) instruction);
+        if (object == null) continue;
+
+        replaceScalarObject(replacer, object);
+        replacer.replacedCount += 1;
+      }
+    }
+
+    if (replacer.replacedCount == 0) return 0;
+
+    for (IrBlock block : getIrBlocks(function.body)) {
+      List<IrInstruction> instructions = new ArrayList<>();
+      for (IrInstruction instruction : block.instructions) {
+        instructions.addAll(replacer.rewrites.getOrDefault(instruction, List.of(instruction)));
+      }
+      block.instructions = instructions;
+    }
+
+    mapIrValues(function.body, value -> replacer.replacements.getOrDefault(value, value));
+    removeEmptyIrBlocks(function.body);
+
+    return replacer.replacedCount;
+  }
+
+  private void collectScalarUses(ScalarReplacer replacer, IrSequence sequence) {
+    for (IrRegion region : sequence.regions) {
+      if (region instanceof IrBlock) {
+        IrBlock block = (IrBlock) region;
+        for (IrInstruction instruction : block.instructions) {
+          replacer.instructionToBlock.put(instruction, block);
+          for (IrValue operand : getIrOperands(instruction)) {
+            replacer.uses.computeIfAbsent(operand, key -> new ArrayList<>()).add(instruction);
+          }
+
+          IrLocal local = getDefinedIrLocal(instruction);
+          if (local != null) replacer.definitionCounts.merge(local, 1, Integer::sum);
+          if (instruction instanceof IrDeclare) replacer.localNames.add(local.name);
+        }
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        replacer.regionUses.add(_if.condition);
+        collectScalarUses(replacer, _if.thenBody);
+        collectScalarUses(replacer, _if.elseBody);
+
+      } else if (region instanceof IrLoop) {
+        IrLoop loop = (IrLoop) region;
+        collectScalarUses(replacer, loop.header);
+        replacer.regionUses.add(loop.condition);
+        collectScalarUses(replacer, loop.body);
+
+      } else if (region instanceof IrShortCircuit) {
+        IrShortCircuit shortCircuit = (IrShortCircuit) region;
+        replacer.regionUses.add(shortCircuit.lhs);
+        collectScalarUses(replacer, shortCircuit.rhsBody);
+        replacer.regionUses.add(shortCircuit.rhs);
+
+      } else if (region instanceof IrSequence) {
+        collectScalarUses(replacer, (IrSequence) region);
+      }
+    }
+  }
+
+  // returns null if the struct escapes.
+  private ScalarObject findNonEscapingStruct(ScalarReplacer replacer, IrNew allocation) {
+    AstType type = allocation.result.type;
+    if (type.category != AstTypeCategory.Struct || isArrayType(type)) return null;
+
+    AstStruct struct = replacer.structs.get(type.structName);
+    if (struct == null) return null;
+
+    ScalarObject result = new ScalarObject();
+    result.allocation = allocation;
+    result.struct = struct;
+    result.aliases = new HashSet<>();
+    result.aliasDeclares = new ArrayList<>();
+    result.loads = new ArrayList<>();
+    result.stores = new ArrayList<>();
+
+    Deque<IrValue> worklist = new ArrayDeque<>();
+    worklist.add(allocation.result);
+    result.aliases.add(allocation.result);
+
+    while (!worklist.isEmpty()) {
+      IrValue alias = worklist.poll();
+      if (replacer.regionUses.contains(alias)) return null;
+
+      for (IrInstruction use : replacer.uses.getOrDefault(alias, List.of())) {
+        if (use instanceof IrLoadField && ((IrLoadField) use).object == alias) {
+          if (!result.loads.contains(use)) result.loads.add((IrLoadField) use);
+
+        } else if (use instanceof IrStoreField && ((IrStoreField) use).object == alias && ((IrStoreField) use).value != alias) {
+          if (!result.stores.contains(use)) result.stores.add((IrStoreField) use);
+
+        } else if (use instanceof IrDeclare && replacer.definitionCounts.get(((IrDeclare) use).local) == 1) {
+          IrDeclare declare = (IrDeclare) use;
+          if (result.aliases.add(declare.local)) {
+            result.aliasDeclares.add(declare);
+            worklist.add(declare.local);
+          }
+
+        } else {
+          return null;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private void replaceScalarObject(ScalarReplacer replacer, ScalarObject object) {
+    String baseName = object.aliasDeclares.isEmpty() ? "new" : object.aliasDeclares.get(0).local.name;
+
+    object.fieldLocals = new LinkedHashMap<>();
+    List<IrInstruction> fieldDeclares = new ArrayList<>();
+    for (int i = 0; i < object.struct.fields.size(); i++) {
+      AstStructField field = object.struct.fields.get(i);
+      IrLocal local = irLocal(getScalarLocalName(replacer, String.format("%s$%s", baseName, field.name)), field.type, false);
+      object.fieldLocals.put(field.name, local);
+
+      // a struct created by its constructor starts with the passed values.
+      IrValue value = object.allocation.fieldValues.isEmpty() ? getIrDefaultValue(field.type) : object.allocation.fieldValues.get(i);
+      fieldDeclares.add(irDeclare(local, value));
+    }
+    replacer.rewrites.put(object.allocation, fieldDeclares);
+
+    for (IrDeclare declare : object.aliasDeclares) {
+      replacer.rewrites.put(declare, List.of());
+    }
+
+    for (IrStoreField store : object.stores) {
+      replacer.rewrites.put(store, List.of(irAssign(object.fieldLocals.get(store.field), store.value)));
+    }
+
+    for (IrLoadField load : object.loads) {
+      IrLocal fieldLocal = object.fieldLocals.get(load.field);
+      if (canForwardScalarLoad(replacer, object, load)) {
+        replacer.replacements.put(load.result, fieldLocal);
+        replacer.rewrites.put(load, List.of());
+        continue;
+      }
+
+      // the field changes before the loaded value is used, so the value is copied.
+      IrLocal copy = irLocal(getScalarLocalName(replacer, String.format("%s$%d", fieldLocal.name, load.result.id)), load.result.type, false);
+      replacer.replacements.put(load.result, copy);
+      replacer.rewrites.put(load, List.of(irDeclare(copy, fieldLocal)));
+    }
+  }
+
+  // the loaded value can be read from the field local directly, if it is only used later in the same block and the field isn't written in between.
+  private boolean canForwardScalarLoad(ScalarReplacer replacer, ScalarObject object, IrLoadField load) {
+    if (replacer.regionUses.contains(load.result)) return false;
+
+    IrBlock block = replacer.instructionToBlock.get(load);
+    int loadIndex = block.instructions.indexOf(load);
+    int lastUse = loadIndex;
+
+    for (IrInstruction use : replacer.uses.getOrDefault(load.result, List.of())) {
+      if (replacer.instructionToBlock.get(use) != block) return false;
+      lastUse = Math.max(lastUse, block.instructions.indexOf(use));
+    }
+
+    for (int i = loadIndex + 1; i < lastUse; i++) {
+      IrInstruction instruction = block.instructions.get(i);
+      if (object.stores.contains(instruction) && ((IrStoreField) instruction).field.equals(load.field)) return false;
+    }
+    return true;
+  }
+
+  private String getScalarLocalName(ScalarReplacer replacer, String name) {
+    String result = name;
+    for (int i = 2; replacer.localNames.contains(result); i++) {
+      result = String.format("%s%d", name, i);
+    }
+    replacer.localNames.add(result);
+    return result;
+  }
+}
@@ -0,0 +1,213 @@
+package pack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Maps the lines of the generated java code back to the lines of the abc source, so a stack trace or a profile, which names java lines,
+// can be read at the level of the abc program. The mapping of "X.java" is written to "X.smap" in the SMAP format of JSR-45, the format
+// of the SourceDebugExtension attribute of a class file:
+//   SMAP                  the header, the generated file and the default stratum.
+//   ABCProgramRunMe.java
+//   ABC
+//   *S ABC                the stratum, its source files and its lines, "abc line:first java line,java line count". The first line
+//   *F                    names the file, "#1", the following ones are of the same file.
+//   + 1 fib.abc
+//   ./res/fib.abc
+//   *L
+//   3#1:12,2
+//   4:14
+//   *E
+public interface SourceMapModule extends JavaConverterModule {
+
+  static public class SourceMap {
+    public String javaFile;  // e.g. "ABCProgramRunMe.java".
+    public String sourceFile;  // e.g. "fib.abc".
+    public int[] sourceLines;  // by java line, 0 if the java line has no abc line.
+  }
+
+  static public final int SOURCE_FILE_ID = 1;
+
+  default String getSourceMapCode(String javaFile, String sourceFilepath, List<JavaSourceLine> lines) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("SMAP\n");
+    builder.append(javaFile).append("\n");
+    builder.append("ABC\n");
+    builder.append("*S ABC\n");
+    builder.append("*F\n");
+    builder.append("+ ").append(SOURCE_FILE_ID).append(" ").append(Paths.get(sourceFilepath).getFileName()).append("\n");
+    builder.append(sourceFilepath).append("\n");
+    builder.append("*L\n");
+
+    // the consecutive java lines of the same abc line are a single entry.
+    for (int i = 0; i < lines.size(); ) {
+      JavaSourceLine first = lines.get(i);
+      int count = 1;
+      while (i + count < lines.size() && lines.get(i + count).sourceLine == first.sourceLine && lines.get(i + count).javaLine == first.javaLine + count) {
+        count += 1;
+      }
+
+      // without a file id, a line is of the file of the line before, the first line of file 0.
+      builder.append(first.sourceLine);
+      if (i == 0) builder.append("#").append(SOURCE_FILE_ID);
+      builder.append(":").append(first.javaLine);
+      if (count > 1) builder.append(",").append(count);
+      builder.append("\n");
+      i += count;
+    }
+
+    builder.append("*E\n");
+    return builder.toString();
+  }
+
+  // "X.smap" next to "X.java".
+  default String getSourceMapPath(String javaPath) {
+    return javaPath.replaceFirst("\\.java$", ".smap");
+  }
+
+  // reads the line section of the abc stratum in its general form, "abc line#file id,repeat count:java line,java line increment". A line
+  // of a file, which the file section doesn't declare, can't be resolved by any tool, so the map is rejected.
+  default SourceMap parseSourceMap(String code) {
+    String[] lines = code.split("\n");
+    if (lines.length < 3 || !lines[0].equals("SMAP")) throw new CompilerException("not a source map: \"%s\".", lines[0]);
+
+    SourceMap result = new SourceMap();
+    result.javaFile = lines[1].trim();
+
+    List<int[]> entries = new ArrayList<>();
+    int maxJavaLine = 0;
+    String section = "";
+
+    Set<Integer> fileIds = new HashSet<>();
+    int fileId = 0;
+    boolean filePath = false;
+
+    for (int i = 3; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.startsWith("*")) {
+        section = line;
+        continue;
+      }
+
+      if (section.equals("*F")) {
+        // "+ id name" is followed by the path of the file.
+        if (filePath) {
+          filePath = false;
+          continue;
+        }
+
+        filePath = line.startsWith("+");
+        String[] parts = line.replaceFirst("^\\+\\s*", "").split("\\s+", 2);
+        fileIds.add(Integer.parseInt(parts[0]));
+        if (result.sourceFile == null) result.sourceFile = parts[1];
+
+      } else if (section.equals("*L") && !line.isEmpty()) {
+        String[] sides = line.split(":");
+        String[] input = sides[0].split(",");
+        String[] output = sides[1].split(",");
+
+        String[] sourceLineAndFile = input[0].split("#");
+        if (sourceLineAndFile.length > 1) fileId = Integer.parseInt(sourceLineAndFile[1]);
+        if (!fileIds.contains(fileId)) throw new CompilerException("line \"%s\" of the source map of \"%s\" is of the undeclared file %d.", line, result.javaFile, fileId);
+
+        int sourceLine = Integer.parseInt(sourceLineAndFile[0]);
+        int repeatCount = (input.length > 1) ? Integer.parseInt(input[1]) : 1;
+        int javaLine = Integer.parseInt(output[0]);
+        int increment = (output.length > 1) ? Integer.parseInt(output[1]) : 1;
+
+        entries.add(new int[] { sourceLine, repeatCount, javaLine, increment });
+        maxJavaLine = Math.max(maxJavaLine, javaLine + repeatCount * increment);
+      }
+    }
+
+    result.sourceLines = new int[maxJavaLine + 1];
+    for (int[] entry : entries) {
+      for (int repeat = 0; repeat < entry[1]; repeat++) {
+        for (int j = 0; j < entry[3]; j++) {
+          result.sourceLines[entry[2] + repeat * entry[3] + j] = entry[0] + repeat;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  // the maps of the java files, which have one.
+  default List<SourceMap> readSourceMaps(List<String> javaPaths) {
+    List<SourceMap> result = new ArrayList<>();
+    for (String javaPath : javaPaths) {
+      Path path = Paths.get(getSourceMapPath(javaPath));
+      if (!Files.exists(path)) continue;
+
+      try {
+        result.add(parseSourceMap(Files.readString(path, StandardCharsets.UTF_8)));
+      } catch (IOException e) {
+        throw new CompilerException("failed to read the source map \"%s\": %s", path, e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  // rewrites the frames of java stack traces, "at output.X.f(X.java:12)", and of "jfr print", "output.X.f(int) line: 12", to the abc
+  // lines, e.g. "at output.X.f(fib.abc:3)" and "output.X.f(int) fib.abc:3". Frames without an abc line stay as they are.
+  default String rewriteStackTrace(String trace, List<SourceMap> sourceMaps) {
+    Matcher stackFrame = Pattern.compile("\\(([\\w$]+\\.java):(\\d+)\\)").matcher(trace);
+    StringBuilder rewritten = new StringBuilder();
+    while (stackFrame.find()) {
+      SourceMap sourceMap = findSourceMap(sourceMaps, stackFrame.group(1));
+      int sourceLine = getSourceLine(sourceMap, Integer.parseInt(stackFrame.group(2)));
+
+      String replacement = (sourceLine != 0) ? String.format("(%s:%d)", sourceMap.sourceFile, sourceLine) : stackFrame.group();
+      stackFrame.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+    }
+    stackFrame.appendTail(rewritten);
+
+    // a jfr frame names the class, the file is the one of its top-level class.
+    Matcher jfrFrame = Pattern.compile("(([\\w$.]+)\\.[\\w$<>]+\\([^()]*\\)) line: (\\d+)").matcher(rewritten.toString());
+    StringBuilder result = new StringBuilder();
+    while (jfrFrame.find()) {
+      SourceMap sourceMap = findSourceMapOfClass(sourceMaps, jfrFrame.group(2));
+      int sourceLine = getSourceLine(sourceMap, Integer.parseInt(jfrFrame.group(3)));
+
+      String replacement = (sourceLine != 0) ? String.format("%s %s:%d", jfrFrame.group(1), sourceMap.sourceFile, sourceLine) : jfrFrame.group();
+      jfrFrame.appendReplacement(result, Matcher.quoteReplacement(replacement));
+    }
+    jfrFrame.appendTail(result);
+
+    return result.toString();
+  }
+
+  private SourceMap findSourceMap(List<SourceMap> sourceMaps, String javaFile) {
+    for (SourceMap sourceMap : sourceMaps) {
+      if (sourceMap.javaFile.equals(javaFile)) return sourceMap;
+    }
+    return null;
+  }
+
+  // "output.ABCProgramRunMe$MainModule" is in "ABCProgramRunMe.java". A generated class may have a "$" in its name, e.g. "Functions$0",
+  // so the longest file name wins.
+  private SourceMap findSourceMapOfClass(List<SourceMap> sourceMaps, String javaClass) {
+    String simpleName = javaClass.substring(javaClass.lastIndexOf('.') + 1);
+
+    SourceMap result = null;
+    for (SourceMap sourceMap : sourceMaps) {
+      String fileClass = sourceMap.javaFile.replaceFirst("\\.java$", "");
+      if (!simpleName.equals(fileClass) && !simpleName.startsWith(fileClass + "$")) continue;
+      if (result == null || result.javaFile.length() < sourceMap.javaFile.length()) result = sourceMap;
+    }
+    return result;
+  }
+
+  private int getSourceLine(SourceMap sourceMap, int javaLine) {
+    if (sourceMap == null || javaLine >= sourceMap.sourceLines.length) return 0;
+    return sourceMap.sourceLines[javaLine];
+  }
+}
@@ -0,0 +1,84 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The field stores right after the creation of a struct initialize it, so the struct is created by a single constructor call:
+//   p: Planet = new; p.name = "Kepler"; p.mass = 2.5;   ->   Planet p = new Planet("Kepler", 2.5, 0);
+// The values are computed before the struct is created, so a store, whose value reads the struct, ends the initialization. So does any
+// other statement, and a store to a field, which is already initialized. The fields of an immutable struct are only assigned by these stores.
+public interface StructInitializerModule extends ParserModule {
+
+  // the stores, which initialize the struct created by the statement. Empty if the statement doesn't create a struct.
+  default List<AstDefinition> getStructInitializers(List<AstStatement> statements, int index) {
+    List<AstDefinition> result = new ArrayList<>();
+
+    if (!(statements.get(index) instanceof AstDeclaration)) return result;
+    AstDeclaration declaration = (AstDeclaration) statements.get(index);
+
+    if (!(declaration.optionalInit instanceof AstNew) || !((AstNew) declaration.optionalInit).arraySizes.isEmpty()) return result;
+    if (declaration.type.category != AstTypeCategory.Struct || declaration.type.arrayDimension > 0 || declaration.type.isVarargs) return result;
+
+    Set<String> fields = new HashSet<>();
+    for (int i = index + 1; i < statements.size(); i++) {
+      if (!(statements.get(i) instanceof AstDefinition)) break;
+      AstDefinition definition = (AstDefinition) statements.get(i);
+
+      AstVariable lhs = definition.lhs;
+      if (!lhs.name.equals(declaration.identifier) || !lhs.arrayExpressions.isEmpty()) break;
+
+      AstVariable field = lhs.child;
+      if (field == null || field.child != null || !field.arrayExpressions.isEmpty()) break;
+      if (fields.contains(field.name) || readsVariable(definition.rhs, declaration.identifier)) break;
+
+      fields.add(field.name);
+      result.add(definition);
+    }
+
+    return result;
+  }
+
+  // an unknown kind of expression reads every variable.
+  private boolean readsVariable(AstAssignment assignment, String name) {
+    if (assignment instanceof AstNew) {
+      for (AstExpression arraySize : ((AstNew) assignment).arraySizes) {
+        if (readsVariable(arraySize, name)) return true;
+      }
+      return false;
+    }
+
+    if (assignment instanceof AstLiteral || assignment instanceof AstArrayLiteral) return false;
+
+    if (assignment instanceof AstVariable) {
+      AstVariable variable = (AstVariable) assignment;
+      if (variable.name.equals(name)) return true;
+
+      for (AstVariable at = variable; at != null; at = at.child) {
+        for (AstExpression arrayExpression : at.arrayExpressions) {
+          if (readsVariable(arrayExpression, name)) return true;
+        }
+      }
+      return false;
+    }
+
+    if (assignment instanceof AstFunctionCall) {
+      for (AstExpression argument : ((AstFunctionCall) assignment).arguments) {
+        if (readsVariable(argument, name)) return true;
+      }
+      return false;
+    }
+
+    if (assignment instanceof AstTypeCast) return readsVariable(((AstTypeCast) assignment).expression, name);
+    if (assignment instanceof AstParenthesis) return readsVariable(((AstParenthesis) assignment).body, name);
+    if (assignment instanceof AstUnaryOperator) return readsVariable(((AstUnaryOperator) assignment).body, name);
+
+    if (assignment instanceof AstBinaryOperator) {
+      AstBinaryOperator binaryOperator = (AstBinaryOperator) assignment;
+      return readsVariable(binaryOperator.lhs, name) || readsVariable(binaryOperator.rhs, name);
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,178 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pack.ParserModule.AstCompilationUnit;
+import pack.ParserModule.AstStruct;
+import pack.ParserModule.AstStructField;
+import pack.ParserModule.AstType;
+import pack.ParserModule.AstTypeCategory;
+
+public interface StructLayoutModule {
+
+  // HotSpot, 64-bit with compressed class pointers and compressed oops (the default for heaps < 32 GB).
+  static public final int OBJECT_HEADER_SIZE = 12;
+  static public final int REFERENCE_SIZE = 4;
+  static public final int OBJECT_ALIGNMENT = 8;
+
+  // a method has at most 255 parameter slots, "this" takes one, a long or a double two.
+  static public final int MAX_CONSTRUCTOR_PARAMETER_SLOTS = 254;
+
+  static public class StructLayout {
+    public AstStruct struct;
+    public Map<String, Integer> fieldNameToOrdinal;
+    public List<FieldLayout> fields;  // in ordinal order, i.e. declaration order.
+
+    public int primitiveFieldCount;
+    public int referenceFieldCount;
+    public int estimatedInstanceSize;  // in bytes, including the object header and padding.
+    public int constructorParameterSlots;  // of a constructor, which takes every field.
+  }
+
+  static public class FieldLayout {
+    public AstStructField field;
+    public int ordinal;
+    public boolean isReference;
+    public int size;
+    public int estimatedOffset;
+  }
+
+  static public class FieldGap {
+    public int offset;
+    public int size;
+  }
+
+  default StructLayout buildStructLayout(AstStruct struct) {
+    StructLayout result = new StructLayout();
+    result.struct = struct;
+    result.fieldNameToOrdinal = new HashMap<>();
+    result.fields = new ArrayList<>();
+
+    for (int ordinal = 0; ordinal < struct.fields.size(); ordinal++) {
+      AstStructField field = struct.fields.get(ordinal);
+
+      FieldLayout fieldLayout = new FieldLayout();
+      fieldLayout.field = field;
+      fieldLayout.ordinal = ordinal;
+      fieldLayout.isReference = isReferenceType(field.type);
+      fieldLayout.size = getFieldSize(field.type);
+
+      if (fieldLayout.isReference) result.referenceFieldCount += 1;
+      else result.primitiveFieldCount += 1;
+
+      result.constructorParameterSlots += (!fieldLayout.isReference && fieldLayout.size == 8) ? 2 : 1;
+
+      // on a duplicate name the first declaration wins, the typechecker reports the redeclaration.
+      result.fieldNameToOrdinal.putIfAbsent(field.name, ordinal);
+      result.fields.add(fieldLayout);
+    }
+
+    result.estimatedInstanceSize = estimateFieldOffsets(result.fields);
+
+    return result;
+  }
+
+  // a struct with too many fields is created with its default values, and its fields are stored one by one.
+  default boolean hasFieldsConstructor(StructLayout layout) {
+    return !layout.fields.isEmpty() && layout.constructorParameterSlots <= MAX_CONSTRUCTOR_PARAMETER_SLOTS;
+  }
+
+  default boolean isReferenceType(AstType type) {
+    if (type.arrayDimension > 0 || type.isVarargs) return true;
+    if (type.category == AstTypeCategory.Struct) return true;
+    if (type.category == AstTypeCategory.String) return true;
+    if (type.category == AstTypeCategory.Any) return true;
+    if (type.category == AstTypeCategory.Object) return true;
+    return false;
+  }
+
+  default int getFieldSize(AstType type) {
+    if (isReferenceType(type)) return REFERENCE_SIZE;
+    if (type.category == AstTypeCategory.Bool) return 1;
+    if (type.category == AstTypeCategory.I8) return 1;
+    if (type.category == AstTypeCategory.I16) return 2;
+    if (type.category == AstTypeCategory.Char) return 2;
+    if (type.category == AstTypeCategory.I32) return 4;
+    if (type.category == AstTypeCategory.F32) return 4;
+    if (type.category == AstTypeCategory.I64) return 8;
+    if (type.category == AstTypeCategory.F64) return 8;
+    throw new CompilerException("type %s does not have a field size.", type.category);
+  }
+
+  // Mimics the HotSpot field layout (JDK 15+): primitives largest first, then references, where smaller fields fill the alignment gaps left behind.
+  private int estimateFieldOffsets(List<FieldLayout> fields) {
+    List<FieldLayout> ordered = new ArrayList<>(fields);
+    ordered.sort((a, b) -> {  // stable, so equally sized fields keep declaration order.
+      if (a.isReference != b.isReference) return a.isReference ? 1 : -1;
+      return b.size - a.size;
+    });
+
+    List<FieldGap> gaps = new ArrayList<>();
+    int end = OBJECT_HEADER_SIZE;
+
+    for (FieldLayout field : ordered) {
+      FieldGap gap = findFittingGap(gaps, field.size);
+      if (gap != null) {
+        field.estimatedOffset = gap.offset;
+        gap.offset += field.size;
+        gap.size -= field.size;
+        if (gap.size == 0) gaps.remove(gap);
+        continue;
+      }
+
+      int aligned = alignUp(end, field.size);
+      if (aligned > end) gaps.add(fieldGap(end, aligned - end));
+
+      field.estimatedOffset = aligned;
+      end = aligned + field.size;
+    }
+
+    return alignUp(end, OBJECT_ALIGNMENT);
+  }
+
+  private FieldGap findFittingGap(List<FieldGap> gaps, int size) {
+    for (FieldGap gap : gaps) {
+      if (gap.offset % size != 0) continue;
+      if (gap.size >= size) return gap;
+    }
+    return null;
+  }
+
+  private FieldGap fieldGap(int offset, int size) {
+    FieldGap result = new FieldGap();
+    result.offset = offset;
+    result.size = size;
+    return result;
+  }
+
+  private int alignUp(int value, int alignment) {
+    int remainder = value % alignment;
+    if (remainder == 0) return value;
+    return value + alignment - remainder;
+  }
+
+  default String getStructLayoutReport(AstCompilationUnit unit) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Struct memory footprint (estimated, 64-bit JVM with compressed oops)\n");
+
+    for (AstStruct struct : unit.structs) {
+      if (struct.hasJavaLibraryBinding) continue;
+
+      StructLayout layout = struct.layout;
+
+      builder.append("\n");
+      builder.append(String.format("%s: %d bytes (%d primitive, %d reference fields)\n", struct.name, layout.estimatedInstanceSize, layout.primitiveFieldCount, layout.referenceFieldCount));
+
+      for (FieldLayout field : layout.fields) {
+        String kind = field.isReference ? "reference" : "primitive";
+        builder.append(String.format("  #%d %-20s %-9s size=%d offset=%d\n", field.ordinal, field.field.name, kind, field.size, field.estimatedOffset));
+      }
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,210 @@
+package pack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pack.IrModule.IrBlock;
+import pack.IrModule.IrCall;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrIf;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrLocal;
+import pack.IrModule.IrLoop;
+import pack.IrModule.IrProgram;
+import pack.IrModule.IrRegion;
+import pack.IrModule.IrReturn;
+import pack.IrModule.IrSequence;
+import pack.IrModule.IrValue;
+import pack.ParserModule.AstTypeCategory;
+
+// Turns calls of a function to itself, whose result is returned right away, into a jump back to the start of the function:
+// the body is wrapped into "while (true) { ... }" and a tail call assigns the arguments to the parameters instead.
+// Tail calls inside of loops stay calls, since the ir can't jump out of a loop.
+public interface TailCallModule extends DataflowModule {
+
+  static public class TailCallEliminator {
+    public IrFunction function;
+    public int eliminatedCount;
+  }
+
+  // returns the number of eliminated tail calls.
+  default int eliminateTailCalls(IrProgram program) {
+    int result = 0;
+    for (IrFunction function : program.functions) {
+      result += eliminateTailCalls(function);
+    }
+    return result;
+  }
+
+  default int eliminateTailCalls(IrFunction function) {
+    if (!hasSelfTailCall(function, function.body, true)) return 0;
+
+    TailCallEliminator eliminator = new TailCallEliminator();
+    eliminator.function = function;
+
+    moveCodeAfterReturnsIntoElse(function.body);
+    rewriteTailCalls(eliminator, function.body);
+
+    IrLoop loop = new IrLoop();
+    loop.header = irSequence();
+    loop.condition = irConstant(astLiteral_bool(true));
+    loop.body = function.body;
+
+    function.body = irSequence();
+    function.body.regions.add(loop);
+
+    return eliminator.eliminatedCount;
+  }
+
+  private boolean hasSelfTailCall(IrFunction function, IrSequence sequence, boolean isTail) {
+    for (int i = 0; i < sequence.regions.size(); i++) {
+      IrRegion region = sequence.regions.get(i);
+      boolean isLast = isTail && i == sequence.regions.size() - 1;
+
+      if (region instanceof IrBlock) {
+        if (isSelfTailCall(function, (IrBlock) region, isLast)) return true;
+
+      } else if (region instanceof IrIf) {
+        IrIf _if = (IrIf) region;
+        if (hasSelfTailCall(function, _if.thenBody, isLast)) return true;
+        if (hasSelfTailCall(function, _if.elseBody, isLast)) return true;
+
+      } else if (region instanceof IrSequence) {
+        if (hasSelfTailCall(function, (IrSequence) region, isLast)) return true;
+      }
+    }
+    return false;
+  }
+
+  // "%t = call f(...); return %t" at the end of the block, or "call f(...); return" in void functions.
+  // A void function can also end with the call itself, if the block is the last thing the function does.
+  private boolean isSelfTailCall(IrFunction function, IrBlock block, boolean isTail) {
+    List<IrInstruction> instructions = block.instructions;
+    if (instructions.isEmpty()) return false;
+
+    IrInstruction last = instructions.get(instructions.size() - 1);
+    if (isTail && last instanceof IrCall) return ((IrCall) last).function == function.source;
+
+    if (instructions.size() < 2) return false;
+
+    IrInstruction previous = instructions.get(instructions.size() - 2);
+    if (!(last instanceof IrReturn) || !(previous instanceof IrCall)) return false;
+
+    IrCall call = (IrCall) previous;
+    if (call.function != function.source) return false;
+
+    return ((IrReturn) last).value == call.result;
+  }
+
+  // "if (c) { return a; } rest" becomes "if (c) { return a; } else { rest }", so every return ends the function.
+  private void moveCodeAfterReturnsIntoElse(IrSequence sequence) {
+    List<IrRegion> regions = sequence.regions;
+
+    for (int i = 0; i < regions.size(); i++) {
+      if (!(regions.get(i) instanceof IrIf)) continue;
+
+      IrIf _if = (IrIf) regions.get(i);
+      List<IrRegion> rest = new ArrayList<>(regions.subList(i + 1, regions.size()));
+
+      boolean thenReturns = alwaysReturns(_if.thenBody);
+      boolean elseReturns = alwaysReturns(_if.elseBody);
+
+      if (!rest.isEmpty() && (thenReturns || elseReturns)) {
+        regions.subList(i + 1, regions.size()).clear();
+
+        if (!thenReturns) _if.thenBody.regions.addAll(rest);
+        if (!elseReturns) _if.elseBody.regions.addAll(rest);
+      }
+
+      moveCodeAfterReturnsIntoElse(_if.thenBody);
+      moveCodeAfterReturnsIntoElse(_if.elseBody);
+    }
+  }
+
+  private boolean alwaysReturns(IrSequence sequence) {
+    if (sequence.regions.isEmpty()) return false;
+
+    IrRegion last = sequence.regions.get(sequence.regions.size() - 1);
+
+    if (last instanceof IrBlock) {
+      List<IrInstruction> instructions = ((IrBlock) last).instructions;
+      return !instructions.isEmpty() && instructions.get(instructions.size() - 1) instanceof IrReturn;
+    }
+
+    if (last instanceof IrIf) {
+      IrIf _if = (IrIf) last;
+      return alwaysReturns(_if.thenBody) && alwaysReturns(_if.elseBody);
+    }
+
+    if (last instanceof IrSequence) return alwaysReturns((IrSequence) last);
+
+    return false;
+  }
+
+  // every path through the tail of the function ends with a return or with a tail call, which continues with the next iteration.
+  private void rewriteTailCalls(TailCallEliminator eliminator, IrSequence sequence) {
+    IrFunction function = eliminator.function;
+    IrRegion last = sequence.regions.isEmpty() ? null : sequence.regions.get(sequence.regions.size() - 1);
+
+    if (last instanceof IrIf) {
+      IrIf _if = (IrIf) last;
+      rewriteTailCalls(eliminator, _if.thenBody);
+      rewriteTailCalls(eliminator, _if.elseBody);
+      return;
+    }
+
+    if (last instanceof IrSequence) {
+      rewriteTailCalls(eliminator, (IrSequence) last);
+      return;
+    }
+
+    if (last instanceof IrBlock && isSelfTailCall(function, (IrBlock) last, true)) {
+      List<IrInstruction> instructions = ((IrBlock) last).instructions;
+      int callIndex = (instructions.get(instructions.size() - 1) instanceof IrCall) ? instructions.size() - 1 : instructions.size() - 2;
+      IrCall call = (IrCall) instructions.get(callIndex);
+      instructions.subList(callIndex, instructions.size()).clear();
+      instructions.addAll(getParameterAssignments(eliminator, call.arguments));
+      eliminator.eliminatedCount += 1;
+      return;
+    }
+
+    if (last instanceof IrBlock && alwaysReturns(sequence)) return;
+
+    // the end of a void function, which would otherwise run into the next iteration.
+    if (function.returnType.category != AstTypeCategory.Void) {
+      throw new CompilerException("function \"%s\" can reach its end without a return.", function.name);
+    }
+
+    IrBlock block = irBlock(function);
+    block.instructions.add(irReturn(null));
+    sequence.regions.add(block);
+  }
+
+  // the arguments are assigned one after another, so a parameter, which is read after it is assigned, is saved first.
+  private List<IrInstruction> getParameterAssignments(TailCallEliminator eliminator, List<IrValue> arguments) {
+    List<IrLocal> parameters = eliminator.function.parameters;
+    List<IrInstruction> saves = new ArrayList<>();
+    List<IrInstruction> assignments = new ArrayList<>();
+
+    for (int i = 0; i < parameters.size(); i++) {
+      IrLocal parameter = parameters.get(i);
+      IrValue argument = arguments.get(i);
+      if (argument == parameter) continue;
+
+      int assignedBefore = parameters.indexOf(argument);
+      boolean isOverwritten = assignedBefore != -1 && assignedBefore < i && arguments.get(assignedBefore) != argument;
+      if (isOverwritten) {
+        IrLocal overwritten = (IrLocal) argument;
+        IrLocal saved = irLocal(String.format("$%s%d", overwritten.name, eliminator.eliminatedCount), overwritten.type, false);
+        saves.add(irDeclare(saved, argument));
+        argument = saved;
+      }
+
+      assignments.add(irAssign(parameter, argument));
+    }
+
+    List<IrInstruction> result = new ArrayList<>(saves);
+    result.addAll(assignments);
+    return result;
+  }
+}
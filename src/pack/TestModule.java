@@ -1,5 +1,28 @@
 package pack;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import pack.DataflowModule.AvailableExpressions;
+import pack.DataflowModule.Cfg;
+import pack.DataflowModule.ReachingDefinitions;
+import pack.IrModule.IrFunction;
+import pack.IrModule.IrInstruction;
+import pack.IrModule.IrProgram;
+import pack.ParserModule.AstProgram;
+import pack.SourceMapModule.SourceMap;
+
 public interface TestModule extends CompilerModule {
 
   default void run() {
@@ -20,6 +43,12 @@ public interface TestModule extends CompilerModule {
   static public class TestCase {
     public String filepath;
     public String errorMessage;
+    public String expectedOutput;  // if set, the generated java program is compiled and run.
+    public boolean profiled;  // if set, the program runs instrumented first, and again compiled with the recorded profile.
+    public boolean splitMethods;  // if set, the program is compiled with a tiny method size limit, so its functions are split into parts.
+    public boolean outputFiles;  // if set, the program is written as a file per class, with a tiny class size limit, so there are several function classes.
+    public boolean sourceLines;  // if set, the program is written with source maps, and its output is the abc lines of the frames of its stack trace.
+    public String expectedDataflow;  // if set, the dataflow analyses of the lowered functions are compared with it, see getDataflowTestDump.
   }
 
   default TestCase ok(String filepath) {
@@ -29,6 +58,44 @@ public interface TestModule extends CompilerModule {
     return result;
   }
 
+  default TestCase run(String filepath, String expectedOutput) {
+    TestCase result = new TestCase();
+    result.filepath = filepath;
+    result.errorMessage = null;
+    result.expectedOutput = expectedOutput;
+    return result;
+  }
+
+  default TestCase profiled(String filepath, String expectedOutput) {
+    TestCase result = run(filepath, expectedOutput);
+    result.profiled = true;
+    return result;
+  }
+
+  default TestCase split(String filepath, String expectedOutput) {
+    TestCase result = run(filepath, expectedOutput);
+    result.splitMethods = true;
+    return result;
+  }
+
+  default TestCase files(String filepath, String expectedOutput) {
+    TestCase result = run(filepath, expectedOutput);
+    result.outputFiles = true;
+    return result;
+  }
+
+  default TestCase traced(String filepath, String expectedFrames) {
+    TestCase result = run(filepath, expectedFrames);
+    result.sourceLines = true;
+    return result;
+  }
+
+  default TestCase dataflow(String filepath, String expectedDataflow) {
+    TestCase result = ok(filepath);
+    result.expectedDataflow = expectedDataflow;
+    return result;
+  }
+
   default TestCase fail(String filepath, String errorMessage) {
     TestCase result = new TestCase();
     result.filepath = filepath;
@@ -54,10 +121,68 @@ public interface TestModule extends CompilerModule {
         ok("./res/tests/ok/013_varargs.abc"),
         ok("./res/tests/ok/014_preload.abc"),
         ok("./res/tests/ok/015_example_europe_graph.abc"),
+        run("./res/tests/ok/016_constant_folding.abc", "32 17 544 127 c 1.500000 15 2\n3 1099511627776 2 -2147483645\n"),
+        run("./res/tests/ok/017_ir_lowering.abc", "2 6 false\n"),
+        run("./res/tests/ok/018_dead_stores.abc", "negative positive 0 12 3 12 2\n"),
+        dataflow("./res/tests/ok/018_dataflow_analyses.abc",
+            "select\n" +
+            "reaching definitions\n" +
+            "n0 (-) in={} out={}\n" +
+            "n1 (-) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "n2 (b0) in={} out={declare x: I32 = %0, declare y: I32 = 0}\n" +
+            "n3 (-) in={declare x: I32 = %0, declare y: I32 = 0} out={declare x: I32 = %0, declare y: I32 = 0}\n" +
+            "n4 (b1) in={declare x: I32 = %0, declare y: I32 = 0} out={y = %2, x = 1}\n" +
+            "n5 (b2) in={declare x: I32 = %0, declare y: I32 = 0} out={declare x: I32 = %0, y = %4}\n" +
+            "n6 (-) in={declare x: I32 = %0, y = %2, x = 1, y = %4} out={declare x: I32 = %0, y = %2, x = 1, y = %4}\n" +
+            "n7 (-) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "n8 (b3) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "n9 (-) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "n10 (b4) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, x = 1, y = %6}\n" +
+            "n11 (-) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "n12 (b5) in={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6} out={declare x: I32 = %0, y = %2, x = 1, y = %4, y = %6}\n" +
+            "available expressions\n" +
+            "n0 (-) in={} out={}\n" +
+            "n1 (-) in={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32, %7 + L3} out={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32, %7 + L3}\n" +
+            "n2 (b0) in={} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n3 (-) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n4 (b1) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n5 (b2) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32, L1[0:I32], %3 + L2}\n" +
+            "n6 (-) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n7 (-) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n8 (b3) in={L0 * 2:I32, L0 > 3:I32} out={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32}\n" +
+            "n9 (-) in={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32} out={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32}\n" +
+            "n10 (b4) in={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32} out={L0 * 2:I32, L0 > 3:I32}\n" +
+            "n11 (-) in={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32} out={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32}\n" +
+            "n12 (b5) in={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32} out={L0 * 2:I32, L0 > 3:I32, L3 < 100:I32, %7 + L3}\n"),
+        run("./res/tests/ok/019_unreachable_code.abc", "100.000000 0\n"),
+        run("./res/tests/ok/020_inlining.abc", "2 1.500000 3.000000 5 7 10 0 -1 12\n10\n"),
+        run("./res/tests/ok/021_tail_calls.abc", "-1612145123 21 21 50000005000000\nliftoff\n"),
+        run("./res/tests/ok/022_loop_invariants.abc", "7 6 156 936 0 0 132\n"),
+        run("./res/tests/ok/023_array_idioms.abc", "12345600 5 134566 134456 111111 5 ** 4 7000 0\n"),
+        run("./res/tests/ok/024_counted_loops.abc", "7531 28 5 7 5 7\n"),
+        run("./res/tests/ok/025_range_analysis.abc", "140 220 12 40 1 50\n102\n"),
+        run("./res/tests/ok/026_common_subexpressions.abc", "304 106 23 22 49\n"),
+        run("./res/tests/ok/027_scalar_replacement.abc", "30 12 21 13 2 28\n"),
+        run("./res/tests/ok/028_compile_time_evaluation.abc", "610 2880067194370816120 [4] 125 7 8 Q 3.5 3 1000000\n"),
+        profiled("./res/tests/ok/029_profile.abc", "20062\n"),
+        split("./res/tests/ok/030_method_splitting.abc", "mix 556 3 7903 1277 1449\n"),
+        run("./res/tests/ok/030_large_main.abc", "350373 4760037\n"),
+        run("./res/tests/ok/031_formats.abc", "7 7 5000000000 b true pair%\n2.5 12 4     7|pair| ff 12\n"),
+        run("./res/tests/ok/032_generics.abc", "5 16 a b false\nseven 7 a\n2 y\nscores 4 1 seven 3\n"),
+        files("./res/tests/ok/033_output_files.abc", "6 8 13 55 hello 4 1\n"),
+        run("./res/tests/ok/034_struct_constructors.abc", "moons Kepler 4\ny x 2 4 p 0\n0 0 0\nanswer 36 4\n5 0 7\n"),
+        traced("./res/tests/ok/035_source_lines.abc", "035_source_lines.abc:3 035_source_lines.abc:9 035_source_lines.abc:12 035_source_lines.abc:12 035_source_lines.abc:18\n"),
 
         fail("./res/tests/bad/constant_definition_out_of_bounds.abc", "Expression 65536 is out of bounds, [-32768; 32767] for type I16."),
         fail("./res/tests/bad/undeclared_function_call.abc", "trying to call an undeclared function: \"nilo_the_magic_dragon\"."),
-        fail("./res/tests/bad/function_call_bad_arguments.abc", "function \"is_too_expensive_bad\" parameter types do not match argument types.") };
+        fail("./res/tests/bad/function_call_bad_arguments.abc", "function \"is_too_expensive_bad\" parameter types do not match argument types."),
+        fail("./res/tests/bad/struct_undeclared_field.abc", "struct Span doesn't contain field \"length\"."),
+        fail("./res/tests/bad/struct_field_redeclaration.abc", "redeclaration of field \"name\" in struct \"Dog\"."),
+        fail("./res/tests/bad/char_arithmetic_without_cast.abc", "type mismatch. expected type \"Char\", got type: \"I32\"."),
+        fail("./res/tests/bad/format_argument_mismatch.abc", "format specifier \"%d\" doesn't fit an argument of type F64."),
+        fail("./res/tests/bad/generic_type_argument_count.abc", "generic struct \"Box\" expects 1 type arguments, but got 2."),
+        fail("./res/tests/bad/immutable_field_assignment.abc", "field \"y\" of immutable struct \"Point\" can only be assigned right after the struct is created."),
+        fail("./res/tests/bad/immutable_struct_too_many_fields.abc", "immutable struct \"Huge\" has too many fields, they take 256 of at most 254 constructor parameter slots.") };
 
     CompilerModule.settings.writeCompilerModulesToFile = true;
     CompilerModule.settings.catchableErrors = true;
@@ -132,16 +257,255 @@ public interface TestModule extends CompilerModule {
   }
 
   default void runTest(TestCase test) {
+    if (test.expectedDataflow != null) {
+      runDataflowTest(test);
+      return;
+    }
+
+    if (test.splitMethods) {
+      runSplitTest(test);
+      return;
+    }
+
+    if (test.outputFiles) {
+      runOutputFilesTest(test);
+      return;
+    }
+
+    if (test.sourceLines) {
+      runSourceLinesTest(test);
+      return;
+    }
+
+    if (!test.profiled) {
+      runTestInEveryMode(test);
+      return;
+    }
+
+    boolean instrumentProfile = CompilerModule.settings.instrumentProfile;
+    boolean useProfile = CompilerModule.settings.useProfile;
+
+    try {
+      CompilerModule.settings.instrumentProfile = true;
+      CompilerModule.settings.useProfile = false;
+      runTestOnce(test);
+
+      CompilerModule.settings.instrumentProfile = false;
+      CompilerModule.settings.useProfile = true;
+      runTestOnce(test);
+    } finally {
+      CompilerModule.settings.instrumentProfile = instrumentProfile;
+      CompilerModule.settings.useProfile = useProfile;
+    }
+  }
+
+  // a program prints the same at every optimization level and as static functions, so a program, which is run, runs in all of these modes.
+  // The code is generated on several threads and on a single one, independent of the cores of the machine.
+  private void runTestInEveryMode(TestCase test) {
+    if (test.expectedOutput == null) {
+      runTestOnce(test);
+      return;
+    }
+
+    int optimizationLevel = CompilerModule.settings.optimizationLevel;
+    boolean generateStaticFunctions = CompilerModule.settings.generateStaticFunctions;
+    int codeGenerationThreads = CompilerModule.settings.codeGenerationThreads;
+
+    try {
+      CompilerModule.settings.codeGenerationThreads = 4;
+      for (int level = 0; level <= 2; level++) {
+        CompilerModule.settings.optimizationLevel = level;
+        runTestOnce(test);
+      }
+
+      CompilerModule.settings.codeGenerationThreads = 1;
+      CompilerModule.settings.optimizationLevel = optimizationLevel;
+      CompilerModule.settings.generateStaticFunctions = !generateStaticFunctions;
+      runTestOnce(test);
+    } finally {
+      CompilerModule.settings.optimizationLevel = optimizationLevel;
+      CompilerModule.settings.generateStaticFunctions = generateStaticFunctions;
+      CompilerModule.settings.codeGenerationThreads = codeGenerationThreads;
+    }
+  }
+
+  private void runSplitTest(TestCase test) {
+    int maxBytecodeSize = CompilerModule.settings.splitMethodMaxBytecodeSize;
+    int partBytecodeSize = CompilerModule.settings.splitMethodPartBytecodeSize;
+
+    try {
+      CompilerModule.settings.splitMethodMaxBytecodeSize = 60;
+      CompilerModule.settings.splitMethodPartBytecodeSize = 30;
+      runTestOnce(test);
+    } finally {
+      CompilerModule.settings.splitMethodMaxBytecodeSize = maxBytecodeSize;
+      CompilerModule.settings.splitMethodPartBytecodeSize = partBytecodeSize;
+    }
+  }
+
+  // unoptimized, the structs are used across the classes. The last compilation finds the files up to date and doesn't write them again.
+  private void runOutputFilesTest(TestCase test) {
+    boolean writeOutputClassesToFiles = CompilerModule.settings.writeOutputClassesToFiles;
+    int maxClassBytecodeSize = CompilerModule.settings.outputClassMaxBytecodeSize;
+    int optimizationLevel = CompilerModule.settings.optimizationLevel;
+
+    try {
+      CompilerModule.settings.writeOutputClassesToFiles = true;
+      CompilerModule.settings.outputClassMaxBytecodeSize = 40;
+      CompilerModule.settings.optimizationLevel = 0;
+      runTestOnce(test);
+
+      CompilerModule.settings.optimizationLevel = optimizationLevel;
+      runTestOnce(test);
+      runTestOnce(test);
+    } finally {
+      CompilerModule.settings.writeOutputClassesToFiles = writeOutputClassesToFiles;
+      CompilerModule.settings.outputClassMaxBytecodeSize = maxClassBytecodeSize;
+      CompilerModule.settings.optimizationLevel = optimizationLevel;
+    }
+  }
+
+  // unoptimized, so every call is still a frame of its own. The lines are mapped in a single file, as static functions and in files per class.
+  private void runSourceLinesTest(TestCase test) {
+    boolean writeSourceMapsToFile = CompilerModule.settings.writeSourceMapsToFile;
+    boolean writeOutputClassesToFiles = CompilerModule.settings.writeOutputClassesToFiles;
+    boolean generateStaticFunctions = CompilerModule.settings.generateStaticFunctions;
+    int optimizationLevel = CompilerModule.settings.optimizationLevel;
+
+    try {
+      CompilerModule.settings.writeSourceMapsToFile = true;
+      CompilerModule.settings.optimizationLevel = 0;
+      runTestOnce(test);
+
+      CompilerModule.settings.generateStaticFunctions = !generateStaticFunctions;
+      runTestOnce(test);
+
+      CompilerModule.settings.writeOutputClassesToFiles = true;
+      runTestOnce(test);
+    } finally {
+      CompilerModule.settings.writeSourceMapsToFile = writeSourceMapsToFile;
+      CompilerModule.settings.writeOutputClassesToFiles = writeOutputClassesToFiles;
+      CompilerModule.settings.generateStaticFunctions = generateStaticFunctions;
+      CompilerModule.settings.optimizationLevel = optimizationLevel;
+    }
+  }
+
+  private void runTestOnce(TestCase test) {
     Exception exception = null;
 
+    boolean writeOutputToFile = CompilerModule.settings.writeOutputToFile;
+    CompilerModule.settings.writeOutputToFile = test.expectedOutput != null;
+
     try {
       compile(test.filepath);
     } catch (UserException | CompilerException e) {
       exception = e;
+    } finally {
+      CompilerModule.settings.writeOutputToFile = writeOutputToFile;
     }
 
     reportTestResult(test, exception);
 
+    if (test.expectedOutput != null) {
+      String output = runJavaOutput(test);
+      if (test.sourceLines) output = getSourceLineFrames(output);
+
+      if (!output.equals(test.expectedOutput)) {
+        StringBuilder builder = new StringBuilder();
+        String mode = CompilerModule.settings.generateStaticFunctions ? ", static functions" : "";
+        builder.append(String.format("failed test - \"%s\" at -O%d%s\n", test.filepath, CompilerModule.settings.optimizationLevel, mode));
+        builder.append("expected output:\n");
+        builder.append(test.expectedOutput);
+        builder.append("\n");
+        builder.append("got output:\n");
+        builder.append(output);
+
+        System.out.printf("%s", builder);
+        System.exit(0);
+      }
+    }
+
+  }
+
+  // the frames of the stack trace, which have an abc line, e.g. "fib.abc:3 fib.abc:7\n".
+  private String getSourceLineFrames(String output) {
+    List<SourceMap> sourceMaps = readSourceMaps(readJavaSourceManifest("./res/output/sources.txt"));
+    Matcher frame = Pattern.compile("\\(([\\w.]+\\.abc:\\d+)\\)").matcher(rewriteStackTrace(output, sourceMaps));
+
+    List<String> frames = new ArrayList<>();
+    while (frame.find()) {
+      frames.add(frame.group(1));
+    }
+    return String.join(" ", frames) + "\n";
+  }
+
+  // compiles the java files of the manifest into classes, returns the errors of javac or null.
+  default String compileJavaOutput(String filepath, Path classes) {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) throw new CompilerException("running \"%s\" requires a jdk.", filepath);
+
+    List<String> arguments = new ArrayList<>(List.of("-nowarn", "-d", classes.toString()));
+    arguments.addAll(readJavaSourceManifest("./res/output/sources.txt"));
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    int exitCode = compiler.run(null, null, errors, arguments.toArray(new String[0]));
+    if (exitCode != 0) return errors.toString();
+
+    return null;
+  }
+
+  // compiles the generated java program and runs it in a new jvm with the default stack size, returns what it printed.
+  default String runJavaOutput(TestCase test) {
+    try {
+      Path classes = Files.createTempDirectory("abc_test");
+
+      String errors = compileJavaOutput(test.filepath, classes);
+      if (errors != null) return String.format("javac failed:\n%s", errors);
+
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      Process process = new ProcessBuilder(java, "-cp", classes.toString(), "output.ABCProgramRunMe").redirectErrorStream(true).start();
+      String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      process.waitFor();
+
+      return output;
+
+    } catch (IOException | InterruptedException e) {
+      throw new CompilerException("failed to run \"%s\": %s", test.filepath, e.getMessage());
+    }
+  }
+
+  // no pass uses the reaching definitions and the available expressions yet, so they are checked on the lowered functions directly.
+  private void runDataflowTest(TestCase test) {
+    AstProgram program = parseUnits(test.filepath);
+    typeCheck(program);
+    String dump = getDataflowTestDump(lowerToIr(program));
+    reportTestResult(test, null);
+
+    if (!dump.equals(test.expectedDataflow)) {
+      System.out.printf("failed test - \"%s\"\nexpected dataflow:\n%s\ngot dataflow:\n%s", test.filepath, test.expectedDataflow, dump);
+      System.exit(0);
+    }
+  }
+
+  // the in and out sets of every cfg node of the functions other than main.
+  private String getDataflowTestDump(IrProgram program) {
+    StringBuilder builder = new StringBuilder();
+    for (IrFunction function : program.functions) {
+      if (function.source.name.equals("main")) continue;
+
+      Cfg cfg = buildCfg(function);
+      builder.append(function.name).append("\n");
+
+      ReachingDefinitions reachingDefinitions = computeReachingDefinitions(cfg);
+      List<String> definitions = new ArrayList<>();
+      for (IrInstruction definition : reachingDefinitions.definitions) definitions.add(getIrInstructionString(definition));
+      builder.append("reaching definitions\n");
+      builder.append(getDataflowDump(cfg, reachingDefinitions.result, definitions));
+
+      AvailableExpressions availableExpressions = computeAvailableExpressions(cfg);
+      builder.append("available expressions\n");
+      builder.append(getDataflowDump(cfg, availableExpressions.result, availableExpressions.expressions));
+    }
+    return builder.toString();
   }
 
 }
@@ -2,11 +2,14 @@ package pack;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
-public interface TypeCheckerModule extends ParserModule {
+public interface TypeCheckerModule extends ParserModule, StructLayoutModule, FormatModule, GenericsModule, StructInitializerModule {
 
   static public class TypeChecker {
     public Map<String, AstStruct> nameToStruct;
@@ -14,6 +17,13 @@ public interface TypeCheckerModule extends ParserModule {
     public Stack<Scope> scopes;
     public AstProgram astProgram;
 
+    public Map<String, AstStruct> nameToGenericStruct;
+    public Map<String, GenericStructInstance> structInstances;  // by the name of the instance.
+    public Map<AstFunction, Map<String, AstFunction>> genericToFunctionInstances;  // by the instance name of the type arguments.
+    public List<GenericFunctionInstance> functionInstances;
+    public Map<String, AstType> typeBindings;  // of the function instance, which is being typechecked. null in other functions.
+    public Set<AstDefinition> structInitializers;  // the only stores, which may assign a field of an immutable struct.
+
     public SourceFile sourceCode;
   }
 
@@ -36,15 +46,47 @@ public interface TypeCheckerModule extends ParserModule {
     typeChecker.scopes = new Stack<>();
     typeChecker.nameToStruct = new HashMap<>();
     typeChecker.nameToFunctions = new HashMap<>();
+    typeChecker.nameToGenericStruct = new HashMap<>();
+    typeChecker.structInstances = new LinkedHashMap<>();
+    typeChecker.genericToFunctionInstances = new HashMap<>();
+    typeChecker.functionInstances = new ArrayList<>();
+    typeChecker.structInitializers = new HashSet<>();
     typeChecker.sourceCode = mainUnit.sourceFile;
 
     for (AstStruct struct : mainUnit.structs) {
       AstStruct collision = findStruct(typeChecker, struct.name);
+      if (collision == null) collision = typeChecker.nameToGenericStruct.get(struct.name);
       if (collision != null) reportError(typeChecker, struct, "redeclaration of struct \"%s\".", struct.name);
-      typeChecker.nameToStruct.put(struct.name, struct);
+
+      if (isGeneric(struct)) {
+        if (struct.hasJavaLibraryBinding) reportError(typeChecker, struct, "java library struct \"%s\" can't have type parameters.", struct.name);
+        typeChecker.nameToGenericStruct.put(struct.name, struct);
+      } else {
+        typeChecker.nameToStruct.put(struct.name, struct);
+      }
+    }
+
+    // the layout depends on the field types, which may be instances of generic structs.
+    for (AstStruct struct : mainUnit.structs) {
+      if (!isGeneric(struct)) {
+        for (AstStructField field : struct.fields) {
+          field.type = resolveType(typeChecker, field.type, null, field);
+        }
+      }
+
+      struct.layout = buildStructLayout(struct);
     }
 
     for (AstFunction function : mainUnit.functions) {
+      if (isGeneric(function)) {
+        if (function.hasJavaLibraryBinding) reportError(typeChecker, function, "java library function \"%s\" can't have type parameters.", function.name);
+      } else {
+        for (AstParameterDeclaration parameter : function.parameters) {
+          parameter.type = resolveType(typeChecker, parameter.type, null, parameter);
+        }
+        function.returnType = resolveType(typeChecker, function.returnType, null, function);
+      }
+
       declareFunction(typeChecker, function);
 
       if (function.name.equals("main") && function.parameters.size() == 0) {
@@ -62,46 +104,76 @@ public interface TypeCheckerModule extends ParserModule {
 
       } else {
         for (AstStructField field : struct.fields) {
-          if (field.type.category != AstTypeCategory.Struct) continue;
+          AstStructField firstDeclaration = findFieldInStruct(struct, field.name);
+          if (firstDeclaration != field) reportError(typeChecker, field, "redeclaration of field \"%s\" in struct \"%s\".", field.name, struct.name);
+
+          // the instances check the fields of a generic struct.
+          if (field.type.category != AstTypeCategory.Struct || isGeneric(struct)) continue;
 
           AstStruct structMember = findStruct(typeChecker, field.type.structName);
           if (structMember == null) {
             reportError(typeChecker, field, "undefined struct type \"%s\" for struct member \"%s\" in struct \"%s\".", field.type.structName, field.name, struct.name);
           }
         }
+
+        if (!isGeneric(struct)) checkImmutableStructSize(typeChecker, struct);
       }
     }
 
+    // a generic function is only typechecked as its instances.
     for (AstFunction function : mainUnit.functions) {
+      if (isGeneric(function)) continue;
+      typeCheckFunction(typeChecker, mainUnit, function);
+    }
 
-      if (function.returnType.category == AstTypeCategory.Struct) {
-        AstStruct structMember = findStruct(typeChecker, function.returnType.structName);
-        if (structMember == null) reportError(typeChecker, function, "undefined struct type \"%s\" for function \"%s\"'s return-type.", function.returnType.structName, function.name);
-      }
+    // checking an instance may create further instances.
+    for (int i = 0; i < typeChecker.functionInstances.size(); i++) {
+      GenericFunctionInstance instance = typeChecker.functionInstances.get(i);
+      typeChecker.typeBindings = instance.typeBindings;
+      typeCheckFunction(typeChecker, mainUnit, instance.function);
+      typeChecker.typeBindings = null;
+    }
 
-      FunctionScope functionScope = createFunctionScope(function);
-      pushScope(typeChecker, functionScope);
+    // the later passes only see the instances.
+    mainUnit.structs.removeIf(struct -> isGeneric(struct));
+    for (GenericStructInstance instance : typeChecker.structInstances.values()) {
+      mainUnit.structs.add(instance.struct);
+    }
 
-      for (AstParameterDeclaration parameter : function.parameters) {
-        declareParameterInScope(typeChecker, parameter);
-      }
+    mainUnit.functions.removeIf(function -> isGeneric(function));
+    for (GenericFunctionInstance instance : typeChecker.functionInstances) {
+      mainUnit.functions.add(instance.function);
+    }
+  }
 
-      if (function.hasJavaLibraryBinding) {
-        if (!isJavaLibraryNameValid(function.javaLibraryName)) {
-          reportError(typeChecker, function, "invalid java library name. \"%s\".", function.javaLibraryName);
-        }
-        mainUnit.javaLibraryDependencyNames.add(function.javaLibraryName);
+  private void typeCheckFunction(TypeChecker typeChecker, AstCompilationUnit mainUnit, AstFunction function) {
+    if (function.returnType.category == AstTypeCategory.Struct) {
+      AstStruct structMember = findStruct(typeChecker, function.returnType.structName);
+      if (structMember == null) reportError(typeChecker, function, "undefined struct type \"%s\" for function \"%s\"'s return-type.", function.returnType.structName, function.name);
+    }
 
-      } else {
-        typeCheckStatements(typeChecker, function.bodyStatements);
+    FunctionScope functionScope = createFunctionScope(function);
+    pushScope(typeChecker, functionScope);
 
-        if (functionScope.function.returnType.category != AstTypeCategory.Void) {
-          if (!functionScope.hasReturnStatement) reportError(typeChecker, function, "function does not have exhaustive \"return\" statements.");
-        }
+    for (AstParameterDeclaration parameter : function.parameters) {
+      declareParameterInScope(typeChecker, parameter);
+    }
+
+    if (function.hasJavaLibraryBinding) {
+      if (!isJavaLibraryNameValid(function.javaLibraryName)) {
+        reportError(typeChecker, function, "invalid java library name. \"%s\".", function.javaLibraryName);
       }
+      mainUnit.javaLibraryDependencyNames.add(function.javaLibraryName);
 
-      popScope(typeChecker);
+    } else {
+      typeCheckStatements(typeChecker, function.bodyStatements);
+
+      if (functionScope.function.returnType.category != AstTypeCategory.Void) {
+        if (!functionScope.hasReturnStatement) reportError(typeChecker, function, "function does not have exhaustive \"return\" statements.");
+      }
     }
+
+    popScope(typeChecker);
   }
 
   private boolean isJavaLibraryNameValid(String javaLibraryName) {
@@ -122,6 +194,206 @@ public interface TypeCheckerModule extends ParserModule {
     return typeChecker.nameToStruct.get(structName);
   }
 
+  // replaces the bound type parameters by their types and the generic structs by their instances, e.g. "Array(T)" by "Array$i32".
+  private AstType resolveType(TypeChecker typeChecker, AstType type, Map<String, AstType> typeBindings, Object astNode) {
+    if (type.category != AstTypeCategory.Struct) return type;
+
+    if (type.typeArguments == null) {
+      AstType bound = (typeBindings != null) ? typeBindings.get(type.structName) : null;
+      if (bound != null) return astType(bound.category, bound.structName, type.isVarargs, bound.arrayDimension + type.arrayDimension);
+
+      AstStruct generic = typeChecker.nameToGenericStruct.get(type.structName);
+      if (generic != null) reportError(typeChecker, astNode, "generic struct \"%s\" expects %d type arguments.", generic.name, generic.typeParameters.size());
+
+      return type;
+    }
+
+    AstStruct generic = typeChecker.nameToGenericStruct.get(type.structName);
+    if (generic == null) reportError(typeChecker, astNode, "undefined generic struct \"%s\".", type.structName);
+    if (generic.typeParameters.size() != type.typeArguments.size()) {
+      reportError(typeChecker, astNode, "generic struct \"%s\" expects %d type arguments, but got %d.", generic.name, generic.typeParameters.size(), type.typeArguments.size());
+    }
+
+    List<AstType> typeArguments = new ArrayList<>();
+    for (AstType typeArgument : type.typeArguments) {
+      AstType resolved = resolveType(typeChecker, typeArgument, typeBindings, astNode);
+      if (resolved.isVarargs) reportError(typeChecker, astNode, "type argument %s of generic struct \"%s\" can't be varargs.", typeToString(resolved), generic.name);
+      if (resolved.category == AstTypeCategory.Struct && findStruct(typeChecker, resolved.structName) == null) {
+        reportError(typeChecker, astNode, "undefined struct type \"%s\" for a type argument of generic struct \"%s\".", resolved.structName, generic.name);
+      }
+      typeArguments.add(resolved);
+    }
+
+    AstStruct instance = instantiateStruct(typeChecker, generic, typeArguments, astNode);
+    return astType_struct(instance.name, type.isVarargs, type.arrayDimension);
+  }
+
+  private AstStruct instantiateStruct(TypeChecker typeChecker, AstStruct generic, List<AstType> typeArguments, Object astNode) {
+    String name = getGenericInstanceName(generic.name, typeArguments);
+    AstStruct existing = findStruct(typeChecker, name);
+    if (existing != null) return existing;
+
+    checkGenericInstanceCount(typeChecker, generic.name, astNode);
+
+    AstStruct result = new AstStruct();
+    result.location = generic.location;
+    result.name = name;
+    result.fields = new ArrayList<>();
+    result.immutable = generic.immutable;
+
+    // registered before the fields are resolved, so a field may refer to the instance itself, e.g. "next: Node(T)".
+    typeChecker.nameToStruct.put(name, result);
+
+    GenericStructInstance instance = new GenericStructInstance();
+    instance.struct = result;
+    instance.generic = generic;
+    instance.typeArguments = typeArguments;
+    typeChecker.structInstances.put(name, instance);
+
+    Map<String, AstType> typeBindings = new HashMap<>();
+    for (int i = 0; i < typeArguments.size(); i++) {
+      typeBindings.put(generic.typeParameters.get(i), typeArguments.get(i));
+    }
+
+    for (AstStructField field : generic.fields) {
+      AstStructField copy = new AstStructField();
+      copy.location = field.location;
+      copy.name = field.name;
+      copy.type = resolveType(typeChecker, field.type, typeBindings, field);
+      result.fields.add(copy);
+
+      if (copy.type.category == AstTypeCategory.Struct && findStruct(typeChecker, copy.type.structName) == null) {
+        reportError(typeChecker, field, "undefined struct type \"%s\" for struct member \"%s\" in struct \"%s\".", copy.type.structName, field.name, name);
+      }
+    }
+
+    result.layout = buildStructLayout(result);
+    checkImmutableStructSize(typeChecker, result);
+    return result;
+  }
+
+  // an immutable struct is only created by the constructor, which takes every field.
+  private void checkImmutableStructSize(TypeChecker typeChecker, AstStruct struct) {
+    if (!struct.immutable || struct.layout.constructorParameterSlots <= MAX_CONSTRUCTOR_PARAMETER_SLOTS) return;
+    reportError(typeChecker, struct, "immutable struct \"%s\" has too many fields, they take %d of at most %d constructor parameter slots.", struct.name, struct.layout.constructorParameterSlots, MAX_CONSTRUCTOR_PARAMETER_SLOTS);
+  }
+
+  // the parameters of an instance are always bound, so its signature differs from the ones of the other instances.
+  private AstFunction instantiateFunction(TypeChecker typeChecker, AstFunction generic, Map<String, AstType> typeBindings, List<AstParameterDeclaration> parameters, Object astNode) {
+    List<AstType> typeArguments = new ArrayList<>();
+    for (String typeParameter : generic.typeParameters) {
+      typeArguments.add(typeBindings.get(typeParameter));
+    }
+
+    Map<String, AstFunction> instances = typeChecker.genericToFunctionInstances.computeIfAbsent(generic, key -> new HashMap<>());
+    String key = getGenericInstanceName(generic.name, typeArguments);
+    AstFunction existing = instances.get(key);
+    if (existing != null) return existing;
+
+    checkGenericInstanceCount(typeChecker, generic.name, astNode);
+
+    AstFunction result = new AstFunction();
+    result.location = generic.location;
+    result.name = generic.name;
+    result.parameters = parameters;
+    result.returnType = resolveType(typeChecker, generic.returnType, typeBindings, generic);
+    result.bodyStatements = cloneAstStatements(generic.bodyStatements);
+    instances.put(key, result);
+
+    GenericFunctionInstance instance = new GenericFunctionInstance();
+    instance.function = result;
+    instance.typeBindings = typeBindings;
+    typeChecker.functionInstances.add(instance);
+
+    return result;
+  }
+
+  private void checkGenericInstanceCount(TypeChecker typeChecker, String genericName, Object astNode) {
+    int count = typeChecker.structInstances.size() + typeChecker.functionInstances.size();
+    if (count < CompilerModule.settings.maxGenericInstances) return;
+    reportError(typeChecker, astNode, "too many generic instances (%d) while instantiating \"%s\". Does it instantiate itself with ever new type arguments?", count, genericName);
+  }
+
+  // an ordinary overload, which takes the arguments, is preferred. Returns null if no generic function takes them.
+  private AstFunction findGenericFunctionInstance(TypeChecker typeChecker, AstFunctionCall functionCall, List<AstFunction> functions, List<AstType> argumentTypes) {
+    AstFunction match = null;
+    Map<String, AstType> matchTypeBindings = null;
+    List<AstParameterDeclaration> matchParameters = null;
+
+    for (AstFunction candidate : functions) {
+      if (!isGeneric(candidate)) continue;
+
+      Map<String, AstType> typeBindings = inferTypeBindings(typeChecker, candidate, argumentTypes);
+      if (typeBindings == null) continue;
+
+      List<AstParameterDeclaration> parameters = new ArrayList<>();
+      for (AstParameterDeclaration parameter : candidate.parameters) {
+        AstParameterDeclaration copy = new AstParameterDeclaration();
+        copy.location = parameter.location;
+        copy.name = parameter.name;
+        copy.type = resolveType(typeChecker, parameter.type, typeBindings, functionCall);
+        parameters.add(copy);
+      }
+
+      if (!areArgumentsFittingIntoParameters(parameters, argumentTypes)) continue;
+
+      if (match != null) reportError(typeChecker, functionCall, "multiple function are matching argument signature.");
+      match = candidate;
+      matchTypeBindings = typeBindings;
+      matchParameters = parameters;
+    }
+
+    if (match == null) return null;
+    return instantiateFunction(typeChecker, match, matchTypeBindings, matchParameters, functionCall);
+  }
+
+  // returns null if the argument types don't bind every type parameter, or bind one to different types.
+  private Map<String, AstType> inferTypeBindings(TypeChecker typeChecker, AstFunction generic, List<AstType> argumentTypes) {
+    if (generic.parameters.size() != argumentTypes.size()) return null;
+
+    Map<String, AstType> result = new HashMap<>();
+    for (int i = 0; i < argumentTypes.size(); i++) {
+      AstType parameterType = generic.parameters.get(i).type;
+      if (!bindTypeParameters(typeChecker, generic.typeParameters, parameterType, argumentTypes.get(i), result)) return null;
+    }
+
+    if (result.size() != generic.typeParameters.size()) return null;
+    return result;
+  }
+
+  // the parts of the parameter type without type parameters are checked, once the parameter type is resolved.
+  private boolean bindTypeParameters(TypeChecker typeChecker, List<String> typeParameters, AstType parameterType, AstType argumentType, Map<String, AstType> typeBindings) {
+    if (parameterType.category != AstTypeCategory.Struct) return true;
+
+    if (parameterType.typeArguments == null) {
+      if (!typeParameters.contains(parameterType.structName)) return true;
+
+      // nil says nothing about the type.
+      if (parameterType.isVarargs || argumentType.isVarargs) return false;
+      if (argumentType.category == AstTypeCategory.Object || argumentType.category == AstTypeCategory.Void) return false;
+
+      int arrayDimension = argumentType.arrayDimension - parameterType.arrayDimension;
+      if (arrayDimension < 0) return false;
+
+      AstType bound = astType(argumentType.category, argumentType.structName, false, arrayDimension);
+      AstType previous = typeBindings.putIfAbsent(parameterType.structName, bound);
+      return previous == null || areExactSameType(previous, bound);
+    }
+
+    // e.g. "Array($T)" takes the instance "Array$i32".
+    if (argumentType.category != AstTypeCategory.Struct) return false;
+    if (argumentType.arrayDimension != parameterType.arrayDimension || argumentType.isVarargs != parameterType.isVarargs) return false;
+
+    GenericStructInstance instance = typeChecker.structInstances.get(argumentType.structName);
+    if (instance == null || !instance.generic.name.equals(parameterType.structName)) return false;
+    if (instance.typeArguments.size() != parameterType.typeArguments.size()) return false;
+
+    for (int i = 0; i < instance.typeArguments.size(); i++) {
+      if (!bindTypeParameters(typeChecker, typeParameters, parameterType.typeArguments.get(i), instance.typeArguments.get(i), typeBindings)) return false;
+    }
+    return true;
+  }
+
   private void declareFunction(TypeChecker typeChecker, AstFunction function) {
     if (!typeChecker.nameToFunctions.containsKey(function.name)) {
       List<AstFunction> functionOverloads = new ArrayList<>();
@@ -194,7 +466,7 @@ public interface TypeCheckerModule extends ParserModule {
     return true;
   }
 
-  private boolean areExactSameType(AstType t1, AstType t2) {
+  default boolean areExactSameType(AstType t1, AstType t2) {
     if (t1.arrayDimension != t2.arrayDimension) return false;
     if (t1.isVarargs != t2.isVarargs) return false;
     if (t1.category == AstTypeCategory.Struct && t2.category == AstTypeCategory.Struct) {
@@ -284,7 +556,7 @@ public interface TypeCheckerModule extends ParserModule {
     return null;
   }
 
-  private AstLiteral getDefaultValueForType(AstType type) {
+  default AstLiteral getDefaultValueForType(AstType type) {
     boolean varargs = false;
     int arrayDimension = 0;
     Location location = null;
@@ -304,7 +576,7 @@ public interface TypeCheckerModule extends ParserModule {
     throw new CompilerException("type %s does not have a default type!", typeToString(type));
   }
 
-  private <T> boolean isAny(T value, T first, T... rest) {
+  default <T> boolean isAny(T value, T first, T... rest) {
     if (value.equals(first)) return true;
 
     for (T other : rest) {
@@ -314,10 +586,15 @@ public interface TypeCheckerModule extends ParserModule {
   }
 
   private AstStructField findFieldInStruct(AstStruct struct, String fieldName) {
-    for (AstStructField field : struct.fields) {
-      if (field.name.equals(fieldName)) return field;
-    }
-    return null;
+    int ordinal = findFieldOrdinalInStruct(struct, fieldName);
+    if (ordinal == -1) return null;
+    return struct.fields.get(ordinal);
+  }
+
+  private int findFieldOrdinalInStruct(AstStruct struct, String fieldName) {
+    Integer ordinal = struct.layout.fieldNameToOrdinal.get(fieldName);
+    if (ordinal == null) return -1;
+    return ordinal;
   }
 
   private AstType inferFunctionCallType(TypeChecker typeChecker, AstFunctionCall functionCall) {
@@ -335,6 +612,7 @@ public interface TypeCheckerModule extends ParserModule {
     AstFunction function = null;
     boolean autoCastMatch = false;
     for (AstFunction candidate : functions) {
+      if (isGeneric(candidate)) continue;
 
       boolean identical = areArgumentsMatchingParameters(candidate.parameters, argumentTypes);
       if (identical) {
@@ -350,6 +628,8 @@ public interface TypeCheckerModule extends ParserModule {
       }
     }
 
+    if (function == null) function = findGenericFunctionInstance(typeChecker, functionCall, functions, argumentTypes);
+
     if (function == null) {
       if (functions.size() != 0) {
         reportError(typeChecker, functionCall, "function \"%s\" parameter types do not match argument types.", functionCall.name);
@@ -357,15 +637,53 @@ public interface TypeCheckerModule extends ParserModule {
       reportError(typeChecker, functionCall, "trying to call an undeclared function: \"%s\".", functionCall.name);
     }
 
+    functionCall.function = function;
+
+    if (isFormatFunction(function)) typeCheckFormatArguments(typeChecker, functionCall, argumentTypes);
+
     return function.returnType;
   }
 
-  private AstType autoPromoteType(AstType lhsType) {
+  // java would only reject the arguments of a literal format, when the program runs.
+  private void typeCheckFormatArguments(TypeChecker typeChecker, AstFunctionCall functionCall, List<AstType> argumentTypes) {
+    int formatIndex = getFormatParameterIndex(functionCall.function);
+    if (functionCall.arguments.size() <= formatIndex) return;
+
+    AstExpression format = functionCall.arguments.get(formatIndex);
+    if (!(format instanceof AstLiteral) || ((AstLiteral) format).type.category != AstTypeCategory.String) return;
+
+    List<FormatPart> parts = parseFormat(((AstLiteral) format).value);
+    if (parts == null) return;
+
+    // an array of any, which is passed on as the arguments, is only known at runtime.
+    if (argumentTypes.size() == formatIndex + 2) {
+      AstType argumentType = argumentTypes.get(formatIndex + 1);
+      if ((argumentType.arrayDimension > 0 || argumentType.isVarargs) && argumentType.category == AstTypeCategory.Any) return;
+    }
+
+    int argumentIndex = formatIndex + 1;
+    for (FormatPart part : parts) {
+      if (!isFormatArgumentSpecifier(part)) continue;
+
+      if (argumentIndex == argumentTypes.size()) {
+        reportError(typeChecker, functionCall, "format specifier \"%s\" has no argument.", part.specifier);
+      }
+
+      AstType argumentType = argumentTypes.get(argumentIndex);
+      if (!doesFormatArgumentFit(part.conversion, argumentType)) {
+        reportError(typeChecker, functionCall.arguments.get(argumentIndex), "format specifier \"%s\" doesn't fit an argument of type %s.", part.specifier, typeToString(argumentType));
+      }
+
+      argumentIndex += 1;
+    }
+  }
+
+  default AstType autoPromoteType(AstType lhsType) {
     if (lhsType.category == AstTypeCategory.Char) return astType_primitive(AstTypeCategory.I32, false, 0);
     return getBiggestNumberTypeBetween(lhsType, astType_primitive(AstTypeCategory.I32, false, 0));
   }
 
-  private AstType autoPromoteTypeAfterBinaryOperation(AstType lhsType, AstType rhsType) {
+  default AstType autoPromoteTypeAfterBinaryOperation(AstType lhsType, AstType rhsType) {
     AstType t1 = autoPromoteType(lhsType);
     AstType t2 = autoPromoteType(rhsType);
     return getBiggestNumberTypeBetween(t1, t2);
@@ -415,8 +733,11 @@ public interface TypeCheckerModule extends ParserModule {
       AstStruct struct = findStruct(typeChecker, parent.type.structName);
       assertIt(struct != null);
 
-      AstStructField field = findFieldInStruct(struct, variable.name);
-      if (field == null) reportError(typeChecker, variable, "struct %s doesn't contain field \"%s\".", struct.name, variable.name);
+      int ordinal = findFieldOrdinalInStruct(struct, variable.name);
+      if (ordinal == -1) reportError(typeChecker, variable, "struct %s doesn't contain field \"%s\".", struct.name, variable.name);
+
+      AstStructField field = struct.fields.get(ordinal);
+      variable.fieldOrdinal = ordinal;
 
       AstType type = inferArrayVariableUnpackedType(typeChecker, variable, field.type);
       variable.type = type;
@@ -471,6 +792,7 @@ public interface TypeCheckerModule extends ParserModule {
 
     if (expression instanceof AstTypeCast) {
       AstTypeCast typecast = (AstTypeCast) expression;
+      typecast.type = resolveType(typeChecker, typecast.type, typeChecker.typeBindings, typecast.expression);
       AstType expressionType = inferExpressionType(typeChecker, typecast.expression);
 
       if (!areTypesCompatible(typecast.type, expressionType)) {
@@ -897,26 +1219,32 @@ public interface TypeCheckerModule extends ParserModule {
     return false;
   }
 
-  private boolean isNumberType(AstType type) {
+  default boolean isNumberType(AstType type) {
     return type.category == AstTypeCategory.I8 || type.category == AstTypeCategory.I16 || type.category == AstTypeCategory.I32 || type.category == AstTypeCategory.I64 || type.category == AstTypeCategory.F32 || type.category == AstTypeCategory.F64;
   }
 
-  private boolean isNumberOrCharType(AstType type) {
+  default boolean isNumberOrCharType(AstType type) {
     return isNumberType(type) || type.category == AstTypeCategory.Char;
   }
 
+  default boolean isBoolType(AstType type) {
+    if (type.isVarargs) return false;
+    if (type.arrayDimension != 0) return false;
+    return type.category == AstTypeCategory.Bool;
+  }
+
   private boolean areTypesCompatible(AstType t1, AstType t2) {
     return doesTypeFit(t1, t2) || doesTypeFit(t2, t1);
   }
 
-  private AstType getBiggestNumberTypeBetween(AstType t1, AstType t2) {
+  default AstType getBiggestNumberTypeBetween(AstType t1, AstType t2) {
     int t1Value = getNumberTypeHierarchicValue(t1.category);
     int t2Value = getNumberTypeHierarchicValue(t2.category);
     if (t1Value > t2Value) return astType_primitive(t1.category, false, 0);
     return astType_primitive(t2.category, false, 0);
   }
 
-  private String typeToString(AstType type) {
+  default String typeToString(AstType type) {
     StringBuilder builder = new StringBuilder();
 
     if (type.isVarargs) {
@@ -1058,7 +1386,9 @@ public interface TypeCheckerModule extends ParserModule {
     throw new CompilerException("invalid type: %s", typeToString(type));
   }
 
-  private AstLiteral evaluateConstantExpression(AstExpression expression) {
+  // Evaluates an expression consisting only of literals with the semantics of the emitted java code.
+  // Returns null if the expression is not constant or can't be represented as a literal (e.g. division by zero).
+  default AstLiteral evaluateConstantExpression(AstExpression expression) {
 
     if (expression instanceof AstParenthesis) {
       AstParenthesis parenthesis = (AstParenthesis) expression;
@@ -1068,202 +1398,204 @@ public interface TypeCheckerModule extends ParserModule {
     if (expression instanceof AstUnaryOperator) {
       AstUnaryOperator unaryOperator = (AstUnaryOperator) expression;
 
-      AstLiteral result = evaluateConstantExpression(unaryOperator.body);
-
-      boolean integerType = isIntegerType(result.type);
-      boolean floatingPointType = isFloatingPointType(result.type);
-
-      assertIt(integerType || floatingPointType);
-
-      switch (unaryOperator.operator) {
-        case "+": {
-          break;
-        }
-
-        case "-": {
-          if (integerType) result.integerValue = -result.integerValue;
-          result.floatingPointValue = -result.floatingPointValue;
-          break;
-        }
-
-        case "~": {
-          assertIt(integerType);
-          result.integerValue = ~result.integerValue;
-          break;
-        }
-
-        default: {
-          throw new CompilerException("invalid unary operator: %s.", unaryOperator.operator);
-        }
-      }
+      AstLiteral body = evaluateConstantExpression(unaryOperator.body);
+      if (body == null) return null;
 
-      return result;
+      return evaluateUnaryOperator(unaryOperator.operator, body);
     }
 
     if (expression instanceof AstBinaryOperator) {
       AstBinaryOperator binaryOperator = (AstBinaryOperator) expression;
 
       AstLiteral lhs = evaluateConstantExpression(binaryOperator.lhs);
-
-      boolean lhsInteger = isIntegerType(lhs.type);
-      boolean lhsFloatingPointType = isFloatingPointType(lhs.type);
-      assertIt(lhsInteger || lhsFloatingPointType);
+      if (lhs == null) return null;
 
       AstLiteral rhs = evaluateConstantExpression(binaryOperator.rhs);
+      if (rhs == null) return null;
 
-      boolean rhsInteger = isIntegerType(rhs.type);
-      boolean rhsFloatingPointType = isFloatingPointType(rhs.type);
-      assertIt(rhsInteger || rhsFloatingPointType);
-
-      AstLiteral result = new AstLiteral();
-      result.type = autoPromoteTypeAfterBinaryOperation(lhs.type, rhs.type);
+      return evaluateBinaryOperator(binaryOperator.operator, lhs, rhs);
+    }
 
-      switch (binaryOperator.operator) {
-        case "-": {
-          if (lhsFloatingPointType && rhsFloatingPointType) result.floatingPointValue = lhs.floatingPointValue - rhs.floatingPointValue;
-          if (lhsFloatingPointType && rhsInteger) result.floatingPointValue = lhs.floatingPointValue - rhs.integerValue;
-          if (lhsInteger && rhsFloatingPointType) result.floatingPointValue = lhs.integerValue - rhs.floatingPointValue;
-          if (lhsInteger && rhsInteger) result.integerValue = lhs.integerValue - rhs.integerValue;
-          break;
-        }
+    if (expression instanceof AstLiteral) {
+      AstLiteral literal = (AstLiteral) expression;
+      if (!isConstantLiteral(literal)) return null;
+      return literal;
+    }
 
-        case "+": {
-          if (lhsFloatingPointType && rhsFloatingPointType) result.floatingPointValue = lhs.floatingPointValue + rhs.floatingPointValue;
-          if (lhsFloatingPointType && rhsInteger) result.floatingPointValue = lhs.floatingPointValue + rhs.integerValue;
-          if (lhsInteger && rhsFloatingPointType) result.floatingPointValue = lhs.integerValue + rhs.floatingPointValue;
-          if (lhsInteger && rhsInteger) result.integerValue = lhs.integerValue + rhs.integerValue;
-          break;
-        }
+    if (expression instanceof AstTypeCast) {
+      AstTypeCast typecast = (AstTypeCast) expression;
 
-        case "*": {
-          if (lhsFloatingPointType && rhsFloatingPointType) result.floatingPointValue = lhs.floatingPointValue * rhs.floatingPointValue;
-          if (lhsFloatingPointType && rhsInteger) result.floatingPointValue = lhs.floatingPointValue * rhs.integerValue;
-          if (lhsInteger && rhsFloatingPointType) result.floatingPointValue = lhs.integerValue * rhs.floatingPointValue;
-          if (lhsInteger && rhsInteger) result.integerValue = lhs.integerValue * rhs.integerValue;
-          break;
-        }
+      AstLiteral casted = evaluateConstantExpression(typecast.expression);
+      if (casted == null) return null;
 
-        case "/": {
-          if (lhsFloatingPointType && rhsFloatingPointType) result.floatingPointValue = lhs.floatingPointValue / rhs.floatingPointValue;
-          if (lhsFloatingPointType && rhsInteger) result.floatingPointValue = lhs.floatingPointValue / rhs.integerValue;
-          if (lhsInteger && rhsFloatingPointType) result.floatingPointValue = lhs.integerValue / rhs.floatingPointValue;
-          if (lhsInteger && rhsInteger) result.integerValue = lhs.integerValue / rhs.integerValue;
-          break;
-        }
+      return evaluateTypeCast(typecast.type, casted);
+    }
 
-        case "%": {
-          if (lhsFloatingPointType && rhsFloatingPointType) result.floatingPointValue = lhs.floatingPointValue % rhs.floatingPointValue;
-          if (lhsFloatingPointType && rhsInteger) result.floatingPointValue = lhs.floatingPointValue % rhs.integerValue;
-          if (lhsInteger && rhsFloatingPointType) result.floatingPointValue = lhs.integerValue % rhs.floatingPointValue;
-          if (lhsInteger && rhsInteger) result.integerValue = lhs.integerValue % rhs.integerValue;
-          break;
-        }
+    // variables, function calls, ...
+    return null;
+  }
 
-        case "|": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue | rhs.integerValue;
-          break;
-        }
+  default boolean isConstantLiteral(AstLiteral literal) {
+    if (isNumberOrCharType(literal.type)) return true;
+    if (isBoolType(literal.type)) return true;
+    return false;
+  }
 
-        case "&": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue & rhs.integerValue;
-          break;
-        }
+  default AstLiteral evaluateUnaryOperator(String operator, AstLiteral body) {
+    if (isBoolType(body.type)) {
+      if (!operator.equals("!")) return null;
+      return astLiteral_bool(!getBoolValue(body));
+    }
 
-        case "^": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue ^ rhs.integerValue;
-          break;
-        }
+    if (!isNumberOrCharType(body.type)) return null;
 
-        case "<<": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue << rhs.integerValue;
-          break;
-        }
+    // java promotes i8, i16 and char operands to i32.
+    AstType type = autoPromoteType(body.type);
 
-        case ">>": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue >> rhs.integerValue;
-          break;
-        }
+    if (isFloatingPointType(type)) {
+      if (operator.equals("+")) return astLiteral_floatingPoint(type, getFloatingPointValue(body));
+      if (operator.equals("-")) return astLiteral_floatingPoint(type, -getFloatingPointValue(body));
+      return null;
+    }
 
-        case ">>>": {
-          assertIt(lhsInteger && rhsInteger);
-          result.integerValue = lhs.integerValue >>> rhs.integerValue;
-          break;
-        }
+    long value = getIntegerValue(body);
 
-        default: {
-          throw new CompilerException("invalid binary operator: %s", binaryOperator.operator);
-        }
+    if (operator.equals("+")) return astLiteral_integer(type, value);
+    if (operator.equals("-")) return astLiteral_integer(type, -value);
+    if (operator.equals("~")) return astLiteral_integer(type, ~value);
+    return null;
+  }
 
-      }
+  default AstLiteral evaluateBinaryOperator(String operator, AstLiteral lhs, AstLiteral rhs) {
+    if (isBoolType(lhs.type) && isBoolType(rhs.type)) {
+      boolean a = getBoolValue(lhs);
+      boolean b = getBoolValue(rhs);
 
-      // not currently used, but to keep AstLiteral consistent, the field "value" is also set.
-      if (isIntegerType(result.type)) {
-        result.value = String.format("%d", result.integerValue);
-      } else {
-        result.value = String.format("%f", result.floatingPointValue);
+      switch (operator) {
+        case "&&": return astLiteral_bool(a && b);
+        case "||": return astLiteral_bool(a || b);
+        case "^": return astLiteral_bool(a ^ b);
+        case "==": return astLiteral_bool(a == b);
+        case "!=": return astLiteral_bool(a != b);
+        default: return null;
       }
-
-      return result;
     }
 
-    if (expression instanceof AstLiteral) {
-      AstLiteral literal = (AstLiteral) expression;
-      return literal;
-    }
+    if (!isNumberOrCharType(lhs.type) || !isNumberOrCharType(rhs.type)) return null;
 
-    if (expression instanceof AstTypeCast) {
-      AstTypeCast typecast = (AstTypeCast) expression;
+    AstType type = autoPromoteTypeAfterBinaryOperation(lhs.type, rhs.type);
 
-      AstLiteral casted = evaluateConstantExpression(typecast.expression);
-      if (casted == null) return null;
+    if (isAny(operator, "<<", ">>", ">>>")) {
+      if (!isIntegerType(lhs.type) || !isIntegerType(rhs.type)) return null;
 
-      AstLiteral result = new AstLiteral();
-      result.type = typecast.type;
-      result.value = casted.value;
+      // the result of a java shift only depends on the promoted type of the lhs.
+      AstType shiftType = autoPromoteType(lhs.type);
+      long value = evaluateShift(operator, shiftType, getIntegerValue(lhs), getIntegerValue(rhs));
+      return astLiteral_integer(shiftType, value);
+    }
 
-      boolean castInteger = isIntegerType(typecast.type);
-      boolean castFloatingPoint = isFloatingPointType(typecast.type);
+    if (type.category == AstTypeCategory.F64) {
+      double a = getFloatingPointValue(lhs);
+      double b = getFloatingPointValue(rhs);
 
-      boolean bodyInteger = isIntegerType(casted.type);
-      boolean bodyFloatingPoint = isFloatingPointType(casted.type);
+      switch (operator) {
+        case "+": return astLiteral_floatingPoint(type, a + b);
+        case "-": return astLiteral_floatingPoint(type, a - b);
+        case "*": return astLiteral_floatingPoint(type, a * b);
+        case "/": return astLiteral_floatingPoint(type, a / b);
+        case "%": return astLiteral_floatingPoint(type, a % b);
+        case "<": return astLiteral_bool(a < b);
+        case ">": return astLiteral_bool(a > b);
+        case "<=": return astLiteral_bool(a <= b);
+        case ">=": return astLiteral_bool(a >= b);
+        case "==": return astLiteral_bool(a == b);
+        case "!=": return astLiteral_bool(a != b);
+        default: return null;
+      }
+    }
 
-      assertIt(castInteger || castFloatingPoint);
-      assertIt(bodyInteger || bodyFloatingPoint);
+    if (type.category == AstTypeCategory.F32) {
+      float a = (float) getFloatingPointValue(lhs);
+      float b = (float) getFloatingPointValue(rhs);
+
+      switch (operator) {
+        case "+": return astLiteral_floatingPoint(type, a + b);
+        case "-": return astLiteral_floatingPoint(type, a - b);
+        case "*": return astLiteral_floatingPoint(type, a * b);
+        case "/": return astLiteral_floatingPoint(type, a / b);
+        case "%": return astLiteral_floatingPoint(type, a % b);
+        case "<": return astLiteral_bool(a < b);
+        case ">": return astLiteral_bool(a > b);
+        case "<=": return astLiteral_bool(a <= b);
+        case ">=": return astLiteral_bool(a >= b);
+        case "==": return astLiteral_bool(a == b);
+        case "!=": return astLiteral_bool(a != b);
+        default: return null;
+      }
+    }
 
-      if (castInteger && bodyInteger) {
-        result.integerValue = evaluateIntegerToIntegerCast(typecast.type, casted.integerValue);
+    long a = getIntegerValue(lhs);
+    long b = getIntegerValue(rhs);
 
-      } else if (castInteger && bodyFloatingPoint) {
-        result.integerValue = evaluateFloatingPointToIntegerCast(typecast.type, casted.integerValue);
+    switch (operator) {
+      case "+": return astLiteral_integer(type, a + b);
+      case "-": return astLiteral_integer(type, a - b);
+      case "*": return astLiteral_integer(type, a * b);
+      case "/": {
+        if (b == 0) return null;  // keep the ArithmeticException for runtime.
+        if (type.category == AstTypeCategory.I32) return astLiteral_integer(type, (int) a / (int) b);
+        return astLiteral_integer(type, a / b);
+      }
+      case "%": {
+        if (b == 0) return null;
+        if (type.category == AstTypeCategory.I32) return astLiteral_integer(type, (int) a % (int) b);
+        return astLiteral_integer(type, a % b);
+      }
+      case "|": return astLiteral_integer(type, a | b);
+      case "&": return astLiteral_integer(type, a & b);
+      case "^": return astLiteral_integer(type, a ^ b);
+      case "<": return astLiteral_bool(a < b);
+      case ">": return astLiteral_bool(a > b);
+      case "<=": return astLiteral_bool(a <= b);
+      case ">=": return astLiteral_bool(a >= b);
+      case "==": return astLiteral_bool(a == b);
+      case "!=": return astLiteral_bool(a != b);
+      default: return null;
+    }
+  }
 
-      } else if (castFloatingPoint && bodyInteger) {
-        result.floatingPointValue = evaluateIntegerToFloatingPointCast(typecast.type, casted.integerValue);
+  private long evaluateShift(String operator, AstType type, long value, long distance) {
+    if (type.category == AstTypeCategory.I64) {
+      if (operator.equals("<<")) return value << distance;
+      if (operator.equals(">>")) return value >> distance;
+      return value >>> distance;
+    }
 
-      } else if (castFloatingPoint && bodyFloatingPoint) {
-        result.floatingPointValue = evaluateFloatingPointToFloatingPointCast(typecast.type, casted.floatingPointValue);
+    int intValue = (int) value;
+    if (operator.equals("<<")) return intValue << distance;
+    if (operator.equals(">>")) return intValue >> distance;
+    return intValue >>> distance;
+  }
 
-      } else {
-        throw new CompilerException("broken? non-exhaustive branch.");
-      }
+  default AstLiteral evaluateTypeCast(AstType type, AstLiteral casted) {
+    if (type.isVarargs || type.arrayDimension > 0) return null;
 
-      return result;
+    if (isBoolType(type)) {
+      if (!isBoolType(casted.type)) return null;
+      return casted;
     }
 
-    throw new CompilerException("unexpected expression type: %s", expression.getClass().getSimpleName());
-  }
+    if (!isNumberOrCharType(type) || !isNumberOrCharType(casted.type)) return null;
 
-  private long evaluateIntegerToIntegerCast(AstType type, long value) {
-    if (type.category == AstTypeCategory.Char) return (char) value;
-    if (type.category == AstTypeCategory.I8) return (byte) value;
-    if (type.category == AstTypeCategory.I16) return (short) value;
-    if (type.category == AstTypeCategory.I32) return (int) value;
-    if (type.category == AstTypeCategory.I64) return (long) value;
-    throw new CompilerException("expected integer type, but got %s", type.category);
+    if (isFloatingPointType(casted.type)) {
+      double value = getFloatingPointValue(casted);
+      if (isFloatingPointType(type)) return astLiteral_floatingPoint(type, value);
+      return astLiteral_integer(type, evaluateFloatingPointToIntegerCast(type, value));
+    }
+
+    long value = getIntegerValue(casted);
+    if (isFloatingPointType(type)) return astLiteral_floatingPoint(type, evaluateIntegerToFloatingPointCast(type, value));
+    return astLiteral_integer(type, value);
   }
 
   private double evaluateIntegerToFloatingPointCast(AstType type, long value) {
@@ -1273,27 +1605,72 @@ public interface TypeCheckerModule extends ParserModule {
   }
 
   private long evaluateFloatingPointToIntegerCast(AstType type, double value) {
+    if (type.category == AstTypeCategory.I64) return (long) value;
+    return evaluateIntegerToIntegerCast(type, (int) value);  // java narrows float to int first, then to the smaller type.
+  }
+
+  private long evaluateIntegerToIntegerCast(AstType type, long value) {
     if (type.category == AstTypeCategory.Char) return (char) value;
     if (type.category == AstTypeCategory.I8) return (byte) value;
     if (type.category == AstTypeCategory.I16) return (short) value;
     if (type.category == AstTypeCategory.I32) return (int) value;
     if (type.category == AstTypeCategory.I64) return (long) value;
-    throw new CompilerException("expected numeric type, but got %s", type.category);
+    throw new CompilerException("expected integer type, but got %s", type.category);
   }
 
-  private double evaluateFloatingPointToFloatingPointCast(AstType type, double value) {
-    if (type.category == AstTypeCategory.F32) return (float) value;
-    if (type.category == AstTypeCategory.F64) return (double) value;
-    throw new CompilerException("expected floating point type, but got %s", type.category);
+  default long getIntegerValue(AstLiteral literal) {
+    if (isFloatingPointType(literal.type)) return (long) literal.floatingPointValue;
+    return literal.integerValue;
+  }
+
+  default double getFloatingPointValue(AstLiteral literal) {
+    if (isFloatingPointType(literal.type)) return literal.floatingPointValue;
+    return literal.integerValue;
+  }
+
+  default boolean getBoolValue(AstLiteral literal) {
+    return literal.value.equals("true");
+  }
+
+  // integers are wrapped to the range of the type, e.g. 2147483647 + 1 becomes -2147483648 for i32.
+  default AstLiteral astLiteral_integer(AstType type, long value) {
+    long wrapped = evaluateIntegerToIntegerCast(type, value);
+
+    AstLiteral result = astLiteral(Long.toString(wrapped), astType_primitive(type.category, false, 0), null);
+    result.integerValue = wrapped;
+    if (type.category == AstTypeCategory.I64) result.value = wrapped + "l";
+    return result;
+  }
+
+  // returns null for NaN and infinities, since they don't have a literal.
+  default AstLiteral astLiteral_floatingPoint(AstType type, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) return null;
+
+    if (type.category == AstTypeCategory.F32) {
+      float f32 = (float) value;
+      if (Float.isInfinite(f32)) return null;
+
+      AstLiteral result = astLiteral(Float.toString(f32) + "f", astType_primitive(AstTypeCategory.F32, false, 0), null);
+      result.floatingPointValue = f32;
+      return result;
+    }
+
+    AstLiteral result = astLiteral(Double.toString(value), astType_primitive(AstTypeCategory.F64, false, 0), null);
+    result.floatingPointValue = value;
+    return result;
+  }
+
+  default AstLiteral astLiteral_bool(boolean value) {
+    return astLiteral(value ? "true" : "false", astType_primitive(AstTypeCategory.Bool, false, 0), null);
   }
 
-  private boolean isIntegerType(AstType type) {
+  default boolean isIntegerType(AstType type) {
     if (type.isVarargs) return false;
     if (type.arrayDimension != 0) return false;
     return type.category == AstTypeCategory.Char || type.category == AstTypeCategory.I8 || type.category == AstTypeCategory.I16 || type.category == AstTypeCategory.I32 || type.category == AstTypeCategory.I64;
   }
 
-  private boolean isFloatingPointType(AstType type) {
+  default boolean isFloatingPointType(AstType type) {
     if (type.isVarargs) return false;
     if (type.arrayDimension != 0) return false;
     return type.category == AstTypeCategory.F32 || type.category == AstTypeCategory.F64;
@@ -1311,6 +1688,9 @@ public interface TypeCheckerModule extends ParserModule {
       boolean lastStatement = (i == statementCount - 1);
       AstStatement statement = statements.get(i);
       typeCheckStatement(typeChecker, statement, lastStatement);
+
+      // after the declaration, whose type is resolved by then.
+      typeChecker.structInitializers.addAll(getStructInitializers(statements, i));
     }
   }
 
@@ -1321,6 +1701,7 @@ public interface TypeCheckerModule extends ParserModule {
 
     } else if (statement instanceof AstDeclaration) {
       AstDeclaration decl = (AstDeclaration) statement;
+      decl.type = resolveType(typeChecker, decl.type, typeChecker.typeBindings, decl);
       declareLocalVariableInScope(typeChecker, decl);
 
       // default values
@@ -1337,6 +1718,11 @@ public interface TypeCheckerModule extends ParserModule {
       AstVariable lhs = inferVariable(typeChecker, defn.lhs);
       if (lhs.readOnly) reportError(typeChecker, lhs, "lhs is read-only.");
 
+      AstStruct immutable = findImmutableStructOfField(typeChecker, defn.lhs);
+      if (immutable != null && !typeChecker.structInitializers.contains(defn)) {
+        reportError(typeChecker, lhs, "field \"%s\" of immutable struct \"%s\" can only be assigned right after the struct is created.", lhs.name, immutable.name);
+      }
+
       AstAssignment assignment = inferAssignment(typeChecker, lhs.type, defn.rhs);
       defn.rhs = assignment;
 
@@ -1402,7 +1788,23 @@ public interface TypeCheckerModule extends ParserModule {
     }
   }
 
-  private int getNumberTypeHierarchicValue(AstTypeCategory category) {
+  // the struct, if the variable is a field of an immutable struct. An element of an array in a field isn't part of the struct.
+  private AstStruct findImmutableStructOfField(TypeChecker typeChecker, AstVariable variable) {
+    AstVariable parent = null;
+    AstVariable at = variable;
+    while (at.child != null) {
+      parent = at;
+      at = at.child;
+    }
+
+    if (parent == null || !at.arrayExpressions.isEmpty()) return null;
+    if (parent.type.category != AstTypeCategory.Struct || parent.type.arrayDimension > 0) return null;
+
+    AstStruct struct = findStruct(typeChecker, parent.type.structName);
+    return (struct != null && struct.immutable) ? struct : null;
+  }
+
+  default int getNumberTypeHierarchicValue(AstTypeCategory category) {
     if (category == AstTypeCategory.I8) return 1;
     if (category == AstTypeCategory.I16) return 2;
     if (category == AstTypeCategory.I32) return 3;